@@ -0,0 +1,92 @@
+/*
+ * BinaryDataFormat.java	    1.0.0	    09/2009
+ * This file contains the binary snapshot format constants of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+/**
+ * BinaryDataFormat holds the layout of the application binary snapshot format
+ * shared by the {@link BinaryDataWriter} and the {@link BinaryDataReader}. All
+ * values are written big-endian as by a {@link java.io.DataOutputStream}. A
+ * snapshot is made of, in that order:
+ * <ul>
+ * <li>a fixed size header: the magic number, the format version, the number of
+ * strings, the size in bytes of the string table, the number of accounts,
+ * entries and transactions, the string index of the general ledger root's
+ * name and the account indexes of the assets, liabilities, equity, revenues
+ * and expenses top level accounts;</li>
+ * <li>the string table: every distinct string stored once as its length in
+ * bytes followed by its UTF-8 bytes;</li>
+ * <li>the account table: one fixed width record per account in the pre-order
+ * of the general ledger tree so a parent always comes before its children;</li>
+ * <li>the entry table: one fixed width record per TransactionEntry, the entries
+ * of an account being contiguous and in the account's order;</li>
+ * <li>the transaction table: one fixed width record per Transaction in the
+ * journal's order.</li>
+ * </ul>
+ * Records refer to strings, accounts, entries and transactions by their int
+ * index in their table. Since every record of a table has the same width,
+ * the offset of any record is known from the header alone.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    BinaryDataWriter
+ * @see		    BinaryDataReader
+ * @since	    1.0.0
+ */
+public final class BinaryDataFormat {
+
+    /** the first 4 bytes of a snapshot: "JACB" */
+    public static final int MAGIC = 0x4A414342;
+
+    /** the current version of the format */
+    public static final int VERSION = 1;
+
+    /** index of a missing parent account */
+    public static final int NO_PARENT = -1;
+
+    /** size in bytes of the header */
+    public static final int HEADER_SIZE = 13 * 4;
+
+    /**
+     * size in bytes of an account record: int parent account, int number,
+     * int name string, int description string, double balance, byte type
+     * ordinal, byte transactions enabled flag, int first entry, int number of
+     * entries
+     */
+    public static final int ACCOUNT_RECORD_SIZE = 4 + 4 + 4 + 4 + 8 + 1 + 1 + 4 + 4;
+
+    /**
+     * size in bytes of an entry record: int transfer account, int transaction,
+     * double account balance, byte type ordinal
+     */
+    public static final int ENTRY_RECORD_SIZE = 4 + 4 + 8 + 1;
+
+    /**
+     * size in bytes of a transaction record: long date in milliseconds, int
+     * refNo string, int memo string, double amount, int debit entry, int credit
+     * entry
+     */
+    public static final int TRANSACTION_RECORD_SIZE = 8 + 4 + 4 + 8 + 4 + 4;
+
+
+    private BinaryDataFormat() {
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * BinaryDataReader.java	    1.0.0	    09/2009
+ * This file contains the binary snapshot reader class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * BinaryDataReader is the class reading a snapshot in the application binary
+ * format described by {@link BinaryDataFormat} back into a Data object. A
+ * {@link PersistenceHandler} delegates the unpersisting of a snapshot file to
+ * a new BinaryDataReader.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    BinaryDataFormat
+ * @see		    BinaryDataWriter
+ * @see		    PersistenceHandler
+ * @since	    1.0.0
+ */
+public class BinaryDataReader {
+
+    /**
+     * The tables are read in the order they are stored. The TransactionEntries
+     * are created first with no transferAccount; the Transactions, which only
+     * need their entries, come next. The Accounts are then created with their
+     * entries lists, which lets us set the transferAccount of every entry from
+     * the index we kept, and attached to their parent's AccountTreeNode. Every
+     * index read is checked against the size of its table.
+     */
+
+    /** size in bytes of the input buffer */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DataInputStream in;		// the buffered input the snapshot is read from
+
+    private String[] strings;		// the string table
+
+
+    /**
+     * Sole Constructor.
+     * @since		    1.0.0
+     */
+    public BinaryDataReader() {
+    }
+
+
+    /**
+     * Reads the binary snapshot contained in an InputStream into a Data object.
+     * The stream is read once from start to end.
+     *
+     * @param pStream				the InputStream containing a binary
+     *						snapshot of an application Data
+     * @return					the Data object read from the
+     *						InputStream
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if the stream does not hold a
+     *						valid snapshot of a supported
+     *						version
+     * @see					jaccounting.models.Data
+     * @since					1.0.0
+     */
+    public Data read(InputStream pStream) throws IOException, UnPersistenceFailureException {
+	try {
+	    in = new DataInputStream(new BufferedInputStream(pStream, BUFFER_SIZE));
+	    return readData();
+	}
+	catch (EOFException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (GenericException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	finally {
+	    in = null;
+	    strings = null;
+	}
+    }
+
+    private Data readData() throws IOException, GenericException {
+	int vStringsCount;
+	int vAccountsCount;
+	int vEntriesCount;
+	int vTransactionsCount;
+	int vRootNameIndex;
+	String vRootName;
+	int[] vTopLevelIndexes = new int[5];
+	AccountTreeNode[] vNodes;
+	TransactionEntry[] vEntries;
+	int[] vTransferAccountIndexes;
+	List<Transaction> vTransactions;
+
+	if (in.readInt() != BinaryDataFormat.MAGIC
+		|| in.readInt() > BinaryDataFormat.VERSION) {
+	    throw new UnPersistenceFailureException();
+	}
+	vStringsCount = readCount();
+	in.readInt();	// size of the string table; only needed for random access
+	vAccountsCount = readCount();
+	vEntriesCount = readCount();
+	vTransactionsCount = readCount();
+	vRootNameIndex = in.readInt();
+	for (int vI = 0; vI < vTopLevelIndexes.length; vI++) {
+	    vTopLevelIndexes[vI] = checkIndex(in.readInt(), vAccountsCount);
+	}
+
+	strings = new String[vStringsCount];
+	for (int vI = 0; vI < vStringsCount; vI++) {
+	    byte[] vBytes = new byte[readCount()];
+
+	    in.readFully(vBytes);
+	    strings[vI] = new String(vBytes, "UTF-8");
+	}
+	vRootName = readString(vRootNameIndex);
+
+	/**
+	 * The account records come before the entries they point to, so keep
+	 * them as read and create the Accounts once the entries exist.
+	 */
+	int[] vParents = new int[vAccountsCount];
+	int[] vNumbers = new int[vAccountsCount];
+	String[] vNames = new String[vAccountsCount];
+	String[] vDescriptions = new String[vAccountsCount];
+	double[] vBalances = new double[vAccountsCount];
+	Account.Type[] vTypes = new Account.Type[vAccountsCount];
+	boolean[] vTransactionsEnabled = new boolean[vAccountsCount];
+	int[] vFirstEntries = new int[vAccountsCount];
+	int[] vEntriesCounts = new int[vAccountsCount];
+
+	for (int vI = 0; vI < vAccountsCount; vI++) {
+	    vParents[vI] = in.readInt();
+	    if (vParents[vI] != BinaryDataFormat.NO_PARENT) checkIndex(vParents[vI], vI);
+	    vNumbers[vI] = in.readInt();
+	    vNames[vI] = readString(in.readInt());
+	    vDescriptions[vI] = readString(in.readInt());
+	    vBalances[vI] = in.readDouble();
+	    vTypes[vI] = readAccountType(in.readByte());
+	    vTransactionsEnabled[vI] = in.readBoolean();
+	    vFirstEntries[vI] = checkIndex(in.readInt(), vEntriesCount + 1);
+	    vEntriesCounts[vI] = checkIndex(in.readInt(), vEntriesCount - vFirstEntries[vI] + 1);
+	}
+
+	vEntries = new TransactionEntry[vEntriesCount];
+	vTransferAccountIndexes = new int[vEntriesCount];
+	for (int vI = 0; vI < vEntriesCount; vI++) {
+	    vTransferAccountIndexes[vI] = checkIndex(in.readInt(), vAccountsCount);
+	    checkIndex(in.readInt(), vTransactionsCount);
+	    double vBalance = in.readDouble();
+	    vEntries[vI] = new TransactionEntry(null, null, readEntryType(in.readByte()), vBalance);
+	}
+
+	vTransactions = new ArrayList<Transaction>(vTransactionsCount);
+	for (int vI = 0; vI < vTransactionsCount; vI++) {
+	    Date vDate = new Date(in.readLong());
+	    String vRefNo = readString(in.readInt());
+	    String vMemo = readString(in.readInt());
+	    double vAmount = in.readDouble();
+	    TransactionEntry vDebitEntry = vEntries[checkIndex(in.readInt(), vEntriesCount)];
+	    TransactionEntry vCreditEntry = vEntries[checkIndex(in.readInt(), vEntriesCount)];
+
+	    vTransactions.add(Transaction.createTransaction(vDate, vRefNo, vMemo,
+				vAmount, vDebitEntry, vCreditEntry));
+	}
+
+	vNodes = new AccountTreeNode[vAccountsCount];
+	for (int vI = 0; vI < vAccountsCount; vI++) {
+	    List<TransactionEntry> vAccountEntries = new ArrayList<TransactionEntry>(vEntriesCounts[vI]);
+	    int vEnd = vFirstEntries[vI] + vEntriesCounts[vI];
+
+	    for (int vJ = vFirstEntries[vI]; vJ < vEnd; vJ++) {
+		vAccountEntries.add(vEntries[vJ]);
+	    }
+	    vNodes[vI] = new AccountTreeNode(Account.createAccount(vNumbers[vI],
+				vNames[vI], vDescriptions[vI], vBalances[vI], vTypes[vI],
+				vAccountEntries, vTransactionsEnabled[vI]));
+	    if (vParents[vI] != BinaryDataFormat.NO_PARENT) {
+		vNodes[vParents[vI]].add(vNodes[vI]);
+	    }
+	}
+	for (int vI = 0; vI < vEntriesCount; vI++) {
+	    vEntries[vI].initTransferAccount(
+		    (Account) vNodes[vTransferAccountIndexes[vI]].getUserObject());
+	}
+
+	for (int vI = 0; vI < vTopLevelIndexes.length; vI++) {
+	    if (vParents[vTopLevelIndexes[vI]] != BinaryDataFormat.NO_PARENT) {
+		throw new UnPersistenceFailureException();
+	    }
+	}
+
+	return new Data(new Journal(vTransactions),
+			new GeneralLedger(new DefaultMutableTreeNode(vRootName),
+					  vNodes[vTopLevelIndexes[0]], vNodes[vTopLevelIndexes[1]],
+					  vNodes[vTopLevelIndexes[3]], vNodes[vTopLevelIndexes[4]],
+					  vNodes[vTopLevelIndexes[2]]));
+    }
+
+    private int readCount() throws IOException, UnPersistenceFailureException {
+	int rCount = in.readInt();
+
+	if (rCount < 0) throw new UnPersistenceFailureException();
+
+	return rCount;
+    }
+
+    private int checkIndex(int pIndex, int pSize) throws UnPersistenceFailureException {
+	if (pIndex < 0 || pIndex >= pSize) throw new UnPersistenceFailureException();
+
+	return pIndex;
+    }
+
+    private String readString(int pIndex) throws UnPersistenceFailureException {
+	return strings[checkIndex(pIndex, strings.length)];
+    }
+
+    private Account.Type readAccountType(byte pOrdinal) throws UnPersistenceFailureException {
+	Account.Type[] vValues = Account.Type.values();
+
+	return vValues[checkIndex(pOrdinal, vValues.length)];
+    }
+
+    private TransactionEntry.Type readEntryType(byte pOrdinal) throws UnPersistenceFailureException {
+	TransactionEntry.Type[] vValues = TransactionEntry.Type.values();
+
+	return vValues[checkIndex(pOrdinal, vValues.length)];
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * BinaryDataWriter.java	    1.0.0	    09/2009
+ * This file contains the binary snapshot writer class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BinaryDataWriter is the class saving a Data object in the application binary
+ * snapshot format described by {@link BinaryDataFormat}. A {@link
+ * PersistenceHandler} delegates the persisting of a Data object to a snapshot
+ * file to a new BinaryDataWriter.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    BinaryDataFormat
+ * @see		    BinaryDataReader
+ * @see		    PersistenceHandler
+ * @since	    1.0.0
+ */
+public class BinaryDataWriter {
+
+    /**
+     * The header holds the number of strings and the size of the string table,
+     * so a first pass over the GeneralLedger and the Journal numbers the
+     * accounts, entries and transactions and adds their strings to the string
+     * table, which is kept in memory. A second pass then writes the records.
+     * Objects are numbered in {@link IdentityIntMap}s as two distinct entries
+     * may well be equal.
+     */
+
+    /** size in bytes of the output buffer */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** the Accounts in pre-order of the tree and their parent indexes */
+    private List<AccountTreeNode> nodes;
+
+    private List<Integer> parentIndexes;
+
+    /** mapping of Accounts to their indexes in the account table */
+    private IdentityIntMap<Account> accountIndexes;
+
+    /** mapping of TransactionEntries to their indexes in the entry table */
+    private IdentityIntMap<TransactionEntry> entryIndexes;
+
+    /** mapping of Transactions to their indexes in the transaction table */
+    private IdentityIntMap<Transaction> transactionIndexes;
+
+    /** mapping of strings to their indexes in the string table */
+    private Map<String, Integer> stringIndexes;
+
+    private ByteArrayOutputStream stringTableBytes;
+
+    private DataOutputStream stringTable;
+
+
+    /**
+     * Sole Constructor. Resets instance variables to their default values.
+     * @since		    1.0.0
+     */
+    public BinaryDataWriter() {
+	reset();
+    }
+
+
+    private void reset() {
+	nodes = new ArrayList<AccountTreeNode>();
+	parentIndexes = new ArrayList<Integer>();
+	accountIndexes = new IdentityIntMap<Account>();
+	entryIndexes = new IdentityIntMap<TransactionEntry>();
+	transactionIndexes = new IdentityIntMap<Transaction>();
+	stringIndexes = new HashMap<String, Integer>();
+	stringTableBytes = new ByteArrayOutputStream();
+	stringTable = new DataOutputStream(stringTableBytes);
+    }
+
+    /**
+     * Writes the binary snapshot of a Data object to an OutputStream. The
+     * stream is flushed but not closed.
+     *
+     * @param pData		the Data object to write
+     * @param pStream		the OutputStream to write to
+     * @throws IOException	if an I/O error occured
+     * @see			jaccounting.models.Data
+     * @since			1.0.0
+     */
+    public void write(Data pData, OutputStream pStream) throws IOException {
+	GeneralLedger vLedger = pData.getGeneralLedger();
+	List<Transaction> vTransactions = pData.getJournal().getTransactions();
+	DataOutputStream vOut;
+
+	try {
+	    AccountTreeNode[] vTopLevelNodes = {vLedger.getAssetsNode(),
+		    vLedger.getLiabilitiesNode(), vLedger.getEquityNode(),
+		    vLedger.getRevenuesNode(), vLedger.getExpensesNode()};
+	    int vRootName = indexOfString((String) vLedger.getRoot().getUserObject());
+
+	    for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+		indexAccountTreeNode(vTopLevelNodes[vI], BinaryDataFormat.NO_PARENT);
+	    }
+	    indexTransactions(vTransactions);
+	    stringTable.flush();
+
+	    vOut = new DataOutputStream(new BufferedOutputStream(pStream, BUFFER_SIZE));
+	    vOut.writeInt(BinaryDataFormat.MAGIC);
+	    vOut.writeInt(BinaryDataFormat.VERSION);
+	    vOut.writeInt(stringIndexes.size());
+	    vOut.writeInt(stringTableBytes.size());
+	    vOut.writeInt(nodes.size());
+	    vOut.writeInt(entryIndexes.size());
+	    vOut.writeInt(vTransactions.size());
+	    vOut.writeInt(vRootName);
+	    for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+		vOut.writeInt(indexOfAccount((Account) vTopLevelNodes[vI].getUserObject()));
+	    }
+	    stringTableBytes.writeTo(vOut);
+
+	    writeAccounts(vOut);
+	    writeEntries(vOut);
+	    writeTransactions(vTransactions, vOut);
+	    vOut.flush();
+	}
+	finally {
+	    reset();
+	}
+    }
+
+    private void indexAccountTreeNode(AccountTreeNode pNode, int pParentIndex) throws IOException {
+	Account vAcct = (Account) pNode.getUserObject();
+	Enumeration vChildren = pNode.children();
+	int vIndex = nodes.size();
+
+	nodes.add(pNode);
+	parentIndexes.add(pParentIndex);
+	accountIndexes.put(vAcct, vIndex);
+	indexOfString(vAcct.getName());
+	indexOfString(vAcct.getDescription());
+	for (TransactionEntry vEntry : vAcct.getEntries()) {
+	    entryIndexes.put(vEntry, entryIndexes.size());
+	}
+	while (vChildren.hasMoreElements()) {
+	    indexAccountTreeNode((AccountTreeNode) vChildren.nextElement(), vIndex);
+	}
+    }
+
+    private void indexTransactions(List<Transaction> pTransactions) throws IOException {
+	for (Transaction vTrans : pTransactions) {
+	    transactionIndexes.put(vTrans, transactionIndexes.size());
+	    indexOfString(vTrans.getRefNo());
+	    indexOfString(vTrans.getMemo());
+	}
+    }
+
+    private int indexOfString(String pString) throws IOException {
+	String vString = (pString == null) ? "" : pString;
+	Integer rIndex = stringIndexes.get(vString);
+
+	/**
+	 * Add the string to the table the first time we meet it.
+	 */
+	if (rIndex == null) {
+	    byte[] vBytes = vString.getBytes("UTF-8");
+
+	    rIndex = stringIndexes.size();
+	    stringIndexes.put(vString, rIndex);
+	    stringTable.writeInt(vBytes.length);
+	    stringTable.write(vBytes);
+	}
+
+	return rIndex.intValue();
+    }
+
+    private <T> int indexOf(IdentityIntMap<T> pIndexes, T pObject) throws IOException {
+	int rIndex = pIndexes.get(pObject);
+
+	/**
+	 * Every object referenced from the Data must have been numbered in the
+	 * first pass; a missing one means the Data is inconsistent and the
+	 * snapshot would not be readable.
+	 */
+	if (rIndex == IdentityIntMap.NO_VALUE) {
+	    throw new IOException("Object not part of the saved data: " + pObject);
+	}
+
+	return rIndex;
+    }
+
+    private int indexOfAccount(Account pAcct) throws IOException {
+	return indexOf(accountIndexes, pAcct);
+    }
+
+    private void writeAccounts(DataOutputStream pOut) throws IOException {
+	int vSize = nodes.size();
+	int vFirstEntry = 0;
+
+	for (int vI = 0; vI < vSize; vI++) {
+	    Account vAcct = (Account) nodes.get(vI).getUserObject();
+	    int vEntriesCount = vAcct.getEntries().size();
+
+	    pOut.writeInt(parentIndexes.get(vI).intValue());
+	    pOut.writeInt(vAcct.getNumber());
+	    pOut.writeInt(indexOfString(vAcct.getName()));
+	    pOut.writeInt(indexOfString(vAcct.getDescription()));
+	    pOut.writeDouble(vAcct.getBalance());
+	    pOut.writeByte(vAcct.getType().ordinal());
+	    pOut.writeBoolean(vAcct.isTransactionsEnabled());
+	    pOut.writeInt(vFirstEntry);
+	    pOut.writeInt(vEntriesCount);
+	    vFirstEntry += vEntriesCount;
+	}
+    }
+
+    private void writeEntries(DataOutputStream pOut) throws IOException {
+	int vSize = nodes.size();
+
+	for (int vI = 0; vI < vSize; vI++) {
+	    Account vAcct = (Account) nodes.get(vI).getUserObject();
+
+	    for (TransactionEntry vEntry : vAcct.getEntries()) {
+		pOut.writeInt(indexOfAccount(vEntry.getTransferAccount()));
+		pOut.writeInt(indexOf(transactionIndexes, vEntry.getTransaction()));
+		pOut.writeDouble(vEntry.getAccountBalance());
+		pOut.writeByte(vEntry.getType().ordinal());
+	    }
+	}
+    }
+
+    private void writeTransactions(List<Transaction> pTransactions, DataOutputStream pOut) throws IOException {
+	for (Transaction vTrans : pTransactions) {
+	    pOut.writeLong(vTrans.getDate().getTime());
+	    pOut.writeInt(indexOfString(vTrans.getRefNo()));
+	    pOut.writeInt(indexOfString(vTrans.getMemo()));
+	    pOut.writeDouble(vTrans.getAmount());
+	    pOut.writeInt(indexOf(entryIndexes, vTrans.getDebitEntry()));
+	    pOut.writeInt(indexOf(entryIndexes, vTrans.getCreditEntry()));
+	}
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * ChangeTracker.java	    1.0.0	    09/2009
+ * This file contains the change tracker interface of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import java.util.Date;
+
+/**
+ * ChangeTracker is the interface of the objects told which parts of the
+ * application Data changed, so that a save can write those parts only. The
+ * models report their changes to the ChangeTracker of the loaded file's
+ * {@link Storage}, if any, right where they record them to its {@link
+ * MutationLog}. All methods are called from the thread the data is changed
+ * from.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    Storage#getChangeTracker()
+ * @see		    SegmentedStorage
+ * @since	    1.0.0
+ */
+public interface ChangeTracker {
+
+    /**
+     * Handles the addition, removal or update of a Transaction. An update
+     * that changes the date of a Transaction is told of with both dates.
+     *
+     * @param pDate		the date of the Transaction
+     * @since			1.0.0
+     */
+    public void transactionChanged(Date pDate);
+
+    /**
+     * Handles the insertion, removal or update of an Account.
+     *
+     * @since			1.0.0
+     */
+    public void accountsChanged();
+
+}
@@ -0,0 +1,273 @@
+/*
+ * CsvTransactionReader.java	    1.0.0	    09/2009
+ * This file contains the csv transactions reader class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Transaction;
+import jaccounting.models.TransactionEntry;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * CsvTransactionReader is the class reading Transactions to import from comma
+ * separated values. Each record holds the date, reference number, memo, amount,
+ * debit Account full name and credit Account full name of a Transaction, in
+ * that order; a first record whose first field is "date" is taken for a header
+ * and skipped. Fields may be quoted, a quoted field holding commas, line breaks
+ * and doubled quotes. Dates are written "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm"
+ * or "yyyy-MM-dd", so that the journal written by a {@link DataExporter} reads
+ * back.
+ *
+ * The Accounts are resolved against a map of the Accounts by full name built
+ * once for the whole import. The Transactions read are not posted; they are
+ * meant to be handed to {@link jaccounting.models.Journal#addTransactions(
+ * java.util.List)} all at once. An import is all or nothing: every invalid
+ * record is logged with its line number and the read then fails.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    jaccounting.models.Journal#addTransactions(java.util.List)
+ * @see		    jaccounting.models.GeneralLedger#getTransactionnableAccountsByFullName()
+ * @since	    1.0.0
+ */
+public class CsvTransactionReader {
+
+    /** number of fields of a record */
+    private static final int FIELDS_COUNT = 6;
+
+    /** first field of a header record */
+    private static final String HEADER_FIRST_FIELD = "date";
+
+    /** the accepted date patterns, tried in turn */
+    private static final String[] DATE_PATTERNS = { "yyyy-MM-dd HH:mm:ss",
+						    "yyyy-MM-dd HH:mm", "yyyy-MM-dd" };
+
+    private Map<String, Account> accounts;  // the Accounts by full name
+
+    private DateFormat[] dateFormats;	    // the parsers of DATE_PATTERNS
+
+    private Reader reader;		    // the values read
+
+    private int nextChar;		    // the character read ahead or -1
+
+    private int line;			    // the line of the character read ahead
+
+
+    /**
+     * Sole constructor.
+     *
+     * @param pAccounts		the Accounts that allow transactions by full
+     *				name
+     * @since			1.0.0
+     */
+    public CsvTransactionReader(Map<String, Account> pAccounts) {
+	accounts = pAccounts;
+	dateFormats = new DateFormat[DATE_PATTERNS.length];
+	for (int i = 0; i < DATE_PATTERNS.length; i++) {
+	    dateFormats[i] = new SimpleDateFormat(DATE_PATTERNS[i]);
+	    dateFormats[i].setLenient(false);
+	}
+    }
+
+
+    /**
+     * Reads all the Transactions of a csv source. The Transactions are returned
+     * in the order of the records; they are validated but not posted.
+     *
+     * @param pReader				the csv source; buffered by the
+     *						caller
+     * @return					the Transactions read
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if a record is not valid
+     * @since					1.0.0
+     */
+    public List<Transaction> read(Reader pReader) throws IOException, UnPersistenceFailureException {
+	List<Transaction> rTransactions = new ArrayList<Transaction>();
+	List<String> vRecord;
+	int vRecordLine;
+	boolean vFirst = true;
+	boolean vValid = true;
+
+	reader = pReader;
+	line = 1;
+	nextChar = reader.read();
+	while (nextChar != -1) {
+	    vRecordLine = line;
+	    vRecord = readRecord();
+	    if (vRecord.size() == 1 && vRecord.get(0).trim().length() == 0) {
+		// blank line
+	    }
+	    else if (vFirst && vRecord.get(0).trim().equalsIgnoreCase(HEADER_FIRST_FIELD)) {
+		// header
+	    }
+	    else {
+		try {
+		    rTransactions.add(createTransaction(vRecord));
+		}
+		catch (ParseException ex) {
+		    Logger.getLogger(CsvTransactionReader.class.getName()).log(Level.WARNING,
+			    "Invalid transaction at line " + vRecordLine + ": "
+			    + ex.getMessage());
+		    vValid = false;
+		}
+	    }
+	    vFirst = false;
+	}
+
+	if (!vValid) throw new UnPersistenceFailureException();
+
+	return rTransactions;
+    }
+
+    private List<String> readRecord() throws IOException {
+	List<String> rFields = new ArrayList<String>(FIELDS_COUNT);
+	StringBuilder vField = new StringBuilder();
+	boolean vQuoted = false;
+
+	/**
+	 * We read one character ahead. Outside quotes, a comma ends the field
+	 * and a line break ends the record; inside quotes, a doubled quote is
+	 * a quote and any other character is kept as is.
+	 */
+
+	while (nextChar != -1) {
+	    int vChar = nextChar;
+
+	    advance();
+	    if (vQuoted) {
+		if (vChar != '"') {
+		    vField.append((char) vChar);
+		}
+		else if (nextChar == '"') {
+		    vField.append('"');
+		    advance();
+		}
+		else {
+		    vQuoted = false;
+		}
+	    }
+	    else if (vChar == '"') {
+		vQuoted = true;
+	    }
+	    else if (vChar == ',') {
+		rFields.add(vField.toString());
+		vField.setLength(0);
+	    }
+	    else if (vChar == '\n') {
+		break;
+	    }
+	    else if (vChar == '\r') {
+		if (nextChar == '\n') advance();
+		break;
+	    }
+	    else {
+		vField.append((char) vChar);
+	    }
+	}
+	rFields.add(vField.toString());
+
+	return rFields;
+    }
+
+    private void advance() throws IOException {
+	if (nextChar == '\n') line++;
+	nextChar = reader.read();
+    }
+
+    private Transaction createTransaction(List<String> pRecord) throws ParseException {
+	Date vDate;
+	double vAmount;
+	Account vDebitAccount, vCreditAccount;
+
+	if (pRecord.size() != FIELDS_COUNT) {
+	    throw new ParseException("expected " + FIELDS_COUNT + " fields, found "
+				     + pRecord.size(), 0);
+	}
+
+	vDate = parseDate(pRecord.get(0).trim());
+	try {
+	    vAmount = Double.parseDouble(pRecord.get(3).trim());
+	}
+	catch (NumberFormatException ex) {
+	    vAmount = Double.NaN;
+	}
+	if (Double.isNaN(vAmount) || Double.isInfinite(vAmount)) {
+	    throw new ParseException("amount: " + ErrorCode.INVALID_NUMBER_FORMAT, 3);
+	}
+	vDebitAccount = getAccount(pRecord.get(4).trim(), 4);
+	vCreditAccount = getAccount(pRecord.get(5).trim(), 5);
+
+	Map<String, ErrorCode> vErrors = Transaction.validate(vAmount, vDebitAccount,
+							      vCreditAccount);
+	if (!vErrors.isEmpty()) {
+	    // error codes are logged by name as the reader may run headless
+	    Map.Entry<String, ErrorCode> vError = vErrors.entrySet().iterator().next();
+
+	    throw new ParseException(vError.getKey() + ": " + vError.getValue(), 3);
+	}
+
+	/**
+	 * The Account holding the debit entry is the debit Account, which is
+	 * the transfer Account of the credit entry, and conversely.
+	 */
+
+	return Transaction.createTransaction(vDate, pRecord.get(1), pRecord.get(2),
+		    vAmount,
+		    new TransactionEntry(vCreditAccount, null, TransactionEntry.Type.DEBIT, 0.0),
+		    new TransactionEntry(vDebitAccount, null, TransactionEntry.Type.CREDIT, 0.0));
+    }
+
+    private Date parseDate(String pText) throws ParseException {
+	ParsePosition vPos = new ParsePosition(0);
+	Date rDate;
+
+	for (DateFormat vFormat : dateFormats) {
+	    vPos.setIndex(0);
+	    vPos.setErrorIndex(-1);
+	    rDate = vFormat.parse(pText, vPos);
+	    if (rDate != null && vPos.getIndex() == pText.length()) return rDate;
+	}
+
+	throw new ParseException("invalid date \"" + pText + "\"", 0);
+    }
+
+    private Account getAccount(String pFullName, int pField) throws ParseException {
+	Account rAcct = accounts.get(pFullName);
+
+	if (rAcct == null) {
+	    throw new ParseException("no account allowing transactions named \""
+				     + pFullName + "\"", pField);
+	}
+
+	return rAcct;
+    }
+
+}
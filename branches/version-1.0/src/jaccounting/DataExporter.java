@@ -0,0 +1,442 @@
+/*
+ * DataExporter.java	    1.0.0	    09/2009
+ * This file contains the data exporter class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import jaccounting.models.TransactionEntry;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DataExporter is the class writing the Transactions of the Journal and the
+ * TransactionEntries of the Accounts out for other tools to read, as comma
+ * separated values or as JSON lines, i.e. one JSON object per line. Rows are
+ * written to a buffered stream as the lists are walked, so an export holds no
+ * more than one row in memory whatever the size of the ledgers.
+ *
+ * The Journal is exported with the columns {@code date, refNo, memo, amount,
+ * debitAccount, creditAccount}, which a {@link CsvTransactionReader} reads
+ * back; the Account ledgers are exported in the order of the Accounts tree,
+ * each entry with the columns {@code account, date, refNo, memo, type, amount,
+ * transferAccount, balance}. Accounts are written by full name and dates as
+ * "yyyy-MM-dd HH:mm:ss".
+ *
+ * A DataExporter object takes what it exports from the Data when it is
+ * created. A detached DataExporter copies the values of every row, so that it
+ * can be created on the thread the data is changed from and export on another
+ * one while the data changes; the copy takes memory in proportion to the
+ * ledgers, the texts being shared with the Transactions and an entry's row
+ * sharing the values of its Transaction. One used from the thread the data is
+ * changed from, such as a scheduled job of a headless application, need not
+ * be detached: it reads the Transactions and entries as it writes them and
+ * must not run while the data changes. A DataExporter object needs no user
+ * interface.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    CsvTransactionReader
+ * @since	    1.0.0
+ */
+public class DataExporter {
+
+    /** formats of the exported rows */
+    public static enum Format { CSV, JSON };
+
+    private static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private static final String[] JOURNAL_COLUMNS = { "date", "refNo", "memo", "amount",
+						      "debitAccount", "creditAccount" };
+
+    private static final String[] LEDGER_COLUMNS = { "account", "date", "refNo", "memo",
+						     "type", "amount", "transferAccount",
+						     "balance" };
+
+    /** size of the buffer of the exported stream */
+    private static final int BUFFER_SIZE = 65536;
+
+    private Format format;				    // the format of the rows
+
+    private List<Transaction> transactions;		    // the Journal's Transactions
+
+    private List<Account> accounts;			    // the Accounts in tree order
+
+    private List<List<TransactionEntry>> accountsEntries;  // the entries by Account
+
+    private List<TransactionRow> transactionRows;	    // the rows copied if detached
+
+    private List<List<EntryRow>> accountsEntryRows;	    // the rows copied if detached
+
+    private Map<Account, String> fullNames;		    // the Accounts' full names
+
+    private DateFormat dateFormat;
+
+    private Date lastDate;				    // the date last formatted
+
+    private String lastDateText;			    // the text of lastDate
+
+    private boolean firstValue;			    // whether the row has no value yet
+
+
+    /**
+     * Sole constructor. This constructor walks the Accounts tree once for the
+     * full names of the Accounts.
+     *
+     * @param pData		the Data to export
+     * @param pFormat		the format of the exported rows
+     * @param pDetached		whether to copy the lists to export so the
+     *				export can run while the data changes
+     * @since			1.0.0
+     */
+    public DataExporter(Data pData, Format pFormat, boolean pDetached) {
+	Map<String, Account> vAccts = pData.getGeneralLedger().getAccountsByFullName();
+
+	format = pFormat;
+	fullNames = new IdentityHashMap<Account, String>();
+	accounts = new ArrayList<Account>(vAccts.size());
+	for (Map.Entry<String, Account> vAcct : vAccts.entrySet()) {
+	    fullNames.put(vAcct.getValue(), vAcct.getKey());
+	    accounts.add(vAcct.getValue());
+	}
+	if (pDetached) {
+	    copyRows(pData);
+	}
+	else {
+	    accountsEntries = new ArrayList<List<TransactionEntry>>(accounts.size());
+	    for (Account vAcct : accounts) {
+		accountsEntries.add(vAcct.getEntries());
+	    }
+	    transactions = pData.getJournal().getTransactions();
+	}
+	dateFormat = new SimpleDateFormat(DATE_PATTERN);
+    }
+
+
+    /**
+     * Writes the Transactions of the Journal to a stream. The stream is
+     * flushed but not closed.
+     *
+     * @param pOut		    the stream to write to
+     * @throws IOException	    if an I/O error occured
+     * @since			    1.0.0
+     */
+    public void exportJournal(OutputStream pOut) throws IOException {
+	Writer vOut = new BufferedWriter(new OutputStreamWriter(pOut, "UTF-8"), BUFFER_SIZE);
+
+	writeHeader(vOut, JOURNAL_COLUMNS);
+	if (transactionRows != null) {
+	    for (TransactionRow vRow : transactionRows) {
+		writeJournalRow(vOut, vRow);
+	    }
+	}
+	else {
+	    TransactionRow vRow = new TransactionRow();
+
+	    for (Transaction vTrans : transactions) {
+		writeJournalRow(vOut, vRow.set(vTrans));
+	    }
+	}
+	vOut.flush();
+    }
+
+    /**
+     * Writes the TransactionEntries of every Account to a stream, Account by
+     * Account in the order of the Accounts tree. The stream is flushed but
+     * not closed.
+     *
+     * @param pOut		    the stream to write to
+     * @throws IOException	    if an I/O error occured
+     * @since			    1.0.0
+     */
+    public void exportAccountLedgers(OutputStream pOut) throws IOException {
+	Writer vOut = new BufferedWriter(new OutputStreamWriter(pOut, "UTF-8"), BUFFER_SIZE);
+
+	writeHeader(vOut, LEDGER_COLUMNS);
+	for (int i = 0; i < accounts.size(); i++) {
+	    String vFullName = fullNames.get(accounts.get(i));
+
+	    if (accountsEntryRows != null) {
+		for (EntryRow vRow : accountsEntryRows.get(i)) {
+		    writeLedgerRow(vOut, vFullName, vRow);
+		}
+	    }
+	    else {
+		TransactionRow vTransRow = new TransactionRow();
+		EntryRow vRow = new EntryRow();
+
+		for (TransactionEntry vEntry : accountsEntries.get(i)) {
+		    vTransRow.set(vEntry.getTransaction());
+		    writeLedgerRow(vOut, vFullName, vRow.set(vEntry, vTransRow));
+		}
+	    }
+	}
+	vOut.flush();
+    }
+
+    /**
+     * Copies the values of the rows to export, each Transaction's once.
+     */
+    private void copyRows(Data pData) {
+	List<Transaction> vTransactions = pData.getJournal().getTransactions();
+	Map<Transaction, TransactionRow> vRows =
+		new IdentityHashMap<Transaction, TransactionRow>(vTransactions.size());
+
+	transactionRows = new ArrayList<TransactionRow>(vTransactions.size());
+	for (Transaction vTrans : vTransactions) {
+	    TransactionRow vRow = new TransactionRow().set(vTrans);
+
+	    vRow.date = (Date) vRow.date.clone();
+	    transactionRows.add(vRow);
+	    vRows.put(vTrans, vRow);
+	}
+	accountsEntryRows = new ArrayList<List<EntryRow>>(accounts.size());
+	for (Account vAcct : accounts) {
+	    List<TransactionEntry> vEntries = vAcct.getEntries();
+	    List<EntryRow> vEntryRows = new ArrayList<EntryRow>(vEntries.size());
+
+	    for (TransactionEntry vEntry : vEntries) {
+		TransactionRow vRow = vRows.get(vEntry.getTransaction());
+
+		/** an entry whose Transaction is not in the Journal gets its own */
+		if (vRow == null) {
+		    vRow = new TransactionRow().set(vEntry.getTransaction());
+		    vRow.date = (Date) vRow.date.clone();
+		}
+		vEntryRows.add(new EntryRow().set(vEntry, vRow));
+	    }
+	    accountsEntryRows.add(vEntryRows);
+	}
+    }
+
+    private void writeJournalRow(Writer pOut, TransactionRow pRow) throws IOException {
+	startRow(pOut);
+	writeDate(pOut, JOURNAL_COLUMNS[0], pRow.date);
+	writeString(pOut, JOURNAL_COLUMNS[1], pRow.refNo);
+	writeString(pOut, JOURNAL_COLUMNS[2], pRow.memo);
+	writeNumber(pOut, JOURNAL_COLUMNS[3], pRow.amount);
+	writeString(pOut, JOURNAL_COLUMNS[4], fullNames.get(pRow.debitAccount));
+	writeString(pOut, JOURNAL_COLUMNS[5], fullNames.get(pRow.creditAccount));
+	endRow(pOut);
+    }
+
+    private void writeLedgerRow(Writer pOut, String pFullName, EntryRow pRow)
+	    throws IOException {
+	startRow(pOut);
+	writeString(pOut, LEDGER_COLUMNS[0], pFullName);
+	writeDate(pOut, LEDGER_COLUMNS[1], pRow.transaction.date);
+	writeString(pOut, LEDGER_COLUMNS[2], pRow.transaction.refNo);
+	writeString(pOut, LEDGER_COLUMNS[3], pRow.transaction.memo);
+	writeString(pOut, LEDGER_COLUMNS[4], pRow.type.name().toLowerCase());
+	writeNumber(pOut, LEDGER_COLUMNS[5], pRow.transaction.amount);
+	writeString(pOut, LEDGER_COLUMNS[6], fullNames.get(pRow.transferAccount));
+	writeNumber(pOut, LEDGER_COLUMNS[7], pRow.balance);
+	endRow(pOut);
+    }
+
+    private void writeHeader(Writer pOut, String[] pColumns) throws IOException {
+	/** JSON lines name the values in every row instead */
+	if (format != Format.CSV) return;
+
+	for (int i = 0; i < pColumns.length; i++) {
+	    if (i > 0) pOut.write(',');
+	    pOut.write(pColumns[i]);
+	}
+	pOut.write("\r\n");
+    }
+
+    private void startRow(Writer pOut) throws IOException {
+	if (format == Format.JSON) pOut.write('{');
+	firstValue = true;
+    }
+
+    private void endRow(Writer pOut) throws IOException {
+	if (format == Format.JSON) {
+	    pOut.write("}\n");
+	}
+	else {
+	    pOut.write("\r\n");
+	}
+    }
+
+    private void startValue(Writer pOut, String pName) throws IOException {
+	if (!firstValue) pOut.write(',');
+	firstValue = false;
+	if (format == Format.JSON) {
+	    writeJsonString(pOut, pName);
+	    pOut.write(':');
+	}
+    }
+
+    private void writeDate(Writer pOut, String pName, Date pDate) throws IOException {
+	/** rows often share the date of the row before */
+	if (!pDate.equals(lastDate)) {
+	    lastDate = (Date) pDate.clone();
+	    lastDateText = dateFormat.format(pDate);
+	}
+	writeString(pOut, pName, lastDateText);
+    }
+
+    private void writeNumber(Writer pOut, String pName, double pValue) throws IOException {
+	startValue(pOut, pName);
+	pOut.write(Double.toString(pValue));
+    }
+
+    private void writeString(Writer pOut, String pName, String pValue) throws IOException {
+	startValue(pOut, pName);
+	if (pValue == null) {
+	    if (format == Format.JSON) pOut.write("null");
+	}
+	else if (format == Format.JSON) {
+	    writeJsonString(pOut, pValue);
+	}
+	else {
+	    writeCsvString(pOut, pValue);
+	}
+    }
+
+    private static void writeCsvString(Writer pOut, String pValue) throws IOException {
+	boolean vQuote = false;
+
+	for (int i = 0; i < pValue.length() && !vQuote; i++) {
+	    char vChar = pValue.charAt(i);
+
+	    vQuote = vChar == ',' || vChar == '"' || vChar == '\n' || vChar == '\r';
+	}
+	if (!vQuote) {
+	    pOut.write(pValue);
+	    return;
+	}
+
+	pOut.write('"');
+	for (int i = 0; i < pValue.length(); i++) {
+	    char vChar = pValue.charAt(i);
+
+	    if (vChar == '"') pOut.write('"');
+	    pOut.write(vChar);
+	}
+	pOut.write('"');
+    }
+
+    private static void writeJsonString(Writer pOut, String pValue) throws IOException {
+	pOut.write('"');
+	for (int i = 0; i < pValue.length(); i++) {
+	    char vChar = pValue.charAt(i);
+
+	    switch (vChar) {
+		case '"':
+		    pOut.write("\\\"");
+		    break;
+		case '\\':
+		    pOut.write("\\\\");
+		    break;
+		case '\n':
+		    pOut.write("\\n");
+		    break;
+		case '\r':
+		    pOut.write("\\r");
+		    break;
+		case '\t':
+		    pOut.write("\\t");
+		    break;
+		default:
+		    if (vChar < 0x20) {
+			String vHex = Integer.toHexString(vChar);
+
+			pOut.write("\\u");
+			for (int j = vHex.length(); j < 4; j++) pOut.write('0');
+			pOut.write(vHex);
+		    }
+		    else {
+			pOut.write(vChar);
+		    }
+	    }
+	}
+	pOut.write('"');
+    }
+
+
+
+    /**
+     * The values of a Transaction written out, copied by a detached export or
+     * set from each Transaction in turn otherwise.
+     */
+    private static final class TransactionRow {
+
+	private Date date;
+
+	private String refNo;
+
+	private String memo;
+
+	private double amount;
+
+	private Account debitAccount;
+
+	private Account creditAccount;
+
+	TransactionRow set(Transaction pTrans) {
+	    date = pTrans.getDate();
+	    refNo = pTrans.getRefNo();
+	    memo = pTrans.getMemo();
+	    amount = pTrans.getAmount();
+	    debitAccount = pTrans.getDebitAccount();
+	    creditAccount = pTrans.getCreditAccount();
+
+	    return this;
+	}
+    }
+
+    /**
+     * The values of a TransactionEntry written out besides the ones of its
+     * Transaction.
+     */
+    private static final class EntryRow {
+
+	private TransactionRow transaction;
+
+	private TransactionEntry.Type type;
+
+	private Account transferAccount;
+
+	private double balance;
+
+	EntryRow set(TransactionEntry pEntry, TransactionRow pTransaction) {
+	    transaction = pTransaction;
+	    type = pEntry.getType();
+	    transferAccount = pEntry.getTransferAccount();
+	    balance = pEntry.getAccountBalance();
+
+	    return this;
+	}
+    }
+
+}
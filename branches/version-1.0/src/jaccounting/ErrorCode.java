@@ -42,6 +42,7 @@ public enum ErrorCode {
 
     /** Transaction related errors */
     NEGATIVE_TRANSACTION_AMOUNT,
+    PERIOD_NOT_LOADED,
 
     /** General errors */
     UNPERSISTENCE_FAILURE,
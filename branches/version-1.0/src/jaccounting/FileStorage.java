@@ -0,0 +1,448 @@
+/*
+ * FileStorage.java	    1.0.0	    09/2009
+ * This file contains the file storage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Data;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * FileStorage is the class keeping the application data in a single file.
+ * A FileStorage object delegates reading and writing the data to a {@link
+ * PersistenceHandler}. Files named with the {@link
+ * ModelsMngr#SNAPSHOT_FILE_EXTENSION snapshot extension} are binary snapshots;
+ * any other file is an xml file. Files named with the {@link
+ * ModelsMngr#COMPRESSED_FILE_EXTENSION compressed extension} appended are
+ * saved compressed, as are files that were compressed when loaded. The changes
+ * made to the data are recorded as they happen in the {@link MutationLog} of
+ * the file, which is only fully rewritten once that log gets long.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    PersistenceHandler
+ * @see		    ModelsMngr
+ * @since	    1.0.0
+ */
+public class FileStorage implements Storage {
+
+    /** number of logged changes past which saving rewrites the whole file */
+    private static final int CHECKPOINT_INTERVAL = 500;
+
+    /** extension added to the file name to name the file saves go to first */
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    /** size in bytes of the buffer of the file saves go to first */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PersistenceHandler persister;   // the application data saver and loader
+
+    private String filename;		    // the name of the file
+
+    /** the compression the file is saved with */
+    private PersistenceHandler.Compression compression;
+
+    private MutationLog mutationLog;	    // the log of the file
+
+    /** whether the log waits for a Checkpoint to be committed to extend the file */
+    private boolean mutationLogPending;
+
+    /** length and checksum of the loaded file, checked against its log */
+    private long loadedLength;
+
+    private long loadedChecksum;
+
+    private boolean closed;		    // whether close was called
+
+
+    /**
+     * Sole constructor. The file need not exist yet.
+     *
+     * @param pFilename		the name of the file. It's relative to the
+     *				application's local storage directory provided
+     *				by the system.
+     * @since			1.0.0
+     */
+    public FileStorage(String pFilename) {
+	persister = new PersistenceHandler();
+	filename = pFilename;
+	compression = compressionOf(pFilename);
+	mutationLogPending = false;
+	closed = false;
+    }
+
+
+    private static PersistenceHandler.Format formatOf(String pFilename) {
+	String vName = pFilename.toLowerCase();
+
+	if (vName.endsWith(ModelsMngr.COMPRESSED_FILE_EXTENSION)) {
+	    vName = vName.substring(0, vName.length() - ModelsMngr.COMPRESSED_FILE_EXTENSION.length());
+	}
+	if (vName.endsWith(ModelsMngr.SNAPSHOT_FILE_EXTENSION)) {
+	    return PersistenceHandler.Format.BINARY;
+	}
+	return PersistenceHandler.Format.XML;
+    }
+
+    private static PersistenceHandler.Compression compressionOf(String pFilename) {
+	if (pFilename.toLowerCase().endsWith(ModelsMngr.COMPRESSED_FILE_EXTENSION)) {
+	    return PersistenceHandler.Compression.GZIP;
+	}
+	return PersistenceHandler.Compression.NONE;
+    }
+
+    /**
+     * Gets a file of the application's local storage directory.
+     *
+     * @param pFilename		the name of the file relative to that directory
+     * @return			the File
+     * @since			1.0.0
+     */
+    static File getLocalFile(String pFilename) {
+	return new File(JAccounting.getApplication().getContext().getLocalStorage()
+			.getDirectory(), pFilename);
+    }
+
+    private File getMutationLogFile() {
+	return getLocalFile(filename + MutationLog.FILE_EXTENSION);
+    }
+
+    private void closeMutationLog() {
+	if (mutationLog == null) return;
+	try {
+	    mutationLog.close();
+	}
+	catch (IOException ex) {
+	    Logger.getLogger(FileStorage.class.getName()).log(Level.WARNING, null, ex);
+	}
+	mutationLog = null;
+	mutationLogPending = false;
+    }
+
+    /**
+     * Loads the application data contained in the file. This method
+     * effectively delegates the job to {@link
+     * PersistenceHandler#unpersist(java.io.InputStream,
+     * jaccounting.PersistenceHandler.Format, jaccounting.LoadListener)
+     * unpersist} with the format given by the file's extension. A compressed
+     * file is recognized from its content whatever its name.
+     *
+     * @param pListener				the listener to tell of the
+     *						progress or null
+     * @return					the Data loaded
+     * @throws IOException			if an I/O error occured such as missing file
+     * @throws UnPersistenceFailureException	if an exception related to unpersisting
+     *						the application data contained in the
+     *						file occured
+     * @since					1.0.0
+     */
+    public Data load(LoadListener pListener) throws IOException, UnPersistenceFailureException {
+	CheckedInputStream vChecked = new CheckedInputStream(JAccounting.getApplication()
+				.getContext().getLocalStorage().openInputFile(filename),
+				new CRC32());
+	InputStream vStream = new BufferedInputStream(vChecked);
+	byte[] vBuffer = new byte[8192];
+	Data rData;
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.unpersistingFile");
+	try {
+	    compression = PersistenceHandler.detectCompression(vStream);
+	    if (compression == PersistenceHandler.Compression.NONE) {
+		compression = compressionOf(filename);
+	    }
+	    rData = persister.unpersist(new UnclosedInputStream(vStream),
+					formatOf(filename), pListener);
+
+	    /**
+	     * Read whatever the unpersisting left so the checksum covers the
+	     * whole file.
+	     */
+	    while (vStream.read(vBuffer) != -1);
+	}
+	finally {
+	    vStream.close();
+	}
+	loadedLength = getLocalFile(filename).length();
+	loadedChecksum = vChecked.getChecksum().getValue();
+
+	return rData;
+    }
+
+    /**
+     * Finishes loading the application data. This method replays the changes
+     * recorded in the file's {@link MutationLog}.
+     *
+     * @param pData		the Data loaded
+     * @since			1.0.0
+     */
+    public void finishLoad(Data pData) {
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.replayingMutationLog");
+	try {
+	    mutationLog = MutationLog.open(getMutationLogFile(), pData,
+					   loadedLength, loadedChecksum);
+	}
+	catch (IOException ex) {
+	    /**
+	     * Without a log the next save simply rewrites the whole file.
+	     */
+	    Logger.getLogger(FileStorage.class.getName()).log(Level.WARNING,
+		    "Failed to open mutation log", ex);
+	}
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+    }
+
+    /**
+     * Gets the date from which all the Transactions are loaded. A FileStorage
+     * loads all of its data at once.
+     *
+     * @return			null
+     * @since			1.0.0
+     */
+    public Date getLoadedFrom() {
+	return null;
+    }
+
+    public boolean loadEarlier(Data pData) {
+	return false;
+    }
+
+    public MutationLog getMutationLog() {
+	return mutationLog;
+    }
+
+    public ChangeTracker getChangeTracker() {
+	return null;
+    }
+
+    /**
+     * Starts saving the whole application data to the file. The changes
+     * recorded in the file's {@link MutationLog} are already on disk so
+     * nothing is written while that log is short. Otherwise only an image of
+     * the data is taken, as an uncompressed {@link BinaryDataWriter binary
+     * snapshot} in memory, which is quick to write: the returned Checkpoint
+     * encodes it in the format given by the file's extension, and compresses
+     * it if the file is, when written from another thread while the data keeps
+     * changing. If the file has no log yet, one is started before the image
+     * is taken so that the changes made from then on are recorded.
+     *
+     * @param pData		the Data to save
+     * @return			the Checkpoint to write and commit; null while
+     *				the file's log is short
+     * @throws IOException	if an I/O error ocurred
+     * @see			FileCheckpoint
+     * @since			1.0.0
+     */
+    public Checkpoint createCheckpoint(Data pData) throws IOException {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	if (mutationLog != null && !mutationLogPending && !mutationLog.isFailed()
+		&& mutationLog.getRecordsCount() < CHECKPOINT_INTERVAL) {
+	    return null;
+	}
+
+	if (mutationLog == null) {
+	    /**
+	     * The log extends no data file until the Checkpoint is committed, so
+	     * it is discarded if the application stops before.
+	     */
+	    try {
+		mutationLog = MutationLog.create(getMutationLogFile(), pData, -1, 0);
+		mutationLogPending = true;
+	    }
+	    catch (IOException ex) {
+		/**
+		 * Without a log the next save simply rewrites the whole file.
+		 */
+		Logger.getLogger(FileStorage.class.getName()).log(Level.WARNING,
+			"Failed to start mutation log", ex);
+	    }
+	}
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.persistingFile");
+	new BinaryDataWriter().write(pData, vBytes);
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+
+	return new FileCheckpoint(vBytes.toByteArray());
+    }
+
+    public void close() {
+	closeMutationLog();
+	closed = true;
+    }
+
+
+    /**
+     * FileCheckpoint is the class saving a consistent image of the application
+     * data to the file. Its {@link #write()} method reads the image back into
+     * a Data of its own, streams it to a file next to the file in the file's
+     * format and compression, and forces it to disk; the length and checksum
+     * of what is written are computed on the way. Its {@link #commit()} method
+     * then replaces the file with the one written and makes the file's
+     * MutationLog only keep the changes made since the image was taken.
+     *
+     * @version		    1.0.0
+     * @see		    MutationLog#rebase(long, int, int, long, long)
+     * @since		    1.0.0
+     */
+    private class FileCheckpoint implements Checkpoint {
+
+	private byte[] snapshot;	    // the binary snapshot of the data
+
+	private long length;		    // the length of the file written
+
+	private long checksum;		    // the checksum of the file written
+
+	private MutationLog log;	    // the file's log when the data was serialized
+
+	private long logSize;		    // the log's size at that time
+
+	private int logRecordsCount;	    // the log's number of records at that time
+
+	private int logLostCount;	    // the log's number of changes lost at that time
+
+	private File tempFile;		    // the file the data is written to first
+
+
+	private FileCheckpoint(byte[] pSnapshot) throws IOException {
+	    snapshot = pSnapshot;
+	    log = mutationLog;
+	    if (log != null) {
+		logSize = log.getSize();
+		logRecordsCount = log.getRecordsCount();
+		logLostCount = log.getLostCount();
+	    }
+	    tempFile = getLocalFile(filename + TEMP_FILE_EXTENSION);
+	}
+
+
+	/**
+	 * Writes the data to a temporary file next to the file and forces it to
+	 * disk. The snapshot is read back first, into a Data that nothing else
+	 * changes, then dropped.
+	 *
+	 * @throws IOException	    if an I/O error ocurred or the snapshot could
+	 *			    not be read back
+	 * @since		    1.0.0
+	 */
+	public void write() throws IOException {
+	    Data vImage;
+	    FileOutputStream vFileStream;
+	    CheckedOutputStream vStream;
+
+	    try {
+		vImage = new BinaryDataReader().read(new ByteArrayInputStream(snapshot));
+	    }
+	    catch (UnPersistenceFailureException ex) {
+		IOException vEx = new IOException("Failed to read back the data saved");
+
+		vEx.initCause(ex);
+		throw vEx;
+	    }
+	    snapshot = null;
+
+	    tempFile.getParentFile().mkdirs();
+	    vFileStream = new FileOutputStream(tempFile);
+	    vStream = new CheckedOutputStream(new BufferedOutputStream(vFileStream, BUFFER_SIZE),
+					      new CRC32());
+	    try {
+		persister.write(vImage, vStream, formatOf(filename), compression);
+		vFileStream.getFD().sync();
+	    }
+	    finally {
+		vStream.close();
+	    }
+	    length = tempFile.length();
+	    checksum = vStream.getChecksum().getValue();
+	}
+
+	/**
+	 * Replaces the file with the written data and rebases the file's log on
+	 * it. Nothing is done if the FileStorage was closed since this
+	 * Checkpoint was created.
+	 *
+	 * @throws IOException	    if an I/O error ocurred
+	 * @since		    1.0.0
+	 */
+	public void commit() throws IOException {
+	    File vFile = getLocalFile(filename);
+
+	    if (closed || log != mutationLog) {
+		tempFile.delete();
+		return;
+	    }
+
+	    /**
+	     * Renaming is atomic where the platform allows replacing a file;
+	     * elsewhere the old file has to go first.
+	     */
+	    if (!tempFile.renameTo(vFile)) {
+		vFile.delete();
+		if (!tempFile.renameTo(vFile)) {
+		    throw new IOException("Failed to replace " + vFile + " with " + tempFile);
+		}
+	    }
+	    if (mutationLog == null) return;
+	    try {
+		mutationLog.rebase(logSize, logRecordsCount, logLostCount, length, checksum);
+		mutationLogPending = false;
+	    }
+	    catch (IOException ex) {
+		/**
+		 * Without a log the next save simply rewrites the whole file.
+		 */
+		Logger.getLogger(FileStorage.class.getName()).log(Level.WARNING,
+			"Failed to rebase mutation log", ex);
+		closeMutationLog();
+	    }
+	}
+    }
+
+    /**
+     * An InputStream ignoring requests to close it, such as the xml parser's
+     * once the document is read, so the rest of the file can still be read.
+     */
+    private static class UnclosedInputStream extends FilterInputStream {
+
+	UnclosedInputStream(InputStream pStream) {
+	    super(pStream);
+	}
+
+	@Override
+	public void close() {
+	}
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * IdentityIntMap.java	    1.0.0	    09/2009
+ * This file contains the identity to int map class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+/**
+ * IdentityIntMap is the class mapping objects, compared by identity, to int
+ * values. Unlike an {@link java.util.IdentityHashMap} of Integers, it boxes
+ * nothing and creates no object per mapping. The writers use it to number the
+ * data objects they save.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    XmlDataWriter
+ * @see		    BinaryDataWriter
+ * @since	    1.0.0
+ */
+class IdentityIntMap<K> {
+
+    /**
+     * Keys and values are kept in two parallel arrays whose length is a power
+     * of two. A key goes in the first free slot met by linear probing from its
+     * scrambled identity hash code. The arrays are doubled before they get
+     * more than half full, which keeps probe sequences short. Mappings are
+     * never removed so no deleted slot marker is needed. A null key is stored
+     * as the NULL_KEY object since null marks free slots.
+     */
+
+    /** value returned by get for an object with no mapping */
+    public static final int NO_VALUE = -1;
+
+    /** number of slots of a new map */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** the key standing for null */
+    private static final Object NULL_KEY = new Object();
+
+    private Object[] keys;		// the keys; null in free slots
+
+    private int[] values;		// the values of the keys in the same slots
+
+    private int size;			// the number of mappings
+
+
+    /**
+     * Sole Constructor. Creates an empty map.
+     * @since		    1.0.0
+     */
+    public IdentityIntMap() {
+	keys = new Object[INITIAL_CAPACITY];
+	values = new int[INITIAL_CAPACITY];
+	size = 0;
+    }
+
+
+    /**
+     * Returns the number of mappings in this map.
+     *
+     * @return			the number of mappings
+     * @since			1.0.0
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Returns the value mapped to an object.
+     *
+     * @param pKey		the object whose value to return
+     * @return			the value mapped to the object or {@link
+     *				#NO_VALUE} if the object has no mapping
+     * @since			1.0.0
+     */
+    public int get(K pKey) {
+	Object vSought = (pKey == null) ? NULL_KEY : pKey;
+	int vMask = keys.length - 1;
+	Object vKey;
+
+	for (int vI = indexOf(vSought, vMask); (vKey = keys[vI]) != null; vI = (vI + 1) & vMask) {
+	    if (vKey == vSought) return values[vI];
+	}
+
+	return NO_VALUE;
+    }
+
+    /**
+     * Maps a value to an object, replacing any value it was mapped to.
+     *
+     * @param pKey		the object to map
+     * @param pValue		the value to map to the object
+     * @since			1.0.0
+     */
+    public void put(K pKey, int pValue) {
+	Object vNew = (pKey == null) ? NULL_KEY : pKey;
+	int vMask = keys.length - 1;
+	int vI = indexOf(vNew, vMask);
+	Object vKey;
+
+	for (; (vKey = keys[vI]) != null; vI = (vI + 1) & vMask) {
+	    if (vKey == vNew) {
+		values[vI] = pValue;
+		return;
+	    }
+	}
+	keys[vI] = vNew;
+	values[vI] = pValue;
+	if (++size * 2 > keys.length) grow();
+    }
+
+    private void grow() {
+	Object[] vOldKeys = keys;
+	int[] vOldValues = values;
+	int vMask = vOldKeys.length * 2 - 1;
+
+	keys = new Object[vOldKeys.length * 2];
+	values = new int[vOldKeys.length * 2];
+	for (int vJ = 0; vJ < vOldKeys.length; vJ++) {
+	    if (vOldKeys[vJ] != null) {
+		int vI = indexOf(vOldKeys[vJ], vMask);
+
+		while (keys[vI] != null) vI = (vI + 1) & vMask;
+		keys[vI] = vOldKeys[vJ];
+		values[vI] = vOldValues[vJ];
+	    }
+	}
+    }
+
+    private static int indexOf(Object pKey, int pMask) {
+	int vHash = System.identityHashCode(pKey);
+
+	/**
+	 * Identity hash codes are not guaranteed to vary in their low bits;
+	 * mix the high bits into the low bits used as index.
+	 */
+	vHash *= 0x9E3779B9;
+
+	return (vHash ^ (vHash >>> 16)) & pMask;
+    }
+
+}
@@ -21,6 +21,7 @@
 package jaccounting;
 
 import org.jdesktop.application.Application;
+import org.jdesktop.application.FrameView;
 import org.jdesktop.application.SingleFrameApplication;
 import jaccounting.controllers.MainController;
 
@@ -40,18 +41,44 @@ import jaccounting.controllers.MainController;
  * @since	    1.0.0
  */
 public class JAccounting extends SingleFrameApplication {
+
+    /** command line option to open a snapshot file read-only */
+    public static final String VIEW_OPTION = "-view";
+
+    private String viewedFilename;	// the file to open read-only or null
    
+    /**
+     * Initializes the application from the command line arguments. The
+     * arguments {@code -view <file>} open a binary snapshot file read-only
+     * instead of the default file.
+     *
+     * @param args	the command line arguments
+     * @since		1.0.0
+     */
+    @Override
+    protected void initialize(String[] args) {
+	if (args.length == 2 && VIEW_OPTION.equals(args[0])) {
+	    viewedFilename = args[1];
+	}
+    }
+
     /**
      * Starts the application. This method gets invoked the super class
      * after launching the application. It creates and shows a
-     * <code>MainView</code> of the application before loading the default file.
+     * <code>MainView</code> of the application before loading the default file
+     * or the file to view.
      *
      * @see		jaccounting.controllers.MainController#loadDefaultFile()
+     * @see		jaccounting.controllers.MainController#viewFile(java.lang.String)
      * @since		1.0.0
      */
     @Override
     protected void startup() {
         show(new MainView(this));
+	if (viewedFilename != null) {
+	    MainController.getInstance().viewFile(viewedFilename);
+	    return;
+	}
 	getProgressReporter().reportUsingKey("messages.loadingDefaultFile");
 	MainController.getInstance().runAction("loadDefaultFile");
 	getProgressReporter().reportFinished();
@@ -59,13 +86,17 @@ public class JAccounting extends SingleFrameApplication {
 
     /**
      * Gets the {@code MainView} of the application.
-     * @return		the MainView of this application
+     * @return		the MainView of this application or null if the
+     *			application was not started, as when its models are
+     *			used by unit tests
      * @see		MainView
      * @since		1.0.0
      */
     @Override
     public MainView getMainView() {
-        return (MainView) super.getMainView();
+        FrameView vView = super.getMainView();
+
+        return (vView instanceof MainView) ? (MainView) vView : null;
     }
 
     /**
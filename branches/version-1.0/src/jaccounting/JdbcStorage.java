@@ -0,0 +1,924 @@
+/*
+ * JdbcStorage.java	    1.0.0	    09/2009
+ * This file contains the embedded database storage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * JdbcStorage is the class keeping the application data in an embedded SQL
+ * database. The Accounts, Transactions and TransactionEntries are rows of
+ * three tables, indexed on the transaction date and on the account of the
+ * entries, and a save only writes the rows of the objects that changed since
+ * the previous save. No database server is involved: the database is opened
+ * through the JDBC driver named by the {@link #DRIVER_PROPERTY} system
+ * property, Apache Derby's embedded driver by default, with the URL given by
+ * the {@link #URL_PROPERTY} system property in which "{0}" stands for the path
+ * of the database. The driver must be on the class path. For example, H2 is
+ * used with -Djaccounting.jdbc.driver=org.h2.Driver and
+ * -Djaccounting.jdbc.url=jdbc:h2:{0}.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    Storage
+ * @see		    ModelsMngr
+ * @since	    1.0.0
+ */
+public class JdbcStorage implements Storage {
+
+    /**
+     * The models do not tell us which objects changed, so each checkpoint
+     * walks the Data, on the thread the data is changed from, and compares the
+     * column values of every object with the values last saved for its row,
+     * which are kept in memory by row id. Objects are given row ids through
+     * {@link IdentityIntMap}s, which are rebuilt at each walk so removed objects
+     * are forgotten; an object that is new gets the next id of its table and
+     * the rows of the objects not met anymore are deleted. The inserts, updates
+     * and deletes found are what the checkpoint writes, in one database
+     * transaction, from a background thread.
+     *
+     * The values last saved are updated when the checkpoint is created, not
+     * when it is written, so the next checkpoint only holds the changes made
+     * in between; checkpoints are therefore written in the order they were
+     * created. If one fails to be written, the database no longer matches
+     * those values: the checkpoints created before the failure is known are
+     * refused and the next one rewrites all the rows.
+     *
+     * Top level Accounts have no parent and their position is their place
+     * among the assets, liabilities, equity, revenues and expenses; other
+     * Accounts are positioned among the children of their parent. Entries are
+     * positioned in the entries list of their account. Transactions are
+     * positioned among those of their date, which is all the Journal order
+     * adds to the date order; a new or re-dated Transaction only shifts those
+     * of its date, which are few, instead of renumbering the whole Journal.
+     */
+
+    /** name of the system property giving the class name of the JDBC driver */
+    public static final String DRIVER_PROPERTY = "jaccounting.jdbc.driver";
+
+    /** name of the system property giving the JDBC URL of the database */
+    public static final String URL_PROPERTY = "jaccounting.jdbc.url";
+
+    /** the driver used when the driver property is not set */
+    public static final String DEFAULT_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+
+    /** the URL used when the URL property is not set */
+    public static final String DEFAULT_URL = "jdbc:derby:{0};create=true";
+
+    /** the current revision of the tables */
+    static final int REVISION = 1;
+
+    /** type of the text columns */
+    private static final String TEXT = "VARCHAR(32672)";
+
+    /** names of the rows of the meta table */
+    private static final String REVISION_NAME = "revision";
+    private static final String ROOT_NAME = "rootName";
+
+    /** statements creating the tables and their indexes */
+    private static final String[] SCHEMA = {
+	"CREATE TABLE JAC_META (NAME VARCHAR(64) NOT NULL PRIMARY KEY, VAL " + TEXT + ")",
+	"CREATE TABLE JAC_ACCOUNTS (ID INT NOT NULL PRIMARY KEY, PARENT_ID INT,"
+	    + " CHILD_POSITION INT NOT NULL, ACCOUNT_NUMBER INT NOT NULL, NAME " + TEXT + ","
+	    + " DESCRIPTION " + TEXT + ", BALANCE DOUBLE NOT NULL,"
+	    + " ACCOUNT_TYPE SMALLINT NOT NULL, TRANSACTIONS_ENABLED SMALLINT NOT NULL)",
+	"CREATE TABLE JAC_TRANSACTIONS (ID INT NOT NULL PRIMARY KEY, TX_DATE BIGINT NOT NULL,"
+	    + " DATE_POSITION INT NOT NULL, REF_NO " + TEXT + ", MEMO " + TEXT + ","
+	    + " AMOUNT DOUBLE NOT NULL)",
+	"CREATE INDEX JAC_TRANSACTIONS_DATE ON JAC_TRANSACTIONS (TX_DATE, DATE_POSITION)",
+	"CREATE TABLE JAC_ENTRIES (ID INT NOT NULL PRIMARY KEY, ACCOUNT_ID INT NOT NULL,"
+	    + " ENTRY_POSITION INT NOT NULL, TRANSACTION_ID INT NOT NULL,"
+	    + " TRANSFER_ACCOUNT_ID INT NOT NULL, ENTRY_TYPE SMALLINT NOT NULL,"
+	    + " BALANCE DOUBLE NOT NULL)",
+	"CREATE INDEX JAC_ENTRIES_ACCOUNT ON JAC_ENTRIES (ACCOUNT_ID, ENTRY_POSITION)",
+	"CREATE INDEX JAC_ENTRIES_TRANSACTION ON JAC_ENTRIES (TRANSACTION_ID)"
+    };
+
+    private File file;			// the database file
+
+    private Connection connection;	// the connection to the database; null until needed
+
+    private Table<Account> accounts;	// the account table
+
+    private Table<Transaction> transactions;	// the transaction table
+
+    private Table<TransactionEntry> entries;	// the entry table
+
+    /** the account, transaction and entry tables, in the order of the changes of a checkpoint */
+    private Table<?>[] tables;
+
+    private String savedRootName;	// the root name last saved
+
+    private int createdSequence;	// sequence number of the last checkpoint created
+
+    private int writtenSequence;	// sequence number of the last checkpoint written
+
+    private boolean synced;		// whether the rows match the values last saved
+
+    private boolean closed;		// whether close was called
+
+
+    /**
+     * Sole constructor. The database need not exist yet.
+     *
+     * @param pFile		the database file
+     * @since			1.0.0
+     */
+    public JdbcStorage(File pFile) {
+	file = pFile;
+	accounts = new Table<Account>("JAC_ACCOUNTS",
+		new String[] {"PARENT_ID", "CHILD_POSITION", "ACCOUNT_NUMBER", "NAME",
+			      "DESCRIPTION", "BALANCE", "ACCOUNT_TYPE", "TRANSACTIONS_ENABLED"},
+		new int[] {Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.VARCHAR,
+			   Types.VARCHAR, Types.DOUBLE, Types.SMALLINT, Types.SMALLINT});
+	transactions = new Table<Transaction>("JAC_TRANSACTIONS",
+		new String[] {"TX_DATE", "DATE_POSITION", "REF_NO", "MEMO", "AMOUNT"},
+		new int[] {Types.BIGINT, Types.INTEGER, Types.VARCHAR, Types.VARCHAR,
+			   Types.DOUBLE});
+	entries = new Table<TransactionEntry>("JAC_ENTRIES",
+		new String[] {"ACCOUNT_ID", "ENTRY_POSITION", "TRANSACTION_ID",
+			      "TRANSFER_ACCOUNT_ID", "ENTRY_TYPE", "BALANCE"},
+		new int[] {Types.INTEGER, Types.INTEGER, Types.INTEGER,
+			   Types.INTEGER, Types.SMALLINT, Types.DOUBLE});
+	tables = new Table<?>[] {accounts, transactions, entries};
+	createdSequence = 0;
+	writtenSequence = 0;
+	synced = false;
+	closed = false;
+    }
+
+
+    private synchronized Connection getConnection() throws IOException, SQLException {
+	if (connection == null) {
+	    String vDriver = System.getProperty(DRIVER_PROPERTY, DEFAULT_DRIVER);
+	    String vUrl = System.getProperty(URL_PROPERTY, DEFAULT_URL);
+
+	    try {
+		Class.forName(vDriver);
+	    }
+	    catch (ClassNotFoundException ex) {
+		throw toIOException("JDBC driver not found: " + vDriver, ex);
+	    }
+	    connection = DriverManager.getConnection(vUrl.replace("{0}", file.getAbsolutePath()));
+	    connection.setAutoCommit(false);
+	}
+
+	return connection;
+    }
+
+    private static IOException toIOException(String pMessage, Exception pCause) {
+	IOException rEx = new IOException(pMessage);
+
+	rEx.initCause(pCause);
+	return rEx;
+    }
+
+    private static boolean hasSchema(Connection pConnection) throws SQLException {
+	ResultSet vTables = pConnection.getMetaData().getTables(null, null, "JAC_META", null);
+
+	try {
+	    return vTables.next();
+	}
+	finally {
+	    vTables.close();
+	}
+    }
+
+    /**
+     * Loads the application data kept in the database. The whole data is read
+     * at once; the listener is never called.
+     *
+     * @param pListener				unused
+     * @return					the Data loaded
+     * @throws IOException			if the database could not be
+     *						read or holds no data
+     * @throws UnPersistenceFailureException	if the rows read do not make
+     *						up a valid Data of a supported
+     *						revision
+     * @since					1.0.0
+     */
+    public Data load(LoadListener pListener) throws IOException, UnPersistenceFailureException {
+	Data rData;
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.queryingDatabase");
+	try {
+	    Connection vConnection = getConnection();
+
+	    if (!hasSchema(vConnection)) {
+		throw new IOException("No data in database " + file);
+	    }
+	    try {
+		rData = readData(vConnection);
+	    }
+	    finally {
+		vConnection.rollback();
+	    }
+	}
+	catch (SQLException ex) {
+	    throw toIOException("Failed to read database " + file, ex);
+	}
+	catch (GenericException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+
+	/**
+	 * Take the values of the objects read as the values saved so that the
+	 * first checkpoint only writes what changes from now on.
+	 */
+	track(rData, null);
+	synced = true;
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+
+	return rData;
+    }
+
+    private Data readData(Connection pConnection) throws SQLException, GenericException {
+	Statement vStatement = pConnection.createStatement();
+	ResultSet vRows;
+	String vRootName = null;
+	int vRevision = 0;
+
+	try {
+	    vRows = vStatement.executeQuery("SELECT NAME, VAL FROM JAC_META");
+	    while (vRows.next()) {
+		if (REVISION_NAME.equals(vRows.getString(1))) {
+		    vRevision = Integer.parseInt(vRows.getString(2));
+		}
+		else if (ROOT_NAME.equals(vRows.getString(1))) {
+		    vRootName = vRows.getString(2);
+		}
+	    }
+	    vRows.close();
+	    if (vRevision < 1 || vRevision > REVISION) {
+		throw new UnPersistenceFailureException();
+	    }
+
+	    /**
+	     * Transactions need their entries and Accounts need their entries
+	     * lists, so the transactions are kept as read until the entries are.
+	     */
+	    List<Integer> vTransIds = new ArrayList<Integer>();
+	    List<Object[]> vTransValues = new ArrayList<Object[]>();
+	    Map<Integer, Integer> vTransIndexes = new HashMap<Integer, Integer>();
+
+	    vRows = vStatement.executeQuery("SELECT ID, TX_DATE, REF_NO, MEMO, AMOUNT"
+					    + " FROM JAC_TRANSACTIONS ORDER BY TX_DATE, DATE_POSITION");
+	    while (vRows.next()) {
+		vTransIndexes.put(vRows.getInt(1), vTransIds.size());
+		vTransIds.add(vRows.getInt(1));
+		vTransValues.add(new Object[] {new Date(vRows.getLong(2)), vRows.getString(3),
+					       vRows.getString(4), vRows.getDouble(5)});
+	    }
+	    vRows.close();
+
+	    TransactionEntry[] vDebitEntries = new TransactionEntry[vTransIds.size()];
+	    TransactionEntry[] vCreditEntries = new TransactionEntry[vTransIds.size()];
+	    Map<Integer, List<TransactionEntry>> vAccountEntries = new HashMap<Integer, List<TransactionEntry>>();
+	    List<TransactionEntry> vEntries = new ArrayList<TransactionEntry>();
+	    List<Integer> vTransferAccountIds = new ArrayList<Integer>();
+	    TransactionEntry.Type[] vEntryTypes = TransactionEntry.Type.values();
+
+	    vRows = vStatement.executeQuery("SELECT ID, ACCOUNT_ID, TRANSACTION_ID,"
+					    + " TRANSFER_ACCOUNT_ID, ENTRY_TYPE, BALANCE"
+					    + " FROM JAC_ENTRIES ORDER BY ACCOUNT_ID, ENTRY_POSITION");
+	    while (vRows.next()) {
+		Integer vTransIndex = vTransIndexes.get(vRows.getInt(3));
+		int vType = vRows.getInt(5);
+		TransactionEntry[] vSide;
+		TransactionEntry vEntry;
+		List<TransactionEntry> vList;
+
+		if (vTransIndex == null || vType < 0 || vType >= vEntryTypes.length) {
+		    throw new UnPersistenceFailureException();
+		}
+		vEntry = new TransactionEntry(null, null, vEntryTypes[vType], vRows.getDouble(6));
+		vSide = (vEntryTypes[vType] == TransactionEntry.Type.DEBIT) ? vDebitEntries : vCreditEntries;
+		if (vSide[vTransIndex] != null) throw new UnPersistenceFailureException();
+		vSide[vTransIndex] = vEntry;
+		vList = vAccountEntries.get(vRows.getInt(2));
+		if (vList == null) {
+		    vList = new ArrayList<TransactionEntry>();
+		    vAccountEntries.put(vRows.getInt(2), vList);
+		}
+		vList.add(vEntry);
+		vEntries.add(vEntry);
+		vTransferAccountIds.add(vRows.getInt(4));
+		entries.putId(vEntry, vRows.getInt(1));
+	    }
+	    vRows.close();
+
+	    List<Transaction> vTransactions = new ArrayList<Transaction>(vTransIds.size());
+
+	    for (int vI = 0; vI < vTransIds.size(); vI++) {
+		Object[] vValues = vTransValues.get(vI);
+		Transaction vTrans;
+
+		if (vDebitEntries[vI] == null || vCreditEntries[vI] == null) {
+		    throw new UnPersistenceFailureException();
+		}
+		vTrans = Transaction.createTransaction((Date) vValues[0], (String) vValues[1],
+				(String) vValues[2], ((Double) vValues[3]).doubleValue(),
+				vDebitEntries[vI], vCreditEntries[vI]);
+		vTransactions.add(vTrans);
+		transactions.putId(vTrans, vTransIds.get(vI).intValue());
+	    }
+
+	    /**
+	     * Create all the nodes before attaching them, in position order, to
+	     * parents that may come later in the result.
+	     */
+	    Map<Integer, AccountTreeNode> vNodes = new HashMap<Integer, AccountTreeNode>();
+	    List<AccountTreeNode> vOrderedNodes = new ArrayList<AccountTreeNode>();
+	    List<Integer> vParentIds = new ArrayList<Integer>();
+	    AccountTreeNode[] vTopLevelNodes = new AccountTreeNode[5];
+	    Account.Type[] vAccountTypes = Account.Type.values();
+
+	    vRows = vStatement.executeQuery("SELECT ID, PARENT_ID, CHILD_POSITION, ACCOUNT_NUMBER,"
+					    + " NAME, DESCRIPTION, BALANCE, ACCOUNT_TYPE,"
+					    + " TRANSACTIONS_ENABLED FROM JAC_ACCOUNTS"
+					    + " ORDER BY CHILD_POSITION, ID");
+	    while (vRows.next()) {
+		int vId = vRows.getInt(1);
+		int vParentId = vRows.getInt(2);
+		boolean vTopLevel = vRows.wasNull();
+		int vPosition = vRows.getInt(3);
+		int vType = vRows.getInt(8);
+		List<TransactionEntry> vList = vAccountEntries.remove(vId);
+		Account vAcct;
+
+		if (vType < 0 || vType >= vAccountTypes.length) {
+		    throw new UnPersistenceFailureException();
+		}
+		vAcct = Account.createAccount(vRows.getInt(4), vRows.getString(5),
+				vRows.getString(6), vRows.getDouble(7), vAccountTypes[vType],
+				(vList == null) ? new ArrayList<TransactionEntry>() : vList,
+				vRows.getInt(9) != 0);
+		if (vNodes.containsKey(vId)) throw new UnPersistenceFailureException();
+		vNodes.put(vId, new AccountTreeNode(vAcct));
+		accounts.putId(vAcct, vId);
+		if (vTopLevel) {
+		    if (vPosition < 0 || vPosition >= vTopLevelNodes.length
+			    || vTopLevelNodes[vPosition] != null) {
+			throw new UnPersistenceFailureException();
+		    }
+		    vTopLevelNodes[vPosition] = vNodes.get(vId);
+		}
+		else {
+		    vOrderedNodes.add(vNodes.get(vId));
+		    vParentIds.add(vParentId);
+		}
+	    }
+	    vRows.close();
+	    if (!vAccountEntries.isEmpty()) throw new UnPersistenceFailureException();
+	    for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+		if (vTopLevelNodes[vI] == null) throw new UnPersistenceFailureException();
+	    }
+	    for (int vI = 0; vI < vOrderedNodes.size(); vI++) {
+		AccountTreeNode vParent = vNodes.get(vParentIds.get(vI));
+
+		if (vParent == null || vParent == vOrderedNodes.get(vI)) {
+		    throw new UnPersistenceFailureException();
+		}
+		vParent.add(vOrderedNodes.get(vI));
+	    }
+	    for (int vI = 0; vI < vEntries.size(); vI++) {
+		AccountTreeNode vTransferNode = vNodes.get(vTransferAccountIds.get(vI));
+
+		if (vTransferNode == null) throw new UnPersistenceFailureException();
+		vEntries.get(vI).initTransferAccount((Account) vTransferNode.getUserObject());
+	    }
+
+	    return new Data(new Journal(vTransactions),
+			    new GeneralLedger(new DefaultMutableTreeNode(vRootName),
+					      vTopLevelNodes[0], vTopLevelNodes[1],
+					      vTopLevelNodes[3], vTopLevelNodes[4],
+					      vTopLevelNodes[2]));
+	}
+	catch (NumberFormatException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	finally {
+	    vStatement.close();
+	}
+    }
+
+    /**
+     * Finishes loading the application data. There is nothing left to do as
+     * the whole data was read by {@link #load(jaccounting.LoadListener)}.
+     *
+     * @param pData		the Data loaded
+     * @since			1.0.0
+     */
+    public void finishLoad(Data pData) {
+    }
+
+    /**
+     * Gets the date from which all the Transactions are loaded. A JdbcStorage
+     * loads all of its data at once.
+     *
+     * @return			null
+     * @since			1.0.0
+     */
+    public Date getLoadedFrom() {
+	return null;
+    }
+
+    public boolean loadEarlier(Data pData) {
+	return false;
+    }
+
+    /**
+     * Gets the log the models report their changes to. The changes are found
+     * by comparing the data with the values last saved instead.
+     *
+     * @return			null
+     * @since			1.0.0
+     */
+    public MutationLog getMutationLog() {
+	return null;
+    }
+
+    public ChangeTracker getChangeTracker() {
+	return null;
+    }
+
+    /**
+     * Starts saving the application data to the database. This method finds
+     * the rows to insert, update and delete, which the returned Checkpoint
+     * writes. If the database does not hold the data yet or an earlier save
+     * failed, all the rows are rewritten.
+     *
+     * @param pData		the Data to save
+     * @return			the Checkpoint to write and commit
+     * @throws IOException	if an I/O error ocurred
+     * @see			JdbcCheckpoint
+     * @since			1.0.0
+     */
+    public Checkpoint createCheckpoint(Data pData) throws IOException {
+	JdbcCheckpoint rCheckpoint;
+
+	synchronized (this) {
+	    rCheckpoint = new JdbcCheckpoint(++createdSequence, !synced);
+	}
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.persistingFile");
+	track(pData, rCheckpoint);
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+
+	return rCheckpoint;
+    }
+
+    /**
+     * Closes the connection to the database. Checkpoints not written yet are
+     * dropped.
+     *
+     * @since			1.0.0
+     */
+    public synchronized void close() {
+	closed = true;
+	notifyAll();
+	if (connection == null) return;
+	try {
+	    connection.rollback();
+	    connection.close();
+	}
+	catch (SQLException ex) {
+	    Logger.getLogger(JdbcStorage.class.getName()).log(Level.WARNING, null, ex);
+	}
+	connection = null;
+    }
+
+    /**
+     * Compares the Data with the values last saved and records the changes in
+     * a Checkpoint, or only takes the values of the Data as saved if no
+     * Checkpoint is given.
+     */
+    private void track(Data pData, JdbcCheckpoint pCheckpoint) {
+	GeneralLedger vLedger = pData.getGeneralLedger();
+	AccountTreeNode[] vTopLevelNodes = {vLedger.getAssetsNode(),
+		vLedger.getLiabilitiesNode(), vLedger.getEquityNode(),
+		vLedger.getRevenuesNode(), vLedger.getExpensesNode()};
+	String vRootName = (String) vLedger.getRoot().getUserObject();
+	List<Account> vAccounts = new ArrayList<Account>();
+	Date vDate = null;
+	int vDatePosition = 0;		// the position among the Transactions of that date
+
+	Changes vAccountChanges = (pCheckpoint == null) ? null : pCheckpoint.changes[0];
+	Changes vTransactionChanges = (pCheckpoint == null) ? null : pCheckpoint.changes[1];
+	Changes vEntryChanges = (pCheckpoint == null) ? null : pCheckpoint.changes[2];
+
+	for (int vI = 0; vI < tables.length; vI++) {
+	    tables[vI].startPass(pCheckpoint != null && pCheckpoint.full);
+	}
+
+	for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+	    trackAccountTreeNode(vTopLevelNodes[vI], null, vI, vAccounts, vAccountChanges);
+	}
+	for (Transaction vTrans : pData.getJournal().getTransactions()) {
+	    vDatePosition = vTrans.getDate().equals(vDate) ? vDatePosition + 1 : 0;
+	    vDate = vTrans.getDate();
+	    transactions.record(vTrans, new Object[] {
+		    Long.valueOf(vDate.getTime()), Integer.valueOf(vDatePosition), vTrans.getRefNo(),
+		    vTrans.getMemo(), Double.valueOf(vTrans.getAmount())},
+		vTransactionChanges);
+	}
+	for (Account vAcct : vAccounts) {
+	    Integer vAccountId = Integer.valueOf(accounts.idOf(vAcct));
+	    List<TransactionEntry> vEntries = vAcct.getEntries();
+
+	    for (int vI = 0; vI < vEntries.size(); vI++) {
+		TransactionEntry vEntry = vEntries.get(vI);
+
+		entries.record(vEntry, new Object[] {
+			vAccountId, Integer.valueOf(vI),
+			Integer.valueOf(transactions.idOf(vEntry.getTransaction())),
+			Integer.valueOf(accounts.idOf(vEntry.getTransferAccount())),
+			Integer.valueOf(vEntry.getType().ordinal()),
+			Double.valueOf(vEntry.getAccountBalance())},
+		    vEntryChanges);
+	    }
+	}
+
+	for (int vI = 0; vI < tables.length; vI++) {
+	    tables[vI].endPass((pCheckpoint == null) ? null : pCheckpoint.changes[vI]);
+	}
+	if (pCheckpoint != null && (pCheckpoint.full || !vRootName.equals(savedRootName))) {
+	    pCheckpoint.rootName = vRootName;
+	}
+	savedRootName = vRootName;
+    }
+
+    private void trackAccountTreeNode(AccountTreeNode pNode, Integer pParentId, int pPosition,
+				      List<Account> pAccounts, Changes pChanges) {
+	Account vAcct = (Account) pNode.getUserObject();
+	Integer vId = Integer.valueOf(accounts.idOf(vAcct));
+	Enumeration vChildren = pNode.children();
+	int vPosition = 0;
+
+	pAccounts.add(vAcct);
+	accounts.record(vAcct, new Object[] {
+		pParentId, Integer.valueOf(pPosition), Integer.valueOf(vAcct.getNumber()),
+		vAcct.getName(), vAcct.getDescription(), Double.valueOf(vAcct.getBalance()),
+		Integer.valueOf(vAcct.getType().ordinal()),
+		Integer.valueOf(vAcct.isTransactionsEnabled() ? 1 : 0)},
+	    pChanges);
+	while (vChildren.hasMoreElements()) {
+	    trackAccountTreeNode((AccountTreeNode) vChildren.nextElement(), vId, vPosition++,
+				 pAccounts, pChanges);
+	}
+    }
+
+    private void writeCheckpoint(JdbcCheckpoint pCheckpoint) throws IOException, SQLException {
+	Connection vConnection = getConnection();
+	Statement vStatement = vConnection.createStatement();
+
+	try {
+	    if (pCheckpoint.full) {
+		if (hasSchema(vConnection)) {
+		    vStatement.executeUpdate("DELETE FROM JAC_META");
+		    for (int vI = 0; vI < tables.length; vI++) {
+			vStatement.executeUpdate("DELETE FROM " + tables[vI].name);
+		    }
+		}
+		else {
+		    for (int vI = 0; vI < SCHEMA.length; vI++) {
+			vStatement.executeUpdate(SCHEMA[vI]);
+		    }
+		}
+		writeMeta(vConnection, "INSERT INTO JAC_META (VAL, NAME) VALUES (?, ?)",
+			  REVISION_NAME, String.valueOf(REVISION));
+		writeMeta(vConnection, "INSERT INTO JAC_META (VAL, NAME) VALUES (?, ?)",
+			  ROOT_NAME, pCheckpoint.rootName);
+	    }
+	    else if (pCheckpoint.rootName != null) {
+		writeMeta(vConnection, "UPDATE JAC_META SET VAL = ? WHERE NAME = ?",
+			  ROOT_NAME, pCheckpoint.rootName);
+	    }
+	}
+	finally {
+	    vStatement.close();
+	}
+	for (int vI = 0; vI < tables.length; vI++) {
+	    tables[vI].write(vConnection, pCheckpoint.changes[vI]);
+	}
+	vConnection.commit();
+    }
+
+    private static void writeMeta(Connection pConnection, String pSql, String pName,
+				  String pValue) throws SQLException {
+	PreparedStatement vStatement = pConnection.prepareStatement(pSql);
+
+	try {
+	    vStatement.setString(1, pValue);
+	    vStatement.setString(2, pName);
+	    vStatement.executeUpdate();
+	}
+	finally {
+	    vStatement.close();
+	}
+    }
+
+
+    /**
+     * JdbcCheckpoint is the class writing the changes made to the application
+     * data since the previous checkpoint to the database. Its {@link #write()}
+     * method waits for the checkpoints created before to be written, then
+     * writes the changes in one database transaction. There is nothing left to
+     * do when it is committed.
+     *
+     * @version		    1.0.0
+     * @since		    1.0.0
+     */
+    private class JdbcCheckpoint implements Checkpoint {
+
+	private int sequence;		    // the sequence number of the checkpoint
+
+	private boolean full;		    // whether all rows are rewritten
+
+	private Changes[] changes;	    // the changes to each table
+
+	private String rootName;	    // the root name to save or null
+
+
+	private JdbcCheckpoint(int pSequence, boolean pFull) {
+	    sequence = pSequence;
+	    full = pFull;
+	    changes = new Changes[tables.length];
+	    for (int vI = 0; vI < changes.length; vI++) {
+		changes[vI] = new Changes();
+	    }
+	}
+
+
+	/**
+	 * Writes the changes to the database. Nothing is written if the
+	 * JdbcStorage was closed since this Checkpoint was created.
+	 *
+	 * @throws IOException	    if an earlier Checkpoint failed or the
+	 *			    changes could not be written
+	 * @since		    1.0.0
+	 */
+	public void write() throws IOException {
+	    synchronized (JdbcStorage.this) {
+		try {
+		    while (!closed && writtenSequence != sequence - 1) {
+			JdbcStorage.this.wait();
+		    }
+		}
+		catch (InterruptedException ex) {
+		    synced = false;
+		    throw toIOException("Interrupted while waiting to save", ex);
+		}
+
+		try {
+		    if (closed) return;
+		    if (!synced && !full) {
+			throw new IOException("An earlier save failed; the next save rewrites the database");
+		    }
+		    writeCheckpoint(this);
+		    synced = true;
+		}
+		catch (IOException ex) {
+		    synced = false;
+		    throw ex;
+		}
+		catch (SQLException ex) {
+		    synced = false;
+		    try {
+			if (connection != null) connection.rollback();
+		    }
+		    catch (SQLException vEx) {
+			Logger.getLogger(JdbcStorage.class.getName()).log(Level.WARNING, null, vEx);
+		    }
+		    throw toIOException("Failed to write database " + file, ex);
+		}
+		finally {
+		    writtenSequence = sequence;
+		    JdbcStorage.this.notifyAll();
+		}
+	    }
+	}
+
+	public void commit() {
+	}
+    }
+
+    /**
+     * The rows to insert, update and delete in a table, each row starting with
+     * its id.
+     */
+    private static class Changes {
+
+	private List<Object[]> inserts = new ArrayList<Object[]>();
+
+	private List<Object[]> updates = new ArrayList<Object[]>();
+
+	private List<Integer> deletes = new ArrayList<Integer>();
+    }
+
+    /**
+     * A table of the database with the ids given to the objects of its rows
+     * and the values last saved for each row id.
+     */
+    private static class Table<T> {
+
+	private String name;		// the name of the table
+
+	private String[] columns;	// the columns other than ID
+
+	private int[] types;		// the SQL types of the columns
+
+	private IdentityIntMap<T> ids;	// the ids of the objects saved
+
+	private IdentityIntMap<T> passIds;	// the ids of the objects met in this pass
+
+	private Object[][] saved;	// the values saved by row id; null if no row
+
+	private int[] passes;		// the last pass each row id was met in
+
+	private int pass;		// the number of the pass being made
+
+	private int nextId;		// the id of the next new row
+
+	Table(String pName, String[] pColumns, int[] pTypes) {
+	    name = pName;
+	    columns = pColumns;
+	    types = pTypes;
+	    ids = new IdentityIntMap<T>();
+	    saved = new Object[64][];
+	    passes = new int[64];
+	    pass = 0;
+	    nextId = 1;
+	}
+
+	/**
+	 * Gives an object read from the database the id of its row. New rows
+	 * get ids past all the ids read, whatever order the objects are met in.
+	 */
+	void putId(T pObject, int pId) {
+	    ids.put(pObject, pId);
+	    if (pId >= nextId) nextId = pId + 1;
+	}
+
+	void startPass(boolean pFull) {
+	    passIds = new IdentityIntMap<T>();
+	    pass++;
+	    if (pFull) saved = new Object[saved.length][];
+	}
+
+	int idOf(T pObject) {
+	    int rId = passIds.get(pObject);
+
+	    if (rId == IdentityIntMap.NO_VALUE) {
+		rId = ids.get(pObject);
+		if (rId == IdentityIntMap.NO_VALUE) rId = nextId++;
+		passIds.put(pObject, rId);
+	    }
+
+	    return rId;
+	}
+
+	void record(T pObject, Object[] pValues, Changes pChanges) {
+	    int vId = idOf(pObject);
+
+	    if (vId >= saved.length) {
+		int vLength = Math.max(saved.length * 2, vId + 1);
+		Object[][] vSaved = new Object[vLength][];
+		int[] vPasses = new int[vLength];
+
+		System.arraycopy(saved, 0, vSaved, 0, saved.length);
+		System.arraycopy(passes, 0, vPasses, 0, passes.length);
+		saved = vSaved;
+		passes = vPasses;
+	    }
+	    if (pChanges != null && !Arrays.equals(saved[vId], pValues)) {
+		Object[] vRow = new Object[pValues.length + 1];
+
+		vRow[0] = Integer.valueOf(vId);
+		System.arraycopy(pValues, 0, vRow, 1, pValues.length);
+		if (saved[vId] == null) {
+		    pChanges.inserts.add(vRow);
+		}
+		else {
+		    pChanges.updates.add(vRow);
+		}
+	    }
+	    saved[vId] = pValues;
+	    passes[vId] = pass;
+	}
+
+	void endPass(Changes pChanges) {
+	    for (int vId = 1; vId < saved.length; vId++) {
+		if (saved[vId] != null && passes[vId] != pass) {
+		    if (pChanges != null) pChanges.deletes.add(Integer.valueOf(vId));
+		    saved[vId] = null;
+		}
+	    }
+	    ids = passIds;
+	    passIds = null;
+	}
+
+	void write(Connection pConnection, Changes pChanges) throws SQLException {
+	    StringBuilder vInsert = new StringBuilder("INSERT INTO " + name + " (ID");
+	    StringBuilder vUpdate = new StringBuilder("UPDATE " + name + " SET ");
+	    StringBuilder vMarks = new StringBuilder("?");
+
+	    for (int vI = 0; vI < columns.length; vI++) {
+		vInsert.append(", ").append(columns[vI]);
+		vUpdate.append((vI == 0) ? "" : ", ").append(columns[vI]).append(" = ?");
+		vMarks.append(", ?");
+	    }
+	    vInsert.append(") VALUES (").append(vMarks).append(")");
+	    vUpdate.append(" WHERE ID = ?");
+
+	    if (!pChanges.deletes.isEmpty()) {
+		PreparedStatement vStatement = pConnection.prepareStatement(
+			"DELETE FROM " + name + " WHERE ID = ?");
+
+		try {
+		    for (Integer vId : pChanges.deletes) {
+			vStatement.setInt(1, vId.intValue());
+			vStatement.addBatch();
+		    }
+		    vStatement.executeBatch();
+		}
+		finally {
+		    vStatement.close();
+		}
+	    }
+	    writeRows(pConnection, vUpdate.toString(), pChanges.updates, false);
+	    writeRows(pConnection, vInsert.toString(), pChanges.inserts, true);
+	}
+
+	/**
+	 * Binds the id first for inserts and last, in the where clause, for
+	 * updates.
+	 */
+	private void writeRows(Connection pConnection, String pSql, List<Object[]> pRows,
+			       boolean pIdFirst) throws SQLException {
+	    PreparedStatement vStatement;
+
+	    if (pRows.isEmpty()) return;
+	    vStatement = pConnection.prepareStatement(pSql);
+	    try {
+		for (Object[] vRow : pRows) {
+		    int vOffset = pIdFirst ? 2 : 1;
+
+		    for (int vI = 0; vI < columns.length; vI++) {
+			if (vRow[vI + 1] == null) {
+			    vStatement.setNull(vI + vOffset, types[vI]);
+			}
+			else {
+			    vStatement.setObject(vI + vOffset, vRow[vI + 1], types[vI]);
+			}
+		    }
+		    vStatement.setInt(pIdFirst ? 1 : columns.length + 1,
+				      ((Integer) vRow[0]).intValue());
+		    vStatement.addBatch();
+		}
+		vStatement.executeBatch();
+	    }
+	    finally {
+		vStatement.close();
+	    }
+	}
+    }
+
+}
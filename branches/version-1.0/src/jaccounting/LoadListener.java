@@ -0,0 +1,78 @@
+/*
+ * LoadListener.java	    1.0.0	    09/2009
+ * This file contains the progressive load listener interface of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import java.util.List;
+
+/**
+ * LoadListener is the interface of objects told of the progress of a load so
+ * that the data can be shown before the whole file is read. The GeneralLedger
+ * comes first; the Transactions of the Journal follow in chunks, in the order
+ * they are read, and the complete list of Transactions comes last. All methods
+ * are called from the loading thread.
+ *
+ * The Journal of the Data given to {@link #generalLedgerLoaded(Data)} is left
+ * empty by the loader; a listener owns it and may fill it with the chunks it is
+ * given. The GeneralLedger is not changed by the loader once handed out: the
+ * entries of its Accounts are rebuilt apart and set, with their balances, when
+ * the load is finished from the thread the data is changed from. Until then an
+ * Account has no entries and shows the balance stored in the file, if any.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    ModelsMngr#load(java.lang.String, jaccounting.LoadListener)
+ * @see		    XmlDataReader
+ * @since	    1.0.0
+ */
+public interface LoadListener {
+
+    /**
+     * Handles the end of the loading of the GeneralLedger.
+     *
+     * @param pData		the Data being loaded; its GeneralLedger holds
+     *				every Account, without entries, and its
+     *				Journal is empty
+     * @since			1.0.0
+     */
+    public void generalLedgerLoaded(Data pData);
+
+    /**
+     * Handles the loading of a chunk of Transactions. Chunks are given in the
+     * order of the Journal; a file whose Transactions are not stored in that
+     * order has its remaining Transactions given only with the complete list.
+     *
+     * @param pTransactions	the Transactions following those of the previous
+     *				chunks
+     * @since			1.0.0
+     */
+    public void transactionsLoaded(List<Transaction> pTransactions);
+
+    /**
+     * Handles the end of the loading of the Journal.
+     *
+     * @param pTransactions	all the Transactions of the Journal in order
+     * @since			1.0.0
+     */
+    public void journalLoaded(List<Transaction> pTransactions);
+
+}
@@ -367,6 +367,8 @@ public class MainView extends FrameView implements ChangeListener, Observer {
         stdToolsBar = new javax.swing.JToolBar();
         saveButton = new javax.swing.JButton();
         closeTabButton = new javax.swing.JButton();
+        exportJournalButton = new javax.swing.JButton();
+        exportAccountLedgersButton = new javax.swing.JButton();
         tabsContainer = new javax.swing.JTabbedPane();
         generalLedgerToolsBar = new javax.swing.JToolBar();
         newAccountButton = new javax.swing.JButton();
@@ -377,6 +379,7 @@ public class MainView extends FrameView implements ChangeListener, Observer {
         newTransactionButton = new javax.swing.JButton();
         editTransactionButton = new javax.swing.JButton();
         deleteTransactionButton = new javax.swing.JButton();
+        importTransactionsButton = new javax.swing.JButton();
         menuBar = new javax.swing.JMenuBar();
         javax.swing.JMenu fileMenu = new javax.swing.JMenu();
         saveMenuItem = new javax.swing.JMenuItem();
@@ -408,6 +411,20 @@ public class MainView extends FrameView implements ChangeListener, Observer {
         closeTabButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
         stdToolsBar.add(closeTabButton);
 
+        exportJournalButton.setAction(JAccounting.getApplication().getContext().getActionMap(MainController.class, MainController.getInstance()).get("exportJournal"));
+        exportJournalButton.setFocusable(false);
+        exportJournalButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        exportJournalButton.setName("exportJournalButton"); // NOI18N
+        exportJournalButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        stdToolsBar.add(exportJournalButton);
+
+        exportAccountLedgersButton.setAction(JAccounting.getApplication().getContext().getActionMap(MainController.class, MainController.getInstance()).get("exportAccountLedgers"));
+        exportAccountLedgersButton.setFocusable(false);
+        exportAccountLedgersButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        exportAccountLedgersButton.setName("exportAccountLedgersButton"); // NOI18N
+        exportAccountLedgersButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        stdToolsBar.add(exportAccountLedgersButton);
+
         tabsContainer.setName("tabsContainer"); // NOI18N
 
         generalLedgerToolsBar.setRollover(true);
@@ -465,6 +482,13 @@ public class MainView extends FrameView implements ChangeListener, Observer {
         deleteTransactionButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
         journalToolsBar.add(deleteTransactionButton);
 
+        importTransactionsButton.setAction(JAccounting.getApplication().getContext().getActionMap(JournalController.class, JournalController.getInstance()).get("importTransactions"));
+        importTransactionsButton.setFocusable(false);
+        importTransactionsButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        importTransactionsButton.setName("importTransactionsButton"); // NOI18N
+        importTransactionsButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        journalToolsBar.add(importTransactionsButton);
+
         javax.swing.GroupLayout mainPanelLayout = new javax.swing.GroupLayout(mainPanel);
         mainPanel.setLayout(mainPanelLayout);
         mainPanelLayout.setHorizontalGroup(
@@ -569,7 +593,10 @@ public class MainView extends FrameView implements ChangeListener, Observer {
     private javax.swing.JButton deleteTransactionButton;
     private javax.swing.JButton editAccountButton;
     private javax.swing.JButton editTransactionButton;
+    private javax.swing.JButton exportAccountLedgersButton;
+    private javax.swing.JButton exportJournalButton;
     private javax.swing.JToolBar generalLedgerToolsBar;
+    private javax.swing.JButton importTransactionsButton;
     private javax.swing.JToolBar journalToolsBar;
     private javax.swing.JPanel mainPanel;
     private javax.swing.JMenuBar menuBar;
@@ -0,0 +1,459 @@
+/*
+ * MappedSnapshot.java	    1.0.0	    09/2009
+ * This file contains the memory-mapped snapshot class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * MappedSnapshot is the class giving read-only access to a snapshot in the
+ * application binary format described by {@link BinaryDataFormat} without
+ * reading it into memory. The tables of the snapshot are mapped in memory and
+ * their records are decoded on demand through reusable {@link TransactionRecord}
+ * and {@link EntryRecord} cursors. Only the Accounts are created as model
+ * objects, with no entries, so the GeneralLedger can be browsed as usual; the
+ * {@link ModelsMngr} holds a MappedSnapshot while the application is in
+ * viewer mode.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    BinaryDataFormat
+ * @see		    ModelsMngr#openReadOnly(java.lang.String)
+ * @since	    1.0.0
+ */
+public class MappedSnapshot {
+
+    /**
+     * Each table is mapped on its own so that a snapshot may be larger than
+     * what a single buffer can address; only a table is limited to 2GB. The
+     * strings have no fixed width, so the offset of every string is found by
+     * walking the string table once when the snapshot is opened. Records are
+     * read with the absolute get methods, which leave the buffers untouched;
+     * a corrupted record index shows up as an IndexOutOfBoundsException.
+     */
+
+    private RandomAccessFile file;	// the snapshot file
+
+    private ByteBuffer strings;		// the mapped tables
+    private ByteBuffer accounts;
+    private ByteBuffer entries;
+    private ByteBuffer transactions;
+
+    private int[] stringOffsets;	// offset of each string in the string table
+
+    private int accountsCount;
+
+    private int entriesCount;
+
+    private int transactionsCount;
+
+    private int rootName;		// string index of the general ledger root's name
+
+    private int[] topLevelAccounts;	// indexes of the top level accounts
+
+    /** mapping of the created Accounts to their indexes in the account table */
+    private Map<Account, Integer> accountIndexes;
+
+
+    private MappedSnapshot(RandomAccessFile pFile) {
+	file = pFile;
+	topLevelAccounts = new int[5];
+	accountIndexes = new IdentityHashMap<Account, Integer>();
+    }
+
+
+    /**
+     * Opens a snapshot file and maps its tables in memory.
+     *
+     * @param pFile				the snapshot file
+     * @return					the MappedSnapshot of the file
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if the file does not hold a valid
+     *						snapshot of a supported version
+     * @since					1.0.0
+     */
+    public static MappedSnapshot open(File pFile) throws IOException, UnPersistenceFailureException {
+	MappedSnapshot rSnapshot = new MappedSnapshot(new RandomAccessFile(pFile, "r"));
+
+	try {
+	    rSnapshot.map();
+	}
+	catch (IOException ex) {
+	    rSnapshot.close();
+	    throw ex;
+	}
+	catch (UnPersistenceFailureException ex) {
+	    rSnapshot.close();
+	    throw ex;
+	}
+
+	return rSnapshot;
+    }
+
+    private void map() throws IOException, UnPersistenceFailureException {
+	FileChannel vChannel = file.getChannel();
+	long vLength = vChannel.size();
+	ByteBuffer vHeader;
+	int vStringsCount;
+	long vOffset;
+
+	if (vLength < BinaryDataFormat.HEADER_SIZE) throw new UnPersistenceFailureException();
+	vHeader = vChannel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryDataFormat.HEADER_SIZE);
+	if (vHeader.getInt() != BinaryDataFormat.MAGIC
+		|| vHeader.getInt() > BinaryDataFormat.VERSION) {
+	    throw new UnPersistenceFailureException();
+	}
+	vStringsCount = readCount(vHeader.getInt());
+	int vStringTableBytes = readCount(vHeader.getInt());
+	accountsCount = readCount(vHeader.getInt());
+	entriesCount = readCount(vHeader.getInt());
+	transactionsCount = readCount(vHeader.getInt());
+	rootName = vHeader.getInt();
+	for (int vI = 0; vI < topLevelAccounts.length; vI++) {
+	    topLevelAccounts[vI] = checkIndex(vHeader.getInt(), accountsCount);
+	}
+
+	vOffset = BinaryDataFormat.HEADER_SIZE;
+	strings = mapTable(vChannel, vOffset, vStringTableBytes, vLength);
+	vOffset += vStringTableBytes;
+	accounts = mapTable(vChannel, vOffset,
+			    (long) accountsCount * BinaryDataFormat.ACCOUNT_RECORD_SIZE, vLength);
+	vOffset += accounts.capacity();
+	entries = mapTable(vChannel, vOffset,
+			   (long) entriesCount * BinaryDataFormat.ENTRY_RECORD_SIZE, vLength);
+	vOffset += entries.capacity();
+	transactions = mapTable(vChannel, vOffset,
+				(long) transactionsCount * BinaryDataFormat.TRANSACTION_RECORD_SIZE, vLength);
+
+	stringOffsets = new int[vStringsCount];
+	int vStringOffset = 0;
+	for (int vI = 0; vI < vStringsCount; vI++) {
+	    if (vStringOffset + 4 > vStringTableBytes) throw new UnPersistenceFailureException();
+	    stringOffsets[vI] = vStringOffset;
+	    vStringOffset += 4 + checkIndex(strings.getInt(vStringOffset),
+					    vStringTableBytes - vStringOffset - 4 + 1);
+	}
+	checkIndex(rootName, vStringsCount);
+    }
+
+    private static ByteBuffer mapTable(FileChannel pChannel, long pOffset, long pSize,
+				       long pLength) throws IOException, UnPersistenceFailureException {
+	if (pSize > Integer.MAX_VALUE || pOffset + pSize > pLength) {
+	    throw new UnPersistenceFailureException();
+	}
+
+	return pChannel.map(FileChannel.MapMode.READ_ONLY, pOffset, pSize);
+    }
+
+    private static int readCount(int pCount) throws UnPersistenceFailureException {
+	if (pCount < 0) throw new UnPersistenceFailureException();
+
+	return pCount;
+    }
+
+    private static int checkIndex(int pIndex, int pSize) throws UnPersistenceFailureException {
+	if (pIndex < 0 || pIndex >= pSize) throw new UnPersistenceFailureException();
+
+	return pIndex;
+    }
+
+    /**
+     * Closes the snapshot file. The records can no longer be read afterward.
+     *
+     * @throws IOException	if an I/O error occured
+     * @since			1.0.0
+     */
+    public void close() throws IOException {
+	strings = null;
+	accounts = null;
+	entries = null;
+	transactions = null;
+	stringOffsets = null;
+	accountIndexes.clear();
+	file.close();
+    }
+
+    public int getTransactionsCount() {
+	return transactionsCount;
+    }
+
+    /**
+     * Creates the GeneralLedger of the snapshot. Its Accounts hold their
+     * number, name, description, type and balance but no entries; the entries
+     * of an Account are read through an {@link EntryRecord} instead.
+     *
+     * @return					the GeneralLedger of the snapshot
+     * @throws UnPersistenceFailureException	if the account table is not valid
+     * @see					#getEntriesCount(jaccounting.models.Account)
+     * @since					1.0.0
+     */
+    public GeneralLedger createGeneralLedger() throws UnPersistenceFailureException {
+	AccountTreeNode[] vNodes = new AccountTreeNode[accountsCount];
+	Account.Type[] vTypes = Account.Type.values();
+
+	try {
+	    accountIndexes.clear();
+	    for (int vI = 0; vI < accountsCount; vI++) {
+		int vOffset = vI * BinaryDataFormat.ACCOUNT_RECORD_SIZE;
+		int vParent = accounts.getInt(vOffset);
+		Account vAcct = Account.createAccount(accounts.getInt(vOffset + 4),
+				    getString(accounts.getInt(vOffset + 8)),
+				    getString(accounts.getInt(vOffset + 12)),
+				    accounts.getDouble(vOffset + 16),
+				    vTypes[checkIndex(accounts.get(vOffset + 24), vTypes.length)],
+				    new ArrayList<TransactionEntry>(),
+				    accounts.get(vOffset + 25) != 0);
+		int vFirstEntry = checkIndex(accounts.getInt(vOffset + 26), entriesCount + 1);
+
+		checkIndex(accounts.getInt(vOffset + 30), entriesCount - vFirstEntry + 1);
+		vNodes[vI] = new AccountTreeNode(vAcct);
+		if (vParent != BinaryDataFormat.NO_PARENT) {
+		    vNodes[checkIndex(vParent, vI)].add(vNodes[vI]);
+		}
+		accountIndexes.put(vAcct, vI);
+	    }
+	    for (int vI = 0; vI < topLevelAccounts.length; vI++) {
+		if (vNodes[topLevelAccounts[vI]].getParent() != null) {
+		    throw new UnPersistenceFailureException();
+		}
+	    }
+	}
+	catch (IndexOutOfBoundsException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (GenericException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+
+	return new GeneralLedger(new DefaultMutableTreeNode(getString(rootName)),
+				 vNodes[topLevelAccounts[0]], vNodes[topLevelAccounts[1]],
+				 vNodes[topLevelAccounts[3]], vNodes[topLevelAccounts[4]],
+				 vNodes[topLevelAccounts[2]]);
+    }
+
+    /**
+     * Gets the number of entries of an Account of the snapshot's GeneralLedger.
+     *
+     * @param pAcct		an Account created by {@link #createGeneralLedger()}
+     * @return			the number of entries of the Account; 0 if the
+     *				Account is not part of the snapshot
+     * @since			1.0.0
+     */
+    public int getEntriesCount(Account pAcct) {
+	Integer vIndex = accountIndexes.get(pAcct);
+
+	if (vIndex == null) return 0;
+
+	return accounts.getInt(vIndex.intValue() * BinaryDataFormat.ACCOUNT_RECORD_SIZE + 30);
+    }
+
+    private int getFirstEntry(Account pAcct) {
+	Integer vIndex = accountIndexes.get(pAcct);
+
+	if (vIndex == null) return 0;
+
+	return accounts.getInt(vIndex.intValue() * BinaryDataFormat.ACCOUNT_RECORD_SIZE + 26);
+    }
+
+    private String getString(int pIndex) {
+	ByteBuffer vBuffer = strings.duplicate();
+	int vOffset = stringOffsets[pIndex];
+	byte[] vBytes = new byte[vBuffer.getInt(vOffset)];
+
+	vBuffer.position(vOffset + 4);
+	vBuffer.get(vBytes);
+	try {
+	    return new String(vBytes, "UTF-8");
+	}
+	catch (UnsupportedEncodingException ex) {
+	    throw new IllegalStateException(ex);
+	}
+    }
+
+    private String getAccountName(int pIndex) {
+	return getString(accounts.getInt(pIndex * BinaryDataFormat.ACCOUNT_RECORD_SIZE + 8));
+    }
+
+    /**
+     * Creates a cursor over the transaction table.
+     *
+     * @return			a new TransactionRecord positioned on the first
+     *				transaction
+     * @since			1.0.0
+     */
+    public TransactionRecord createTransactionRecord() {
+	return new TransactionRecord();
+    }
+
+    /**
+     * Creates a cursor over the entries of an Account.
+     *
+     * @param pAcct		an Account created by {@link #createGeneralLedger()}
+     * @return			a new EntryRecord positioned on the Account's
+     *				first entry
+     * @since			1.0.0
+     */
+    public EntryRecord createEntryRecord(Account pAcct) {
+	return new EntryRecord(getFirstEntry(pAcct));
+    }
+
+
+    /**
+     * TransactionRecord is a flyweight decoding the fields of one transaction
+     * of the snapshot at a time. Moving it to another transaction only changes
+     * the offset it reads from.
+     */
+    public class TransactionRecord {
+
+	private int offset;		// offset of the current record
+
+
+	private TransactionRecord() {
+	    offset = 0;
+	}
+
+
+	/**
+	 * Positions this cursor on a transaction.
+	 *
+	 * @param pIndex	the index of the transaction in the journal
+	 * @since		1.0.0
+	 */
+	public void moveTo(int pIndex) {
+	    if (pIndex < 0 || pIndex >= transactionsCount) {
+		throw new IndexOutOfBoundsException("Transaction: " + pIndex);
+	    }
+	    offset = pIndex * BinaryDataFormat.TRANSACTION_RECORD_SIZE;
+	}
+
+	public Date getDate() {
+	    return new Date(transactions.getLong(offset));
+	}
+
+	public String getRefNo() {
+	    return getString(transactions.getInt(offset + 8));
+	}
+
+	public String getMemo() {
+	    return getString(transactions.getInt(offset + 12));
+	}
+
+	public double getAmount() {
+	    return transactions.getDouble(offset + 16);
+	}
+
+	/**
+	 * Gets the name of the debited account, which is the transfer account of
+	 * the credit entry.
+	 *
+	 * @return		the name of the debited account
+	 * @since		1.0.0
+	 */
+	public String getDebitAccountName() {
+	    return getTransferAccountName(transactions.getInt(offset + 28));
+	}
+
+	/**
+	 * Gets the name of the credited account, which is the transfer account of
+	 * the debit entry.
+	 *
+	 * @return		the name of the credited account
+	 * @since		1.0.0
+	 */
+	public String getCreditAccountName() {
+	    return getTransferAccountName(transactions.getInt(offset + 24));
+	}
+
+	private String getTransferAccountName(int pEntry) {
+	    return getAccountName(entries.getInt(pEntry * BinaryDataFormat.ENTRY_RECORD_SIZE));
+	}
+    }
+
+    /**
+     * EntryRecord is a flyweight decoding the fields of one entry of an
+     * Account of the snapshot, and of its transaction, at a time. Moving it
+     * to another entry only changes the offsets it reads from.
+     */
+    public class EntryRecord {
+
+	private int firstEntry;		// index of the Account's first entry
+
+	private int offset;		// offset of the current record
+
+	private TransactionRecord transaction;	// the current entry's transaction
+
+
+	private EntryRecord(int pFirstEntry) {
+	    firstEntry = pFirstEntry;
+	    transaction = new TransactionRecord();
+	    offset = firstEntry * BinaryDataFormat.ENTRY_RECORD_SIZE;
+	}
+
+
+	/**
+	 * Positions this cursor on an entry of the Account.
+	 *
+	 * @param pIndex	the index of the entry in the Account's entries
+	 * @since		1.0.0
+	 */
+	public void moveTo(int pIndex) {
+	    if (pIndex < 0 || firstEntry + pIndex >= entriesCount) {
+		throw new IndexOutOfBoundsException("Entry: " + pIndex);
+	    }
+	    offset = (firstEntry + pIndex) * BinaryDataFormat.ENTRY_RECORD_SIZE;
+	    transaction.moveTo(entries.getInt(offset + 4));
+	}
+
+	public String getTransferAccountName() {
+	    return getAccountName(entries.getInt(offset));
+	}
+
+	public double getAccountBalance() {
+	    return entries.getDouble(offset + 8);
+	}
+
+	public TransactionEntry.Type getType() {
+	    return TransactionEntry.Type.values()[entries.get(offset + 16)];
+	}
+
+	/**
+	 * Gets the transaction of the current entry. The returned cursor is owned
+	 * by this EntryRecord and follows it when it moves.
+	 *
+	 * @return		the TransactionRecord of the current entry
+	 * @since		1.0.0
+	 */
+	public TransactionRecord getTransaction() {
+	    return transaction;
+	}
+    }
+
+}
@@ -20,10 +20,16 @@
 
 package jaccounting;
 
+import jaccounting.models.Account;
 import jaccounting.models.Data;
+import jaccounting.models.Journal;
+import jaccounting.models.Transaction;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -31,25 +37,66 @@ import java.io.OutputStream;
  * domain. Its instance is responsible for managing the data aspect of the
  * application and persisting/unpersisting that data. The application's data
  * is encapsulated in a {@link jaccounting.models.Data Data} object and
- * the persistence is delegated to a {@link PersistenceHandler} object.
+ * the persistence is delegated to the {@link Storage} object of the loaded
+ * file. Files named with the {@link #DATABASE_FILE_EXTENSION database
+ * extension} are embedded SQL databases kept by a {@link JdbcStorage}; files
+ * named with the {@link #PARTITIONED_FILE_EXTENSION partitioned extension} are
+ * split by fiscal period by a {@link PartitionedStorage}, which only loads the
+ * open periods until earlier ones are asked for; files named with the {@link
+ * #SEGMENTED_FILE_EXTENSION segmented extension} are made of segments kept by
+ * a {@link SegmentedStorage}, which only rewrites the segments that changed;
+ * any other file is kept by a
+ * {@link FileStorage}: files named with the {@link
+ * #SNAPSHOT_FILE_EXTENSION snapshot extension} are saved and loaded as binary
+ * snapshots and any other file is an xml file, compressed if named with the
+ * {@link #COMPRESSED_FILE_EXTENSION compressed extension} appended.
+ * A snapshot file can also be opened read-only as a {@link MappedSnapshot}
+ * whose transactions are never loaded in memory, and a segmented file through
+ * its {@link SegmentedIndex}, which loads the entries of an Account only when
+ * its ledger is opened. An xml file can be loaded
+ * progressively: its data is handed out to a {@link LoadListener} before its
+ * Journal is complete and cannot be changed until the load is finished.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
- * @see		    PersistenceHandler
+ * @see		    Storage
  * @see		    jaccounting.models.Data
  * @since	    1.0.0
  */
 public class ModelsMngr {
 
-    private PersistenceHandler persister;   // the application data saver and loader
+    /** extension of the files holding a binary snapshot of the data */
+    public static final String SNAPSHOT_FILE_EXTENSION = ".jacb";
+
+    /** extension appended to the name of the files saved compressed */
+    public static final String COMPRESSED_FILE_EXTENSION = ".gz";
+
+    /** extension of the embedded databases holding the data */
+    public static final String DATABASE_FILE_EXTENSION = ".jacdb";
+
+    /** extension of the files holding the data split by fiscal period */
+    public static final String PARTITIONED_FILE_EXTENSION = ".jacp";
+
+    /** extension of the files holding the data in checksummed segments */
+    public static final String SEGMENTED_FILE_EXTENSION = ".jacs";
 
     private Data data;			    // the application's current data
 
     private String loadedFilename;	    // the name of the currently loaded file
 
+    private Storage storage;		    // the storage of the currently loaded file
+
+    private MappedSnapshot snapshot;	    // the snapshot opened read-only
+
+    private SegmentedIndex index;	    // the index of the segmented file opened read-only
+
+    private volatile boolean loading;	    // whether a progressive load is not finished
+
+    /** the Transactions of a progressive load to end the Journal with */
+    private List<Transaction> loadedTransactions;
+
 
     private ModelsMngr() {
-	persister = new PersistenceHandler();
     }
 
     private static class InstanceHolder {
@@ -72,6 +119,163 @@ public class ModelsMngr {
         return data;
     }
 
+    /**
+     * Gets the log recording the changes made to the application data since
+     * the loaded file was last fully saved.
+     *
+     * @return		the MutationLog of the loaded file; null if there is none
+     *			such as for new data not saved yet or data whose Storage
+     *			does not record changes
+     * @see		Storage#getMutationLog()
+     * @since		1.0.0
+     */
+    public MutationLog getMutationLog() {
+	return (storage == null) ? null : storage.getMutationLog();
+    }
+
+    /**
+     * Gets the tracker told which parts of the application data changed since
+     * the loaded file was last saved.
+     *
+     * @return		the ChangeTracker of the loaded file; null if its
+     *			Storage does not track changes
+     * @see		Storage#getChangeTracker()
+     * @since		1.0.0
+     */
+    public ChangeTracker getChangeTracker() {
+	return (storage == null) ? null : storage.getChangeTracker();
+    }
+
+    /**
+     * Gets the snapshot file opened in viewer mode.
+     *
+     * @return		the MappedSnapshot opened read-only; null if the data
+     *			was loaded for editing
+     * @see		#openReadOnly(java.lang.String)
+     * @since		1.0.0
+     */
+    public MappedSnapshot getMappedSnapshot() {
+	return snapshot;
+    }
+
+    /**
+     * Specifies whether the application data was opened read-only.
+     *
+     * @return		true if in viewer mode; false otherwise
+     * @since		1.0.0
+     */
+    public boolean isReadOnly() {
+	return snapshot != null || index != null;
+    }
+
+    /**
+     * Specifies whether the application data is being loaded progressively.
+     * The data must not be changed nor saved until the load is finished.
+     *
+     * @return		true if the data was handed out before being fully
+     *			loaded and the load is not finished; false otherwise
+     * @see		#load(java.lang.String, jaccounting.LoadListener)
+     * @see		#finishLoad()
+     * @since		1.0.0
+     */
+    public boolean isLoading() {
+	return loading;
+    }
+
+    /**
+     * Specifies whether Transactions of earlier periods of the loaded file are
+     * left to load.
+     *
+     * @return		true if the loaded file's Storage holds Transactions
+     *			not loaded yet; false otherwise
+     * @see		Storage#getLoadedFrom()
+     * @since		1.0.0
+     */
+    public boolean hasUnloadedPeriods() {
+	return storage != null && !loading && storage.getLoadedFrom() != null;
+    }
+
+    /**
+     * Loads the latest period of Transactions of the loaded file not loaded
+     * yet. This method must be called from the thread the data is changed
+     * from.
+     *
+     * @return		true if a period was loaded; false if there was none
+     *			left or loading it failed
+     * @see		Storage#loadEarlier(jaccounting.models.Data)
+     * @since		1.0.0
+     */
+    public boolean loadEarlierPeriod() {
+	if (storage == null || loading) return false;
+
+	try {
+	    return storage.loadEarlier(data);
+	}
+	catch (IOException ex) {
+	    Logger.getLogger(ModelsMngr.class.getName()).log(Level.SEVERE, null, ex);
+	}
+	catch (UnPersistenceFailureException ex) {
+	    Logger.getLogger(ModelsMngr.class.getName()).log(Level.SEVERE, null, ex);
+	}
+
+	return false;
+    }
+
+    /**
+     * Loads the periods of Transactions of the loaded file holding a date and
+     * all the later ones not loaded yet. This method must be called from the
+     * thread the data is changed from.
+     *
+     * @param pDate	the date to load the Transactions from; null to load
+     *			them all
+     * @return		true if all the Transactions from that date on are
+     *			loaded; false if loading them failed
+     * @see		#loadEarlierPeriod()
+     * @since		1.0.0
+     */
+    public boolean loadPeriodsFrom(Date pDate) {
+	Date vLoadedFrom;
+
+	if (storage == null || loading) return true;
+
+	while ((vLoadedFrom = storage.getLoadedFrom()) != null
+		&& (pDate == null || pDate.before(vLoadedFrom))) {
+	    if (!loadEarlierPeriod()) return false;
+	}
+
+	return true;
+    }
+
+    /**
+     * Loads the entries of an Account of a segmented file opened in viewer
+     * mode, reading only the parts of the file that hold them. Nothing is done
+     * for other files, whose Accounts have all their entries or are listed from
+     * a {@link MappedSnapshot}.
+     *
+     * @param pAcct	the Account whose entries to load
+     * @return		true if the entries of the Account are loaded; false if
+     *			loading them failed
+     * @see		SegmentedIndex#loadEntries(jaccounting.models.Account)
+     * @since		1.0.0
+     */
+    public boolean loadAccountEntries(Account pAcct) {
+	if (index == null) return true;
+
+	try {
+	    index.loadEntries(pAcct);
+
+	    return true;
+	}
+	catch (IOException ex) {
+	    Logger.getLogger(ModelsMngr.class.getName()).log(Level.SEVERE, null, ex);
+	}
+	catch (UnPersistenceFailureException ex) {
+	    Logger.getLogger(ModelsMngr.class.getName()).log(Level.SEVERE, null, ex);
+	}
+
+	return false;
+    }
+
     private Data generateDefaultData() {
 	Data rData = new Data();
         rData.getGeneralLedger().addNewDefaultAccounts();
@@ -82,9 +286,51 @@ public class ModelsMngr {
 	data = generateDefaultData();
     }
 
+    /**
+     * Opens the Storage keeping the data of a file, whether the file exists or
+     * not. The kind of Storage is given by the file's extension.
+     *
+     * @param pFilename		the name of the file. It's relative to the
+     *				application's local storage directory provided
+     *				by the system.
+     * @return			the Storage of the file
+     * @since			1.0.0
+     */
+    private Storage openStorage(String pFilename) {
+	if (pFilename.toLowerCase().endsWith(DATABASE_FILE_EXTENSION)) {
+	    return new JdbcStorage(FileStorage.getLocalFile(pFilename));
+	}
+	if (pFilename.toLowerCase().endsWith(PARTITIONED_FILE_EXTENSION)) {
+	    return new PartitionedStorage(pFilename);
+	}
+	if (pFilename.toLowerCase().endsWith(SEGMENTED_FILE_EXTENSION)) {
+	    return new SegmentedStorage(pFilename);
+	}
+	return new FileStorage(pFilename);
+    }
+
+    private void closeStorage() {
+	if (storage == null) return;
+	storage.close();
+	storage = null;
+    }
+
+    private void closeSnapshot() {
+	try {
+	    if (snapshot != null) snapshot.close();
+	    if (index != null) index.close();
+	}
+	catch (IOException ex) {
+	    Logger.getLogger(ModelsMngr.class.getName()).log(Level.WARNING, null, ex);
+	}
+	snapshot = null;
+	index = null;
+    }
+
     /**
      * Loads application data contained in a file. This method effectively delegats
-     * the job to {@link PersistenceHandler#unpersist(java.io.InputStream) upersist) }.
+     * the job to {@link Storage#load(jaccounting.LoadListener) load} of the
+     * file's Storage.
      *
      * @param pFilename				the name of the file. It's relative to the
      *						application's local storage directory provided
@@ -93,17 +339,91 @@ public class ModelsMngr {
      * @throws UnPersistenceFailureException	if an exception related to unpersisting
      *						the application data contained in the
      *						file occured
-     * @see					PersistenceHandler#unpersist(java.io.InputStream)
+     * @see					#openStorage(java.lang.String)
      * @since					1.0.0
      */
     public void load(String pFilename) throws IOException, UnPersistenceFailureException {
-	InputStream vStream = JAccounting.getApplication().getContext()
-				.getLocalStorage().openInputFile(pFilename);
-	JAccounting.getApplication().getProgressReporter()
-	    .reportUsingKey("messages.unpersistingFile");
-	data = persister.unpersist(vStream);
+	load(pFilename, null);
+    }
+
+    /**
+     * Loads application data contained in a file progressively. When the
+     * file's Storage hands the Data out early, such as for an xml file, the
+     * Data is set as the application data and handed to a LoadListener as
+     * soon as its GeneralLedger is read; the listener is then handed the
+     * Transactions to fill its Journal with as they are read. The load must
+     * then be ended with {@link #finishLoad()} from the thread the data is
+     * changed from, once every chunk was appended; until then {@link
+     * #isLoading()} is true. Otherwise this method loads the whole file as
+     * {@link #load(java.lang.String)} does and the listener is never called.
+     *
+     * @param pFilename				the name of the file. It's relative to the
+     *						application's local storage directory provided
+     *						by the system.
+     * @param pListener				the listener to tell of the
+     *						progress or null
+     * @throws IOException			if an I/O error occured such as missing file
+     * @throws UnPersistenceFailureException	if an exception related to unpersisting
+     *						the application data contained in the
+     *						file occured
+     * @see					LoadListener
+     * @since					1.0.0
+     */
+    public void load(String pFilename, final LoadListener pListener)
+	    throws IOException, UnPersistenceFailureException {
+	LoadListener vListener = null;
+
+	if (pListener != null) {
+	    vListener = new LoadListener() {
+		public void generalLedgerLoaded(Data pData) {
+		    data = pData;
+		    loading = true;
+		    pListener.generalLedgerLoaded(pData);
+		}
+
+		public void transactionsLoaded(List<Transaction> pTransactions) {
+		    pListener.transactionsLoaded(pTransactions);
+		}
+
+		public void journalLoaded(List<Transaction> pTransactions) {
+		    loadedTransactions = pTransactions;
+		    pListener.journalLoaded(pTransactions);
+		}
+	    };
+	}
+	closeStorage();
+	closeSnapshot();
+	loading = false;
+	loadedTransactions = null;
+	storage = openStorage(pFilename);
+	data = storage.load(vListener);
 	loadedFilename = pFilename;
-	JAccounting.getApplication().getProgressReporter().reportFinished();
+	if (!loading) finishLoad();
+    }
+
+    /**
+     * Finishes loading application data. This method ends a progressive load
+     * by setting the complete list of Transactions of the Journal and the
+     * entries of the Accounts, puts the Transactions in date order if the
+     * file did not hold them in order, then lets the loaded file's Storage
+     * finish the load, such as by replaying the changes recorded in its
+     * {@link MutationLog}. It must be called from the thread the data is
+     * changed from.
+     *
+     * @see		#load(java.lang.String, jaccounting.LoadListener)
+     * @see		Storage#finishLoad(jaccounting.models.Data)
+     * @since		1.0.0
+     */
+    public void finishLoad() {
+	if (loadedTransactions != null) {
+	    data.getJournal().setLoadedTransactions(loadedTransactions);
+	    data.getGeneralLedger().setLoadedEntries();
+	    data.getGeneralLedger().notifyAccountsOfLoad();
+	    loadedTransactions = null;
+	}
+	data.getJournal().orderLoadedTransactions();
+	storage.finishLoad(data);
+	loading = false;
     }
 
     /**
@@ -113,28 +433,108 @@ public class ModelsMngr {
      * @since			1.0.0
      */
     public void loadNew(String pFilename) {
+	closeStorage();
+	closeSnapshot();
+	loading = false;
+	loadedTransactions = null;
 	resetData();
 	loadedFilename = pFilename;
+	storage = openStorage(pFilename);
+    }
+
+    /**
+     * Opens a binary snapshot file for browsing only. The file is mapped in
+     * memory by a {@link MappedSnapshot}; the application data only holds the
+     * GeneralLedger's Accounts, with no entries, and an empty Journal. Views
+     * read the transactions and entries from the snapshot returned by {@link
+     * #getMappedSnapshot()}. A file named with the {@link
+     * #SEGMENTED_FILE_EXTENSION segmented extension} is opened through its
+     * {@link SegmentedIndex} instead; the Journal stays empty and the entries
+     * of an Account are loaded by {@link
+     * #loadAccountEntries(jaccounting.models.Account)}. The data cannot be
+     * saved until another file is loaded.
+     *
+     * @param pFilename				the name of the snapshot or
+     *						segmented file. A relative name is
+     *						relative to the application's
+     *						local storage directory
+     * @throws IOException			if an I/O error occured such as missing file
+     * @throws UnPersistenceFailureException	if the file is not a valid binary
+     *						snapshot or segmented file
+     * @see					MappedSnapshot
+     * @see					SegmentedIndex
+     * @since					1.0.0
+     */
+    public void openReadOnly(String pFilename) throws IOException, UnPersistenceFailureException {
+	File vFile = new File(pFilename);
+
+	closeStorage();
+	closeSnapshot();
+	loading = false;
+	loadedTransactions = null;
+	if (!vFile.isAbsolute()) vFile = FileStorage.getLocalFile(pFilename);
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.mappingFile");
+	try {
+	    if (pFilename.toLowerCase().endsWith(SEGMENTED_FILE_EXTENSION)) {
+		index = SegmentedIndex.open(vFile);
+		data = new Data(new Journal(), index.createGeneralLedger());
+	    }
+	    else {
+		snapshot = MappedSnapshot.open(vFile);
+		data = new Data(new Journal(), snapshot.createGeneralLedger());
+	    }
+	}
+	catch (IOException ex) {
+	    closeSnapshot();
+	    throw ex;
+	}
+	catch (UnPersistenceFailureException ex) {
+	    closeSnapshot();
+	    throw ex;
+	}
+	loadedFilename = pFilename;
+	JAccounting.getApplication().getProgressReporter().reportFinished();
     }
 
     /**
-     * Saves the application data to the currently loaded file. This method effectively
-     * delegates the job to {@link PersistenceHandler#persist(jaccounting.models.Data,
-     * java.io.OutputStream) persist}.
+     * Saves the application data to the currently loaded file. This method
+     * creates a {@link Storage.Checkpoint}, writes it and commits it in a row.
+     * Nothing is saved in viewer mode.
      *
      * @throws IOException	if an I/O error ocurred
-     * @see			PersistenceHandler#persist(jaccounting.models.Data,
-     *							    java.io.OutputStream)
+     * @see			#createCheckpoint()
      * @since			1.0.0
      */
     public void persit() throws IOException {
-	OutputStream vStream = JAccounting.getApplication().getContext()
-				.getLocalStorage().openOutputFile(loadedFilename);
-	JAccounting.getApplication().getProgressReporter()
-	    .reportUsingKey("messages.persistingFile");
-	persister.persist(data, vStream);
-	JAccounting.getApplication().getProgressReporter().reportFinished();
+	Storage.Checkpoint vCheckpoint = createCheckpoint();
+
+	if (vCheckpoint != null) {
+	    vCheckpoint.write();
+	    vCheckpoint.commit();
+	}
+    }
+
+    /**
+     * Starts saving the application data to the currently loaded file. This
+     * method effectively delegates the job to {@link
+     * Storage#createCheckpoint(jaccounting.models.Data) createCheckpoint} of
+     * the file's Storage: the returned Checkpoint can be written from another
+     * thread while the data keeps changing. This method must be called from
+     * the thread the data is changed from.
+     *
+     * @return			the Checkpoint to write and commit; null if there
+     *				is nothing to write, such as while the loaded
+     *				file's log is short, in viewer mode or while
+     *				loading
+     * @throws IOException	if an I/O error ocurred
+     * @see			Storage.Checkpoint
+     * @since			1.0.0
+     */
+    public Storage.Checkpoint createCheckpoint() throws IOException {
+	if (isReadOnly() || isLoading() || storage == null) return null;
+
+	return storage.createCheckpoint(data);
     }
-    
-    
+
 }
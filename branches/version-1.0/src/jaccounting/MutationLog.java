@@ -0,0 +1,672 @@
+/*
+ * MutationLog.java	    1.0.0	    09/2009
+ * This file contains the mutation log class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * MutationLog is the class recording the changes made to the application Data
+ * since it was last fully saved. A MutationLog object appends one small record
+ * to a file next to the data file for each Transaction update, Transaction
+ * addition or removal, batch of Transactions added, Account insertion or
+ * removal and Account update, and forces it to disk before returning. The data file itself is then only
+ * rewritten at checkpoints; when it is loaded, the records of its log are
+ * replayed on top of it. The {@link ModelsMngr} opens the log of the loaded
+ * file and the models report their changes to it.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    ModelsMngr
+ * @see		    jaccounting.models.Data
+ * @since	    1.0.0
+ */
+public class MutationLog {
+
+    /**
+     * The log starts with a header holding the length and the CRC32 checksum
+     * of the data file it extends; a log whose header does not match the data
+     * file was left behind by an earlier checkpoint and is discarded. Each
+     * record is framed by its length and followed by the CRC32 of its bytes
+     * so a record torn by a crash is detected; replay stops at the first bad
+     * record and the log is cut there before new records are appended.
+     *
+     * Records identify Accounts by their row in the GeneralLedger and
+     * Transactions by their index in the Journal. Replaying the records in
+     * order on the data they were recorded against gives the same rows and
+     * indexes back. An update of a Transaction or an Account that is not part
+     * of the Data yet is not recorded; the record of its addition carries all
+     * of its values.
+     */
+
+    /** extension added to the data file name to name its log */
+    public static final String FILE_EXTENSION = ".log";
+
+    /** the first 4 bytes of a log: "JACL" */
+    private static final int MAGIC = 0x4A41434C;
+
+    /** the current version of the log format */
+    private static final int VERSION = 1;
+
+    /** size in bytes of the header */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    /** kinds of records */
+    private static final byte TRANSACTION_UPDATE = 1;
+    private static final byte TRANSACTION_ADDITION = 2;
+    private static final byte TRANSACTION_REMOVAL = 3;
+    private static final byte ACCOUNT_INSERTION = 4;
+    private static final byte ACCOUNT_REMOVAL = 5;
+    private static final byte ACCOUNT_UPDATE = 6;
+    private static final byte TRANSACTIONS_ADDITION = 7;
+
+    private RandomAccessFile file;	// the log file opened for appending
+
+    private Data data;			// the Data whose changes are recorded
+
+    /** number of records in the log, a batch counting as its Transactions */
+    private int recordsCount;
+
+    private long size;			// size of the log up to its last whole record
+
+    private boolean failed;		// whether appending a record failed
+
+    private int lostCount;		// number of changes not recorded since then
+
+    private ByteArrayOutputStream recordBytes;	// bytes of the record being built
+
+
+    private MutationLog(RandomAccessFile pFile, Data pData, int pRecordsCount) throws IOException {
+	file = pFile;
+	data = pData;
+	recordsCount = pRecordsCount;
+	size = pFile.getFilePointer();
+	failed = false;
+	lostCount = 0;
+    }
+
+
+    /**
+     * Opens the log of a data file for appending. If the log file holds records
+     * made against that very data file, they are replayed on the Data read
+     * from it; otherwise the log file is started anew.
+     *
+     * @param pFile		the log file
+     * @param pData		the Data read from the data file; the application
+     *				must already hold it as its current Data
+     * @param pBaseLength	the length of the data file
+     * @param pBaseChecksum	the CRC32 checksum of the data file
+     * @return			the MutationLog ready to record changes
+     * @throws IOException	if an I/O error occured
+     * @since			1.0.0
+     */
+    public static MutationLog open(File pFile, Data pData, long pBaseLength,
+				   long pBaseChecksum) throws IOException {
+	RandomAccessFile vFile = new RandomAccessFile(pFile, "rw");
+	int vCount = 0;
+
+	try {
+	    if (vFile.length() >= HEADER_SIZE
+		    && vFile.readInt() == MAGIC
+		    && vFile.readInt() == VERSION
+		    && vFile.readLong() == pBaseLength
+		    && vFile.readLong() == pBaseChecksum) {
+		vCount = replay(vFile, pData);
+		vFile.setLength(vFile.getFilePointer());
+	    }
+	    else {
+		writeHeader(vFile, pBaseLength, pBaseChecksum);
+	    }
+	    vFile.getFD().sync();
+
+	    return new MutationLog(vFile, pData, vCount);
+	}
+	catch (IOException ex) {
+	    vFile.close();
+	    throw ex;
+	}
+    }
+
+    /**
+     * Starts a new empty log for a data file that was just fully saved, or
+     * that is about to be and which the log is then rebased on.
+     *
+     * @param pFile		the log file
+     * @param pData		the Data saved in the data file
+     * @param pBaseLength	the length of the data file; -1 if it is not
+     *				saved yet
+     * @param pBaseChecksum	the CRC32 checksum of the data file
+     * @return			the MutationLog ready to record changes
+     * @throws IOException	if an I/O error occured
+     * @since			1.0.0
+     */
+    public static MutationLog create(File pFile, Data pData, long pBaseLength,
+				     long pBaseChecksum) throws IOException {
+	RandomAccessFile vFile = new RandomAccessFile(pFile, "rw");
+
+	try {
+	    writeHeader(vFile, pBaseLength, pBaseChecksum);
+	    vFile.getFD().sync();
+
+	    return new MutationLog(vFile, pData, 0);
+	}
+	catch (IOException ex) {
+	    vFile.close();
+	    throw ex;
+	}
+    }
+
+    private static void writeHeader(RandomAccessFile pFile, long pBaseLength,
+				    long pBaseChecksum) throws IOException {
+	pFile.setLength(0);
+	pFile.seek(0);
+	pFile.writeInt(MAGIC);
+	pFile.writeInt(VERSION);
+	pFile.writeLong(pBaseLength);
+	pFile.writeLong(pBaseChecksum);
+    }
+
+    public int getRecordsCount() {
+	return recordsCount;
+    }
+
+    /**
+     * Gets the size of the log file up to the end of its last record, which is
+     * where the next record goes.
+     *
+     * @return			the size in bytes of the log file
+     * @since			1.0.0
+     */
+    public long getSize() {
+	return size;
+    }
+
+    /**
+     * Makes this log extend a newly saved data file. The records appended
+     * since the log had a given size were not part of the saved Data; they are
+     * kept, and all records before them dropped. A failed log records changes
+     * again if none was lost since the Data was saved, as the saved Data holds
+     * all those lost before.
+     *
+     * @param pSize		the size of the log when the Data was saved
+     * @param pRecordsCount	the number of records of the log at that time
+     * @param pLostCount	the number of changes lost at that time
+     * @param pBaseLength	the length of the new data file
+     * @param pBaseChecksum	the CRC32 checksum of the new data file
+     * @throws IOException	if an I/O error occured
+     * @see			#getSize()
+     * @see			#getLostCount()
+     * @since			1.0.0
+     */
+    public void rebase(long pSize, int pRecordsCount, int pLostCount, long pBaseLength,
+		       long pBaseChecksum) throws IOException {
+	byte[] vTail = new byte[(int) (size - pSize)];
+
+	file.seek(pSize);
+	file.readFully(vTail);
+	writeHeader(file, pBaseLength, pBaseChecksum);
+	file.write(vTail);
+	file.getFD().sync();
+	size = file.getFilePointer();
+	recordsCount -= pRecordsCount;
+	lostCount -= pLostCount;
+	if (lostCount == 0) failed = false;
+    }
+
+    /**
+     * Specifies whether a record could not be appended to this log. Changes
+     * made since then are only in memory until the next checkpoint.
+     *
+     * @return			true if appending a record failed; false otherwise
+     * @since			1.0.0
+     */
+    public boolean isFailed() {
+	return failed;
+    }
+
+    /**
+     * Gets the number of changes that could not be recorded since this log
+     * failed.
+     *
+     * @return			the number of changes lost
+     * @see			#isFailed()
+     * @since			1.0.0
+     */
+    public int getLostCount() {
+	return lostCount;
+    }
+
+    /**
+     * Closes the log file. No more changes can be recorded afterward.
+     *
+     * @throws IOException	if an I/O error occured
+     * @since			1.0.0
+     */
+    public void close() throws IOException {
+	file.close();
+    }
+
+    /**
+     * Records an update of a Transaction of the Journal. The Transaction is
+     * found in the Journal by its date before the update, as it is recorded
+     * before being moved to its position by its new date.
+     *
+     * @param pTrans		the updated Transaction
+     * @param pOldDate		the date of the Transaction before the update
+     * @see			jaccounting.models.Transaction#update(java.util.Date,
+     *				java.lang.String, java.lang.String, double,
+     *				jaccounting.models.Account, jaccounting.models.Account)
+     * @see			jaccounting.models.Journal#getIndexOfTransaction(
+     *				jaccounting.models.Transaction, java.util.Date)
+     * @since			1.0.0
+     */
+    public void transactionUpdated(Transaction pTrans, Date pOldDate) {
+	int vIndex = data.getJournal().getIndexOfTransaction(pTrans, pOldDate);
+
+	if (vIndex == -1) return;    // not added yet
+
+	try {
+	    DataOutputStream vOut = startRecord(TRANSACTION_UPDATE);
+
+	    vOut.writeInt(vIndex);
+	    writeTransactionValues(vOut, pTrans);
+	    append(vOut, 1);
+	}
+	catch (IOException ex) {
+	    fail(ex);
+	}
+    }
+
+    /**
+     * Records the addition of a Transaction to the Journal.
+     *
+     * @param pTrans		the added Transaction
+     * @see			jaccounting.models.Journal#addTransaction(
+     *				jaccounting.models.Transaction)
+     * @since			1.0.0
+     */
+    public void transactionAdded(Transaction pTrans) {
+	try {
+	    DataOutputStream vOut = startRecord(TRANSACTION_ADDITION);
+
+	    writeTransactionValues(vOut, pTrans);
+	    append(vOut, 1);
+	}
+	catch (IOException ex) {
+	    fail(ex);
+	}
+    }
+
+    /**
+     * Records the addition of a batch of Transactions to the Journal. The
+     * batch makes a single record so that it is forced to disk once.
+     *
+     * @param pTransactions	the added Transactions, in the order they were
+     *				added in
+     * @see			jaccounting.models.Journal#addTransactions(
+     *				java.util.List)
+     * @since			1.0.0
+     */
+    public void transactionsAdded(List<Transaction> pTransactions) {
+	try {
+	    DataOutputStream vOut = startRecord(TRANSACTIONS_ADDITION);
+
+	    vOut.writeInt(pTransactions.size());
+	    for (Transaction vTrans : pTransactions) {
+		writeTransactionValues(vOut, vTrans);
+	    }
+	    append(vOut, pTransactions.size());
+	}
+	catch (IOException ex) {
+	    fail(ex);
+	}
+    }
+
+    /**
+     * Records the removal of a Transaction from the Journal.
+     *
+     * @param pRow		the index the Transaction was removed from
+     * @see			jaccounting.models.Journal#removeTransaction(int)
+     * @since			1.0.0
+     */
+    public void transactionRemoved(int pRow) {
+	try {
+	    DataOutputStream vOut = startRecord(TRANSACTION_REMOVAL);
+
+	    vOut.writeInt(pRow);
+	    append(vOut, 1);
+	}
+	catch (IOException ex) {
+	    fail(ex);
+	}
+    }
+
+    /**
+     * Records the insertion of an Account in the GeneralLedger.
+     *
+     * @param pRow		the row of the parent Account
+     * @param pAcct		the inserted Account
+     * @see			jaccounting.models.GeneralLedger#insertChildAccount(
+     *				int, jaccounting.models.Account)
+     * @since			1.0.0
+     */
+    public void accountInserted(int pRow, Account pAcct) {
+	try {
+	    DataOutputStream vOut = startRecord(ACCOUNT_INSERTION);
+
+	    vOut.writeInt(pRow);
+	    vOut.writeByte(pAcct.getType().ordinal());
+	    vOut.writeBoolean(pAcct.isTransactionsEnabled());
+	    writeAccountValues(vOut, pAcct);
+	    append(vOut, 1);
+	}
+	catch (IOException ex) {
+	    fail(ex);
+	}
+    }
+
+    /**
+     * Records the removal of an Account from the GeneralLedger.
+     *
+     * @param pRow		the row the Account was removed from
+     * @see			jaccounting.models.GeneralLedger#removeAccount(int)
+     * @since			1.0.0
+     */
+    public void accountRemoved(int pRow) {
+	try {
+	    DataOutputStream vOut = startRecord(ACCOUNT_REMOVAL);
+
+	    vOut.writeInt(pRow);
+	    append(vOut, 1);
+	}
+	catch (IOException ex) {
+	    fail(ex);
+	}
+    }
+
+    /**
+     * Records an update of an Account of the GeneralLedger.
+     *
+     * @param pAcct		the updated Account
+     * @see			jaccounting.models.Account#update(int,
+     *				java.lang.String, java.lang.String)
+     * @since			1.0.0
+     */
+    public void accountUpdated(Account pAcct) {
+	int vRow = data.getGeneralLedger().getRowOfAccount(pAcct);
+
+	if (vRow == -1) return;	    // not inserted yet
+
+	try {
+	    DataOutputStream vOut = startRecord(ACCOUNT_UPDATE);
+
+	    vOut.writeInt(vRow);
+	    writeAccountValues(vOut, pAcct);
+	    append(vOut, 1);
+	}
+	catch (IOException ex) {
+	    fail(ex);
+	}
+    }
+
+    private DataOutputStream startRecord(byte pKind) throws IOException {
+	DataOutputStream rOut;
+
+	recordBytes = new ByteArrayOutputStream();
+	rOut = new DataOutputStream(recordBytes);
+	rOut.writeByte(pKind);
+
+	return rOut;
+    }
+
+    private void append(DataOutputStream pRecord, int pCount) throws IOException {
+	byte[] vBytes;
+	CRC32 vChecksum = new CRC32();
+
+	if (failed) {
+	    lostCount++;
+	    return;
+	}
+
+	pRecord.flush();
+	vBytes = recordBytes.toByteArray();
+	recordBytes = null;
+	vChecksum.update(vBytes);
+
+	ByteArrayOutputStream vFrame = new ByteArrayOutputStream(vBytes.length + 8);
+	DataOutputStream vOut = new DataOutputStream(vFrame);
+
+	vOut.writeInt(vBytes.length);
+	vOut.write(vBytes);
+	vOut.writeInt((int) vChecksum.getValue());
+	vOut.flush();
+
+	file.write(vFrame.toByteArray());
+	file.getFD().sync();
+	size = file.getFilePointer();
+	recordsCount += pCount;
+    }
+
+    /**
+     * Marks this log as failed after a record could not be appended. The
+     * partly written record, if any, is dropped at the next rebase.
+     */
+    void fail(IOException pEx) {
+	failed = true;
+	lostCount++;
+	Logger.getLogger(MutationLog.class.getName()).log(Level.SEVERE,
+		"Failed to record change; it will be saved at next checkpoint", pEx);
+    }
+
+    private void writeTransactionValues(DataOutputStream pOut, Transaction pTrans) throws IOException {
+	GeneralLedger vLedger = data.getGeneralLedger();
+
+	pOut.writeLong(pTrans.getDate().getTime());
+	writeString(pOut, pTrans.getRefNo());
+	writeString(pOut, pTrans.getMemo());
+	pOut.writeDouble(pTrans.getAmount());
+	pOut.writeInt(vLedger.getRowOfAccount(pTrans.getDebitAccount()));
+	pOut.writeInt(vLedger.getRowOfAccount(pTrans.getCreditAccount()));
+    }
+
+    private void writeAccountValues(DataOutputStream pOut, Account pAcct) throws IOException {
+	pOut.writeInt(pAcct.getNumber());
+	writeString(pOut, pAcct.getName());
+	writeString(pOut, pAcct.getDescription());
+    }
+
+    private static void writeString(DataOutputStream pOut, String pString) throws IOException {
+	byte[] vBytes = ((pString == null) ? "" : pString).getBytes("UTF-8");
+
+	pOut.writeInt(vBytes.length);
+	pOut.write(vBytes);
+    }
+
+    private static String readString(DataInputStream pIn) throws IOException {
+	byte[] vBytes = new byte[pIn.readInt()];
+
+	pIn.readFully(vBytes);
+
+	return new String(vBytes, "UTF-8");
+    }
+
+    private static int replay(RandomAccessFile pFile, Data pData) throws IOException {
+	long vLength = pFile.length();
+	long vStart = pFile.getFilePointer();
+	int rCount = 0;
+
+	/** the records are applied in a posting session so views update once */
+	pData.openPostingSession();
+	try {
+	    /**
+	     * Read and apply the records one at a time, leaving the file pointer
+	     * right after the last record applied.
+	     */
+	    while (vLength - vStart >= 8) {
+		int vSize = pFile.readInt();
+		byte[] vBytes;
+		CRC32 vChecksum = new CRC32();
+		int vCount;
+
+		if (vSize <= 0 || vSize > vLength - vStart - 8) break;
+		vBytes = new byte[vSize];
+		pFile.readFully(vBytes);
+		vChecksum.update(vBytes);
+		if (pFile.readInt() != (int) vChecksum.getValue()) break;
+
+		try {
+		    vCount = apply(new DataInputStream(new ByteArrayInputStream(vBytes)), pData);
+		}
+		catch (Exception ex) {
+		    Logger.getLogger(MutationLog.class.getName()).log(Level.WARNING,
+			    "Dropping changes that do not apply to the data file", ex);
+		    break;
+		}
+		rCount += vCount;
+		vStart = pFile.getFilePointer();
+	    }
+	}
+	finally {
+	    pData.commitPostingSession();
+	}
+	pFile.seek(vStart);
+
+	return rCount;
+    }
+
+    /**
+     * Applies a record to the Data and gives the number of changes it counts
+     * for.
+     */
+    private static int apply(DataInputStream pIn, Data pData) throws Exception {
+	Journal vJournal = pData.getJournal();
+	GeneralLedger vLedger = pData.getGeneralLedger();
+	Transaction vTrans;
+	Account vAcct;
+	int vRow;
+	int rCount = 1;
+
+	switch (pIn.readByte()) {
+	    case TRANSACTION_UPDATE:
+		vTrans = vJournal.getTransaction(pIn.readInt());
+		updateTransaction(pIn, vTrans, vLedger);
+		break;
+	    case TRANSACTION_ADDITION:
+		vTrans = Transaction.createTransaction();
+		updateTransaction(pIn, vTrans, vLedger);
+		vJournal.addTransaction(vTrans);
+		break;
+	    case TRANSACTIONS_ADDITION:
+		rCount = pIn.readInt();
+		List<Transaction> vTransactions = new ArrayList<Transaction>(rCount);
+
+		for (int vI = 0; vI < rCount; vI++) {
+		    vTransactions.add(readTransaction(pIn, vLedger));
+		}
+		if (!vJournal.addTransactions(vTransactions)) {
+		    throw new IOException("Transactions addition failed");
+		}
+		break;
+	    case TRANSACTION_REMOVAL:
+		if (!vJournal.removeTransaction(pIn.readInt())) {
+		    throw new IOException("Transaction removal failed");
+		}
+		break;
+	    case ACCOUNT_INSERTION:
+		vRow = pIn.readInt();
+		Account.Type vType = Account.Type.values()[pIn.readByte()];
+		boolean vTransactionsEnabled = pIn.readBoolean();
+
+		vAcct = Account.createAccount(pIn.readInt(), readString(pIn),
+			    readString(pIn), 0.0, vType,
+			    new ArrayList<TransactionEntry>(), vTransactionsEnabled);
+		if (!vLedger.insertChildAccount(vRow, vAcct)) {
+		    throw new IOException("Account insertion failed");
+		}
+		break;
+	    case ACCOUNT_REMOVAL:
+		if (!vLedger.removeAccount(pIn.readInt())) {
+		    throw new IOException("Account removal failed");
+		}
+		break;
+	    case ACCOUNT_UPDATE:
+		vAcct = vLedger.getAccount(pIn.readInt());
+		if (!vAcct.update(pIn.readInt(), readString(pIn), readString(pIn)).isEmpty()) {
+		    throw new IOException("Account update failed");
+		}
+		break;
+	    default:
+		throw new IOException("Unknown record");
+	}
+
+	return rCount;
+    }
+
+    /**
+     * Reads a Transaction not posted yet, as the batch it is part of is posted
+     * at once.
+     */
+    private static Transaction readTransaction(DataInputStream pIn, GeneralLedger pLedger)
+	    throws IOException {
+	Date vDate = new Date(pIn.readLong());
+	String vRefNo = readString(pIn);
+	String vMemo = readString(pIn);
+	double vAmount = pIn.readDouble();
+	Account vDebitAccount = pLedger.getAccount(pIn.readInt());
+	Account vCreditAccount = pLedger.getAccount(pIn.readInt());
+
+	if (vDebitAccount == null || vCreditAccount == null) {
+	    throw new IOException("Unknown account");
+	}
+
+	return Transaction.createTransaction(vDate, vRefNo, vMemo, vAmount,
+		    new TransactionEntry(vCreditAccount, null, TransactionEntry.Type.DEBIT, 0.0),
+		    new TransactionEntry(vDebitAccount, null, TransactionEntry.Type.CREDIT, 0.0));
+    }
+
+    private static void updateTransaction(DataInputStream pIn, Transaction pTrans,
+					  GeneralLedger pLedger) throws IOException {
+	Date vDate = new Date(pIn.readLong());
+	String vRefNo = readString(pIn);
+	String vMemo = readString(pIn);
+	double vAmount = pIn.readDouble();
+	Account vDebitAccount = pLedger.getAccount(pIn.readInt());
+	Account vCreditAccount = pLedger.getAccount(pIn.readInt());
+
+	if (!pTrans.update(vDate, vRefNo, vMemo, vAmount, vDebitAccount,
+			   vCreditAccount).isEmpty()) {
+	    throw new IOException("Transaction update failed");
+	}
+    }
+
+}
@@ -0,0 +1,855 @@
+/*
+ * PartitionedStorage.java	    1.0.0	    09/2009
+ * This file contains the fiscal period partitioned storage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * PartitionedStorage is the class keeping the application data in one file per
+ * fiscal period. The main file holds the GeneralLedger and the Transactions of
+ * the open periods, i.e. the period of the latest Transaction and the one
+ * before; the Transactions of each closed period are kept in a file of their
+ * own named after the main file and the year the period starts in. Each file
+ * carries forward the balances of its Accounts at the start of its period, so
+ * that only the main file is read at load; the closed periods are then loaded
+ * on demand, latest first, by {@link #loadEarlier(jaccounting.models.Data)}.
+ *
+ * Saving rewrites the main file but only those files of the loaded closed
+ * periods whose content changed. The files of the periods never loaded are left
+ * alone: they refer to their Accounts by ids kept in the main file, which never
+ * change for an Account, so renaming or moving it does not touch them.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    Storage
+ * @see		    ModelsMngr#PARTITIONED_FILE_EXTENSION
+ * @since	    1.0.0
+ */
+public class PartitionedStorage implements Storage {
+
+    /** month the fiscal periods start with */
+    private static final int FISCAL_YEAR_START_MONTH = Calendar.JANUARY;
+
+    /** number of latest periods kept open in the main file */
+    private static final int OPEN_PERIODS = 2;
+
+    /** first bytes of the files, "JACP" */
+    private static final int MAGIC = 0x4A414350;
+
+    private static final int VERSION = 1;
+
+    private static final byte MAIN_FILE = 0;	    // kind of the main file
+
+    private static final byte PERIOD_FILE = 1;	    // kind of the files of closed periods
+
+    /** first open period of data never saved, keeping all periods open */
+    private static final int NO_PERIOD = Integer.MIN_VALUE;
+
+    /** extension added to the file names to name the files saves go to first */
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private String filename;		    // the name of the main file
+
+    private int openFrom;		    // the first period kept in the main file
+
+    /** the closed periods saved or about to be, by period */
+    private SortedMap<Integer, Partition> partitions;
+
+    private Partition main;		    // the main file
+
+    /** the ids the Accounts are known by in the files */
+    private IdentityIntMap<Account> accountIds;
+
+    private Map<Integer, Account> accountsById;	// the Accounts of the data by id
+
+    private int nextAccountId;		    // the id to give the next new Account
+
+    private boolean synced;		    // whether no save failed since the last one written in full
+
+    private int createdSequence;	    // sequence number of the last checkpoint created
+
+    private int writtenSequence;	    // sequence number of the last checkpoint written
+
+    private boolean closed;		    // whether close was called
+
+
+    /**
+     * Sole constructor. The files need not exist yet.
+     *
+     * @param pFilename		the name of the main file. It's relative to the
+     *				application's local storage directory provided
+     *				by the system.
+     * @since			1.0.0
+     */
+    public PartitionedStorage(String pFilename) {
+	filename = pFilename;
+	openFrom = NO_PERIOD;
+	partitions = new TreeMap<Integer, Partition>();
+	main = new Partition();
+	main.loaded = true;
+	accountIds = new IdentityIntMap<Account>();
+	accountsById = new HashMap<Integer, Account>();
+	nextAccountId = 0;
+	synced = true;
+	createdSequence = 0;
+	writtenSequence = 0;
+	closed = false;
+    }
+
+
+    private static int periodOf(Date pDate, Calendar pCalendar) {
+	int rPeriod;
+
+	pCalendar.setTime(pDate);
+	rPeriod = pCalendar.get(Calendar.YEAR);
+	if (pCalendar.get(Calendar.MONTH) < FISCAL_YEAR_START_MONTH) rPeriod--;
+
+	return rPeriod;
+    }
+
+    private static Date startOf(int pPeriod) {
+	Calendar vCalendar = Calendar.getInstance();
+
+	vCalendar.clear();
+	vCalendar.set(pPeriod, FISCAL_YEAR_START_MONTH, 1);
+
+	return vCalendar.getTime();
+    }
+
+    private String getPeriodFilename(int pPeriod) {
+	return filename + "." + pPeriod;
+    }
+
+    private Integer getLatestUnloadedPeriod() {
+	Integer rPeriod = null;
+
+	for (Map.Entry<Integer, Partition> vEntry : partitions.entrySet()) {
+	    if (!vEntry.getValue().loaded) rPeriod = vEntry.getKey();
+	}
+
+	return rPeriod;
+    }
+
+    /**
+     * Loads the GeneralLedger and the Transactions of the open periods kept in
+     * the main file. The Accounts start at the balances carried forward to the
+     * first open period.
+     *
+     * @param pListener				ignored; the main file is read
+     *						at once
+     * @return					the Data loaded
+     * @throws IOException			if an I/O error occured such as missing file
+     * @throws UnPersistenceFailureException	if the file is not valid
+     * @since					1.0.0
+     */
+    public Data load(LoadListener pListener) throws IOException, UnPersistenceFailureException {
+	byte[] vBytes;
+	Data rData;
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.unpersistingFile");
+	vBytes = readFile(filename);
+	try {
+	    rData = readMainFile(new DataInputStream(new ByteArrayInputStream(vBytes)));
+	}
+	catch (EOFException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (GenericException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	main.update(vBytes);
+
+	return rData;
+    }
+
+    public void finishLoad(Data pData) {
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+    }
+
+    /**
+     * Gets the date from which all the Transactions are loaded.
+     *
+     * @return			the start of the period following the latest
+     *				closed period not loaded; null if all periods
+     *				are loaded
+     * @since			1.0.0
+     */
+    public Date getLoadedFrom() {
+	Integer vPeriod = getLatestUnloadedPeriod();
+
+	return (vPeriod == null) ? null : startOf(vPeriod.intValue() + 1);
+    }
+
+    /**
+     * Loads the latest closed period not loaded yet. Its Transactions are put
+     * before those of the Journal and its entries before those of their
+     * Accounts, which then open at the balances carried forward to the period.
+     *
+     * @param pData				the Data loaded from this storage
+     * @return					true if a period was loaded; false
+     *						if all periods are
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if the file of the period is not
+     *						valid
+     * @since					1.0.0
+     */
+    public boolean loadEarlier(Data pData) throws IOException, UnPersistenceFailureException {
+	Integer vPeriod = getLatestUnloadedPeriod();
+	byte[] vBytes;
+	DataInputStream vIn;
+	Account[] vAccounts;
+	double[] vOpenings;
+	Segment vSegment;
+
+	if (vPeriod == null) return false;
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.loadingPeriod");
+	try {
+	    vBytes = readFile(getPeriodFilename(vPeriod.intValue()));
+	    vIn = new DataInputStream(new ByteArrayInputStream(vBytes));
+	    readHeader(vIn, PERIOD_FILE);
+	    if (vIn.readInt() != vPeriod.intValue()) throw new UnPersistenceFailureException();
+	    vAccounts = new Account[readCount(vIn)];
+	    vOpenings = new double[vAccounts.length];
+	    for (int vI = 0; vI < vAccounts.length; vI++) {
+		vAccounts[vI] = accountsById.get(Integer.valueOf(vIn.readInt()));
+		vOpenings[vI] = vIn.readDouble();
+		if (vAccounts[vI] == null) throw new UnPersistenceFailureException();
+	    }
+	    vSegment = readSegment(vIn, vAccounts);
+	}
+	catch (EOFException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (GenericException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	finally {
+	    JAccounting.getApplication().getProgressReporter().reportFinished();
+	}
+
+	partitions.get(vPeriod).loaded = true;
+	partitions.get(vPeriod).update(vBytes);
+	for (int vI = 0; vI < vAccounts.length; vI++) {
+	    vAccounts[vI].prependLoadedEntries(vSegment.entries.get(vI), vOpenings[vI]);
+	}
+	pData.getJournal().prependLoadedTransactions(vSegment.transactions);
+
+	return true;
+    }
+
+    public MutationLog getMutationLog() {
+	return null;
+    }
+
+    public ChangeTracker getChangeTracker() {
+	return null;
+    }
+
+    /**
+     * Starts saving the application data. This method closes the periods
+     * before the open ones, which only ever move forward, then serializes the
+     * main file and the files of the loaded closed periods to memory. Only the
+     * files whose content changed since last read or saved are kept in the
+     * returned Checkpoint, unless an earlier save failed.
+     *
+     * @param pData		the Data to save
+     * @return			the Checkpoint to write and commit; null if no
+     *				file changed
+     * @throws IOException	if an I/O error ocurred
+     * @see			PartitionedCheckpoint
+     * @since			1.0.0
+     */
+    public Checkpoint createCheckpoint(Data pData) throws IOException {
+	GeneralLedger vLedger = pData.getGeneralLedger();
+	AccountTreeNode[] vTopLevelNodes = {vLedger.getAssetsNode(),
+		vLedger.getLiabilitiesNode(), vLedger.getEquityNode(),
+		vLedger.getRevenuesNode(), vLedger.getExpensesNode()};
+	List<Transaction> vTransactions = pData.getJournal().getTransactions();
+	List<Account> vAccounts = new ArrayList<Account>();
+	List<Integer> vParents = new ArrayList<Integer>();
+	IdentityIntMap<Transaction> vPeriods = new IdentityIntMap<Transaction>();
+	Calendar vCalendar = Calendar.getInstance();
+	SortedMap<Integer, Segment> vClosed = new TreeMap<Integer, Segment>();
+	Segment vOpen = new Segment();
+	Map<String, byte[]> vFiles = new LinkedHashMap<String, byte[]>();
+	boolean vFull;
+	byte[] vBytes;
+
+	synchronized (this) {
+	    vFull = !synced;
+	}
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.persistingFile");
+	for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+	    collectAccounts(vTopLevelNodes[vI], -1 - vI, vAccounts, vParents);
+	}
+	accountsById.clear();
+	for (Account vAcct : vAccounts) {
+	    int vId = accountIds.get(vAcct);
+
+	    if (vId == IdentityIntMap.NO_VALUE) {
+		vId = nextAccountId++;
+		accountIds.put(vAcct, vId);
+	    }
+	    accountsById.put(Integer.valueOf(vId), vAcct);
+	}
+
+	if (!vTransactions.isEmpty()) {
+	    openFrom = Math.max(openFrom, periodOf(vTransactions.get(vTransactions.size() - 1)
+						   .getDate(), vCalendar) - OPEN_PERIODS + 1);
+	}
+	for (Transaction vTrans : vTransactions) {
+	    int vPeriod = periodOf(vTrans.getDate(), vCalendar);
+
+	    vPeriods.put(vTrans, vPeriod);
+	    ((vPeriod < openFrom) ? segmentOf(vClosed, vPeriod) : vOpen).transactions.add(vTrans);
+	}
+	/** loaded periods left without Transactions are saved empty */
+	for (Map.Entry<Integer, Partition> vEntry : partitions.entrySet()) {
+	    if (vEntry.getValue().loaded) segmentOf(vClosed, vEntry.getKey().intValue());
+	}
+
+	/**
+	 * The entries of an Account are in date order, hence grouped by period;
+	 * each group opens at the balance the previous one closed at.
+	 */
+	for (Account vAcct : vAccounts) {
+	    List<TransactionEntry> vEntries = vAcct.getEntries();
+	    double vOpening = vAcct.getOpeningBalance();
+	    int vStart = 0;
+
+	    while (vStart < vEntries.size()) {
+		int vPeriod = vPeriods.get(vEntries.get(vStart).getTransaction());
+		int vEnd = vStart + 1;
+		Segment vSegment;
+
+		if (vPeriod >= openFrom) break;
+		while (vEnd < vEntries.size()
+			&& vPeriods.get(vEntries.get(vEnd).getTransaction()) == vPeriod) {
+		    vEnd++;
+		}
+		vSegment = segmentOf(vClosed, vPeriod);
+		vSegment.add(vAcct, vOpening, vEntries.subList(vStart, vEnd));
+		vOpening = vEntries.get(vEnd - 1).getAccountBalance();
+		vStart = vEnd;
+	    }
+	    vOpen.add(vAcct, vOpening, vEntries.subList(vStart, vEntries.size()));
+	}
+
+	for (Map.Entry<Integer, Segment> vEntry : vClosed.entrySet()) {
+	    int vPeriod = vEntry.getKey().intValue();
+	    Partition vPartition = partitions.get(vEntry.getKey());
+
+	    if (vPartition == null) {
+		vPartition = new Partition();
+		vPartition.loaded = true;
+		partitions.put(vEntry.getKey(), vPartition);
+	    }
+	    vBytes = writePeriodFile(vPeriod, vEntry.getValue());
+	    if (vPartition.update(vBytes) || vFull) {
+		vFiles.put(getPeriodFilename(vPeriod), vBytes);
+	    }
+	}
+	/** the main file lists the closed periods so it goes last */
+	vBytes = writeMainFile((String) vLedger.getRoot().getUserObject(), vParents, vOpen);
+	if (main.update(vBytes) || vFull) {
+	    vFiles.put(filename, vBytes);
+	}
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+
+	return vFiles.isEmpty() ? null : new PartitionedCheckpoint(++createdSequence, vFull, vFiles);
+    }
+
+    public synchronized void close() {
+	closed = true;
+	notifyAll();
+    }
+
+    private static void collectAccounts(AccountTreeNode pNode, int pParent,
+					List<Account> pAccounts, List<Integer> pParents) {
+	Enumeration vChildren = pNode.children();
+	int vIndex = pAccounts.size();
+
+	pAccounts.add((Account) pNode.getUserObject());
+	pParents.add(Integer.valueOf(pParent));
+	while (vChildren.hasMoreElements()) {
+	    collectAccounts((AccountTreeNode) vChildren.nextElement(), vIndex,
+			    pAccounts, pParents);
+	}
+    }
+
+    private static Segment segmentOf(SortedMap<Integer, Segment> pSegments, int pPeriod) {
+	Segment rSegment = pSegments.get(Integer.valueOf(pPeriod));
+
+	if (rSegment == null) {
+	    rSegment = new Segment();
+	    pSegments.put(Integer.valueOf(pPeriod), rSegment);
+	}
+
+	return rSegment;
+    }
+
+    private byte[] writeMainFile(String pRootName, List<Integer> pParents, Segment pOpen)
+	    throws IOException {
+	ByteArrayOutputStream rBytes = new ByteArrayOutputStream();
+	DataOutputStream vOut = new DataOutputStream(rBytes);
+
+	writeHeader(vOut, MAIN_FILE);
+	vOut.writeInt(openFrom);
+	vOut.writeInt(nextAccountId);
+	vOut.writeInt(partitions.size());
+	for (Integer vPeriod : partitions.keySet()) {
+	    vOut.writeInt(vPeriod.intValue());
+	}
+	writeString(vOut, pRootName);
+	vOut.writeInt(pOpen.accounts.size());
+	for (int vI = 0; vI < pOpen.accounts.size(); vI++) {
+	    Account vAcct = pOpen.accounts.get(vI);
+
+	    vOut.writeInt(accountIds.get(vAcct));
+	    vOut.writeInt(pParents.get(vI).intValue());
+	    vOut.writeInt(vAcct.getNumber());
+	    writeString(vOut, vAcct.getName());
+	    writeString(vOut, vAcct.getDescription());
+	    vOut.writeDouble(vAcct.getBalance());
+	    vOut.writeByte(vAcct.getType().ordinal());
+	    vOut.writeBoolean(vAcct.isTransactionsEnabled());
+	    vOut.writeDouble(pOpen.openings.get(vI).doubleValue());
+	}
+	writeSegment(vOut, pOpen);
+	vOut.flush();
+
+	return rBytes.toByteArray();
+    }
+
+    private byte[] writePeriodFile(int pPeriod, Segment pSegment) throws IOException {
+	ByteArrayOutputStream rBytes = new ByteArrayOutputStream();
+	DataOutputStream vOut = new DataOutputStream(rBytes);
+
+	writeHeader(vOut, PERIOD_FILE);
+	vOut.writeInt(pPeriod);
+	vOut.writeInt(pSegment.accounts.size());
+	for (int vI = 0; vI < pSegment.accounts.size(); vI++) {
+	    vOut.writeInt(accountIds.get(pSegment.accounts.get(vI)));
+	    vOut.writeDouble(pSegment.openings.get(vI).doubleValue());
+	}
+	writeSegment(vOut, pSegment);
+	vOut.flush();
+
+	return rBytes.toByteArray();
+    }
+
+    private static void writeSegment(DataOutputStream pOut, Segment pSegment) throws IOException {
+	IdentityIntMap<Transaction> vIndexes = new IdentityIntMap<Transaction>();
+
+	pOut.writeInt(pSegment.transactions.size());
+	for (int vI = 0; vI < pSegment.transactions.size(); vI++) {
+	    Transaction vTrans = pSegment.transactions.get(vI);
+
+	    vIndexes.put(vTrans, vI);
+	    pOut.writeLong(vTrans.getDate().getTime());
+	    writeString(pOut, vTrans.getRefNo());
+	    writeString(pOut, vTrans.getMemo());
+	    pOut.writeDouble(vTrans.getAmount());
+	}
+	for (List<TransactionEntry> vEntries : pSegment.entries) {
+	    pOut.writeInt(vEntries.size());
+	    for (TransactionEntry vEntry : vEntries) {
+		pOut.writeInt(vIndexes.get(vEntry.getTransaction()));
+		pOut.writeByte(vEntry.getType().ordinal());
+		pOut.writeDouble(vEntry.getAccountBalance());
+	    }
+	}
+    }
+
+    private Data readMainFile(DataInputStream pIn) throws IOException, GenericException {
+	AccountTreeNode[] vTopLevelNodes = new AccountTreeNode[5];
+	Account.Type[] vTypes = Account.Type.values();
+	Account[] vAccounts;
+	AccountTreeNode[] vNodes;
+	double[] vOpenings;
+	String vRootName;
+	Segment vSegment;
+	int vCount;
+
+	readHeader(pIn, MAIN_FILE);
+	openFrom = pIn.readInt();
+	nextAccountId = pIn.readInt();
+	vCount = readCount(pIn);
+	for (int vI = 0; vI < vCount; vI++) {
+	    partitions.put(Integer.valueOf(pIn.readInt()), new Partition());
+	}
+	vRootName = readString(pIn);
+
+	vAccounts = new Account[readCount(pIn)];
+	vNodes = new AccountTreeNode[vAccounts.length];
+	vOpenings = new double[vAccounts.length];
+	for (int vI = 0; vI < vAccounts.length; vI++) {
+	    int vId = pIn.readInt();
+	    int vParent = pIn.readInt();
+	    int vNumber = pIn.readInt();
+	    String vName = readString(pIn);
+	    String vDescription = readString(pIn);
+	    double vBalance = pIn.readDouble();
+	    int vType = pIn.readByte();
+	    boolean vEnabled = pIn.readBoolean();
+
+	    vOpenings[vI] = pIn.readDouble();
+	    if (vId < 0 || vId >= nextAccountId || accountsById.containsKey(Integer.valueOf(vId))
+		    || vType < 0 || vType >= vTypes.length || vParent >= vI
+		    || vParent < -vTopLevelNodes.length) {
+		throw new UnPersistenceFailureException();
+	    }
+	    vAccounts[vI] = Account.createAccount(vNumber, vName, vDescription, vBalance,
+				vTypes[vType], new ArrayList<TransactionEntry>(), vEnabled);
+	    vNodes[vI] = new AccountTreeNode(vAccounts[vI]);
+	    accountIds.put(vAccounts[vI], vId);
+	    accountsById.put(Integer.valueOf(vId), vAccounts[vI]);
+	    if (vParent >= 0) {
+		vNodes[vParent].add(vNodes[vI]);
+	    }
+	    else {
+		/** top level Accounts have their slot as a negative parent */
+		if (vTopLevelNodes[-1 - vParent] != null) throw new UnPersistenceFailureException();
+		vTopLevelNodes[-1 - vParent] = vNodes[vI];
+	    }
+	}
+	for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+	    if (vTopLevelNodes[vI] == null) throw new UnPersistenceFailureException();
+	}
+
+	vSegment = readSegment(pIn, vAccounts);
+	for (int vI = 0; vI < vAccounts.length; vI++) {
+	    vAccounts[vI].prependLoadedEntries(vSegment.entries.get(vI), vOpenings[vI]);
+	}
+
+	return new Data(new Journal(vSegment.transactions),
+			new GeneralLedger(new DefaultMutableTreeNode(vRootName),
+					  vTopLevelNodes[0], vTopLevelNodes[1],
+					  vTopLevelNodes[3], vTopLevelNodes[4],
+					  vTopLevelNodes[2]));
+    }
+
+    /**
+     * Reads Transactions and the entries of the given Accounts in a row. The
+     * transfer Account of each entry is the Account of the other entry of its
+     * Transaction.
+     */
+    private static Segment readSegment(DataInputStream pIn, Account[] pAccounts)
+	    throws IOException, GenericException {
+	Segment rSegment = new Segment();
+	TransactionEntry.Type[] vTypes = TransactionEntry.Type.values();
+	int vCount = readCount(pIn);
+	long[] vDates = new long[vCount];
+	String[] vRefNos = new String[vCount];
+	String[] vMemos = new String[vCount];
+	double[] vAmounts = new double[vCount];
+	TransactionEntry[] vDebitEntries = new TransactionEntry[vCount];
+	TransactionEntry[] vCreditEntries = new TransactionEntry[vCount];
+	Account[] vDebitAccounts = new Account[vCount];
+	Account[] vCreditAccounts = new Account[vCount];
+
+	for (int vI = 0; vI < vCount; vI++) {
+	    vDates[vI] = pIn.readLong();
+	    vRefNos[vI] = readString(pIn);
+	    vMemos[vI] = readString(pIn);
+	    vAmounts[vI] = pIn.readDouble();
+	}
+	for (int vI = 0; vI < pAccounts.length; vI++) {
+	    int vEntriesCount = readCount(pIn);
+	    List<TransactionEntry> vEntries = new ArrayList<TransactionEntry>(vEntriesCount);
+
+	    for (int vJ = 0; vJ < vEntriesCount; vJ++) {
+		int vTrans = pIn.readInt();
+		int vType = pIn.readByte();
+		TransactionEntry vEntry;
+
+		if (vTrans < 0 || vTrans >= vCount || vType < 0 || vType >= vTypes.length) {
+		    throw new UnPersistenceFailureException();
+		}
+		vEntry = new TransactionEntry(null, null, vTypes[vType], pIn.readDouble());
+		if (vTypes[vType] == TransactionEntry.Type.DEBIT) {
+		    if (vDebitEntries[vTrans] != null) throw new UnPersistenceFailureException();
+		    vDebitEntries[vTrans] = vEntry;
+		    vDebitAccounts[vTrans] = pAccounts[vI];
+		}
+		else {
+		    if (vCreditEntries[vTrans] != null) throw new UnPersistenceFailureException();
+		    vCreditEntries[vTrans] = vEntry;
+		    vCreditAccounts[vTrans] = pAccounts[vI];
+		}
+		vEntries.add(vEntry);
+	    }
+	    rSegment.entries.add(vEntries);
+	}
+	for (int vI = 0; vI < vCount; vI++) {
+	    if (vDebitEntries[vI] == null || vCreditEntries[vI] == null) {
+		throw new UnPersistenceFailureException();
+	    }
+	    vDebitEntries[vI].initTransferAccount(vCreditAccounts[vI]);
+	    vCreditEntries[vI].initTransferAccount(vDebitAccounts[vI]);
+	    rSegment.transactions.add(Transaction.createTransaction(new Date(vDates[vI]),
+			vRefNos[vI], vMemos[vI], vAmounts[vI], vDebitEntries[vI],
+			vCreditEntries[vI]));
+	}
+
+	return rSegment;
+    }
+
+    private static void writeHeader(DataOutputStream pOut, byte pKind) throws IOException {
+	pOut.writeInt(MAGIC);
+	pOut.writeInt(VERSION);
+	pOut.writeByte(pKind);
+    }
+
+    private static void readHeader(DataInputStream pIn, byte pKind)
+	    throws IOException, UnPersistenceFailureException {
+	if (pIn.readInt() != MAGIC || pIn.readInt() != VERSION || pIn.readByte() != pKind) {
+	    throw new UnPersistenceFailureException();
+	}
+    }
+
+    private static int readCount(DataInputStream pIn) throws IOException, UnPersistenceFailureException {
+	int rCount = pIn.readInt();
+
+	if (rCount < 0 || rCount > pIn.available()) throw new UnPersistenceFailureException();
+
+	return rCount;
+    }
+
+    private static void writeString(DataOutputStream pOut, String pString) throws IOException {
+	byte[] vBytes;
+
+	if (pString == null) {
+	    pOut.writeInt(-1);
+	    return;
+	}
+	vBytes = pString.getBytes("UTF-8");
+	pOut.writeInt(vBytes.length);
+	pOut.write(vBytes);
+    }
+
+    private static String readString(DataInputStream pIn) throws IOException, UnPersistenceFailureException {
+	int vLength = pIn.readInt();
+	byte[] vBytes;
+
+	if (vLength == -1) return null;
+	if (vLength < 0 || vLength > pIn.available()) throw new UnPersistenceFailureException();
+	vBytes = new byte[vLength];
+	pIn.readFully(vBytes);
+
+	return new String(vBytes, "UTF-8");
+    }
+
+    private static byte[] readFile(String pFilename) throws IOException {
+	InputStream vStream = JAccounting.getApplication().getContext().getLocalStorage()
+				.openInputFile(pFilename);
+	ByteArrayOutputStream rBytes = new ByteArrayOutputStream();
+	byte[] vBuffer = new byte[8192];
+	int vRead;
+
+	try {
+	    while ((vRead = vStream.read(vBuffer)) != -1) {
+		rBytes.write(vBuffer, 0, vRead);
+	    }
+	}
+	finally {
+	    vStream.close();
+	}
+
+	return rBytes.toByteArray();
+    }
+
+    /**
+     * Writes a file next to its final place, forces it to disk, then renames
+     * it over the file it replaces.
+     */
+    private static void writeFile(String pFilename, byte[] pBytes) throws IOException {
+	File vFile = FileStorage.getLocalFile(pFilename);
+	File vTempFile = FileStorage.getLocalFile(pFilename + TEMP_FILE_EXTENSION);
+	FileOutputStream vStream;
+
+	vTempFile.getParentFile().mkdirs();
+	vStream = new FileOutputStream(vTempFile);
+	try {
+	    vStream.write(pBytes);
+	    vStream.getFD().sync();
+	}
+	finally {
+	    vStream.close();
+	}
+	if (!vTempFile.renameTo(vFile)) {
+	    vFile.delete();
+	    if (!vTempFile.renameTo(vFile)) {
+		throw new IOException("Failed to replace " + vFile + " with " + vTempFile);
+	    }
+	}
+    }
+
+
+    /**
+     * PartitionedCheckpoint is the class saving the files of the application
+     * data that changed. Its {@link #write()} method waits for the checkpoints
+     * created before to be written, then replaces the files one by one, the
+     * main file last: until then the main file still lists the closed periods
+     * as they were, so a save interrupted midway leaves the old data readable.
+     *
+     * @version		    1.0.0
+     * @since		    1.0.0
+     */
+    private class PartitionedCheckpoint implements Checkpoint {
+
+	private int sequence;		    // the sequence number of the checkpoint
+
+	private boolean full;		    // whether all the loaded files are written
+
+	private Map<String, byte[]> files;  // the contents of the files by name, in order
+
+
+	private PartitionedCheckpoint(int pSequence, boolean pFull, Map<String, byte[]> pFiles) {
+	    sequence = pSequence;
+	    full = pFull;
+	    files = pFiles;
+	}
+
+
+	/**
+	 * Writes the files. Nothing is written if the PartitionedStorage was
+	 * closed since this Checkpoint was created.
+	 *
+	 * @throws IOException	    if an earlier Checkpoint failed or a file
+	 *			    could not be written
+	 * @since		    1.0.0
+	 */
+	public void write() throws IOException {
+	    synchronized (PartitionedStorage.this) {
+		try {
+		    while (!closed && writtenSequence != sequence - 1) {
+			PartitionedStorage.this.wait();
+		    }
+		}
+		catch (InterruptedException ex) {
+		    IOException vEx = new IOException("Interrupted while waiting to save");
+
+		    synced = false;
+		    vEx.initCause(ex);
+		    throw vEx;
+		}
+
+		try {
+		    if (closed) return;
+		    if (!synced && !full) {
+			throw new IOException("An earlier save failed; the next save rewrites the loaded files");
+		    }
+		    for (Map.Entry<String, byte[]> vEntry : files.entrySet()) {
+			writeFile(vEntry.getKey(), vEntry.getValue());
+		    }
+		    synced = true;
+		}
+		catch (IOException ex) {
+		    synced = false;
+		    throw ex;
+		}
+		finally {
+		    writtenSequence = sequence;
+		    PartitionedStorage.this.notifyAll();
+		}
+	    }
+	}
+
+	public void commit() {
+	}
+    }
+
+    /**
+     * The length and checksum of a file as last read or saved, to tell whether
+     * its content changed.
+     */
+    private static class Partition {
+
+	private boolean loaded;		    // whether its Transactions are loaded
+
+	private long length = -1;
+
+	private long checksum;
+
+
+	private boolean update(byte[] pBytes) {
+	    CRC32 vChecksum = new CRC32();
+	    boolean rChanged;
+
+	    vChecksum.update(pBytes);
+	    rChanged = (pBytes.length != length || vChecksum.getValue() != checksum);
+	    length = pBytes.length;
+	    checksum = vChecksum.getValue();
+
+	    return rChanged;
+	}
+    }
+
+    /**
+     * The Transactions of a file with the entries of its Accounts and the
+     * balances they open at.
+     */
+    private static class Segment {
+
+	private List<Transaction> transactions = new ArrayList<Transaction>();
+
+	private List<Account> accounts = new ArrayList<Account>();
+
+	private List<Double> openings = new ArrayList<Double>();
+
+	private List<List<TransactionEntry>> entries = new ArrayList<List<TransactionEntry>>();
+
+
+	private void add(Account pAccount, double pOpening, List<TransactionEntry> pEntries) {
+	    accounts.add(pAccount);
+	    openings.add(Double.valueOf(pOpening));
+	    entries.add(pEntries);
+	}
+    }
+
+}
@@ -21,491 +21,178 @@
 package jaccounting;
 
 import jaccounting.models.*;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.math.BigInteger;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.Locale;
-import java.util.Map;
-import javax.swing.tree.DefaultMutableTreeNode;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.filter.ElementFilter;
-import org.jdom.input.SAXBuilder;
-import org.jdom.output.XMLOutputter;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * PersistenceHandler is the class handling the persistence operations on the
  * application data. A PersistenceHandler object is delegated those operations
- * by the {@link ModelsMngr}. It uses the jdom library to serialize a Data object
- * into a specific xml format and to parse such xml back into an application Data
- * object.
+ * by the {@link FileStorage} of the loaded file. It uses an {@link XmlDataWriter} to serialize a
+ * Data object into a specific xml format and an {@link XmlDataReader} to parse
+ * such xml back into an application Data object.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
- * @see		    ModelsMngr
+ * @see		    FileStorage
+ * @see		    XmlDataWriter
+ * @see		    XmlDataReader
  * @see		    jaccounting.models.Data
  * @since	    1.0.0
  */
 public class PersistenceHandler {
 
     /**
-     * When persisting a Data object, we generate ids for the Accounts as we cycle
-     * through the GeneralLedger to serialize them and store those ids in the
-     * accountIds map indexed by the Account object. As we serialize other data
-     * objects referencing an Account, we pull the id of the Account from the
-     * above map and store the id in place instead of reserializing the Account
-     * object -which had already been serialized when dealing with the GeneralLedger.
-     * The same is done for Transactions and TransactionEntries with respective
-     * maps transactionIds and transactionEntryIds. In summary, Accounts are
-     * serialized as part of the GeneralLedger and their ids are stored anywhere
-     * else they are referenced. The TransactionEntries are stored as part of the
-     * Account they belong to and the Transactions are stored as part of the Journal.
-     * In addition the ids get stored as part of the xml.
+     * The xml is written in the compact format of revision 2: every value is
+     * stored in an attribute of the node of the object it belongs to. Accounts
+     * are nested as the nodes of the GeneralLedger tree and given an id which
+     * the Transactions of the Journal use for their debit and credit Accounts;
+     * the TransactionEntries are not written as such but recreated from the
+     * Transactions when the file is read. No balance is written either; the
+     * balances of the Accounts and of their entries are re-calculated on load.
      *
-     * The general format of the xml is that variables are store in nodes named
-     * after their type except for nodes that do not store the actual object's
-     * serialization but rather a reference to its xml id in which case the node
-     * name is prefix with "ref-". Nodes are given a name attribute that corresponds
-     * to the variable name and in case of objects that are referenced, an id
-     * attribute is stored as well.
+     * The files of revision 1, whose variables are stored in nodes named after
+     * their type with a name attribute, the TransactionEntries being stored
+     * as part of the Account they belong to and referenced by id from the
+     * Transactions, are still read. They are written in revision 2 when saved.
      *
-     * When unpersiting the contents of a file into a Data object, we retrieve all
-     * the nodes named "Account", unserialize their content as Account objects
-     * and store the resulting objects into idAccounts indexed by the xml id. As
-     * part of the unserialization of an Account we unserialize its TransactionEntries
-     * and store them in the idTransactionEntries map. However we do not fully
-     * unserialize a TransactionEntry as we live out its transferAccount property
-     * to avoid getting into unpleasant cycles -i.e unserialize Account leads to
-     * unserialize TransactionEntry which leads to unserialize its transferAccount Account
-     * and so on. We also leave out the transaction property for the same reasons.
-     * Transactions are unserialized when dealing with the Journal; since the
-     * TransactionEntries are already unserialized at that time we use the stored
-     * ids in xml to get them the idTransactionEntries map and at this time set
-     * their transaction property to the Transaction we are unserializing. When
-     * done with the GeneralLedger and the Journal, we cycle one last time through
-     * the nodes named "TransactionEntry", use the stored id in the xml to retrieve
-     * the corresponding TransactionEntry objects from the idTransactionEntries map,
-     * use the stored id of the transferAccount in the xml to get the right Account
-     * from the idAccounts map and update the TransactionEntry object.
+     * Persisting a Data object is delegated to an {@link XmlDataWriter} which
+     * writes the xml straight to the stream and unpersisting the contents of a
+     * file into a Data object is delegated to an {@link XmlDataReader} which
+     * reads the xml as a stream of nodes. Neither builds the whole document in
+     * memory.
      *
-     * After persiting/unpersisting we safely reset all maps and last id values
-     * trackers to save memory.
-     */
-
-
-    /**	mapping of Accounts to their xml ids; used when persisting. */
-    private Map<Account, BigInteger> accountIds;
-
-    /**	mapping of Transactions to their xml ids; used when persisting. */
-    private Map<Transaction, BigInteger> transactionIds;
-
-    /**
-     * mapping of Transaction Entries to their xml ids; used when persisting
-     * and unpersisting.
+     * The same Data may also be saved as a compact binary snapshot described
+     * by {@link BinaryDataFormat}; a {@link BinaryDataWriter} and a {@link
+     * BinaryDataReader} then do the job. The xml format stays the one to
+     * exchange data with.
+     *
+     * Either format may be compressed with gzip. The compression is applied
+     * to the stream around the writers and readers, so neither needs to know
+     * about it; a compressed stream is recognized from its first two bytes,
+     * the gzip magic number, so compressed and plain files are read alike.
+     * Data is compressed at the fastest deflate level: xml is very redundant
+     * and the stronger levels save little more for much more time.
      */
-    private Map<TransactionEntry, BigInteger> transactionEntryIds;
-
-    /**	mapping of xml ids to their Accounts; used when unpersisting. */
-    private Map<BigInteger, Account> idAccounts;
-
-    /**	mapping of xml ids to their Transactions; used when unpersisting. */
-    private Map<BigInteger, Transaction> idTransactions;
-
-    /**	mapping of xml ids to their Transaction Entries; used when unpersisting. */
-    private Map<BigInteger, TransactionEntry> idTransactionEntries;
-
-    /**	last generated xml id of an Account; used when persisting. */
-    private BigInteger lastAccountId;
 
-    /**	last generated xml id of a Transaction; used when persisting. */
-    private BigInteger lastTransactionId;
+    /** formats a Data object can be saved in */
+    public static enum Format { XML, BINARY }
 
-    /**	last generated xml id of a Transaction Entry; used when persisting. */
-    private BigInteger lastTransactionEntryId;
+    /** compressions a saved Data object can be stored with */
+    public static enum Compression { NONE, GZIP }
 
-    /**
-     * iterator for the list of all xml elements of node name "Account";
-     * used when unpersisting.
-     */
-    private Iterator accountElementsIterator;
+    /** the two first bytes of a gzip stream */
+    private static final int GZIP_MAGIC = 0x1F8B;
 
-    /**
-     * iterator for the list of all xml elements of node name "Transaction";
-     * used when unpersisting.
-     */
-    private Iterator transactionElementsIterator;
-
-    /**
-     * iterator for the list of all xml elements of node name "Transaction Entry";
-     * used when unpersisting.
-     */
-    private Iterator transactionEntryElementsIterator;
+    /** size in bytes of the decompression buffers */
+    private static final int BUFFER_SIZE = 64 * 1024;
 
 
     /**
-     * Sole Constructor. Resets instance variables to their default values.
+     * Sole Constructor.
      * @since		    1.0.0
      */
     public PersistenceHandler() {
-	reset();
-    }
-
-
-    private void reset() {
-	accountIds = new HashMap<Account, BigInteger>();
-	transactionIds = new HashMap<Transaction, BigInteger>();
-	transactionEntryIds = new HashMap<TransactionEntry, BigInteger>();
-
-	idAccounts = new HashMap<BigInteger, Account>();
-	idTransactions = new HashMap<BigInteger, Transaction>();
-	idTransactionEntries = new HashMap<BigInteger, TransactionEntry>();
-	
-	lastAccountId = BigInteger.ZERO;
-	lastTransactionId = BigInteger.ZERO;
-	lastTransactionEntryId = BigInteger.ZERO;
-
-	accountElementsIterator = null;
-	transactionElementsIterator = null;
-	transactionEntryElementsIterator = null;
-    }
-
-    private BigInteger getIdOfAccount(Account pAcct) {
-	BigInteger rId;
-
-	/**
-	 * Find the id of the Account from the accountIds map. If that Account's
-	 * id hasn't been added yet, generate an id for it by incrementing
-	 * lastAccountId and add it to the map.
-	 */
-	if ((rId = accountIds.get(pAcct)) == null) {
-	    rId = lastAccountId = lastAccountId.add(BigInteger.ONE);
-	    accountIds.put(pAcct, rId);
-	}
-
-	return rId;
-    }
-
-    private Account getAccountOfId(BigInteger pId) throws UnPersistenceFailureException {
-	Account rAcct;
-
-	/**
-	 * Find the Account with the passed id in the idAccounts map. If the
-	 * the Account with that id hasn't been added yet, we cyle through the
-	 * xml nodes named "Account" and unserialize them until we reach the
-	 * Account with our id.
-	 */
-	if ((rAcct = idAccounts.get(pId)) == null) {
-	    boolean vStop = false;	    // stop flag when we reach our Account
-	    Element vEl;		    // current "Account" node
-	    BigInteger vId;		    // id of current "Account" node
-	    ListIterator vIt;		    // current "Account" node's children iterator
-
-	    while (!vStop && accountElementsIterator.hasNext()) {
-		/** unserialized values of Account properties */
-		String vName = "";
-		String vDescription = "";
-		int vNumber = -1;
-		double vBalance = 0.0;
-		Account.Type vType = null;
-		boolean vTransEnabled = false;
-		List<TransactionEntry> vEntries = new ArrayList();
-
-		Element vKid;		// child node being examined
-		String vKidName;	// child node's name attribute value
-		String vText;		// child node's text content
-		TransactionEntry vEntry;// currently unserialized TransactionEntry
-		int vInd = 0;		// currently unserialized TransactionEntry index
-
-		vEl = (Element) accountElementsIterator.next();
-		vId = new BigInteger(vEl.getAttributeValue("id"));
-		vIt = vEl.getChildren().listIterator();
-
-		/**
-		 * Cycle through this "Account" node's children and unserialize
-		 * the Account's properties before later creating the Account
-		 */
-		while (vIt.hasNext()) {
-		    vKid = (Element)vIt.next();
-		    vKidName = vKid.getAttributeValue("name");
-		    vText = vKid.getTextTrim();
-		    if (vKidName.equals("number")) {
-			vNumber = Integer.parseInt(vText);
-		    }
-		    else if (vKidName.equals("name")) {
-			vName = vText;
-		    }
-		    else if (vKidName.equals("description")) {
-			vDescription = vText;
-		    }
-		    else if (vKidName.equals("balance")) {
-			vBalance = Double.parseDouble(vText);
-		    }
-		    else if (vKidName.equals("type")) {
-			vType = Enum.valueOf(Account.Type.class, vText);
-		    }
-		    else if (vKidName.equals("transactionsEnabled")) {
-			vTransEnabled = Boolean.parseBoolean(vText);
-		    }
-		    else if (vKidName.equals("entries")) {
-			vEntry = unserializeTransactionEntry("listEntry-"+vInd++, vKid);
-			while (vEntry != null) {
-			    vEntries.add(vEntry);
-			    vEntry = unserializeTransactionEntry("listEntry-"+vInd++, vKid);
-			}
-		    }
-		}
-
-		/**
-		 * Create our Account from the unserialized properties values,
-		 * add it to the idAccounts map and stop when we found the Account
-		 * matching our pId.
-		 */
-		try {
-		    rAcct = Account.createAccount(vNumber, vName, vDescription, vBalance,
-						 vType, vEntries, vTransEnabled);
-		    idAccounts.put(vId, rAcct);
-		    if (vId.equals(pId)) vStop = true;
-		}
-		catch (GenericException ex) {
-		    throw new UnPersistenceFailureException();
-		}
-	    }
-
-	}
-	
-	return rAcct;
-    }
-
-    private void setEntriesTransferAccount() throws UnPersistenceFailureException {
-	Element vEl;		// the "TransactionEntry" node being examined
-	BigInteger vId;		// its id attribute value
-	TransactionEntry vEnt;	// the TransactionEntry matching that id from the map
-	BigInteger vAcctId;	// its "ref-Account" child node content
-	Account vAcct;		// the Account matching that value from the map
-
-	/**
-	 * Cycle through all nodes named "TransactionEntry", get the TransactionEntry
-	 * from the idTransactionEntries map using the id attribute, get the
-	 * transferAccount Account from the idAccounts map using its "ref-Account"
-	 * child node's content and set the TransactionEntry's transferAccount
-	 * property.
-	 * See class implementation note at beginning for why.
-	 */
-	while (transactionEntryElementsIterator.hasNext()) {
-	    vEl = (Element) transactionEntryElementsIterator.next();
-	    vId = new BigInteger(vEl.getAttributeValue("id"));
-	    vEnt = idTransactionEntries.get(vId);
-	    if (vEnt == null) {
-		throw new UnPersistenceFailureException();
-	    }
-
-	    vAcctId = new BigInteger(vEl.getChildTextTrim("ref-Account"));
-	    vAcct = idAccounts.get(vAcctId);
-	    if (vAcct == null) {
-		throw new UnPersistenceFailureException();
-	    }
-
-	    vEnt.initTransferAccount(vAcct);
-	}
     }
 
-    private BigInteger getIdOfTransaction(Transaction pVal) {
-	BigInteger rId;
 
-	/**
-	 * Find the id of the Transaction from the transactionIds map. If that Transaction's
-	 * id hasn't been added yet, generate an id for it by incrementing
-	 * lastTransactionId and add it to the map.
-	 */
-	if ((rId = transactionIds.get(pVal)) == null) {
-	    rId = lastTransactionId = lastTransactionId.add(BigInteger.ONE);
-	    transactionIds.put(pVal, rId);
-	}
-
-	return rId;
+    /**
+     * Saves a Data object to an OutputStream as an xml document.
+     *
+     * @param pData		the Data object to save
+     * @param pStream		the OutputStream to save to
+     * @throws IOException	if an I/O error ocurred
+     * @see			#persist(jaccounting.models.Data, java.io.OutputStream,
+     *						jaccounting.PersistenceHandler.Format)
+     * @since			1.0.0
+     */
+    public void persist(Data pData, OutputStream pStream) throws IOException {
+	persist(pData, pStream, Format.XML);
     }
 
-    private Transaction getTransactionOfId(BigInteger pId) {
-	Transaction rTrans;
-
-	/**
-	 * Find the Transaction with the passed id in the idTransactions map. If the
-	 * the Transaction with that id hasn't been added yet, cyle through the
-	 * xml nodes named "Transaction" and unserialize them until we reach the
-	 * Transaction with our id.
-	 */
-	if ((rTrans = idTransactions.get(pId)) == null) {
-	    boolean vStop = false;	// stop flag when we reach our Transaction
-	    Element vEl;		// current "Transaction" node
-	    BigInteger vId;		// id of current "Transaction" node
-	    ListIterator vIt;		// current "Transaction" node's children iterator
-
-	    while (!vStop && transactionElementsIterator.hasNext()) {
-		/** unserialized values of Transaction properties */
-		Date vDate = null;
-		String vRefNo = "";
-		String vMemo = "";
-		double vAmount = 0.0;
-		TransactionEntry vDebitEntry = null;
-		TransactionEntry vCreditEntry = null;
-
-		Element vKid;		// child node being examined
-		String vKidName;	// child node's name attribute value
-		String vText;		// child node's text content
-
-		vEl = (Element) transactionElementsIterator.next();
-		vId = new BigInteger(vEl.getAttributeValue("id"));
-		vIt = vEl.getChildren().listIterator();
-
-		/**
-		 * Cycle through this "Transaction" node's children and unserialize
-		 * the Transaction's properties before later creating the Transaction
-		 */
-		while (vIt.hasNext()) {
-		    vKid = (Element)vIt.next();
-		    vKidName = vKid.getAttributeValue("name");
-		    vText = vKid.getTextTrim();
-		    if (vKidName.equals("date")) {
-			// System.out.println("gg"+vText);
-                        
-                        
-                        
-                        
-                        String target = "Thu Sep 28 20:29:30 JST 2000";
-                        DateFormat df = new SimpleDateFormat("EEE MMM dd kk:mm:ss z yyyy", Locale.ENGLISH);
-                        try {
-                            Date result = df.parse(vText);
-                             //System.out.println(result);
-                             vDate = result;
-                        } catch (ParseException e) {
-
-                            e.printStackTrace();
-                        }
-                       
-                        //vDate = new Date(vText);
-
-
-     //other methods
-
-                       
-		    }
-		    else if (vKidName.equals("refNo")) {
-			vRefNo = vText;
-		    }
-		    else if (vKidName.equals("memo")) {
-			vMemo = vText;
-		    }
-		    else if (vKidName.equals("amount")) {
-			vAmount = Double.parseDouble(vText);
-		    }
-		    else if (vKidName.equals("debitEntry")) {
-			vDebitEntry = getTransactionEntryOfId(new BigInteger(vText));
-		    }
-		    else if (vKidName.equals("creditEntry")) {
-			vCreditEntry = getTransactionEntryOfId(new BigInteger(vText));
-		    }
-		}
-
-		/**
-		 * Create our Transaction from the unserialized properties values,
-		 * add it to the idTransactions map and stop when we found the Transaction
-		 * matching our pId.
-		 */
-		rTrans = Transaction.createTransaction(vDate, vRefNo, vMemo, vAmount, vDebitEntry, vCreditEntry);
-		idTransactions.put(vId, rTrans);
-		if (vId.equals(pId)) vStop = true;
-	    }
-	}
-
-	return rTrans;
+    /**
+     * Saves a Data object to an OutputStream in the given format.
+     *
+     * @param pData		the Data object to save
+     * @param pStream		the OutputStream to save to
+     * @param pFormat		the format to save in
+     * @throws IOException	if an I/O error ocurred
+     * @see			XmlDataWriter#write(jaccounting.models.Data,
+     *						    java.io.OutputStream)
+     * @see			BinaryDataWriter#write(jaccounting.models.Data,
+     *						       java.io.OutputStream)
+     * @see			jaccounting.models.Data
+     * @since			1.0.0
+     */
+    public void persist(Data pData, OutputStream pStream, Format pFormat) throws IOException {
+	persist(pData, pStream, pFormat, Compression.NONE);
     }
 
-    private BigInteger getIdOfTransactionEntry(TransactionEntry pVal) {
-	BigInteger rId;
-
-	/**
-	 * Find the id of the TransactionEntry from the transactionEntryIds map.
-	 * If that TransactionEntry's id hasn't been added yet, generate an id
-	 * for it by incrementing lastTransactionEntryId and add it to the map.
-	 */
-	if ((rId = transactionEntryIds.get(pVal)) == null) {
-	    rId = lastTransactionEntryId = lastTransactionEntryId.add(BigInteger.ONE);
-	    transactionEntryIds.put(pVal, rId);
+    /**
+     * Saves a Data object to an OutputStream in the given format and
+     * compressed with the given compression.
+     *
+     * @param pData		the Data object to save
+     * @param pStream		the OutputStream to save to
+     * @param pFormat		the format to save in
+     * @param pCompression	the compression to apply to the saved format
+     * @throws IOException	if an I/O error ocurred
+     * @see			#persist(jaccounting.models.Data, java.io.OutputStream,
+     *						jaccounting.PersistenceHandler.Format)
+     * @since			1.0.0
+     */
+    public void persist(Data pData, OutputStream pStream, Format pFormat,
+			Compression pCompression) throws IOException {
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey((pFormat == Format.BINARY) ? "messages.outputingSnapshot"
+						       : "messages.outputingXML");
+	try {
+	    write(pData, pStream, pFormat, pCompression);
 	}
-
-	return rId;
-    }
-
-    private TransactionEntry getTransactionEntryOfId(BigInteger pId) {
-	TransactionEntry rEntry;
-
-	/**
-	 * Find the TransactionEntry with the passed id in the idTransactionEntries map. If the
-	 * the TransactionEntry with that id hasn't been added yet, cyle through the
-	 * xml nodes named "TransactionEntry" and unserialize them until we reach the
-	 * TransactionEntry with our id.
-	 */
-	if ((rEntry = idTransactionEntries.get(pId)) == null) {
-	    boolean vStop = false;	// stop flag when we reach our TransactionEntry
-	    Element vEl;		// current "TransactionEntry" node
-	    BigInteger vId;		// id of current "TransactionEntry" node
-
-	    while (!vStop && transactionEntryElementsIterator.hasNext()) {
-		vEl = (Element) transactionEntryElementsIterator.next();
-		vId = new BigInteger(vEl.getAttributeValue("id"));
-		
-		rEntry = new TransactionEntry(null, null, Enum.valueOf(TransactionEntry.Type.class,
-									vEl.getChildTextTrim("Enum")),
-						Double.parseDouble(vEl.getChildTextTrim("double")));
-		idTransactionEntries.put(vId, rEntry);
-		//transactionEntryIds.put(rEntry, vId);
-		if (vId.equals(pId)) vStop = true;
-	    }
+	finally {
+	    pStream.close();
 	}
 
-	return rEntry;
+	JAccounting.getApplication().getProgressReporter().reportFinished();
     }
 
     /**
-     * Saves a Data object to an OutputStream as an xml document.
+     * Writes a Data object to an OutputStream in the given format and
+     * compressed with the given compression, then flushes the stream but
+     * leaves it open. Unlike {@link #persist(jaccounting.models.Data,
+     * java.io.OutputStream, jaccounting.PersistenceHandler.Format,
+     * jaccounting.PersistenceHandler.Compression) persist}, this method does
+     * not report its progress, so it may run off the event dispatching thread.
      *
-     * @param pData		the Data object to save
-     * @param pStream		the OutputStream to save to
+     * @param pData		the Data object to write
+     * @param pStream		the OutputStream to write to
+     * @param pFormat		the format to write in
+     * @param pCompression	the compression to apply to the written format
      * @throws IOException	if an I/O error ocurred
-     * @see			jaccounting.models.Data
      * @since			1.0.0
      */
-    public void persist(Data pData, OutputStream pStream) throws IOException {
-	XMLOutputter vOut = new XMLOutputter();
-	Document vDoc = new Document();
-	Element vRoot = new Element("JAccounting");
-
-	vDoc.setRootElement(vRoot);
-
-	JAccounting.getApplication().getProgressReporter()
-	    .reportUsingKey("messages.serializingData");
-	serializeData(pData, vRoot);
-
-	JAccounting.getApplication().getProgressReporter()
-	    .reportUsingKey("messages.outputingXML");
-	vOut.output(vDoc, pStream);
+    void write(Data pData, OutputStream pStream, Format pFormat,
+	       Compression pCompression) throws IOException {
+	GZIPOutputStream vGzipStream = null;
+	OutputStream vStream = pStream;
+
+	if (pCompression == Compression.GZIP) {
+	    vGzipStream = new FastGZIPOutputStream(pStream);
+	    vStream = vGzipStream;
+	}
 
+	if (pFormat == Format.BINARY) {
+	    new BinaryDataWriter().write(pData, vStream);
+	}
+	else {
+	    new XmlDataWriter().write(pData, vStream);
+	}
+	if (vGzipStream != null) vGzipStream.finish();
 	pStream.flush();
-	pStream.close();
-	reset();
-	JAccounting.getApplication().getProgressReporter().reportFinished();
     }
 
     /**
@@ -517,258 +204,115 @@ public class PersistenceHandler {
      *						xml from InpputStream
      * @throws IOException			if an I/O error occured
      * @throws UnPersistenceFailureException	if an xml parsing error occured
-     * @see					jaccounting.models.Data
+     * @see					#unpersist(java.io.InputStream,
+     *						jaccounting.PersistenceHandler.Format)
      * @since					1.0.0
      */
     public Data unpersist(InputStream pStream) throws IOException, UnPersistenceFailureException {
-	Data rData = null;
-
-	try {
-	    SAXBuilder vBuilder = new SAXBuilder();
-	    JAccounting.getApplication().getProgressReporter()
-		.reportUsingKey("messages.unserializingData");
-	    Document vDoc = vBuilder.build(pStream);
-	    Element vRoot = vDoc.getRootElement();
-
-	    accountElementsIterator = vRoot.getDescendants(new ElementFilter("Account"));
-	    transactionElementsIterator = vRoot.getDescendants(new ElementFilter("Transaction"));
-	    transactionEntryElementsIterator = vRoot.getDescendants(new ElementFilter("TransactionEntry"));
-
-	    JAccounting.getApplication().getProgressReporter()
-		.reportUsingKey("messages.unserializingData");
-	    rData = unserializeData(vRoot);
-	    transactionEntryElementsIterator = vRoot.getDescendants(new ElementFilter("TransactionEntry"));
-	    setEntriesTransferAccount();
-	}
-	catch (JDOMException jDOMException) {
-	    throw new UnPersistenceFailureException();
-	}
-	finally {
-	    reset();
-	}
-
-	JAccounting.getApplication().getProgressReporter().reportFinished();
-	return rData;
-    }
-
-    private void serializeData(Data pData, Element pRoot) {
-	Element vEl = new Element("Data");
-
-	vEl.setAttribute("name", "data");
-	serializeGeneralLedger(pData.getGeneralLedger(), vEl);
-	serializeJournal(pData.getJournal(), vEl);
-	
-	pRoot.addContent(vEl);
+	return unpersist(pStream, Format.XML);
     }
 
-    private Data unserializeData(Element pRoot) throws UnPersistenceFailureException {
-	Element vEl = pRoot.getChild("Data");
-	GeneralLedger vLedg = unserializeGeneralLedger(vEl);
-	Journal vJour = unserializeJournal(vEl);
-
-	return new Data(vJour, vLedg);
-    }
-
-    private void serializeGeneralLedger(GeneralLedger pLedger, Element pRoot) {
-	Element vEl = new Element("GeneralLedger");
-	Element vRootEl = new Element("TreeNode");
-
-	vEl.setAttribute("name", "generalLedger");
-	vRootEl.setText((String) pLedger.getRoot().getUserObject());
-	vRootEl.setAttribute("name", "root");
-	vEl.addContent(vRootEl);
-	
-	serializeAccountTreeNode("assetsNode", pLedger.getAssetsNode(), vEl);
-	serializeAccountTreeNode("liabilitiesNode", pLedger.getLiabilitiesNode(), vEl);
-	serializeAccountTreeNode("equityNode", pLedger.getEquityNode(), vEl);
-	serializeAccountTreeNode("revenuesNode", pLedger.getRevenuesNode(), vEl);
-	serializeAccountTreeNode("expensesNode", pLedger.getExpensesNode(), vEl);
-
-	pRoot.addContent(vEl);
-    }
-
-    private GeneralLedger unserializeGeneralLedger(Element pRoot) throws UnPersistenceFailureException {
-	Element vEl = pRoot.getChild("GeneralLedger");
-	DefaultMutableTreeNode vRoot = new DefaultMutableTreeNode(vEl.getChild("TreeNode").getTextTrim());
-
-	return new GeneralLedger(vRoot, unserializeAccountTreeNode("assetsNode", vEl),
-				 unserializeAccountTreeNode("liabilitiesNode", vEl),
-				 unserializeAccountTreeNode("revenuesNode", vEl),
-				 unserializeAccountTreeNode("expensesNode", vEl),
-				 unserializeAccountTreeNode("equityNode", vEl));
+    /**
+     * Reads the Data object saved in the given format in an InputStream. The
+     * stream is decompressed first if it is compressed.
+     *
+     * @param pStream				the InputStream containing a
+     *						representation of an application
+     *						Data
+     * @param pFormat				the format the Data was saved in
+     * @return					the Data object read from the
+     *						InputStream
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if the InputStream does not hold
+     *						a valid Data in that format
+     * @see					XmlDataReader#read(java.io.InputStream)
+     * @see					BinaryDataReader#read(java.io.InputStream)
+     * @see					jaccounting.models.Data
+     * @since					1.0.0
+     */
+    public Data unpersist(InputStream pStream, Format pFormat) throws IOException, UnPersistenceFailureException {
+	return unpersist(pStream, pFormat, null);
     }
 
-    private void serializeAccountTreeNode(String pName, AccountTreeNode pNode, Element pRoot) {
-	Element vEl = new Element("AccountTreeNode").setAttribute("name", pName);
-	Element vKid = new Element("Enumeration").setAttribute("name", "children");
-	Enumeration vChildren = pNode.children();
-	int vInd = 0;
+    /**
+     * Reads the Data object saved in the given format in an InputStream and
+     * tells a LoadListener of the progress. Only the xml format is read
+     * progressively; a listener is never called while reading a binary
+     * snapshot, which is quick to read whole.
+     *
+     * @param pStream				the InputStream containing a
+     *						representation of an application
+     *						Data
+     * @param pFormat				the format the Data was saved in
+     * @param pListener				the listener to tell of the
+     *						progress or null
+     * @return					the Data object read from the
+     *						InputStream
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if the InputStream does not hold
+     *						a valid Data in that format
+     * @see					XmlDataReader#read(java.io.InputStream,
+     *						jaccounting.LoadListener)
+     * @since					1.0.0
+     */
+    public Data unpersist(InputStream pStream, Format pFormat, LoadListener pListener)
+	    throws IOException, UnPersistenceFailureException {
+	Data rData;
 
-	serializeAccount("userObject", (Account)pNode.getUserObject(), vEl);
-	while (vChildren.hasMoreElements()) {
-	    serializeAccountTreeNode("childElement-"+vInd++, (AccountTreeNode)vChildren.nextElement(), vKid);
+	if (!pStream.markSupported()) {
+	    pStream = new BufferedInputStream(pStream, BUFFER_SIZE);
 	}
-	vEl.addContent(vKid);
-	
-	pRoot.addContent(vEl);
-    }
-
-    private AccountTreeNode unserializeAccountTreeNode(String pName, Element pRoot) throws UnPersistenceFailureException {
-	Element vEl;
-	AccountTreeNode rNode = null;
-	ListIterator vIt = pRoot.getChildren("AccountTreeNode").listIterator();
-
-	while (vIt.hasNext()) {
-	    vEl = (Element)vIt.next();
-	    if (vEl.getAttributeValue("name").equals(pName)) {
-		Element vKids = vEl.getChild("Enumeration");
-		AccountTreeNode vNode;
-		int vInd = 0;
-
-		rNode = new AccountTreeNode(unserializeAccount(vEl));
-		vNode = unserializeAccountTreeNode("childElement-"+vInd++, vKids);
-		while (vNode != null) {
-		    rNode.add(vNode);
-		    vNode = unserializeAccountTreeNode("childElement-"+vInd++, vKids);
-		}
-	    }
+	if (detectCompression(pStream) == Compression.GZIP) {
+	    pStream = new GZIPInputStream(pStream, BUFFER_SIZE);
 	}
 
-	return rNode;
-    }
-
-    private void serializeAccount(String pName, Account pAcct, Element pRoot) {
-	Element vEl = new Element("Account");
-	Element vKid = new Element("List");
-	ListIterator vIt = pAcct.getEntries().listIterator();
-	int vInd = 0;
-
-	vEl.setAttribute("id", getIdOfAccount(pAcct).toString());
-	vEl.setAttribute("name", pName);
-	vKid.setAttribute("name", "entries");
-	vEl.addContent(new Element("int").setAttribute("name", "number")
-			    .setText(pAcct.getNumber()+""));
-	vEl.addContent(new Element("String").setAttribute("name", "name")
-			    .setText(pAcct.getName()));
-	vEl.addContent(new Element("String").setAttribute("name", "description")
-			    .setText(pAcct.getDescription()));
-	vEl.addContent(new Element("double").setAttribute("name", "balance")
-			    .setText(pAcct.getBalance()+""));
-	vEl.addContent(new Element("boolean").setAttribute("name", "transactionsEnabled")
-			    .setText(String.valueOf(pAcct.isTransactionsEnabled())));
-	vEl.addContent(new Element("Enum").setAttribute("name", "type")
-			    .setText(pAcct.getType().toString()));
-	while (vIt.hasNext()) {
-	    serializeTransactionEntry("listEntry-"+vInd++, (TransactionEntry)vIt.next(), vKid);
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.unserializingData");
+	if (pFormat == Format.BINARY) {
+	    rData = new BinaryDataReader().read(pStream);
 	}
-	vEl.addContent(vKid);
-
-	pRoot.addContent(vEl);
-    }
-
-    private Account unserializeAccount(Element pRoot) throws UnPersistenceFailureException {
-	Element vEl = pRoot.getChild("Account");
-	return getAccountOfId(new BigInteger(vEl.getAttributeValue("id")));
-    }
-
-    private void serializeJournal(Journal pJournal, Element pRoot) {
-	Element vEl = new Element("Journal");
-	Element vKid = new Element("List");
-	ListIterator vIt = pJournal.getTransactions().listIterator();
-	int vInd = 0;
-
-	vEl.setAttribute("name", "journal");
-	vKid.setAttribute("name", "transactions");
-	while (vIt.hasNext()) {
-	    serializeTransaction("listEntry-"+vInd++, (Transaction)vIt.next(), vKid);
+	else {
+	    rData = new XmlDataReader().read(pStream, pListener);
 	}
-	vEl.addContent(vKid);
 
-	pRoot.addContent(vEl);
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+	return rData;
     }
 
-    private Journal unserializeJournal(Element pRoot) {
-	List<Transaction> vTransactions = new ArrayList();
-	Element vEl = pRoot.getChild("Journal");
-	Element vKids = vEl.getChild("List");
-	Transaction vTrans;
-	int vInd = 0;
+    /**
+     * Detects the compression of a stream from its first bytes. The stream is
+     * left as it was.
+     *
+     * @param pStream		the InputStream to look at; it must support
+     *				marks
+     * @return			the compression of the stream
+     * @throws IOException	if an I/O error occured
+     * @see			java.io.InputStream#markSupported()
+     * @since			1.0.0
+     */
+    public static Compression detectCompression(InputStream pStream) throws IOException {
+	int vMagic;
 
-	vTrans = unserializeTransaction("listEntry-"+vInd++, vKids);
-	while (vTrans != null) {
-	    vTransactions.add(vTrans);
-	    vTrans = unserializeTransaction("listEntry-"+vInd++, vKids);
+	pStream.mark(2);
+	try {
+	    vMagic = (pStream.read() << 8) | pStream.read();
 	}
-
-	return new Journal(vTransactions);
-    }
-
-    private void serializeTransaction(String pName, Transaction pTrans, Element pRoot) {
-	Element vEl = new Element("Transaction");
-
-	vEl.setAttribute("id", getIdOfTransaction(pTrans).toString());
-	vEl.setAttribute("name", pName);
-	vEl.addContent(new Element("String").setAttribute("name", "refNo")
-			    .setText(pTrans.getRefNo()));
-	vEl.addContent(new Element("String").setAttribute("name", "memo")
-			    .setText(pTrans.getMemo()));
-	vEl.addContent(new Element("double").setAttribute("name", "amount")
-			    .setText(pTrans.getAmount()+""));
-	vEl.addContent(new Element("Enum").setAttribute("name", "date")
-			    .setText(pTrans.getDate().toString()));
-	vEl.addContent(new Element("ref-TransactionEntry").setAttribute("name", "debitEntry")
-			    .setText(getIdOfTransactionEntry(pTrans.getDebitEntry()).toString()));
-	vEl.addContent(new Element("ref-TransactionEntry").setAttribute("name", "creditEntry")
-			    .setText(getIdOfTransactionEntry(pTrans.getCreditEntry()).toString()));
-
-	pRoot.addContent(vEl);
-    }
-
-    private Transaction unserializeTransaction(String pName, Element pRoot) {
-	Element vEl;
-	Transaction rTrans = null;
-	ListIterator vIt = pRoot.getChildren("Transaction").listIterator();
-	
-	while (vIt.hasNext()) {
-	    vEl = (Element)vIt.next();
-	    if (vEl.getAttributeValue("name").equals(pName)) {
-		rTrans = getTransactionOfId(new BigInteger(vEl.getAttributeValue("id")));
-	    }
+	finally {
+	    pStream.reset();
 	}
 
-	return rTrans;
-    }
-    
-    private void serializeTransactionEntry(String pName, TransactionEntry pEntry, Element pRoot) {
-	Element vEl = new Element("TransactionEntry");
-
-	vEl.setAttribute("name", pName);
-	vEl.setAttribute("id", getIdOfTransactionEntry(pEntry).toString());
-	vEl.addContent(new Element("ref-Account").setAttribute("name", "transferAccount")
-			    .setText(getIdOfAccount(pEntry.getTransferAccount()).toString()));
-	vEl.addContent(new Element("ref-Transaction").setAttribute("name", "transaction")
-			    .setText(getIdOfTransaction(pEntry.getTransaction()).toString()));
-	vEl.addContent(new Element("double").setAttribute("name", "accountBalance")
-			    .setText(pEntry.getAccountBalance()+""));
-	vEl.addContent(new Element("Enum").setAttribute("name", "type")
-			    .setText(pEntry.getType().toString()));
-
-	pRoot.addContent(vEl);
+	return (vMagic == GZIP_MAGIC) ? Compression.GZIP : Compression.NONE;
     }
 
-    private TransactionEntry unserializeTransactionEntry(String pName, Element pRoot) {
-	Element vEl;
-	TransactionEntry rEntry = null;
-	ListIterator vIt = pRoot.getChildren("TransactionEntry").listIterator();
+    /**
+     * A GZIPOutputStream deflating at the fastest level.
+     */
+    private static class FastGZIPOutputStream extends GZIPOutputStream {
 
-	while (vIt.hasNext()) {
-	    vEl = (Element)vIt.next();
-	    if (vEl.getAttributeValue("name").equals(pName)) {
-		rEntry = getTransactionEntryOfId(new BigInteger(vEl.getAttributeValue("id")));
-	    }
+	FastGZIPOutputStream(OutputStream pStream) throws IOException {
+	    super(pStream, BUFFER_SIZE);
+	    def.setLevel(Deflater.BEST_SPEED);
 	}
-
-	return rEntry;
     }
 
 }
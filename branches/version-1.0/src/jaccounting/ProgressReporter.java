@@ -95,7 +95,10 @@ public class ProgressReporter {
      * @since			1.0.0
      */
     public void report(String pMessage) {
-	JAccounting.getApplication().getMainView().getStatusMessageLabel().setText(pMessage);
+	MainView vView = JAccounting.getApplication().getMainView();
+
+	/** there is no status bar to update while the application is not started */
+	if (vView != null) vView.getStatusMessageLabel().setText(pMessage);
     }
 
     /*public void report(int pPercent) {
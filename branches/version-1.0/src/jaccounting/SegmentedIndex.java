@@ -0,0 +1,381 @@
+/*
+ * SegmentedIndex.java	    1.0.0	    09/2009
+ * This file contains the segmented file index class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.GeneralLedger;
+import jaccounting.models.Transaction;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * SegmentedIndex is the class giving random access to a file kept by a
+ * {@link SegmentedStorage} through the sidecar index saved next to it. The
+ * index holds the byte offsets of the Accounts segment and of every month
+ * segment of the file, and the months each Account has entries in, so that the
+ * entries of one Account are read by seeking to the segments of those months
+ * only. The Accounts are created as model objects with no entries, and the
+ * entries of an Account are loaded on demand; the {@link ModelsMngr} holds a
+ * SegmentedIndex while a segmented file is opened in viewer mode.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    SegmentedStorage
+ * @see		    ModelsMngr#openReadOnly(java.lang.String)
+ * @since	    1.0.0
+ */
+public class SegmentedIndex {
+
+    /**
+     * The index is named after the file with {@link #FILE_EXTENSION} appended.
+     * It holds the sequence number of the header slot of the file it was
+     * written for, the Location of the Accounts segment, the month segments
+     * by month, then for each Account id the months it has entries in with the
+     * count of its entries in each; it ends with the CRC32 of all of that. An
+     * index whose sequence number is not the one of the current slot of the
+     * file, such as one left by a save that failed to write it, is stale and
+     * is not used.
+     */
+
+    /** extension appended to the name of a segmented file to name its index */
+    static final String FILE_EXTENSION = ".idx";
+
+    /** first bytes of the index, "JACI" */
+    private static final int MAGIC = 0x4A414349;
+
+    private static final int VERSION = 1;
+
+    /** extension added to the index name to name the file saves go to first */
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private RandomAccessFile file;	    // the segmented file
+
+    private SegmentedStorage reader;	    // the reader of the segments
+
+    private SegmentedStorage.Location accountsSegment;
+
+    private Map<Integer, SegmentedStorage.Location> monthSegments;
+
+    /** the months and entries counts of each Account by id */
+    private Map<Integer, int[]> accountPostings;
+
+    /** the Accounts created by id and their ids */
+    private Map<Integer, Account> accountsById;
+
+    private IdentityIntMap<Account> accountIds;
+
+
+    private SegmentedIndex(RandomAccessFile pFile, String pFilename) {
+	file = pFile;
+	reader = new SegmentedStorage(pFilename);
+	monthSegments = new HashMap<Integer, SegmentedStorage.Location>();
+	accountPostings = new HashMap<Integer, int[]>();
+	accountsById = new HashMap<Integer, Account>();
+	accountIds = new IdentityIntMap<Account>();
+    }
+
+
+    /**
+     * Opens a segmented file through its index.
+     *
+     * @param pFile				the segmented file
+     * @return					the SegmentedIndex of the file
+     * @throws IOException			if an I/O error occured such as
+     *						missing file or index
+     * @throws UnPersistenceFailureException	if the file or its index is not
+     *						valid, or the index is stale
+     * @since					1.0.0
+     */
+    public static SegmentedIndex open(File pFile) throws IOException, UnPersistenceFailureException {
+	SegmentedIndex rIndex = new SegmentedIndex(new RandomAccessFile(pFile, "r"),
+						   pFile.getName());
+
+	try {
+	    rIndex.read(indexFileOf(pFile));
+	}
+	catch (EOFException ex) {
+	    rIndex.close();
+	    throw new UnPersistenceFailureException();
+	}
+	catch (IOException ex) {
+	    rIndex.close();
+	    throw ex;
+	}
+	catch (UnPersistenceFailureException ex) {
+	    rIndex.close();
+	    throw ex;
+	}
+
+	return rIndex;
+    }
+
+    /**
+     * Closes the segmented file.
+     *
+     * @throws IOException	if an I/O error occured
+     * @since			1.0.0
+     */
+    public void close() throws IOException {
+	file.close();
+    }
+
+    /**
+     * Creates the GeneralLedger of the file. Its Accounts have no entries
+     * until they are loaded by {@link #loadEntries(jaccounting.models.Account)}.
+     *
+     * @return					the GeneralLedger created
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if the Accounts segment is not valid
+     * @since					1.0.0
+     */
+    public GeneralLedger createGeneralLedger() throws IOException, UnPersistenceFailureException {
+	GeneralLedger rLedger;
+
+	try {
+	    rLedger = reader.readAccountsSegment(SegmentedStorage.readSegment(file,
+						 accountsSegment), accountsById)
+			    .getGeneralLedger();
+	}
+	catch (EOFException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (UnPersistenceFailureException ex) {
+	    throw ex;
+	}
+	catch (GenericException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	for (Map.Entry<Integer, Account> vAcct : accountsById.entrySet()) {
+	    accountIds.put(vAcct.getValue(), vAcct.getKey().intValue());
+	}
+
+	return rLedger;
+    }
+
+    /**
+     * Gets the number of entries of an Account created by this SegmentedIndex.
+     *
+     * @param pAcct	    the Account
+     * @return		    the number of its entries, loaded or not
+     * @since		    1.0.0
+     */
+    public int getEntriesCount(Account pAcct) {
+	int[] vPostings = accountPostings.get(Integer.valueOf(accountIds.get(pAcct)));
+	int rCount = 0;
+
+	if (vPostings == null) return 0;
+	for (int vI = 1; vI < vPostings.length; vI += 2) {
+	    rCount += vPostings[vI];
+	}
+
+	return rCount;
+    }
+
+    /**
+     * Loads the entries of an Account created by this SegmentedIndex, reading
+     * only the segments of the months it has entries in, and calculates its
+     * balance. The transfer Accounts of the entries do not get theirs. Nothing
+     * is done if the entries of the Account are already loaded.
+     *
+     * @param pAcct				the Account
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if a segment is not valid
+     * @since					1.0.0
+     */
+    public void loadEntries(Account pAcct) throws IOException, UnPersistenceFailureException {
+	int[] vPostings = accountPostings.get(Integer.valueOf(accountIds.get(pAcct)));
+	List<Transaction> vTransactions = new ArrayList<Transaction>();
+
+	if (vPostings == null || !pAcct.getEntries().isEmpty()) return;
+
+	try {
+	    for (int vI = 0; vI < vPostings.length; vI += 2) {
+		SegmentedStorage.Location vMonth = monthSegments.get(Integer.valueOf(vPostings[vI]));
+
+		if (vMonth == null) throw new UnPersistenceFailureException();
+		SegmentedStorage.readMonthSegment(SegmentedStorage.readSegment(file, vMonth),
+						  accountsById, vTransactions, pAcct);
+		vTransactions.clear();
+	    }
+	}
+	catch (EOFException ex) {
+	    pAcct.getEntries().clear();
+	    throw new UnPersistenceFailureException();
+	}
+	catch (UnPersistenceFailureException ex) {
+	    pAcct.getEntries().clear();
+	    throw ex;
+	}
+	pAcct.recalculateBalance();
+    }
+
+    private void read(File pIndexFile) throws IOException, UnPersistenceFailureException {
+	DataInputStream vIn = new DataInputStream(new ByteArrayInputStream(readFully(pIndexFile)));
+	SegmentedStorage.Slot vSlot = SegmentedStorage.readHeader(file);
+	CRC32 vChecksum = new CRC32();
+	byte[] vBytes;
+
+	if (vIn.available() < 8) throw new UnPersistenceFailureException();
+	vBytes = new byte[vIn.available() - 8];
+	vIn.readFully(vBytes);
+	vChecksum.update(vBytes);
+	if (vIn.readLong() != vChecksum.getValue()) throw new UnPersistenceFailureException();
+	vIn = new DataInputStream(new ByteArrayInputStream(vBytes));
+
+	if (vIn.readInt() != MAGIC || vIn.readInt() != VERSION
+		|| vIn.readLong() != vSlot.sequence) {
+	    throw new UnPersistenceFailureException();
+	}
+	accountsSegment = SegmentedStorage.Location.read(vIn);
+	for (int vI = vIn.readInt(); vI > 0; vI--) {
+	    Integer vMonth = Integer.valueOf(vIn.readInt());
+
+	    monthSegments.put(vMonth, SegmentedStorage.Location.read(vIn));
+	}
+	for (int vI = vIn.readInt(); vI > 0; vI--) {
+	    Integer vId = Integer.valueOf(vIn.readInt());
+	    int vCount = vIn.readInt();
+	    int[] vPostings;
+
+	    if (vCount < 0 || 8 * vCount > vIn.available()) throw new UnPersistenceFailureException();
+	    vPostings = new int[2 * vCount];
+	    for (int vJ = 0; vJ < vPostings.length; vJ++) {
+		vPostings[vJ] = vIn.readInt();
+	    }
+	    accountPostings.put(vId, vPostings);
+	}
+    }
+
+    private static byte[] readFully(File pFile) throws IOException {
+	InputStream vIn = new FileInputStream(pFile);
+	ByteArrayOutputStream rBytes = new ByteArrayOutputStream();
+	byte[] vBuffer = new byte[8192];
+	int vRead;
+
+	try {
+	    while ((vRead = vIn.read(vBuffer)) != -1) {
+		rBytes.write(vBuffer, 0, vRead);
+	    }
+	}
+	finally {
+	    vIn.close();
+	}
+
+	return rBytes.toByteArray();
+    }
+
+    private static File indexFileOf(File pFile) {
+	return new File(pFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the index of a segmented file. The months of each Account are
+     * gathered from the entries counts by Account of each month.
+     *
+     * @param pFile		the segmented file
+     * @param pSequence		the sequence number of its current slot
+     * @param pAccountsSegment	the Location of its Accounts segment
+     * @param pMonths		the Locations of its month segments by month
+     * @param pPostings		the ids of the Accounts with entries in each
+     *				month, each followed by the count of its entries
+     * @throws IOException	if an I/O error occured
+     */
+    static void write(File pFile, long pSequence, SegmentedStorage.Location pAccountsSegment,
+		      SortedMap<Integer, SegmentedStorage.Location> pMonths,
+		      SortedMap<Integer, int[]> pPostings) throws IOException {
+	File vFile = indexFileOf(pFile);
+	File vTempFile = new File(vFile.getPath() + TEMP_FILE_EXTENSION);
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+	DataOutputStream vOut = new DataOutputStream(vBytes);
+	SortedMap<Integer, List<int[]>> vAccountPostings = new TreeMap<Integer, List<int[]>>();
+	CRC32 vChecksum = new CRC32();
+	OutputStream vFileOut;
+
+	for (Map.Entry<Integer, int[]> vMonth : pPostings.entrySet()) {
+	    int[] vCounts = vMonth.getValue();
+
+	    for (int vI = 0; vI < vCounts.length; vI += 2) {
+		List<int[]> vMonths = vAccountPostings.get(Integer.valueOf(vCounts[vI]));
+
+		if (vMonths == null) {
+		    vMonths = new ArrayList<int[]>();
+		    vAccountPostings.put(Integer.valueOf(vCounts[vI]), vMonths);
+		}
+		vMonths.add(new int[] {vMonth.getKey().intValue(), vCounts[vI + 1]});
+	    }
+	}
+
+	vOut.writeInt(MAGIC);
+	vOut.writeInt(VERSION);
+	vOut.writeLong(pSequence);
+	pAccountsSegment.write(vOut);
+	vOut.writeInt(pMonths.size());
+	for (Map.Entry<Integer, SegmentedStorage.Location> vMonth : pMonths.entrySet()) {
+	    vOut.writeInt(vMonth.getKey().intValue());
+	    vMonth.getValue().write(vOut);
+	}
+	vOut.writeInt(vAccountPostings.size());
+	for (Map.Entry<Integer, List<int[]>> vAcct : vAccountPostings.entrySet()) {
+	    vOut.writeInt(vAcct.getKey().intValue());
+	    vOut.writeInt(vAcct.getValue().size());
+	    for (int[] vMonth : vAcct.getValue()) {
+		vOut.writeInt(vMonth[0]);
+		vOut.writeInt(vMonth[1]);
+	    }
+	}
+	vOut.flush();
+	vChecksum.update(vBytes.toByteArray());
+	vOut.writeLong(vChecksum.getValue());
+	vOut.flush();
+
+	vFileOut = new FileOutputStream(vTempFile);
+	try {
+	    vBytes.writeTo(vFileOut);
+	}
+	finally {
+	    vFileOut.close();
+	}
+	if (!vTempFile.renameTo(vFile)) {
+	    vFile.delete();
+	    if (!vTempFile.renameTo(vFile)) {
+		throw new IOException("Failed to replace " + vFile + " with " + vTempFile);
+	    }
+	}
+    }
+
+}
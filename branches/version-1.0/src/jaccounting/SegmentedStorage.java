@@ -0,0 +1,1130 @@
+/*
+ * SegmentedStorage.java	    1.0.0	    09/2009
+ * This file contains the segmented file storage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * SegmentedStorage is the class keeping the application data in a single file
+ * made of independent, checksummed segments: one segment holds the Accounts
+ * tree and each other one the Transactions of a calendar month. The models
+ * tell the SegmentedStorage which months and whether the Accounts changed
+ * through its {@link ChangeTracker}, so a save only serializes those segments,
+ * appends them to the file with a new directory of the segments, then switches
+ * the file over to the new directory in one small write. A typical save thus
+ * writes kilobytes whatever the size of the file.
+ *
+ * All the Transactions are loaded at once. Balances are not stored; they are
+ * recalculated from the postings at load, as for the xml format. Each save
+ * also writes a small index next to the file with the offsets of the segments
+ * and the months each Account has entries in, through which a {@link
+ * SegmentedIndex} reads the entries of one Account without reading the rest.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    Storage
+ * @see		    ChangeTracker
+ * @see		    SegmentedIndex
+ * @see		    ModelsMngr#SEGMENTED_FILE_EXTENSION
+ * @since	    1.0.0
+ */
+public class SegmentedStorage implements Storage, ChangeTracker {
+
+    /**
+     * The file starts with two header slots, each holding a sequence number,
+     * the offset, length and CRC32 checksum of a directory, and the CRC32 of
+     * the slot itself. The valid slot with the highest sequence number is the
+     * current one. A save appends its segments and its directory at the end of
+     * the file and forces them to disk, then writes the slot that is not the
+     * current one and forces it too: until that slot is written the file reads
+     * as it was, and a slot torn by a crash fails its checksum so the other
+     * one stays current.
+     *
+     * The directory gives the offset, length and CRC32 of the Accounts segment
+     * then of each month segment by month; a segment failing its checksum
+     * fails the load. The segments a save replaces stay in the file, unused,
+     * until they outweigh the segments in use; the next save then writes the
+     * whole data to a new file renamed over the old one. So do the first save
+     * and the save after a failed one, since the changes the failed save was
+     * told of are not known anymore.
+     *
+     * Accounts are known in the segments by ids that never change for an
+     * Account, listed in the Accounts segment. A month segment holds its
+     * Transactions in the order of the Journal with the ids of their debit and
+     * credit Accounts; the entries are rebuilt from them. The entries of an
+     * Account are in the order of the Journal unless a Transaction was edited
+     * in place, in which case, as with the entries attribute of the xml, the
+     * month segment lists the entries of the Account for the month, the debit
+     * entry of its Transaction numbered n (from 0) as 2n and the credit entry
+     * as 2n+1.
+     */
+
+    /** first bytes of the file, "JACS" */
+    private static final int MAGIC = 0x4A414353;
+
+    private static final int VERSION = 1;
+
+    /** size in bytes of a header slot */
+    private static final int SLOT_SIZE = 8 + 8 + 4 + 8 + 8;
+
+    /** size in bytes of the header: magic number, version and two slots */
+    private static final int HEADER_SIZE = 4 + 4 + 2 * SLOT_SIZE;
+
+    /** bytes of unused segments tolerated before the file is rewritten */
+    private static final long GARBAGE_ALLOWANCE = 1024 * 1024;
+
+    /** extension added to the file name to name the file full saves go to first */
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private String filename;		    // the name of the file
+
+    /** the segments of the current directory; the Accounts one then by month */
+    private Location accountsSegment;
+
+    private SortedMap<Integer, Location> monthSegments;
+
+    /** the entries counts by Account of the month segments, for the index */
+    private SortedMap<Integer, int[]> monthPostings;
+
+    private long fileLength;		    // the length of the file in use
+
+    private long usedLength;		    // the bytes of the segments in use
+
+    private long sequence;		    // the sequence number of the current slot
+
+    private int currentSlot;		    // the index of the current slot
+
+    /** the ids the Accounts are known by in the file */
+    private IdentityIntMap<Account> accountIds;
+
+    private int nextAccountId;		    // the id to give the next new Account
+
+    /** what changed since the last checkpoint; only used from the thread the data is changed from */
+    private SortedSet<Integer> changedMonths;
+
+    private boolean accountsChanged;
+
+    private Calendar calendar;		    // the calendar of changedMonths
+
+    private boolean synced;		    // whether the file holds the data of the last checkpoint written
+
+    private int createdSequence;	    // sequence number of the last checkpoint created
+
+    private int writtenSequence;	    // sequence number of the last checkpoint written
+
+    private boolean closed;		    // whether close was called
+
+
+    /**
+     * Sole constructor. The file need not exist yet; its first save writes it
+     * in full.
+     *
+     * @param pFilename		the name of the file. It's relative to the
+     *				application's local storage directory provided
+     *				by the system.
+     * @since			1.0.0
+     */
+    public SegmentedStorage(String pFilename) {
+	filename = pFilename;
+	accountsSegment = null;
+	monthSegments = new TreeMap<Integer, Location>();
+	monthPostings = new TreeMap<Integer, int[]>();
+	fileLength = 0;
+	usedLength = 0;
+	sequence = 0;
+	currentSlot = 1;
+	accountIds = new IdentityIntMap<Account>();
+	nextAccountId = 0;
+	changedMonths = new TreeSet<Integer>();
+	accountsChanged = false;
+	calendar = Calendar.getInstance();
+	synced = false;
+	createdSequence = 0;
+	writtenSequence = 0;
+	closed = false;
+    }
+
+
+    private static int monthOf(Date pDate, Calendar pCalendar) {
+	pCalendar.setTime(pDate);
+
+	return pCalendar.get(Calendar.YEAR) * 12 + pCalendar.get(Calendar.MONTH);
+    }
+
+    private static Date startOf(int pMonth) {
+	Calendar vCalendar = Calendar.getInstance();
+
+	vCalendar.clear();
+	vCalendar.set(pMonth / 12, pMonth % 12, 1);
+
+	return vCalendar.getTime();
+    }
+
+    /**
+     * Loads the application data from the file. Every segment is checked
+     * against its checksum.
+     *
+     * @param pListener				ignored; the file is read at once
+     * @return					the Data loaded
+     * @throws IOException			if an I/O error occured such as missing file
+     * @throws UnPersistenceFailureException	if the file is not valid
+     * @since					1.0.0
+     */
+    public Data load(LoadListener pListener) throws IOException, UnPersistenceFailureException {
+	RandomAccessFile vFile = new RandomAccessFile(FileStorage.getLocalFile(filename), "r");
+	Data rData;
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.unpersistingFile");
+	try {
+	    rData = readFile(vFile);
+	}
+	catch (EOFException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (GenericException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	finally {
+	    vFile.close();
+	}
+	synchronized (this) {
+	    synced = true;
+	}
+
+	return rData;
+    }
+
+    public void finishLoad(Data pData) {
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+    }
+
+    public Date getLoadedFrom() {
+	return null;
+    }
+
+    public boolean loadEarlier(Data pData) {
+	return false;
+    }
+
+    public MutationLog getMutationLog() {
+	return null;
+    }
+
+    public ChangeTracker getChangeTracker() {
+	return this;
+    }
+
+    /**
+     * Marks the segment of the month of a date as changed.
+     *
+     * @param pDate		the date of the Transaction changed
+     * @since			1.0.0
+     */
+    public void transactionChanged(Date pDate) {
+	changedMonths.add(Integer.valueOf(monthOf(pDate, calendar)));
+    }
+
+    /**
+     * Marks the Accounts segment as changed.
+     *
+     * @since			1.0.0
+     */
+    public void accountsChanged() {
+	accountsChanged = true;
+    }
+
+    /**
+     * Starts saving the application data. This method serializes to memory the
+     * segments changed since the previous checkpoint, or all of them if the
+     * file is to be written in full, as told by the class implementation note.
+     *
+     * @param pData		the Data to save
+     * @return			the Checkpoint to write and commit; null if
+     *				nothing changed
+     * @throws IOException	if an I/O error ocurred
+     * @see			SegmentedCheckpoint
+     * @since			1.0.0
+     */
+    public Checkpoint createCheckpoint(Data pData) throws IOException {
+	List<Transaction> vTransactions = pData.getJournal().getTransactions();
+	List<Account> vAccounts = new ArrayList<Account>();
+	List<Integer> vParents = new ArrayList<Integer>();
+	Map<Integer, byte[]> vMonths = new LinkedHashMap<Integer, byte[]>();
+	Map<Integer, int[]> vPostings = new HashMap<Integer, int[]>();
+	byte[] vAccountsBytes = null;
+	boolean vFull;
+
+	synchronized (this) {
+	    vFull = !synced || fileLength - HEADER_SIZE > 2 * usedLength + GARBAGE_ALLOWANCE;
+	}
+	if (!vFull && !accountsChanged && changedMonths.isEmpty()) return null;
+
+	JAccounting.getApplication().getProgressReporter()
+	    .reportUsingKey("messages.persistingFile");
+	collectAccounts(pData.getGeneralLedger(), vAccounts, vParents);
+	if (vFull || accountsChanged) {
+	    vAccountsBytes = writeAccountsSegment(pData.getGeneralLedger(), vAccounts, vParents);
+	}
+	for (Map.Entry<Integer, List<Transaction>> vMonth
+		: groupByMonth(vTransactions, vFull ? null : changedMonths).entrySet()) {
+	    /** a month left without Transactions loses its segment */
+	    if (vMonth.getValue().isEmpty()) {
+		vMonths.put(vMonth.getKey(), null);
+	    }
+	    else {
+		vMonths.put(vMonth.getKey(),
+			    writeMonthSegment(vMonth.getKey().intValue(), vMonth.getValue()));
+		vPostings.put(vMonth.getKey(), postingsOf(vMonth.getValue()));
+	    }
+	}
+	changedMonths.clear();
+	accountsChanged = false;
+	JAccounting.getApplication().getProgressReporter().reportFinished();
+
+	return new SegmentedCheckpoint(++createdSequence, vFull, vAccountsBytes, vMonths,
+				       vPostings);
+    }
+
+    public synchronized void close() {
+	closed = true;
+	notifyAll();
+    }
+
+    /**
+     * Groups Transactions by month, keeping their order. The Journal is walked
+     * once; it is in date order but for the Transactions whose date was
+     * updated, so the month of the Transaction before is tried first.
+     */
+    private SortedMap<Integer, List<Transaction>> groupByMonth(List<Transaction> pTransactions,
+							       SortedSet<Integer> pMonths) {
+	SortedMap<Integer, List<Transaction>> rMonths = new TreeMap<Integer, List<Transaction>>();
+	Date vMonthStart = null;
+	Date vMonthEnd = null;
+	List<Transaction> vMonth = null;
+
+	if (pMonths != null) {
+	    for (Integer vKey : pMonths) {
+		rMonths.put(vKey, new ArrayList<Transaction>());
+	    }
+	}
+	for (Transaction vTrans : pTransactions) {
+	    Date vDate = vTrans.getDate();
+
+	    if (vMonthStart == null || vDate.before(vMonthStart) || !vDate.before(vMonthEnd)) {
+		Integer vKey = Integer.valueOf(monthOf(vDate, calendar));
+
+		vMonthStart = startOf(vKey.intValue());
+		vMonthEnd = startOf(vKey.intValue() + 1);
+		vMonth = rMonths.get(vKey);
+		if (vMonth == null && pMonths == null) {
+		    vMonth = new ArrayList<Transaction>();
+		    rMonths.put(vKey, vMonth);
+		}
+	    }
+	    if (vMonth != null) vMonth.add(vTrans);
+	}
+
+	return rMonths;
+    }
+
+    private void collectAccounts(GeneralLedger pLedger, List<Account> pAccounts,
+				 List<Integer> pParents) {
+	AccountTreeNode[] vTopLevelNodes = {pLedger.getAssetsNode(),
+		pLedger.getLiabilitiesNode(), pLedger.getEquityNode(),
+		pLedger.getRevenuesNode(), pLedger.getExpensesNode()};
+
+	for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+	    collectAccounts(vTopLevelNodes[vI], -1 - vI, pAccounts, pParents);
+	}
+	for (Account vAcct : pAccounts) {
+	    if (accountIds.get(vAcct) == IdentityIntMap.NO_VALUE) {
+		accountIds.put(vAcct, nextAccountId++);
+	    }
+	}
+    }
+
+    private static void collectAccounts(AccountTreeNode pNode, int pParent,
+					List<Account> pAccounts, List<Integer> pParents) {
+	Enumeration vChildren = pNode.children();
+	int vIndex = pAccounts.size();
+
+	pAccounts.add((Account) pNode.getUserObject());
+	pParents.add(Integer.valueOf(pParent));
+	while (vChildren.hasMoreElements()) {
+	    collectAccounts((AccountTreeNode) vChildren.nextElement(), vIndex,
+			    pAccounts, pParents);
+	}
+    }
+
+    private byte[] writeAccountsSegment(GeneralLedger pLedger, List<Account> pAccounts,
+					List<Integer> pParents) throws IOException {
+	ByteArrayOutputStream rBytes = new ByteArrayOutputStream();
+	DataOutputStream vOut = new DataOutputStream(rBytes);
+
+	writeString(vOut, (String) pLedger.getRoot().getUserObject());
+	vOut.writeInt(nextAccountId);
+	vOut.writeInt(pAccounts.size());
+	for (int vI = 0; vI < pAccounts.size(); vI++) {
+	    Account vAcct = pAccounts.get(vI);
+
+	    vOut.writeInt(accountIds.get(vAcct));
+	    vOut.writeInt(pParents.get(vI).intValue());
+	    vOut.writeInt(vAcct.getNumber());
+	    writeString(vOut, vAcct.getName());
+	    writeString(vOut, vAcct.getDescription());
+	    vOut.writeByte(vAcct.getType().ordinal());
+	    vOut.writeBoolean(vAcct.isTransactionsEnabled());
+	}
+	vOut.flush();
+
+	return rBytes.toByteArray();
+    }
+
+    private byte[] writeMonthSegment(int pMonth, List<Transaction> pTransactions)
+	    throws IOException {
+	ByteArrayOutputStream rBytes = new ByteArrayOutputStream();
+	DataOutputStream vOut = new DataOutputStream(rBytes);
+	Map<Account, List<TransactionEntry>> vJournalOrders =
+		new IdentityHashMap<Account, List<TransactionEntry>>();
+	List<Account> vReordered = new ArrayList<Account>();
+	Date vMonthStart = startOf(pMonth);
+
+	vOut.writeInt(pTransactions.size());
+	for (Transaction vTrans : pTransactions) {
+	    vOut.writeLong(vTrans.getDate().getTime());
+	    writeString(vOut, vTrans.getRefNo());
+	    writeString(vOut, vTrans.getMemo());
+	    vOut.writeDouble(vTrans.getAmount());
+	    vOut.writeInt(accountIds.get(vTrans.getDebitAccount()));
+	    vOut.writeInt(accountIds.get(vTrans.getCreditAccount()));
+	    entriesOf(vJournalOrders, vTrans.getDebitAccount()).add(vTrans.getDebitEntry());
+	    entriesOf(vJournalOrders, vTrans.getCreditAccount()).add(vTrans.getCreditEntry());
+	}
+
+	/**
+	 * The entries of an Account for the month are a run of its entries,
+	 * which are in date order; compare that run with the order of the
+	 * Journal. See class implementation note at beginning for why.
+	 */
+	for (Map.Entry<Account, List<TransactionEntry>> vOrder : vJournalOrders.entrySet()) {
+	    List<TransactionEntry> vEntries = vOrder.getKey().getEntries();
+	    List<TransactionEntry> vJournalOrder = vOrder.getValue();
+	    int vStart = indexOfFirstEntryFrom(vEntries, vMonthStart);
+
+	    if (vStart + vJournalOrder.size() > vEntries.size()
+		    || !vEntries.subList(vStart, vStart + vJournalOrder.size())
+			    .equals(vJournalOrder)) {
+		vReordered.add(vOrder.getKey());
+	    }
+	}
+	vOut.writeInt(vReordered.size());
+	if (!vReordered.isEmpty()) {
+	    IdentityIntMap<Transaction> vNumbers = new IdentityIntMap<Transaction>();
+
+	    for (int vI = 0; vI < pTransactions.size(); vI++) {
+		vNumbers.put(pTransactions.get(vI), vI);
+	    }
+	    for (Account vAcct : vReordered) {
+		List<TransactionEntry> vEntries = vAcct.getEntries();
+		int vStart = indexOfFirstEntryFrom(vEntries, vMonthStart);
+		int vCount = vJournalOrders.get(vAcct).size();
+
+		vOut.writeInt(accountIds.get(vAcct));
+		vOut.writeInt(vCount);
+		for (TransactionEntry vEntry : vEntries.subList(vStart, vStart + vCount)) {
+		    int vNumber = vNumbers.get(vEntry.getTransaction());
+
+		    vOut.writeInt(2 * vNumber
+				  + (vEntry.getType() == TransactionEntry.Type.DEBIT ? 0 : 1));
+		}
+	    }
+	}
+	vOut.flush();
+
+	return rBytes.toByteArray();
+    }
+
+    private static List<TransactionEntry> entriesOf(
+		Map<Account, List<TransactionEntry>> pEntries, Account pAcct) {
+	List<TransactionEntry> rEntries = pEntries.get(pAcct);
+
+	if (rEntries == null) {
+	    rEntries = new ArrayList<TransactionEntry>();
+	    pEntries.put(pAcct, rEntries);
+	}
+
+	return rEntries;
+    }
+
+    /**
+     * Gets the index of the first entry of a list in date order whose
+     * Transaction is not earlier than a date, by binary search.
+     */
+    private static int indexOfFirstEntryFrom(List<TransactionEntry> pEntries, Date pDate) {
+	int vLow = 0;
+	int vHigh = pEntries.size();
+
+	while (vLow < vHigh) {
+	    int vMiddle = (vLow + vHigh) >>> 1;
+
+	    if (pEntries.get(vMiddle).getTransaction().getDate().before(pDate)) {
+		vLow = vMiddle + 1;
+	    }
+	    else {
+		vHigh = vMiddle;
+	    }
+	}
+
+	return vLow;
+    }
+
+    private Data readFile(RandomAccessFile pFile) throws IOException, GenericException {
+	Slot vSlot;
+	Location vDirectory;
+	SortedMap<Integer, Location> vMonths = new TreeMap<Integer, Location>();
+	Location vAccountsSegment;
+	Map<Integer, Account> vAccountsById = new TreeMap<Integer, Account>();
+	Data rData;
+	List<Transaction> vTransactions = new ArrayList<Transaction>();
+	SortedMap<Integer, int[]> vPostings = new TreeMap<Integer, int[]>();
+
+	vSlot = readHeader(pFile);
+	vDirectory = vSlot.directory;
+
+	vAccountsSegment = readDirectory(pFile, vSlot, vMonths);
+
+	rData = readAccountsSegment(readSegment(pFile, vAccountsSegment), vAccountsById);
+	for (Map.Entry<Integer, Location> vMonth : vMonths.entrySet()) {
+	    List<Transaction> vMonthTransactions = new ArrayList<Transaction>();
+
+	    readMonthSegment(readSegment(pFile, vMonth.getValue()), vAccountsById,
+			     vMonthTransactions, null);
+	    vPostings.put(vMonth.getKey(), postingsOf(vMonthTransactions));
+	    vTransactions.addAll(vMonthTransactions);
+	}
+	rData.getJournal().getTransactions().addAll(vTransactions);
+	for (Account vAcct : vAccountsById.values()) {
+	    vAcct.recalculateBalance();
+	}
+
+	synchronized (this) {
+	    accountsSegment = vAccountsSegment;
+	    monthSegments = vMonths;
+	    monthPostings = vPostings;
+	    fileLength = pFile.length();
+	    usedLength = vDirectory.length + vAccountsSegment.length;
+	    for (Location vMonth : vMonths.values()) {
+		usedLength += vMonth.length;
+	    }
+	    sequence = vSlot.sequence;
+	    currentSlot = vSlot.index;
+	}
+
+	return rData;
+    }
+
+    /**
+     * Reads the header of a file and gives its current slot.
+     */
+    static Slot readHeader(RandomAccessFile pFile) throws IOException, UnPersistenceFailureException {
+	Slot rSlot = null;
+
+	pFile.seek(0);
+	if (pFile.readInt() != MAGIC || pFile.readInt() != VERSION) {
+	    throw new UnPersistenceFailureException();
+	}
+	for (int vI = 0; vI < 2; vI++) {
+	    byte[] vSlotBytes = new byte[SLOT_SIZE];
+	    DataInputStream vSlotIn;
+	    long vSlotSequence;
+	    Location vSlotDirectory;
+
+	    pFile.readFully(vSlotBytes);
+	    vSlotIn = new DataInputStream(new ByteArrayInputStream(vSlotBytes));
+	    vSlotSequence = vSlotIn.readLong();
+	    vSlotDirectory = Location.read(vSlotIn);
+	    if (vSlotIn.readLong() == checksumOf(vSlotBytes, SLOT_SIZE - 8)
+		    && (rSlot == null || vSlotSequence > rSlot.sequence)) {
+		rSlot = new Slot(vI, vSlotSequence, vSlotDirectory);
+	    }
+	}
+	if (rSlot == null) throw new UnPersistenceFailureException();
+
+	return rSlot;
+    }
+
+    /**
+     * Reads the directory a slot points to into the Location of the Accounts
+     * segment, which is returned, and those of the month segments.
+     */
+    static Location readDirectory(RandomAccessFile pFile, Slot pSlot,
+				  SortedMap<Integer, Location> pMonths)
+	    throws IOException, UnPersistenceFailureException {
+	DataInputStream vIn = readSegment(pFile, pSlot.directory);
+	Location rAccountsSegment = Location.read(vIn);
+
+	for (int vI = readCount(vIn); vI > 0; vI--) {
+	    Integer vMonth = Integer.valueOf(vIn.readInt());
+
+	    if (pMonths.put(vMonth, Location.read(vIn)) != null) {
+		throw new UnPersistenceFailureException();
+	    }
+	}
+
+	return rAccountsSegment;
+    }
+
+    static DataInputStream readSegment(RandomAccessFile pFile, Location pLocation)
+	    throws IOException, UnPersistenceFailureException {
+	byte[] vBytes;
+
+	if (pLocation.offset < HEADER_SIZE || pLocation.length < 0
+		|| pLocation.offset + pLocation.length > pFile.length()) {
+	    throw new UnPersistenceFailureException();
+	}
+	vBytes = new byte[pLocation.length];
+	pFile.seek(pLocation.offset);
+	pFile.readFully(vBytes);
+	if (checksumOf(vBytes, vBytes.length) != pLocation.checksum) {
+	    throw new UnPersistenceFailureException();
+	}
+
+	return new DataInputStream(new ByteArrayInputStream(vBytes));
+    }
+
+    Data readAccountsSegment(DataInputStream pIn, Map<Integer, Account> pAccountsById)
+	    throws IOException, GenericException {
+	AccountTreeNode[] vTopLevelNodes = new AccountTreeNode[5];
+	Account.Type[] vTypes = Account.Type.values();
+	AccountTreeNode[] vNodes;
+	String vRootName = readString(pIn);
+	int vNextAccountId = pIn.readInt();
+
+	vNodes = new AccountTreeNode[readCount(pIn)];
+	for (int vI = 0; vI < vNodes.length; vI++) {
+	    int vId = pIn.readInt();
+	    int vParent = pIn.readInt();
+	    int vNumber = pIn.readInt();
+	    String vName = readString(pIn);
+	    String vDescription = readString(pIn);
+	    int vType = pIn.readByte();
+	    boolean vEnabled = pIn.readBoolean();
+	    Account vAcct;
+
+	    if (vId < 0 || vId >= vNextAccountId || pAccountsById.containsKey(Integer.valueOf(vId))
+		    || vType < 0 || vType >= vTypes.length || vParent >= vI
+		    || vParent < -vTopLevelNodes.length) {
+		throw new UnPersistenceFailureException();
+	    }
+	    vAcct = Account.createAccount(vNumber, vName, vDescription, 0.0, vTypes[vType],
+					  new ArrayList<TransactionEntry>(), vEnabled);
+	    vNodes[vI] = new AccountTreeNode(vAcct);
+	    pAccountsById.put(Integer.valueOf(vId), vAcct);
+	    accountIds.put(vAcct, vId);
+	    if (vParent >= 0) {
+		vNodes[vParent].add(vNodes[vI]);
+	    }
+	    else {
+		/** top level Accounts have their slot as a negative parent */
+		if (vTopLevelNodes[-1 - vParent] != null) throw new UnPersistenceFailureException();
+		vTopLevelNodes[-1 - vParent] = vNodes[vI];
+	    }
+	}
+	for (int vI = 0; vI < vTopLevelNodes.length; vI++) {
+	    if (vTopLevelNodes[vI] == null) throw new UnPersistenceFailureException();
+	}
+	nextAccountId = vNextAccountId;
+
+	return new Data(new Journal(),
+			new GeneralLedger(new DefaultMutableTreeNode(vRootName),
+					  vTopLevelNodes[0], vTopLevelNodes[1],
+					  vTopLevelNodes[3], vTopLevelNodes[4],
+					  vTopLevelNodes[2]));
+    }
+
+    /**
+     * Reads the Transactions of a month, appending them to a list and their
+     * entries to the entries of their Accounts, or of one Account only.
+     */
+    static void readMonthSegment(DataInputStream pIn, Map<Integer, Account> pAccountsById,
+				 List<Transaction> pTransactions, Account pAccount)
+	    throws IOException, UnPersistenceFailureException {
+	int vCount = readCount(pIn);
+	List<Transaction> vMonth = new ArrayList<Transaction>(vCount);
+	Map<Account, Integer> vFirstEntries = new IdentityHashMap<Account, Integer>();
+
+	for (int vI = 0; vI < vCount; vI++) {
+	    Date vDate = new Date(pIn.readLong());
+	    String vRefNo = readString(pIn);
+	    String vMemo = readString(pIn);
+	    double vAmount = pIn.readDouble();
+	    Account vDebitAccount = pAccountsById.get(Integer.valueOf(pIn.readInt()));
+	    Account vCreditAccount = pAccountsById.get(Integer.valueOf(pIn.readInt()));
+	    Transaction vTrans;
+
+	    if (vDebitAccount == null || vCreditAccount == null) {
+		throw new UnPersistenceFailureException();
+	    }
+	    vTrans = Transaction.createTransaction(vDate, vRefNo, vMemo, vAmount,
+		    new TransactionEntry(vCreditAccount, null, TransactionEntry.Type.DEBIT, 0.0),
+		    new TransactionEntry(vDebitAccount, null, TransactionEntry.Type.CREDIT, 0.0));
+	    if (pAccount == null || vDebitAccount == pAccount) {
+		addEntry(vFirstEntries, vDebitAccount, vTrans.getDebitEntry());
+	    }
+	    if (pAccount == null || vCreditAccount == pAccount) {
+		addEntry(vFirstEntries, vCreditAccount, vTrans.getCreditEntry());
+	    }
+	    vMonth.add(vTrans);
+	}
+
+	for (int vI = readCount(pIn); vI > 0; vI--) {
+	    Account vAcct = pAccountsById.get(Integer.valueOf(pIn.readInt()));
+	    Integer vFirst = vFirstEntries.get(vAcct);
+	    List<TransactionEntry> vEntries;
+	    int vEntriesCount;
+
+	    vEntriesCount = readCount(pIn);
+	    if (vAcct != null && pAccount != null && vAcct != pAccount) {
+		pIn.skipBytes(4 * vEntriesCount);
+		continue;
+	    }
+	    if (vFirst == null) throw new UnPersistenceFailureException();
+	    vEntries = vAcct.getEntries().subList(vFirst.intValue(), vAcct.getEntries().size());
+	    if (vEntriesCount != vEntries.size()) throw new UnPersistenceFailureException();
+	    vEntries.clear();
+	    for (int vJ = 0; vJ < vEntriesCount; vJ++) {
+		int vNumber = pIn.readInt();
+		Transaction vTrans;
+
+		if (vNumber < 0 || vNumber / 2 >= vMonth.size()) {
+		    throw new UnPersistenceFailureException();
+		}
+		vTrans = vMonth.get(vNumber / 2);
+		if (vNumber % 2 == 0 && vTrans.getDebitAccount() == vAcct) {
+		    vEntries.add(vTrans.getDebitEntry());
+		}
+		else if (vNumber % 2 == 1 && vTrans.getCreditAccount() == vAcct) {
+		    vEntries.add(vTrans.getCreditEntry());
+		}
+		else {
+		    throw new UnPersistenceFailureException();
+		}
+	    }
+	}
+
+	pTransactions.addAll(vMonth);
+    }
+
+    private static void addEntry(Map<Account, Integer> pFirstEntries, Account pAcct,
+				 TransactionEntry pEntry) {
+	if (!pFirstEntries.containsKey(pAcct)) {
+	    pFirstEntries.put(pAcct, Integer.valueOf(pAcct.getEntries().size()));
+	}
+	pAcct.getEntries().add(pEntry);
+    }
+
+    /**
+     * Counts the entries of the Transactions of a month by Account, as the
+     * ids of the Accounts followed each by its count.
+     */
+    private int[] postingsOf(List<Transaction> pTransactions) {
+	SortedMap<Integer, int[]> vCounts = new TreeMap<Integer, int[]>();
+	int[] rPostings;
+	int vI = 0;
+
+	for (Transaction vTrans : pTransactions) {
+	    countPosting(vCounts, accountIds.get(vTrans.getDebitAccount()));
+	    countPosting(vCounts, accountIds.get(vTrans.getCreditAccount()));
+	}
+	rPostings = new int[2 * vCounts.size()];
+	for (Map.Entry<Integer, int[]> vCount : vCounts.entrySet()) {
+	    rPostings[vI++] = vCount.getKey().intValue();
+	    rPostings[vI++] = vCount.getValue()[0];
+	}
+
+	return rPostings;
+    }
+
+    private static void countPosting(SortedMap<Integer, int[]> pCounts, int pAccountId) {
+	int[] vCount = pCounts.get(Integer.valueOf(pAccountId));
+
+	if (vCount == null) {
+	    vCount = new int[1];
+	    pCounts.put(Integer.valueOf(pAccountId), vCount);
+	}
+	vCount[0]++;
+    }
+
+    private static long checksumOf(byte[] pBytes, int pLength) {
+	CRC32 vChecksum = new CRC32();
+
+	vChecksum.update(pBytes, 0, pLength);
+
+	return vChecksum.getValue();
+    }
+
+    private static int readCount(DataInputStream pIn) throws IOException, UnPersistenceFailureException {
+	int rCount = pIn.readInt();
+
+	if (rCount < 0 || rCount > pIn.available()) throw new UnPersistenceFailureException();
+
+	return rCount;
+    }
+
+    private static void writeString(DataOutputStream pOut, String pString) throws IOException {
+	byte[] vBytes;
+
+	if (pString == null) {
+	    pOut.writeInt(-1);
+	    return;
+	}
+	vBytes = pString.getBytes("UTF-8");
+	pOut.writeInt(vBytes.length);
+	pOut.write(vBytes);
+    }
+
+    private static String readString(DataInputStream pIn) throws IOException, UnPersistenceFailureException {
+	int vLength = pIn.readInt();
+	byte[] vBytes;
+
+	if (vLength == -1) return null;
+	if (vLength < 0 || vLength > pIn.available()) throw new UnPersistenceFailureException();
+	vBytes = new byte[vLength];
+	pIn.readFully(vBytes);
+
+	return new String(vBytes, "UTF-8");
+    }
+
+
+    /**
+     * SegmentedCheckpoint is the class saving the segments of the application
+     * data that changed. Its {@link #write()} method waits for the checkpoints
+     * created before to be written, then either appends its segments and a new
+     * directory to the file and switches the header over to it, or writes the
+     * whole file anew next to it and renames it over the file.
+     *
+     * @version		    1.0.0
+     * @since		    1.0.0
+     */
+    private class SegmentedCheckpoint implements Checkpoint {
+
+	private int checkpointSequence;	    // the sequence number of the checkpoint
+
+	private boolean full;		    // whether the whole file is written
+
+	private byte[] accountsBytes;	    // the Accounts segment or null if unchanged
+
+	/** the month segments changed by month; null for the months now empty */
+	private Map<Integer, byte[]> months;
+
+	/** the entries counts by Account of the months changed that are not empty */
+	private Map<Integer, int[]> postings;
+
+
+	private SegmentedCheckpoint(int pSequence, boolean pFull, byte[] pAccountsBytes,
+				    Map<Integer, byte[]> pMonths, Map<Integer, int[]> pPostings) {
+	    checkpointSequence = pSequence;
+	    full = pFull;
+	    accountsBytes = pAccountsBytes;
+	    months = pMonths;
+	    postings = pPostings;
+	}
+
+
+	/**
+	 * Writes the segments. Nothing is written if the SegmentedStorage was
+	 * closed since this Checkpoint was created.
+	 *
+	 * @throws IOException	    if an earlier Checkpoint failed or the file
+	 *			    could not be written
+	 * @since		    1.0.0
+	 */
+	public void write() throws IOException {
+	    synchronized (SegmentedStorage.this) {
+		try {
+		    while (!closed && writtenSequence != checkpointSequence - 1) {
+			SegmentedStorage.this.wait();
+		    }
+		}
+		catch (InterruptedException ex) {
+		    IOException vEx = new IOException("Interrupted while waiting to save");
+
+		    synced = false;
+		    vEx.initCause(ex);
+		    throw vEx;
+		}
+
+		try {
+		    if (closed) return;
+		    if (!synced && !full) {
+			throw new IOException("An earlier save failed; the next save rewrites the file");
+		    }
+		    if (full) {
+			writeFull();
+			monthPostings = new TreeMap<Integer, int[]>(postings);
+		    }
+		    else {
+			append();
+			for (Integer vMonth : months.keySet()) {
+			    if (postings.containsKey(vMonth)) {
+				monthPostings.put(vMonth, postings.get(vMonth));
+			    }
+			    else {
+				monthPostings.remove(vMonth);
+			    }
+			}
+		    }
+		    synced = true;
+		    writeIndex();
+		}
+		catch (IOException ex) {
+		    synced = false;
+		    throw ex;
+		}
+		finally {
+		    writtenSequence = checkpointSequence;
+		    SegmentedStorage.this.notifyAll();
+		}
+	    }
+	}
+
+	public void commit() {
+	}
+
+	private void append() throws IOException {
+	    RandomAccessFile vFile = new RandomAccessFile(FileStorage.getLocalFile(filename), "rw");
+	    SortedMap<Integer, Location> vMonths = new TreeMap<Integer, Location>(monthSegments);
+	    Location vAccountsSegment = accountsSegment;
+	    long vEnd = fileLength;
+	    Location vDirectory;
+
+	    try {
+		vFile.seek(vEnd);
+		if (accountsBytes != null) {
+		    vAccountsSegment = Location.write(vFile, accountsBytes);
+		}
+		for (Map.Entry<Integer, byte[]> vMonth : months.entrySet()) {
+		    if (vMonth.getValue() == null) {
+			vMonths.remove(vMonth.getKey());
+		    }
+		    else {
+			vMonths.put(vMonth.getKey(), Location.write(vFile, vMonth.getValue()));
+		    }
+		}
+		vDirectory = Location.write(vFile, writeDirectory(vAccountsSegment, vMonths));
+		vEnd = vFile.getFilePointer();
+		vFile.getFD().sync();
+		writeSlot(vFile, 1 - currentSlot, sequence + 1, vDirectory);
+		vFile.getFD().sync();
+	    }
+	    finally {
+		vFile.close();
+	    }
+	    use(vAccountsSegment, vMonths, vDirectory, vEnd, 1 - currentSlot, sequence + 1);
+	}
+
+	private void writeFull() throws IOException {
+	    File vFile = FileStorage.getLocalFile(filename);
+	    File vTempFile = FileStorage.getLocalFile(filename + TEMP_FILE_EXTENSION);
+	    SortedMap<Integer, Location> vMonths = new TreeMap<Integer, Location>();
+	    RandomAccessFile vOut;
+	    Location vAccountsSegment;
+	    Location vDirectory;
+	    long vEnd;
+
+	    vTempFile.getParentFile().mkdirs();
+	    vOut = new RandomAccessFile(vTempFile, "rw");
+	    try {
+		vOut.setLength(0);
+		vOut.writeInt(MAGIC);
+		vOut.writeInt(VERSION);
+		vOut.write(new byte[2 * SLOT_SIZE]);
+		vAccountsSegment = Location.write(vOut, accountsBytes);
+		for (Map.Entry<Integer, byte[]> vMonth : months.entrySet()) {
+		    vMonths.put(vMonth.getKey(), Location.write(vOut, vMonth.getValue()));
+		}
+		vDirectory = Location.write(vOut, writeDirectory(vAccountsSegment, vMonths));
+		vEnd = vOut.getFilePointer();
+		writeSlot(vOut, 0, sequence + 1, vDirectory);
+		vOut.getFD().sync();
+	    }
+	    finally {
+		vOut.close();
+	    }
+	    if (!vTempFile.renameTo(vFile)) {
+		vFile.delete();
+		if (!vTempFile.renameTo(vFile)) {
+		    throw new IOException("Failed to replace " + vFile + " with " + vTempFile);
+		}
+	    }
+	    use(vAccountsSegment, vMonths, vDirectory, vEnd, 0, sequence + 1);
+	}
+    }
+
+    /**
+     * Writes the sidecar index of the file. The index is only an aid to
+     * readers, which check it against the header of the file, so failing to
+     * write it does not fail the save.
+     */
+    private void writeIndex() {
+	try {
+	    SegmentedIndex.write(FileStorage.getLocalFile(filename), sequence, accountsSegment,
+				 monthSegments, monthPostings);
+	}
+	catch (IOException ex) {
+	    Logger.getLogger(SegmentedStorage.class.getName()).log(Level.WARNING, null, ex);
+	}
+    }
+
+    private static byte[] writeDirectory(Location pAccountsSegment,
+					 SortedMap<Integer, Location> pMonths) throws IOException {
+	ByteArrayOutputStream rBytes = new ByteArrayOutputStream();
+	DataOutputStream vOut = new DataOutputStream(rBytes);
+
+	pAccountsSegment.write(vOut);
+	vOut.writeInt(pMonths.size());
+	for (Map.Entry<Integer, Location> vMonth : pMonths.entrySet()) {
+	    vOut.writeInt(vMonth.getKey().intValue());
+	    vMonth.getValue().write(vOut);
+	}
+	vOut.flush();
+
+	return rBytes.toByteArray();
+    }
+
+    private static void writeSlot(RandomAccessFile pFile, int pSlot, long pSequence,
+				  Location pDirectory) throws IOException {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream(SLOT_SIZE);
+	DataOutputStream vOut = new DataOutputStream(vBytes);
+	byte[] vSlot;
+
+	vOut.writeLong(pSequence);
+	pDirectory.write(vOut);
+	vOut.flush();
+	vSlot = vBytes.toByteArray();
+	vOut.writeLong(checksumOf(vSlot, vSlot.length));
+	vOut.flush();
+	pFile.seek(4 + 4 + pSlot * SLOT_SIZE);
+	pFile.write(vBytes.toByteArray());
+    }
+
+    /** Makes a directory just written the current one; called with the lock held. */
+    private void use(Location pAccountsSegment, SortedMap<Integer, Location> pMonths,
+		     Location pDirectory, long pFileLength, int pSlot, long pSequence) {
+	accountsSegment = pAccountsSegment;
+	monthSegments = pMonths;
+	fileLength = pFileLength;
+	usedLength = pDirectory.length + pAccountsSegment.length;
+	for (Location vMonth : pMonths.values()) {
+	    usedLength += vMonth.length;
+	}
+	currentSlot = pSlot;
+	sequence = pSequence;
+    }
+
+    /**
+     * The offset, length and CRC32 checksum of a segment or directory in the
+     * file.
+     */
+    static class Location {
+
+	long offset;
+
+	int length;
+
+	long checksum;
+
+
+	private Location(long pOffset, int pLength, long pChecksum) {
+	    offset = pOffset;
+	    length = pLength;
+	    checksum = pChecksum;
+	}
+
+
+	/** Writes bytes at the position of a file and gives their Location. */
+	private static Location write(RandomAccessFile pFile, byte[] pBytes) throws IOException {
+	    Location rLocation = new Location(pFile.getFilePointer(), pBytes.length,
+					      checksumOf(pBytes, pBytes.length));
+
+	    pFile.write(pBytes);
+
+	    return rLocation;
+	}
+
+	static Location read(DataInputStream pIn) throws IOException {
+	    return new Location(pIn.readLong(), pIn.readInt(), pIn.readLong());
+	}
+
+	void write(DataOutputStream pOut) throws IOException {
+	    pOut.writeLong(offset);
+	    pOut.writeInt(length);
+	    pOut.writeLong(checksum);
+	}
+    }
+
+    /**
+     * A valid header slot: its index, its sequence number and the Location of
+     * the directory it points to.
+     */
+    static class Slot {
+
+	int index;
+
+	long sequence;
+
+	Location directory;
+
+
+	private Slot(int pIndex, long pSequence, Location pDirectory) {
+	    index = pIndex;
+	    sequence = pSequence;
+	    directory = pDirectory;
+	}
+    }
+
+}
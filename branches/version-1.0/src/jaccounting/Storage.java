@@ -0,0 +1,176 @@
+/*
+ * Storage.java	    1.0.0	    09/2009
+ * This file contains the storage interface of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Data;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Storage is the interface of the places the application data is kept in. The
+ * {@link ModelsMngr} opens one Storage object per file it loads or creates and
+ * delegates loading and saving the data to it. A {@link FileStorage} keeps the
+ * data in an xml file or a binary snapshot; a {@link JdbcStorage} keeps it in
+ * the tables of an embedded SQL database; a {@link PartitionedStorage} keeps it
+ * in one file per fiscal period and only loads the earlier periods on demand;
+ * a {@link SegmentedStorage} keeps it in one file of checksummed segments and
+ * only rewrites the segments the models changed.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    ModelsMngr
+ * @see		    FileStorage
+ * @see		    JdbcStorage
+ * @see		    PartitionedStorage
+ * @see		    SegmentedStorage
+ * @since	    1.0.0
+ */
+public interface Storage {
+
+    /**
+     * Loads the application data kept in this Storage. A Storage may hand the
+     * data out to a LoadListener before it is fully loaded; one that does
+     * not simply never calls the listener.
+     *
+     * @param pListener				the listener to tell of the
+     *						progress or null
+     * @return					the Data loaded
+     * @throws IOException			if an I/O error occured such as
+     *						missing data
+     * @throws UnPersistenceFailureException	if the data kept is not valid
+     * @see					LoadListener
+     * @since					1.0.0
+     */
+    public Data load(LoadListener pListener) throws IOException, UnPersistenceFailureException;
+
+    /**
+     * Finishes loading the application data. This method is called once the
+     * Journal of the loaded Data is complete, from the thread the data is
+     * changed from; the application already holds the Data as its current
+     * Data.
+     *
+     * @param pData		the Data loaded
+     * @since			1.0.0
+     */
+    public void finishLoad(Data pData);
+
+    /**
+     * Gets the date from which the loaded Data holds all the Transactions kept
+     * in this Storage. A Storage loading all of its data at once always
+     * returns null.
+     *
+     * @return			the date the earliest loaded period starts at;
+     *				null if no Transaction is left to load
+     * @see			#loadEarlier(jaccounting.models.Data)
+     * @since			1.0.0
+     */
+    public Date getLoadedFrom();
+
+    /**
+     * Loads the latest period of Transactions not loaded yet into the Data,
+     * with their entries and the opening balances of the Accounts at the start
+     * of the period. This method must be called from the thread the data is
+     * changed from.
+     *
+     * @param pData				the Data loaded from this Storage
+     * @return					true if a period was loaded; false
+     *						if there was none left
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if the period kept is not valid
+     * @see					#getLoadedFrom()
+     * @since					1.0.0
+     */
+    public boolean loadEarlier(Data pData) throws IOException, UnPersistenceFailureException;
+
+    /**
+     * Gets the log the models report their changes to.
+     *
+     * @return			the MutationLog recording the changes made to
+     *				the data or null if this Storage does not need
+     *				them recorded
+     * @see			MutationLog
+     * @since			1.0.0
+     */
+    public MutationLog getMutationLog();
+
+    /**
+     * Gets the tracker the models tell which parts of the data they changed.
+     *
+     * @return			the ChangeTracker of this Storage or null if this
+     *				Storage does not need to know
+     * @see			ChangeTracker
+     * @since			1.0.0
+     */
+    public ChangeTracker getChangeTracker();
+
+    /**
+     * Starts saving the application data to this Storage. This method must be
+     * called from the thread the data is changed from; the returned
+     * Checkpoint holds what it needs to save the data as it is now.
+     *
+     * @param pData		the Data to save
+     * @return			the Checkpoint to write and commit; null if
+     *				there is nothing to write
+     * @throws IOException	if an I/O error occured
+     * @see			Checkpoint
+     * @since			1.0.0
+     */
+    public Checkpoint createCheckpoint(Data pData) throws IOException;
+
+    /**
+     * Closes this Storage such as when other data gets loaded. Checkpoints
+     * created before are then neither written nor committed.
+     *
+     * @since			1.0.0
+     */
+    public void close();
+
+
+    /**
+     * Checkpoint is the interface of the saves of the application data. Its
+     * {@link #write()} method does the slow part and may run on a background
+     * thread; its {@link #commit()} method then ends the save and must run on
+     * the thread the data is changed from.
+     *
+     * @version		    1.0.0
+     * @see		    Storage#createCheckpoint(jaccounting.models.Data)
+     * @since		    1.0.0
+     */
+    public interface Checkpoint {
+
+	/**
+	 * Writes the saved data.
+	 *
+	 * @throws IOException	    if an I/O error ocurred
+	 * @since		    1.0.0
+	 */
+	public void write() throws IOException;
+
+	/**
+	 * Ends the save once the saved data is written.
+	 *
+	 * @throws IOException	    if an I/O error ocurred
+	 * @since		    1.0.0
+	 */
+	public void commit() throws IOException;
+    }
+
+}
@@ -0,0 +1,1343 @@
+/*
+ * XmlDataReader.java	    1.0.0	    09/2009
+ * This file contains the streaming xml reader class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * XmlDataReader is the class parsing the application xml format back into a
+ * Data object. Unlike a document builder, an XmlDataReader object never holds
+ * the whole xml tree in memory; it is fed the xml nodes one event at a time
+ * by a SAX parser, hands the values of the TransactionEntries and Transactions
+ * to a pool of threads to decode and links the decoded objects together once
+ * the parsing is over. A {@link PersistenceHandler} delegates the
+ * unpersisting of a file to a new XmlDataReader.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    PersistenceHandler
+ * @see		    jaccounting.models.Data
+ * @since	    1.0.0
+ */
+public class XmlDataReader extends DefaultHandler {
+
+    /**
+     * Loading goes in three phases. The xml is first parsed in a single pass
+     * from start to end. The GeneralLedger comes first in the file; the
+     * Accounts, of which there are few, are created as their nodes close, with
+     * an empty entries list. The values of each "TransactionEntry" node, held
+     * by the "Account" node it belongs to, and of each "Transaction" node, in
+     * the Journal coming last, are only kept as text in an EntryRecord or a
+     * TransactionRecord.
+     *
+     * Those records are handed in batches to a pool of threads as the parsing
+     * goes on; decoding a batch parses the ids, numbers, types and dates of its
+     * records and creates the TransactionEntries, which is where most of the
+     * time of a load goes once the xml is tokenized. Records share no state
+     * and every thread has its own date parser.
+     *
+     * Since revision 1 of the format, the date of a Transaction is a "long"
+     * node holding its time in milliseconds, which is lossless and cheap to
+     * decode. Older files hold the text of {@code Date.toString()} in an
+     * "Enum" node; it goes through the LegacyDateParser of the decoding
+     * thread, which remembers the last text it parsed since a journal has
+     * many transactions of the same date in a row.
+     *
+     * Once every batch is decoded, a last single-threaded pass links the
+     * objects together: it maps the xml ids to the TransactionEntries, sets
+     * their transferAccount, fills the entries lists of the Accounts and
+     * creates the Transactions from their TransactionEntries, in document
+     * order so that duplicate ids resolve as they always did.
+     *
+     * Xml ids are ints. The writer numbers the objects of a kind from 1 in the
+     * order it first meets them, so ids are dense; once all objects are read,
+     * the Accounts and TransactionEntries are put in an IdTable, an array
+     * indexed by their ids. A file whose ids are sparse, as hand written files
+     * may be, gets its ids sorted and searched instead.
+     *
+     * A {@link LoadListener} may be given the Data as soon as the
+     * "GeneralLedger" node closes: the batches read so far are decoded and the
+     * entries linked right then rather than at the end. The Transactions are
+     * then created as their batches get decoded and handed out in chunks, as
+     * long as their name indexes follow the document order; the complete
+     * list, in the order of the name indexes, is handed out last.
+     *
+     * The GeneralLedger handed out is shown while the rest of the file is
+     * read, so it is never changed from the loading thread afterwards: the
+     * entries lists are filled apart from the Accounts, which keep empty ones,
+     * and each Account prepares its entries and their balances with {@link
+     * Account#prepareLoadedEntries(List)}. They are set from the thread the
+     * data is changed from once the load is over, by {@link
+     * GeneralLedger#setLoadedEntries()}; a load without a listener sets them
+     * before the Data is returned.
+     *
+     * The "AccountTreeNode" nodes are nested the same way the tree is. We keep
+     * a stack of the nodes being read; the AccountTreeNode object of a stack
+     * entry is created when its "Account" node closes, which happens before
+     * any of its children nodes are met.
+     *
+     * The position of an entry, a transaction or a child node in its list is
+     * given by the index ending its name attribute ("listEntry-N",
+     * "childElement-N"), not by its position in the document. Each list is
+     * gathered in a {@link NamedList} which puts every item at its index in a
+     * single pass once the list node closes; a list ends at its first missing
+     * index and, of two items with the same name, the last one read is kept.
+     *
+     * Revision 2 of the format holds every value in attributes; see the
+     * implementation note of {@link XmlDataWriter}. Its nodes are handled as
+     * they open: an "Account" node creates its Account and AccountTreeNode
+     * right away, children being added to their parent in document order,
+     * and a "Transaction" node gives a TransactionRecord holding the ids of
+     * its Accounts. Once the "GeneralLedger" node closes, the Accounts are
+     * put in an IdTable the decoding threads use to create each Transaction
+     * along with its two entries. The entries lists of the Accounts are then
+     * filled in a last pass in the order of the Journal, except for the
+     * Accounts whose entries attribute gives the order of their entries.
+     *
+     * Balances are re-calculated, whatever the revision: once every entries
+     * list is complete, the balance of each Account and those of its entries
+     * are calculated from its postings. Accounts are independent of one
+     * another, so they are split in groups of about the same number of
+     * entries, one per thread of the pool, and calculated in parallel; the
+     * group tasks are waited for before the Data is returned. The balance
+     * attribute of a revision 2 "Account" node is only the balance the
+     * Account shows until its entries are set.
+     */
+
+    /** the kind of object whose properties are currently being read */
+    private static enum Context { NONE, ACCOUNT, TRANSACTION_ENTRY, TRANSACTION }
+
+    /** the format of dates written by {@code Date.toString()} */
+    private static final String DATE_PATTERN = "EEE MMM dd kk:mm:ss z yyyy";
+
+    /** the tag of value nodes holding a date in milliseconds */
+    private static final String MILLIS_DATE_TAG = "long";
+
+    /** the parser of old textual dates of each decoding thread */
+    private static final ThreadLocal<LegacyDateParser> legacyDateParser =
+	    new ThreadLocal<LegacyDateParser>() {
+		@Override
+		protected LegacyDateParser initialValue() {
+		    return new LegacyDateParser();
+		}
+	    };
+
+    /** orders TransactionEntries by the date of their Transaction */
+    private static final Comparator<TransactionEntry> ENTRY_DATE_ORDER =
+	    new Comparator<TransactionEntry>() {
+		public int compare(TransactionEntry pEntry1, TransactionEntry pEntry2) {
+		    return pEntry1.getTransaction().getDate().compareTo(
+				pEntry2.getTransaction().getDate());
+		}
+	    };
+
+    /** number of records decoded together by a thread of the pool */
+    private static final int BATCH_SIZE = 1024;
+
+    private Context context;		// the current reading context
+
+    private boolean compact;		// whether the document is of revision 2 or later
+
+    private StringBuilder text;		// text content of the current value node
+
+    private String valueName;		// name attribute of the current value node
+
+    private String valueTag;		// tag of the current value node
+
+    private ExecutorService decoders;	// the pool of threads decoding records
+
+    private List<Future<List<RawRecord>>> decodings;  // the batches handed to the pool
+
+    private LoadListener listener;	// the listener told of the progress or null
+
+    private Data data;			// the Data handed to the listener or null
+
+    private boolean streaming;		// whether Transactions are being handed out
+
+    private int streamedDecodings;	// number of batches whose Transactions were handed out
+
+    private int streamedCount;		// number of Transactions handed out
+
+    private List<RawRecord> batch;	// the batch being filled
+
+    /**	the Accounts in the order read and their xml ids */
+    private List<Account> accounts;
+
+    private int[] accountIds;
+
+    /**	mapping of xml ids to their Transaction Entries. */
+    private IdTable<TransactionEntry> idTransactionEntries;
+
+    /** mapping of xml ids to their Accounts; only used from revision 2 */
+    private IdTable<Account> idAccounts;
+
+    /** the entries attributes of the Accounts in the order read or nulls */
+    private List<String> accountEntriesOrders;
+
+    /** records of all TransactionEntries and Transactions in document order */
+    private List<EntryRecord> entryRecords;
+
+    private List<TransactionRecord> transactionRecords;
+
+    /**
+     * entries lists of the Accounts and the records of their entries; both
+     * lists are kept in the same order.
+     */
+    private List<List<TransactionEntry>> accountEntriesLists;
+
+    private List<List<EntryRecord>> accountEntryRecords;
+
+    /**
+     * stack of AccountTreeNodes being read, of their name attributes and of
+     * their children read so far
+     */
+    private LinkedList<AccountTreeNode> nodesStack;
+
+    private LinkedList<String> nodeNamesStack;
+
+    private LinkedList<NamedList<AccountTreeNode>> nodeChildrenStack;
+
+    /** top level AccountTreeNodes indexed by their name attribute */
+    private Map<String, AccountTreeNode> topLevelNodes;
+
+    private DefaultMutableTreeNode root;    // the general ledger root node
+
+    private NamedList<TransactionRecord> transactions; // the journal's transactions
+
+    /** unserialized values of the current Account's properties */
+    private int accountId;
+    private int accountNumber;
+    private String accountName;
+    private String accountDescription;
+    private Account.Type accountType;
+    private boolean accountTransactionsEnabled;
+    private NamedList<EntryRecord> accountEntries;
+
+    /** the record of the current TransactionEntry and its name attribute */
+    private EntryRecord entry;
+    private String entryName;
+
+    /** the record of the current Transaction and its name attribute */
+    private TransactionRecord transaction;
+    private String transactionName;
+
+
+    /**
+     * Sole Constructor. Resets instance variables to their default values.
+     * @since		    1.0.0
+     */
+    public XmlDataReader() {
+	reset();
+    }
+
+
+    private void reset() {
+	context = Context.NONE;
+	compact = false;
+	text = new StringBuilder();
+	valueName = null;
+	valueTag = null;
+	decoders = null;
+	decodings = new ArrayList<Future<List<RawRecord>>>();
+	listener = null;
+	data = null;
+	streaming = false;
+	streamedDecodings = 0;
+	streamedCount = 0;
+	batch = new ArrayList<RawRecord>(BATCH_SIZE);
+
+	accounts = new ArrayList<Account>();
+	accountIds = new int[64];
+	idTransactionEntries = null;
+	idAccounts = null;
+	accountEntriesOrders = new ArrayList<String>();
+	entryRecords = new ArrayList<EntryRecord>();
+	transactionRecords = new ArrayList<TransactionRecord>();
+	accountEntriesLists = new ArrayList<List<TransactionEntry>>();
+	accountEntryRecords = new ArrayList<List<EntryRecord>>();
+
+	nodesStack = new LinkedList<AccountTreeNode>();
+	nodeNamesStack = new LinkedList<String>();
+	nodeChildrenStack = new LinkedList<NamedList<AccountTreeNode>>();
+	topLevelNodes = new HashMap<String, AccountTreeNode>();
+
+	root = null;
+	transactions = new NamedList<TransactionRecord>();
+	entry = null;
+	transaction = null;
+    }
+
+    /**
+     * Parses out the xml contained in an InputStream into a Data object. The
+     * stream is read once from start to end.
+     *
+     * @param pStream				the InputStream containing an xml
+     *						representation of an application Data
+     * @return					the Data object constructed from
+     *						xml from InputStream
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if an xml parsing error occured
+     *						or the xml does not describe a
+     *						valid Data
+     * @see					jaccounting.models.Data
+     * @since					1.0.0
+     */
+    public Data read(InputStream pStream) throws IOException, UnPersistenceFailureException {
+	return read(pStream, null);
+    }
+
+    /**
+     * Parses out the xml contained in an InputStream into a Data object and
+     * tells a LoadListener of the progress. The Data returned is the one given
+     * to the listener, if the GeneralLedger could be read; its Journal is then
+     * left to the listener and the entries of its Accounts are set by {@link
+     * GeneralLedger#setLoadedEntries()}.
+     *
+     * @param pStream				the InputStream containing an xml
+     *						representation of an application Data
+     * @param pListener				the listener to tell of the
+     *						progress or null
+     * @return					the Data object constructed from
+     *						xml from InputStream
+     * @throws IOException			if an I/O error occured
+     * @throws UnPersistenceFailureException	if an xml parsing error occured
+     *						or the xml does not describe a
+     *						valid Data
+     * @see					LoadListener
+     * @since					1.0.0
+     */
+    public Data read(InputStream pStream, LoadListener pListener) throws IOException, UnPersistenceFailureException {
+	try {
+	    listener = pListener;
+	    decoders = Executors.newFixedThreadPool(
+		    Runtime.getRuntime().availableProcessors(), new DecoderThreadFactory());
+	    SAXParserFactory.newInstance().newSAXParser().parse(pStream, this);
+	    submitBatch();
+	    waitForDecodings();
+	    streamTransactions(true);
+	    return buildData();
+	}
+	catch (SAXException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (ParserConfigurationException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	finally {
+	    if (decoders != null) decoders.shutdownNow();
+	    reset();
+	}
+    }
+
+    private void queue(RawRecord pRecord) throws UnPersistenceFailureException {
+	batch.add(pRecord);
+	if (batch.size() == BATCH_SIZE) {
+	    submitBatch();
+	    streamTransactions(false);
+	}
+    }
+
+    private void submitBatch() {
+	if (batch.isEmpty()) return;
+	decodings.add(decoders.submit(new DecodingTask(batch)));
+	batch = new ArrayList<RawRecord>(BATCH_SIZE);
+    }
+
+    private List<RawRecord> getDecoded(Future<List<RawRecord>> pDecoding) throws UnPersistenceFailureException {
+	try {
+	    return pDecoding.get();
+	}
+	catch (ExecutionException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new UnPersistenceFailureException();
+	}
+    }
+
+    private void waitForDecodings() throws UnPersistenceFailureException {
+	for (Future<List<RawRecord>> vDecoding : decodings) {
+	    getDecoded(vDecoding);
+	}
+    }
+
+    private void streamTransactions(boolean pWait) throws UnPersistenceFailureException {
+	List<Transaction> vChunk = new ArrayList<Transaction>();
+
+	/**
+	 * Hand out the Transactions of the batches decoded so far, in order,
+	 * until one is met whose name index is not its position in the
+	 * document. See class implementation note at beginning for why.
+	 */
+	while (streaming && streamedDecodings < decodings.size()
+		&& (pWait || decodings.get(streamedDecodings).isDone())) {
+	    for (RawRecord vRecord : getDecoded(decodings.get(streamedDecodings))) {
+		if (!(vRecord instanceof TransactionRecord)
+			|| transactions.getIndex(streamedCount) != streamedCount) {
+		    streaming = false;
+		    break;
+		}
+		vChunk.add(createTransaction((TransactionRecord) vRecord));
+		streamedCount++;
+	    }
+	    streamedDecodings++;
+	}
+	if (!vChunk.isEmpty()) listener.transactionsLoaded(vChunk);
+    }
+
+    private void endGeneralLedger() throws UnPersistenceFailureException {
+	if (compact) {
+	    idAccounts = new IdTable<Account>(accountIds, accounts.toArray(), accounts.size());
+	}
+	if (listener == null) return;
+
+	/**
+	 * Decode and link what was read so far to hand the GeneralLedger out.
+	 */
+	submitBatch();
+	waitForDecodings();
+	linkEntries();
+	data = new Data(new Journal(), buildGeneralLedger());
+	streaming = true;
+	streamedDecodings = decodings.size();
+	listener.generalLedgerLoaded(data);
+    }
+
+    private Transaction createTransaction(TransactionRecord pRecord) throws UnPersistenceFailureException {
+	if (pRecord.transaction == null) {
+	    pRecord.transaction = Transaction.createTransaction(pRecord.decodedDate,
+			pRecord.refNo, pRecord.memo, pRecord.decodedAmount,
+			getTransactionEntryOfId(pRecord.decodedDebitEntryId),
+			getTransactionEntryOfId(pRecord.decodedCreditEntryId));
+	}
+
+	return pRecord.transaction;
+    }
+
+    private void linkEntries() throws UnPersistenceFailureException {
+	int vSize = accountEntriesLists.size();
+	int vEntriesCount = entryRecords.size();
+	IdTable<Account> vIdAccounts;
+	int[] vEntryIds;
+	Object[] vEntryObjects;
+
+	if (idTransactionEntries != null) return;
+	vIdAccounts = new IdTable<Account>(accountIds, accounts.toArray(), accounts.size());
+	vEntryIds = new int[vEntriesCount];
+	vEntryObjects = new Object[vEntriesCount];
+
+	/**
+	 * Now that every Account has been read and every record decoded, link
+	 * the objects. See class implementation note at beginning for why.
+	 */
+	for (int vI = 0; vI < vEntriesCount; vI++) {
+	    EntryRecord vRecord = entryRecords.get(vI);
+	    Account vAcct = vIdAccounts.get(vRecord.decodedTransferAccountId);
+
+	    if (vAcct == null) throw new UnPersistenceFailureException();
+	    vRecord.entry.initTransferAccount(vAcct);
+	    vEntryIds[vI] = vRecord.decodedId;
+	    vEntryObjects[vI] = vRecord.entry;
+	}
+	idTransactionEntries = new IdTable<TransactionEntry>(vEntryIds, vEntryObjects, vEntriesCount);
+	for (int vI = 0; vI < vSize; vI++) {
+	    List<TransactionEntry> vEntries = accountEntriesLists.get(vI);
+
+	    for (EntryRecord vRecord : accountEntryRecords.get(vI)) {
+		vEntries.add(vRecord.entry);
+	    }
+	}
+    }
+
+    private void linkCompactEntries(List<TransactionRecord> pJournalRecords)
+	    throws UnPersistenceFailureException {
+	int vSize = accounts.size();
+	Map<Account, List<TransactionEntry>> vEntriesLists =
+		new IdentityHashMap<Account, List<TransactionEntry>>(vSize * 2);
+
+	for (int vI = 0; vI < vSize; vI++) {
+	    vEntriesLists.put(accounts.get(vI), accountEntriesLists.get(vI));
+	}
+
+	/**
+	 * Give every Account the entries of the Journal's Transactions in the
+	 * order of the Journal, then put the entries in order: by date, keeping
+	 * the order of the Journal for equal dates, or in the order listed in
+	 * the entries attribute.
+	 */
+	for (TransactionRecord vRecord : pJournalRecords) {
+	    Transaction vTrans = vRecord.transaction;
+
+	    vEntriesLists.get(vTrans.getDebitAccount()).add(vTrans.getDebitEntry());
+	    vEntriesLists.get(vTrans.getCreditAccount()).add(vTrans.getCreditEntry());
+	}
+	for (int vI = 0; vI < vSize; vI++) {
+	    List<TransactionEntry> vEntries = accountEntriesLists.get(vI);
+	    String vOrder = accountEntriesOrders.get(vI);
+
+	    if (vOrder != null) {
+		orderEntries(accounts.get(vI), vEntries, vOrder, pJournalRecords);
+	    }
+	    else if (!isOrderedByDate(vEntries)) {
+		Collections.sort(vEntries, ENTRY_DATE_ORDER);
+	    }
+	}
+    }
+
+    private void recalculateBalances() throws UnPersistenceFailureException {
+	int vThreads = Runtime.getRuntime().availableProcessors();
+	long vTotal = 0;
+	long vGroupSize;
+	long vCount = 0;
+	List<Future<List<RawRecord>>> vTasks = new ArrayList<Future<List<RawRecord>>>();
+	int vStart = 0;
+
+	for (List<TransactionEntry> vEntries : accountEntriesLists) {
+	    vTotal += vEntries.size();
+	}
+	vGroupSize = vTotal / vThreads + 1;
+	for (int vI = 0; vI < accounts.size(); vI++) {
+	    vCount += accountEntriesLists.get(vI).size();
+	    if (vCount >= vGroupSize) {
+		vTasks.add(decoders.submit(new BalancesTask(accounts.subList(vStart, vI + 1),
+				accountEntriesLists.subList(vStart, vI + 1))));
+		vStart = vI + 1;
+		vCount = 0;
+	    }
+	}
+	if (vStart < accounts.size()) {
+	    vTasks.add(decoders.submit(new BalancesTask(accounts.subList(vStart, accounts.size()),
+			    accountEntriesLists.subList(vStart, accounts.size()))));
+	}
+	for (Future<List<RawRecord>> vTask : vTasks) {
+	    getDecoded(vTask);
+	}
+    }
+
+    private static boolean isOrderedByDate(List<TransactionEntry> pEntries) {
+	int vSize = pEntries.size();
+
+	for (int vI = 1; vI < vSize; vI++) {
+	    if (ENTRY_DATE_ORDER.compare(pEntries.get(vI - 1), pEntries.get(vI)) > 0) {
+		return false;
+	    }
+	}
+
+	return true;
+    }
+
+    private static void orderEntries(Account pAcct, List<TransactionEntry> pEntries,
+				     String pOrder, List<TransactionRecord> pJournalRecords)
+	    throws UnPersistenceFailureException {
+	String[] vNumbers = pOrder.trim().split("\\s+");
+	int vCount = (pOrder.trim().length() == 0) ? 0 : vNumbers.length;
+
+	pEntries.clear();
+	for (int vI = 0; vI < vCount; vI++) {
+	    long vNumber;
+	    Transaction vTrans;
+	    TransactionEntry vEntry;
+
+	    try {
+		vNumber = Long.parseLong(vNumbers[vI]);
+	    }
+	    catch (NumberFormatException ex) {
+		throw new UnPersistenceFailureException();
+	    }
+	    if (vNumber < 0 || vNumber / 2 >= pJournalRecords.size()) {
+		throw new UnPersistenceFailureException();
+	    }
+	    vTrans = pJournalRecords.get((int) (vNumber / 2)).transaction;
+	    if (vNumber % 2 == 0) {
+		if (vTrans.getDebitAccount() != pAcct) throw new UnPersistenceFailureException();
+		vEntry = vTrans.getDebitEntry();
+	    }
+	    else {
+		if (vTrans.getCreditAccount() != pAcct) throw new UnPersistenceFailureException();
+		vEntry = vTrans.getCreditEntry();
+	    }
+	    pEntries.add(vEntry);
+	}
+    }
+
+    private Data buildData() throws UnPersistenceFailureException {
+	List<TransactionRecord> vJournalRecords;
+	List<Transaction> vTransactions;
+
+	linkEntries();
+	for (TransactionRecord vRecord : transactionRecords) {
+	    createTransaction(vRecord);
+	}
+	vJournalRecords = transactions.toList();
+	if (compact) linkCompactEntries(vJournalRecords);
+	recalculateBalances();
+	vTransactions = new ArrayList<Transaction>(vJournalRecords.size());
+	for (TransactionRecord vRecord : vJournalRecords) {
+	    vTransactions.add(vRecord.transaction);
+	}
+	if (data != null) {
+	    listener.journalLoaded(vTransactions);
+	    return data;
+	}
+	for (Account vAcct : accounts) {
+	    vAcct.setLoadedEntries();
+	}
+
+	return new Data(new Journal(vTransactions), buildGeneralLedger());
+    }
+
+    private GeneralLedger buildGeneralLedger() throws UnPersistenceFailureException {
+
+	AccountTreeNode vAssets = topLevelNodes.get("assetsNode");
+	AccountTreeNode vLiabilities = topLevelNodes.get("liabilitiesNode");
+	AccountTreeNode vRevenues = topLevelNodes.get("revenuesNode");
+	AccountTreeNode vExpenses = topLevelNodes.get("expensesNode");
+	AccountTreeNode vEquity = topLevelNodes.get("equityNode");
+
+	if (root == null || vAssets == null || vLiabilities == null
+		|| vRevenues == null || vExpenses == null || vEquity == null) {
+	    throw new UnPersistenceFailureException();
+	}
+
+	return new GeneralLedger(root, vAssets, vLiabilities, vRevenues,
+				 vExpenses, vEquity);
+    }
+
+    /**
+     * Handles the opening tag of an xml node. This method switches the reading
+     * context when an object node opens and starts collecting the text content
+     * of value nodes.
+     *
+     * @param uri		the namespace uri; unused
+     * @param localName		the local name; unused
+     * @param qName		the node name
+     * @param attributes	the node attributes
+     * @throws SAXException	if the node is malformed
+     * @since			1.0.0
+     */
+    @Override
+    public void startElement(String uri, String localName, String qName,
+			     Attributes attributes) throws SAXException {
+	try {
+	    startNode(qName, attributes);
+	}
+	catch (IllegalArgumentException ex) {
+	    // includes NumberFormatException
+	    throw new SAXException(ex);
+	}
+	catch (GenericException ex) {
+	    throw new SAXException(ex);
+	}
+    }
+
+    private void startNode(String qName, Attributes attributes) throws GenericException {
+	if (qName.equals("JAccounting")) {
+	    String vRevision = attributes.getValue("revision");
+
+	    /**
+	     * Refuse files written by a later version of the application rather
+	     * than misread them.
+	     */
+	    if (vRevision != null
+		    && Integer.parseInt(vRevision.trim()) > XmlDataWriter.FORMAT_REVISION) {
+		throw new UnPersistenceFailureException();
+	    }
+	    compact = vRevision != null && Integer.parseInt(vRevision.trim()) >= 2;
+	}
+	else if (compact) {
+	    startCompactNode(qName, attributes);
+	}
+	else if (qName.equals("AccountTreeNode")) {
+	    nodesStack.addLast(null);
+	    nodeNamesStack.addLast(attributes.getValue("name"));
+	    nodeChildrenStack.addLast(new NamedList<AccountTreeNode>());
+	}
+	else if (qName.equals("Account")) {
+	    context = Context.ACCOUNT;
+	    accountId = parseId(attributes.getValue("id"));
+	    accountNumber = -1;
+	    accountName = "";
+	    accountDescription = "";
+	    accountType = null;
+	    accountTransactionsEnabled = false;
+	    accountEntries = new NamedList<EntryRecord>();
+	}
+	else if (qName.equals("TransactionEntry")) {
+	    context = Context.TRANSACTION_ENTRY;
+	    entry = new EntryRecord();
+	    entry.id = attributes.getValue("id");
+	    if (entry.id == null) throw new UnPersistenceFailureException();
+	    entryName = attributes.getValue("name");
+	}
+	else if (qName.equals("Transaction")) {
+	    context = Context.TRANSACTION;
+	    transaction = new TransactionRecord();
+	    transactionName = attributes.getValue("name");
+	}
+	else {
+	    // value nodes and containers; only value nodes have text we care about
+	    valueName = attributes.getValue("name");
+	    valueTag = qName;
+	    text.setLength(0);
+	}
+    }
+
+    private void startCompactNode(String qName, Attributes attributes)
+	    throws InvalidAccountTypeException, UnPersistenceFailureException {
+	if (qName.equals("GeneralLedger")) {
+	    root = new DefaultMutableTreeNode(getAttribute(attributes, "root"));
+	}
+	else if (qName.equals("Account")) {
+	    String vBalance = attributes.getValue("balance");
+	    Account vAcct = Account.createAccount(
+		    Integer.parseInt(getAttribute(attributes, "number").trim()),
+		    getAttribute(attributes, "name"),
+		    getAttribute(attributes, "description"),
+		    (vBalance != null) ? Double.parseDouble(vBalance.trim()) : 0.0,
+		    Enum.valueOf(Account.Type.class, getAttribute(attributes, "type").trim()),
+		    new ArrayList<TransactionEntry>(),
+		    Boolean.parseBoolean(getAttribute(attributes, "transactionsEnabled").trim()));
+
+	    addAccount(parseId(attributes.getValue("id")), vAcct, new ArrayList<EntryRecord>());
+	    accountEntriesOrders.set(accounts.size() - 1, attributes.getValue("entries"));
+	    nodesStack.addLast(new AccountTreeNode(vAcct));
+	    nodeNamesStack.addLast(attributes.getValue("node"));
+	}
+	else if (qName.equals("Transaction")) {
+	    if (idAccounts == null) throw new UnPersistenceFailureException();
+	    transaction = new TransactionRecord();
+	    transaction.accounts = idAccounts;
+	    transaction.date = getAttribute(attributes, "date");
+	    transaction.dateInMillis = true;
+	    transaction.refNo = getAttribute(attributes, "refNo");
+	    transaction.memo = getAttribute(attributes, "memo");
+	    transaction.amount = getAttribute(attributes, "amount");
+	    transaction.debitAccountId = getAttribute(attributes, "debitAccount");
+	    transaction.creditAccountId = getAttribute(attributes, "creditAccount");
+	    transactions.add(transaction);
+	    transactionRecords.add(transaction);
+	    queue(transaction);
+	    transaction = null;
+	}
+    }
+
+    private static String getAttribute(Attributes pAttributes, String pName)
+	    throws UnPersistenceFailureException {
+	String rValue = pAttributes.getValue(pName);
+
+	if (rValue == null) throw new UnPersistenceFailureException();
+
+	return rValue;
+    }
+
+    private void endCompactAccount() throws UnPersistenceFailureException {
+	AccountTreeNode vNode = nodesStack.removeLast();
+	String vName = nodeNamesStack.removeLast();
+
+	if (nodesStack.isEmpty()) {
+	    if (vName == null) throw new UnPersistenceFailureException();
+	    topLevelNodes.put(vName, vNode);
+	}
+	else {
+	    nodesStack.getLast().add(vNode);
+	}
+    }
+
+    /**
+     * Collects the text content of the current value node.
+     *
+     * @param ch		the characters
+     * @param start		the start position in the array
+     * @param length		the number of characters to read
+     * @since			1.0.0
+     */
+    @Override
+    public void characters(char[] ch, int start, int length) {
+	text.append(ch, start, length);
+    }
+
+    /**
+     * Handles the closing tag of an xml node. This method stores the value of
+     * a value node into the property of the object being read and creates that
+     * object when its own node closes.
+     *
+     * @param uri		the namespace uri; unused
+     * @param localName		the local name; unused
+     * @param qName		the node name
+     * @throws SAXException	if the node holds invalid values
+     * @since			1.0.0
+     */
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+	try {
+	    if (compact) {
+		if (qName.equals("Account")) {
+		    endCompactAccount();
+		}
+		else if (qName.equals("GeneralLedger")) {
+		    endGeneralLedger();
+		}
+	    }
+	    else if (qName.equals("AccountTreeNode")) {
+		endAccountTreeNode();
+	    }
+	    else if (qName.equals("Account")) {
+		endAccount();
+	    }
+	    else if (qName.equals("TransactionEntry")) {
+		endTransactionEntry();
+	    }
+	    else if (qName.equals("Transaction")) {
+		endTransaction();
+	    }
+	    else if (qName.equals("GeneralLedger")) {
+		endGeneralLedger();
+	    }
+	    else if (qName.equals("TreeNode")) {
+		root = new DefaultMutableTreeNode(text.toString().trim());
+	    }
+	    else if (valueName != null) {
+		endValue(valueName, text.toString().trim());
+		valueName = null;
+	    }
+	}
+	catch (IllegalArgumentException ex) {
+	    // includes NumberFormatException
+	    throw new SAXException(ex);
+	}
+	catch (GenericException ex) {
+	    throw new SAXException(ex);
+	}
+    }
+
+    private void endValue(String pName, String pText) throws UnPersistenceFailureException {
+	switch (context) {
+	    case ACCOUNT:
+		if (pName.equals("number")) {
+		    accountNumber = Integer.parseInt(pText);
+		}
+		else if (pName.equals("name")) {
+		    accountName = pText;
+		}
+		else if (pName.equals("description")) {
+		    accountDescription = pText;
+		}
+		else if (pName.equals("type")) {
+		    accountType = Enum.valueOf(Account.Type.class, pText);
+		}
+		else if (pName.equals("transactionsEnabled")) {
+		    accountTransactionsEnabled = Boolean.parseBoolean(pText);
+		}
+		break;
+	    case TRANSACTION_ENTRY:
+		if (pName.equals("transferAccount")) {
+		    entry.transferAccountId = pText;
+		}
+		else if (pName.equals("type")) {
+		    entry.type = pText;
+		}
+		break;
+	    case TRANSACTION:
+		if (pName.equals("date")) {
+		    transaction.date = pText;
+		    transaction.dateInMillis = valueTag.equals(MILLIS_DATE_TAG);
+		}
+		else if (pName.equals("refNo")) {
+		    transaction.refNo = pText;
+		}
+		else if (pName.equals("memo")) {
+		    transaction.memo = pText;
+		}
+		else if (pName.equals("amount")) {
+		    transaction.amount = pText;
+		}
+		else if (pName.equals("debitEntry")) {
+		    transaction.debitEntryId = pText;
+		}
+		else if (pName.equals("creditEntry")) {
+		    transaction.creditEntryId = pText;
+		}
+		break;
+	}
+    }
+
+    private void endAccountTreeNode() throws UnPersistenceFailureException {
+	AccountTreeNode vNode = nodesStack.removeLast();
+	String vName = nodeNamesStack.removeLast();
+	List<AccountTreeNode> vChildren = nodeChildrenStack.removeLast().toList();
+	int vSize = vChildren.size();
+
+	if (vNode == null) throw new UnPersistenceFailureException();
+	for (int vI = 0; vI < vSize; vI++) {
+	    vNode.add(vChildren.get(vI));
+	}
+	if (nodesStack.isEmpty()) {
+	    topLevelNodes.put(vName, vNode);
+	}
+	else {
+	    nodeChildrenStack.getLast().add(vName, vNode);
+	}
+    }
+
+    private void endAccount() throws InvalidAccountTypeException, UnPersistenceFailureException {
+	Account vAcct;
+	AccountTreeNode vNode;
+	List<EntryRecord> vEntryRecords = accountEntries.toList();
+
+	if (accountType == null) throw new InvalidAccountTypeException();
+	vAcct = Account.createAccount(accountNumber, accountName, accountDescription,
+				      0.0, accountType, new ArrayList<TransactionEntry>(),
+				      accountTransactionsEnabled);
+	addAccount(accountId, vAcct, vEntryRecords);
+	context = Context.NONE;
+
+	/**
+	 * The Account is the user object of the AccountTreeNode on top of the
+	 * stack; the node is added to its parent once all its children are read.
+	 */
+	if (nodesStack.isEmpty() || nodesStack.getLast() != null) {
+	    throw new UnPersistenceFailureException();
+	}
+	vNode = new AccountTreeNode(vAcct);
+	nodesStack.removeLast();
+	nodesStack.addLast(vNode);
+    }
+
+    private void addAccount(int pId, Account pAcct, List<EntryRecord> pEntryRecords) {
+	if (accounts.size() == accountIds.length) {
+	    int[] vIds = new int[accountIds.length * 2];
+
+	    System.arraycopy(accountIds, 0, vIds, 0, accountIds.length);
+	    accountIds = vIds;
+	}
+	accountIds[accounts.size()] = pId;
+	accounts.add(pAcct);
+	/** the entries are gathered apart; see class implementation note */
+	accountEntriesLists.add(new ArrayList<TransactionEntry>());
+	accountEntryRecords.add(pEntryRecords);
+	accountEntriesOrders.add(null);
+    }
+
+    private void endTransactionEntry() throws UnPersistenceFailureException {
+	if (entry.type == null || entry.transferAccountId == null) {
+	    throw new UnPersistenceFailureException();
+	}
+	accountEntries.add(entryName, entry);
+	entryRecords.add(entry);
+	queue(entry);
+	entry = null;
+	context = Context.ACCOUNT;
+    }
+
+    private void endTransaction() throws UnPersistenceFailureException {
+	if (transaction.date == null || transaction.debitEntryId == null
+		|| transaction.creditEntryId == null) {
+	    throw new UnPersistenceFailureException();
+	}
+	transactions.add(transactionName, transaction);
+	transactionRecords.add(transaction);
+	queue(transaction);
+	transaction = null;
+	context = Context.NONE;
+    }
+
+    private TransactionEntry getTransactionEntryOfId(int pId) throws UnPersistenceFailureException {
+	TransactionEntry rEntry = idTransactionEntries.get(pId);
+
+	if (rEntry == null) throw new UnPersistenceFailureException();
+
+	return rEntry;
+    }
+
+    private static int parseId(String pText) throws UnPersistenceFailureException {
+	int rId;
+
+	if (pText == null) throw new UnPersistenceFailureException();
+	try {
+	    rId = Integer.parseInt(pText.trim());
+	}
+	catch (NumberFormatException ex) {
+	    throw new UnPersistenceFailureException();
+	}
+	if (rId < 0) throw new UnPersistenceFailureException();
+
+	return rId;
+    }
+
+    /**
+     * LegacyDateParser parses the dates of files older than revision 1. It is
+     * not thread-safe; each decoding thread has its own.
+     */
+    private static class LegacyDateParser {
+
+	private DateFormat format = new SimpleDateFormat(DATE_PATTERN, Locale.ENGLISH);
+
+	private String lastText;	// the last text parsed
+
+	private long lastTime;		// the time parsed from lastText
+
+	Date parse(String pText) throws UnPersistenceFailureException {
+	    if (!pText.equals(lastText)) {
+		try {
+		    lastTime = format.parse(pText).getTime();
+		    lastText = pText;
+		}
+		catch (ParseException ex) {
+		    throw new UnPersistenceFailureException();
+		}
+	    }
+
+	    return new Date(lastTime);
+	}
+    }
+
+    /**
+     * RawRecord holds the text values of an object node until a thread of the
+     * pool decodes them.
+     */
+    private static abstract class RawRecord {
+
+	/**
+	 * Decodes the text values of this record.
+	 *
+	 * @throws UnPersistenceFailureException	if a value is invalid
+	 */
+	abstract void decode() throws UnPersistenceFailureException;
+    }
+
+    /**
+     * EntryRecord holds the values of a "TransactionEntry" node and, once
+     * decoded, the TransactionEntry they describe.
+     */
+    private static class EntryRecord extends RawRecord {
+
+	String id;
+	String transferAccountId;
+	String type;
+
+	int decodedId;
+	int decodedTransferAccountId;
+	TransactionEntry entry;
+
+	void decode() throws UnPersistenceFailureException {
+	    decodedId = parseId(id);
+	    decodedTransferAccountId = parseId(transferAccountId);
+	    entry = new TransactionEntry(null, null,
+			Enum.valueOf(TransactionEntry.Type.class, type), 0.0);
+	}
+    }
+
+    /**
+     * TransactionRecord holds the values of a "Transaction" node, their
+     * decoded form and, once linked, the Transaction they describe.
+     */
+    private static class TransactionRecord extends RawRecord {
+
+	String date;
+	boolean dateInMillis;
+	String refNo = "";
+	String memo = "";
+	String amount;
+	String debitEntryId;
+	String creditEntryId;
+
+	/** the values of revision 2, which name Accounts instead of entries */
+	IdTable<Account> accounts;
+	String debitAccountId;
+	String creditAccountId;
+
+	Date decodedDate;
+	double decodedAmount;
+	int decodedDebitEntryId;
+	int decodedCreditEntryId;
+	Transaction transaction;
+
+	void decode() throws UnPersistenceFailureException {
+	    decodedDate = dateInMillis ? new Date(Long.parseLong(date))
+				       : legacyDateParser.get().parse(date);
+	    decodedAmount = (amount == null) ? 0.0 : Double.parseDouble(amount);
+	    if (accounts != null) {
+		decodeWithEntries();
+		return;
+	    }
+	    decodedDebitEntryId = parseId(debitEntryId);
+	    decodedCreditEntryId = parseId(creditEntryId);
+	}
+
+	private void decodeWithEntries() throws UnPersistenceFailureException {
+	    Account vDebitAccount = accounts.get(parseId(debitAccountId));
+	    Account vCreditAccount = accounts.get(parseId(creditAccountId));
+
+	    if (vDebitAccount == null || vCreditAccount == null) {
+		throw new UnPersistenceFailureException();
+	    }
+	    transaction = Transaction.createTransaction(decodedDate, refNo, memo, decodedAmount,
+		    new TransactionEntry(vCreditAccount, null, TransactionEntry.Type.DEBIT, 0.0),
+		    new TransactionEntry(vDebitAccount, null, TransactionEntry.Type.CREDIT, 0.0));
+	}
+    }
+
+    /**
+     * IdTable maps xml ids to the objects they identify. Of two objects with
+     * the same id, the last one given is kept.
+     */
+    private static class IdTable<T> {
+
+	/**
+	 * Ids up to twice the number of objects are held in an array indexed by
+	 * id. Sparser ids are sorted, each one packed with the position of its
+	 * object in a long, and looked up by binary search.
+	 */
+
+	private Object[] byId;		// the objects indexed by id if dense
+
+	private int[] sortedIds;	// the distinct ids in order if sparse
+
+	private Object[] sortedObjects; // the objects of the sorted ids
+
+	IdTable(int[] pIds, Object[] pObjects, int pCount) {
+	    int vMaxId = -1;
+
+	    for (int vI = 0; vI < pCount; vI++) {
+		if (pIds[vI] > vMaxId) vMaxId = pIds[vI];
+	    }
+	    if (vMaxId <= 2 * pCount + 16) {
+		byId = new Object[vMaxId + 1];
+		for (int vI = 0; vI < pCount; vI++) {
+		    byId[pIds[vI]] = pObjects[vI];
+		}
+	    }
+	    else {
+		long[] vKeys = new long[pCount];
+		int vSize = 0;
+
+		for (int vI = 0; vI < pCount; vI++) {
+		    vKeys[vI] = ((long) pIds[vI] << 32) | vI;
+		}
+		Arrays.sort(vKeys);
+		sortedIds = new int[pCount];
+		sortedObjects = new Object[pCount];
+		for (int vI = 0; vI < pCount; vI++) {
+		    int vId = (int) (vKeys[vI] >>> 32);
+
+		    if (vSize == 0 || sortedIds[vSize - 1] != vId) vSize++;
+		    sortedIds[vSize - 1] = vId;
+		    sortedObjects[vSize - 1] = pObjects[(int) vKeys[vI]];
+		}
+		if (vSize < pCount) {
+		    int[] vIds = new int[vSize];
+
+		    System.arraycopy(sortedIds, 0, vIds, 0, vSize);
+		    sortedIds = vIds;
+		}
+	    }
+	}
+
+	@SuppressWarnings("unchecked")
+	T get(int pId) {
+	    if (byId != null) {
+		return (pId < byId.length) ? (T) byId[pId] : null;
+	    }
+	    int vIndex = Arrays.binarySearch(sortedIds, pId);
+
+	    return (vIndex < 0) ? null : (T) sortedObjects[vIndex];
+	}
+    }
+
+    /**
+     * DecodingTask decodes a batch of records on a thread of the pool.
+     */
+    private static class DecodingTask implements Callable<List<RawRecord>> {
+
+	private List<RawRecord> records;
+
+	DecodingTask(List<RawRecord> pRecords) {
+	    records = pRecords;
+	}
+
+	public List<RawRecord> call() throws UnPersistenceFailureException {
+	    for (RawRecord vRecord : records) {
+		vRecord.decode();
+	    }
+
+	    return records;
+	}
+    }
+
+    /**
+     * BalancesTask prepares the entries and balances of a group of Accounts in
+     * a thread of the pool. It returns no records; it is a Callable of the
+     * decoding tasks' type so that it is waited for the same way.
+     */
+    private static class BalancesTask implements Callable<List<RawRecord>> {
+
+	private List<Account> accounts;
+
+	private List<List<TransactionEntry>> entriesLists;  // in the same order
+
+	BalancesTask(List<Account> pAccounts, List<List<TransactionEntry>> pEntriesLists) {
+	    accounts = pAccounts;
+	    entriesLists = pEntriesLists;
+	}
+
+	public List<RawRecord> call() {
+	    int vSize = accounts.size();
+
+	    for (int vI = 0; vI < vSize; vI++) {
+		accounts.get(vI).prepareLoadedEntries(entriesLists.get(vI));
+	    }
+
+	    return Collections.emptyList();
+	}
+    }
+
+    /**
+     * DecoderThreadFactory creates the daemon threads of the pool so that a
+     * pool left behind never keeps the application from exiting.
+     */
+    private static class DecoderThreadFactory implements ThreadFactory {
+
+	public Thread newThread(Runnable pTask) {
+	    Thread rThread = new Thread(pTask, "XmlDataReader decoder");
+
+	    rThread.setDaemon(true);
+
+	    return rThread;
+	}
+    }
+
+    /**
+     * NamedList gathers the items of an xml list whose position is given by
+     * the index ending their name attribute. Items are added in document order
+     * and put at their position in a single pass by {@link #toList()}.
+     */
+    private static class NamedList<T> {
+
+	private List<T> items = new ArrayList<T>();
+
+	private List<Integer> indexes = new ArrayList<Integer>();
+
+	/**
+	 * Adds an item read under a name ending with its index in the list.
+	 *
+	 * @param pName				the name attribute of the item's node
+	 * @param pItem				the item
+	 * @throws UnPersistenceFailureException	if the name does not end with
+	 *						an index
+	 */
+	public void add(String pName, T pItem) throws UnPersistenceFailureException {
+	    int vDash = (pName == null) ? -1 : pName.lastIndexOf('-');
+
+	    if (vDash < 0) throw new UnPersistenceFailureException();
+	    try {
+		indexes.add(Integer.valueOf(pName.substring(vDash + 1)));
+	    }
+	    catch (NumberFormatException ex) {
+		throw new UnPersistenceFailureException();
+	    }
+	    items.add(pItem);
+	}
+
+	/**
+	 * Adds an item whose index in the list is the number of items added
+	 * before it.
+	 *
+	 * @param pItem				the item
+	 */
+	public void add(T pItem) {
+	    indexes.add(Integer.valueOf(items.size()));
+	    items.add(pItem);
+	}
+
+	/**
+	 * Gets the index of the item added at a position.
+	 *
+	 * @param pPosition			the position of the item in the
+	 *					order items were added
+	 * @return				the index of the item
+	 */
+	public int getIndex(int pPosition) {
+	    return indexes.get(pPosition).intValue();
+	}
+
+	/**
+	 * Gets the items in the order of their indexes. The list stops at the
+	 * first index no item was read under; an item whose index is past the
+	 * number of items read can't be reached and is left out.
+	 *
+	 * @return				the ordered list of items
+	 */
+	public List<T> toList() {
+	    int vSize = items.size();
+	    List<T> rList = new ArrayList<T>(vSize);
+	    T vItem;
+
+	    for (int vI = 0; vI < vSize; vI++) {
+		rList.add(null);
+	    }
+	    for (int vI = 0; vI < vSize; vI++) {
+		int vInd = indexes.get(vI).intValue();
+
+		if (vInd >= 0 && vInd < vSize) {
+		    rList.set(vInd, items.get(vI));
+		}
+	    }
+	    for (int vI = 0; vI < vSize; vI++) {
+		vItem = rList.get(vI);
+		if (vItem == null) {
+		    return new ArrayList<T>(rList.subList(0, vI));
+		}
+	    }
+
+	    return rList;
+	}
+    }
+
+}
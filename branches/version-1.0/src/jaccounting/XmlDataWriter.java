@@ -0,0 +1,412 @@
+/*
+ * XmlDataWriter.java	    1.0.0	    09/2009
+ * This file contains the streaming xml writer class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * XmlDataWriter is the class saving a Data object in the application xml
+ * format. Unlike a document builder, an XmlDataWriter object never holds an
+ * xml tree in memory; it writes the xml nodes straight to a buffered stream
+ * as it walks through the GeneralLedger and the Journal. It writes the latest
+ * revision of the format, which stores every value once, in attributes; an
+ * {@link XmlDataReader} reads it as well as the earlier revisions. A {@link
+ * PersistenceHandler} delegates the persisting of a Data object to a new
+ * XmlDataWriter.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    PersistenceHandler
+ * @see		    XmlDataReader
+ * @see		    jaccounting.models.Data
+ * @since	    1.0.0
+ */
+public class XmlDataWriter {
+
+    /**
+     * The root node holds the revision of the format. Revision 1 writes the
+     * date of a Transaction as a "long" node holding its time in milliseconds
+     * instead of the text of {@code Date.toString()}, which needed a slow
+     * locale-bound parser and lost the milliseconds.
+     *
+     * Revision 2 stores each fact once, in attributes. The "GeneralLedger" node
+     * holds the name of the root in its root attribute and an "Account" node
+     * per Account, nested the way the Accounts tree is; the top level ones are
+     * told apart by their node attribute. The "Journal" node holds an empty
+     * "Transaction" node per Transaction, in order, with the ids of its debit
+     * and credit Accounts. There are no TransactionEntry nodes: the entries
+     * are rebuilt from the Transactions, so the ids of Transactions and
+     * entries and the "listEntry" names of revision 1 are gone. Balances
+     * follow from the postings and are re-calculated when the file is read;
+     * only the balance of each Account is written, for the Account to show it
+     * while a load rebuilds its entries.
+     *
+     * Accounts are numbered from 1 in the order of the tree before anything is
+     * written; they are told apart by identity and their ids are plain ints,
+     * written digit by digit. The Transactions are numbered in the order of
+     * the Journal and the entries of the Transaction numbered n (from 0) are
+     * numbered 2n for the debit one and 2n+1 for the credit one. An Account's
+     * entries are in the default order when they are exactly its entries of
+     * the Journal's Transactions, ordered by date then by number; that is
+     * always the case unless a Transaction was edited in place, and otherwise
+     * the Account node lists the numbers of its entries in its entries
+     * attribute.
+     *
+     * Attribute values are escaped the way jdom does it: '&', '<', '>' and '"'
+     * are written as entities and carriage returns, line feeds and tabs as
+     * character references, so that they survive the normalization of
+     * attribute values by the parser.
+     */
+
+    /** the revision of the format written; see class implementation note */
+    static final int FORMAT_REVISION = 2;
+
+    /** the line separator written after the xml declaration and the document */
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    /** size in characters of the output buffer */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Writer out;			// the buffered output the xml is written to
+
+    private char[] digits;		// buffer of the digits of the number being written
+
+    /**	mapping of Accounts to their xml ids. */
+    private IdentityIntMap<Account> accountIds;
+
+    /**	mapping of Transactions to their numbers plus one. */
+    private IdentityIntMap<Transaction> transactionIds;
+
+    /** numbers of entries of the Journal's Transactions by Account id */
+    private int[] accountEntriesCounts;
+
+
+    /**
+     * Sole Constructor. Resets instance variables to their default values.
+     * @since		    1.0.0
+     */
+    public XmlDataWriter() {
+	reset();
+    }
+
+
+    private void reset() {
+	out = null;
+	digits = new char[20];
+	accountIds = new IdentityIntMap<Account>();
+	transactionIds = new IdentityIntMap<Transaction>();
+	accountEntriesCounts = null;
+    }
+
+    /**
+     * Writes the xml representation of a Data object to an OutputStream. The
+     * stream is flushed but not closed.
+     *
+     * @param pData		the Data object to write
+     * @param pStream		the OutputStream to write to
+     * @throws IOException	if an I/O error occured
+     * @see			jaccounting.models.Data
+     * @since			1.0.0
+     */
+    public void write(Data pData, OutputStream pStream) throws IOException {
+	try {
+	    out = new BufferedWriter(new OutputStreamWriter(pStream, "UTF-8"), BUFFER_SIZE);
+	    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+	    out.write(LINE_SEPARATOR);
+	    out.write("<JAccounting revision=\"" + FORMAT_REVISION + "\">");
+	    writeData(pData);
+	    out.write("</JAccounting>");
+	    out.write(LINE_SEPARATOR);
+	    out.flush();
+	}
+	finally {
+	    reset();
+	}
+    }
+
+    private <T> int getIdOf(IdentityIntMap<T> pIds, T pVal) {
+	int rId = pIds.get(pVal);
+
+	/**
+	 * Ids start at 1 and follow the order objects are first met, so the
+	 * next id of a kind is always one more than the number of its objects
+	 * numbered so far.
+	 */
+	if (rId == IdentityIntMap.NO_VALUE) {
+	    rId = pIds.size() + 1;
+	    pIds.put(pVal, rId);
+	}
+
+	return rId;
+    }
+
+    private void writeNumber(long pNumber) throws IOException {
+	int vPos = digits.length;
+	long vNumber = pNumber;
+
+	/**
+	 * Work on the negative value, whose range includes that of the positive
+	 * one, so that Long.MIN_VALUE needs no special case.
+	 */
+	if (vNumber > 0) vNumber = -vNumber;
+	do {
+	    digits[--vPos] = (char) ('0' - vNumber % 10);
+	    vNumber /= 10;
+	} while (vNumber != 0);
+	if (pNumber < 0) digits[--vPos] = '-';
+	out.write(digits, vPos, digits.length - vPos);
+    }
+
+    private void writeData(Data pData) throws IOException {
+	numberAccounts(pData.getGeneralLedger());
+	numberTransactions(pData.getJournal());
+	writeGeneralLedger(pData.getGeneralLedger());
+	writeJournal(pData.getJournal());
+    }
+
+    private void numberAccounts(GeneralLedger pLedger) {
+	numberAccounts(pLedger.getAssetsNode());
+	numberAccounts(pLedger.getLiabilitiesNode());
+	numberAccounts(pLedger.getEquityNode());
+	numberAccounts(pLedger.getRevenuesNode());
+	numberAccounts(pLedger.getExpensesNode());
+    }
+
+    private void numberAccounts(AccountTreeNode pNode) {
+	Enumeration vChildren = pNode.children();
+
+	getIdOf(accountIds, (Account) pNode.getUserObject());
+	while (vChildren.hasMoreElements()) {
+	    numberAccounts((AccountTreeNode) vChildren.nextElement());
+	}
+    }
+
+    private void numberTransactions(Journal pJournal) {
+	accountEntriesCounts = new int[accountIds.size() + 1];
+	for (Transaction vTrans : pJournal.getTransactions()) {
+	    if (transactionIds.get(vTrans) != IdentityIntMap.NO_VALUE) continue;
+	    getIdOf(transactionIds, vTrans);
+	    countEntry(vTrans.getDebitAccount());
+	    countEntry(vTrans.getCreditAccount());
+	}
+    }
+
+    private void countEntry(Account pAcct) {
+	int vId = getIdOf(accountIds, pAcct);
+
+	if (vId >= accountEntriesCounts.length) {
+	    int[] vCounts = new int[Math.max(vId + 1, 2 * accountEntriesCounts.length)];
+
+	    System.arraycopy(accountEntriesCounts, 0, vCounts, 0, accountEntriesCounts.length);
+	    accountEntriesCounts = vCounts;
+	}
+	accountEntriesCounts[vId]++;
+    }
+
+    private void writeGeneralLedger(GeneralLedger pLedger) throws IOException {
+	out.write("<GeneralLedger root=\"");
+	writeEscaped((String) pLedger.getRoot().getUserObject());
+	out.write("\">");
+
+	writeAccountTreeNode("assetsNode", pLedger.getAssetsNode());
+	writeAccountTreeNode("liabilitiesNode", pLedger.getLiabilitiesNode());
+	writeAccountTreeNode("equityNode", pLedger.getEquityNode());
+	writeAccountTreeNode("revenuesNode", pLedger.getRevenuesNode());
+	writeAccountTreeNode("expensesNode", pLedger.getExpensesNode());
+
+	out.write("</GeneralLedger>");
+    }
+
+    private void writeAccountTreeNode(String pName, AccountTreeNode pNode) throws IOException {
+	Account vAcct = (Account) pNode.getUserObject();
+	Enumeration vChildren = pNode.children();
+
+	out.write("<Account");
+	if (pName != null) {
+	    writeAttribute("node", pName);
+	}
+	out.write(" id=\"");
+	writeNumber(getIdOf(accountIds, vAcct));
+	out.write('"');
+	writeAttribute("number", vAcct.getNumber()+"");
+	writeAttribute("name", vAcct.getName());
+	writeAttribute("description", vAcct.getDescription());
+	writeAttribute("transactionsEnabled", String.valueOf(vAcct.isTransactionsEnabled()));
+	writeAttribute("type", vAcct.getType().toString());
+	writeAttribute("balance", String.valueOf(vAcct.getBalance()));
+	writeEntriesOrder(vAcct);
+	if (pNode.getChildCount() == 0) {
+	    out.write(" />");
+	}
+	else {
+	    out.write('>');
+	    while (vChildren.hasMoreElements()) {
+		writeAccountTreeNode(null, (AccountTreeNode) vChildren.nextElement());
+	    }
+	    out.write("</Account>");
+	}
+    }
+
+    private void writeEntriesOrder(Account pAcct) throws IOException {
+	List<TransactionEntry> vEntries = pAcct.getEntries();
+	int vId = accountIds.get(pAcct);
+	int vCount = (vId < accountEntriesCounts.length) ? accountEntriesCounts[vId] : 0;
+	boolean vDefault = vEntries.size() == vCount;
+	Date vLastDate = null;
+	long vLastNumber = -1;
+	boolean vFirst = true;
+
+	/**
+	 * The entries are in the default order when they are exactly those of
+	 * the Transactions of the Journal affecting the Account, ordered by
+	 * date then by entry number; the order is only written otherwise.
+	 */
+	for (int vI = 0; vDefault && vI < vEntries.size(); vI++) {
+	    TransactionEntry vEntry = vEntries.get(vI);
+	    long vNumber = getEntryNumber(pAcct, vEntry);
+	    Date vDate = vEntry.getTransaction().getDate();
+
+	    vDefault = vNumber != -1 && (vLastDate == null || vLastDate.before(vDate)
+			|| (vLastDate.equals(vDate) && vLastNumber < vNumber));
+	    vLastDate = vDate;
+	    vLastNumber = vNumber;
+	}
+	if (vDefault) return;
+
+	out.write(" entries=\"");
+	for (TransactionEntry vEntry : vEntries) {
+	    long vNumber = getEntryNumber(pAcct, vEntry);
+
+	    // an entry of a Transaction missing from the Journal can't be kept
+	    if (vNumber == -1) continue;
+	    if (!vFirst) out.write(' ');
+	    writeNumber(vNumber);
+	    vFirst = false;
+	}
+	out.write('"');
+    }
+
+    private long getEntryNumber(Account pAcct, TransactionEntry pEntry) {
+	Transaction vTrans = pEntry.getTransaction();
+	int vId = (vTrans == null) ? IdentityIntMap.NO_VALUE : transactionIds.get(vTrans);
+
+	if (vId == IdentityIntMap.NO_VALUE) return -1;
+	if (pEntry == vTrans.getDebitEntry() && vTrans.getDebitAccount() == pAcct) {
+	    return 2L * (vId - 1);
+	}
+	if (pEntry == vTrans.getCreditEntry() && vTrans.getCreditAccount() == pAcct) {
+	    return 2L * (vId - 1) + 1;
+	}
+
+	return -1;
+    }
+
+    private void writeJournal(Journal pJournal) throws IOException {
+	IdentityIntMap<Transaction> vWritten = new IdentityIntMap<Transaction>();
+
+	out.write("<Journal>");
+	for (Transaction vTrans : pJournal.getTransactions()) {
+	    // a Transaction is numbered by its first position in the Journal
+	    if (vWritten.get(vTrans) != IdentityIntMap.NO_VALUE) continue;
+	    vWritten.put(vTrans, 1);
+	    writeTransaction(vTrans);
+	}
+	out.write("</Journal>");
+    }
+
+    private void writeTransaction(Transaction pTrans) throws IOException {
+	out.write("<Transaction date=\"");
+	writeNumber(pTrans.getDate().getTime());
+	out.write('"');
+	writeAttribute("refNo", pTrans.getRefNo());
+	writeAttribute("memo", pTrans.getMemo());
+	writeAttribute("amount", pTrans.getAmount()+"");
+	out.write(" debitAccount=\"");
+	writeNumber(getIdOf(accountIds, pTrans.getDebitAccount()));
+	out.write("\" creditAccount=\"");
+	writeNumber(getIdOf(accountIds, pTrans.getCreditAccount()));
+	out.write('"');
+	out.write(" />");
+    }
+
+    private void writeAttribute(String pName, String pValue) throws IOException {
+	out.write(' ');
+	out.write(pName);
+	out.write("=\"");
+	writeEscaped(pValue);
+	out.write('"');
+    }
+
+    private void writeEscaped(String pText) throws IOException {
+	int vLength = pText.length();
+	int vStart = 0;
+	String vEntity;
+	char vChar;
+
+	/**
+	 * Write runs of characters needing no escaping in one call and the
+	 * entity of each character that does.
+	 */
+	for (int vI = 0; vI < vLength; vI++) {
+	    vChar = pText.charAt(vI);
+	    switch (vChar) {
+		case '&':
+		    vEntity = "&amp;";
+		    break;
+		case '<':
+		    vEntity = "&lt;";
+		    break;
+		case '>':
+		    vEntity = "&gt;";
+		    break;
+		case '"':
+		    vEntity = "&quot;";
+		    break;
+		case '\r':
+		    vEntity = "&#xD;";
+		    break;
+		case '\n':
+		    vEntity = "&#xA;";
+		    break;
+		case '\t':
+		    vEntity = "&#x9;";
+		    break;
+		default:
+		    vEntity = null;
+	    }
+	    if (vEntity != null) {
+		out.write(pText, vStart, vI - vStart);
+		out.write(vEntity);
+		vStart = vI + 1;
+	    }
+	}
+	out.write(pText, vStart, vLength - vStart);
+    }
+
+}
@@ -22,6 +22,7 @@
 package jaccounting.controllers;
 
 import jaccounting.JAccounting;
+import jaccounting.ModelsMngr;
 import jaccounting.models.Account;
 import jaccounting.views.AccountLedgerView;
 import javax.swing.JTabbedPane;
@@ -60,9 +61,11 @@ public class AccountLedgerController {
 
     /**
      * Opens an account ledger interface for an Account in a tab of the content's
-     * tabbed pane of the main frame.
+     * tabbed pane of the main frame. The entries of the Account are loaded
+     * first if a segmented file is opened in viewer mode.
      *
      * @param pAccount		    the Account whose ledger interface to open
+     * @see			    jaccounting.ModelsMngr#loadAccountEntries(jaccounting.models.Account)
      * @since			    1.0.0
      */
     public void openAccountLedger(Account pAccount) {
@@ -72,8 +75,10 @@ public class AccountLedgerController {
 	if (vIndex == -1) {
 	    JAccounting.getApplication().getProgressReporter()
 			.reportUsingKey("messages.insertingAccountLedgerTab");
+	    JAccounting.getApplication().getModelsMngr().loadAccountEntries(pAccount);
 	    vTabsCont.addTab(pAccount.getName(), null,
-		    new AccountLedgerView(this, pAccount),
+		    new AccountLedgerView(this, pAccount, JAccounting.getApplication()
+					  .getModelsMngr().getMappedSnapshot()),
 		    GeneralLedgerController.getInstance().getAccountFullName(pAccount));
 	    vTabsCont.setSelectedIndex(vTabsCont.getTabCount()-1);
 	    JAccounting.getApplication().getProgressReporter().reportFinished();
@@ -83,6 +88,41 @@ public class AccountLedgerController {
 	}
     }
 
+    /**
+     * Specifies whether Transactions of earlier periods of the loaded file are
+     * left to load.
+     *
+     * @return			    true if earlier Transactions can be loaded;
+     *				    false otherwise
+     * @see			    jaccounting.ModelsMngr#hasUnloadedPeriods()
+     * @since			    1.0.0
+     */
+    public boolean hasEarlierPeriods() {
+	return JAccounting.getApplication().getModelsMngr().hasUnloadedPeriods();
+    }
+
+    /**
+     * Handles the user scrolling an account ledger interface back past its
+     * first entry. This method loads the periods of Transactions not loaded
+     * yet, latest first, until one holds entries of the Account.
+     *
+     * @param pAccount		    the Account whose ledger interface was scrolled
+     * @return			    true if entries of the Account were loaded;
+     *				    false otherwise
+     * @see			    jaccounting.ModelsMngr#loadEarlierPeriod()
+     * @since			    1.0.0
+     */
+    public boolean loadEarlierPeriod(Account pAccount) {
+	ModelsMngr vMngr = JAccounting.getApplication().getModelsMngr();
+	int vCount = pAccount.getEntries().size();
+
+	while (pAccount.getEntries().size() == vCount && vMngr.hasUnloadedPeriods()) {
+	    if (!vMngr.loadEarlierPeriod()) break;
+	}
+
+	return pAccount.getEntries().size() != vCount;
+    }
+
     private int getAccountLedgerTabIndex(Account pAccount) {
 	JTabbedPane vTabsCont = JAccounting.getApplication().getMainView().getTabsContainer();
 	int rIndex = vTabsCont.getTabCount() -1;
@@ -0,0 +1,157 @@
+/*
+ * AutosaveScheduler.java	    1.0.0	    09/2009
+ * This file contains the autosave scheduler class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting.controllers;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.Timer;
+
+/**
+ * AutosaveScheduler is the class deciding when the application data gets saved
+ * without the user asking. An AutosaveScheduler object is told of every change
+ * to the data and of every save by the {@link MainController}; it asks it to
+ * save once the data has not changed for a quiet period, but never sooner than
+ * a minimum interval after the previous save started. Changes made while a
+ * save is running are saved by the next one.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    MainController
+ * @since	    1.0.0
+ */
+public class AutosaveScheduler {
+
+    /**
+     * All methods are called from the event dispatching thread, as is the
+     * timer's listener, so no synchronization is needed. A single non repeating
+     * timer is restarted by every change, which coalesces a burst of changes
+     * into one save; when it goes off too soon after the previous save, it is
+     * simply restarted for the time left.
+     */
+
+    private Timer timer;		// the timer going off when a save is due
+
+    private int quietPeriod;		// milliseconds without change before saving
+
+    private int minInterval;		// minimum milliseconds between two saves
+
+    private ActionListener saver;	// the listener to ask to save
+
+    private long lastSaveTime;		// when the last save started
+
+    private boolean saving;		// whether a save is running
+
+    private boolean pending;		// whether changes wait for the running save
+
+
+    /**
+     * Sole constructor.
+     *
+     * @param pQuietPeriod	the time in milliseconds the data must stay
+     *				unchanged before it is saved
+     * @param pMinInterval	the minimum time in milliseconds between the
+     *				starts of two saves
+     * @param pSaver		the listener asked to save when a save is due
+     * @since			1.0.0
+     */
+    public AutosaveScheduler(int pQuietPeriod, int pMinInterval, ActionListener pSaver) {
+	quietPeriod = pQuietPeriod;
+	minInterval = pMinInterval;
+	saver = pSaver;
+	lastSaveTime = 0;
+	saving = false;
+	pending = false;
+	timer = new Timer(quietPeriod, new ActionListener() {
+	    public void actionPerformed(ActionEvent e) {
+		timerFired();
+	    }
+	});
+	timer.setRepeats(false);
+    }
+
+
+    /**
+     * Handles a change to the data. This method restarts the quiet period.
+     *
+     * @since			1.0.0
+     */
+    public void dataChanged() {
+	if (saving) {
+	    pending = true;
+	    return;
+	}
+	timer.setInitialDelay(quietPeriod);
+	timer.restart();
+    }
+
+    /**
+     * Handles the start of a save, whether asked by this scheduler or by the
+     * user. The changes made so far are taken care of by that save.
+     *
+     * @since			1.0.0
+     */
+    public void saveStarted() {
+	timer.stop();
+	saving = true;
+	pending = false;
+	lastSaveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Handles the end of a save. If the data changed while saving, another
+     * save is scheduled.
+     *
+     * @since			1.0.0
+     */
+    public void saveFinished() {
+	saving = false;
+	if (pending) {
+	    pending = false;
+	    dataChanged();
+	}
+    }
+
+    /**
+     * Cancels any scheduled save such as when other data gets loaded.
+     *
+     * @since			1.0.0
+     */
+    public void cancel() {
+	timer.stop();
+	pending = false;
+    }
+
+    private void timerFired() {
+	long vWait = lastSaveTime + minInterval - System.currentTimeMillis();
+
+	if (saving) {
+	    pending = true;
+	}
+	else if (vWait > 0) {
+	    timer.setInitialDelay((int) vWait);
+	    timer.restart();
+	}
+	else {
+	    saver.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "autosave"));
+	}
+    }
+
+}
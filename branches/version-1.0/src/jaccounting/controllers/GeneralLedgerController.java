@@ -362,7 +362,8 @@ public class GeneralLedgerController extends BaseController {
     /**
      * Handles bubbling of an account selection event from the general ledger
      * interface. This method looks at the selected row and enable/disable actions
-     * accordingly.
+     * accordingly. Only opening the account ledger is enabled if the data was
+     * opened read-only.
      *
      * @param pRow	    the absolute row of the selected account in the GeneralLedger model
      * @see		    jaccounting.models.GeneralLedger#canAccountBeEdited(int)
@@ -390,6 +391,38 @@ public class GeneralLedgerController extends BaseController {
 	    if (vModel.isAccountTopLevel(pRow)) {
 		enableOpenAccountLedger(false);
 	    }
+	    // disable changes in viewer mode
+	    if (JAccounting.getApplication().getModelsMngr().isReadOnly()) {
+		enableNewAccount(false);
+		enableEditAccount(false);
+		enableDeleteAccount(false);
+	    }
+	    // disable changes and account ledgers until the journal is loaded
+	    if (JAccounting.getApplication().getModelsMngr().isLoading()) {
+		enableNewAccount(false);
+		enableEditAccount(false);
+		enableDeleteAccount(false);
+		enableOpenAccountLedger(false);
+	    }
+	}
+    }
+
+    /**
+     * Handles the end of the loading of the application Data. This method
+     * enables the account actions allowed for the current selection of the
+     * general ledger interface, if it is open.
+     *
+     * @see		    jaccounting.ModelsMngr#finishLoad()
+     * @since		    1.0.0
+     */
+    public void loadFinished() {
+	GeneralLedgerView vView = getView();
+
+	if (vView != null && vView.getCurrentlySelectedRow() > 0) {
+	    accountSelected(vView.getCurrentlySelectedRow());
+	}
+	else {
+	    noAccountSelected();
 	}
     }
 
@@ -405,13 +438,17 @@ public class GeneralLedgerController extends BaseController {
     }
 
     private void enableAccountActions(boolean pVal) {
-	openNewAccountBoxEnabled = pVal;
-	support.firePropertyChange("openNewAccountBoxEnabled", !pVal, pVal);
+	enableNewAccount(pVal);
 	enableEditAccount(pVal);
 	enableOpenAccountLedger(pVal);
 	enableDeleteAccount(pVal);
     }
 
+    private void enableNewAccount(boolean pVal) {
+	openNewAccountBoxEnabled = pVal;
+	support.firePropertyChange("openNewAccountBoxEnabled", !pVal, pVal);
+    }
+
     private void enableEditAccount(boolean pVal) {
 	openEditAccountBoxEnabled = pVal;
 	support.firePropertyChange("openEditAccountBoxEnabled", !pVal, pVal);
@@ -21,27 +21,40 @@
 
 package jaccounting.controllers;
 
+import jaccounting.CsvTransactionReader;
 import jaccounting.JAccounting;
+import jaccounting.ModelsMngr;
 import jaccounting.ErrorCode;
+import jaccounting.UnPersistenceFailureException;
 import jaccounting.models.Account;
 import jaccounting.models.Journal;
+import jaccounting.models.NotTransactionnableAccountException;
 import jaccounting.models.Transaction;
 import jaccounting.views.JournalView;
 import jaccounting.views.ModifyTransactionBox;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JFileChooser;
 import javax.swing.JTabbedPane;
 import org.jdesktop.application.Action;
 import org.jdesktop.application.ResourceMap;
+import org.jdesktop.application.Task;
 
 /**
  * JournalController is the controller singleton class managing the journal
  * interface represented by a JournalView object. It provides actions to open the
  * journal interface, edit a transaction selected, add a new transaction under
- * the currently selected transaction and delete a transaction.
+ * the currently selected transaction, delete a transaction and import
+ * transactions from a csv file.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
@@ -100,6 +113,13 @@ public class JournalController extends BaseController {
 	return JAccounting.getApplication().getModelsMngr().getData().getJournal();
     }
 
+    private boolean isReadOnly() {
+	ModelsMngr vMngr = JAccounting.getApplication().getModelsMngr();
+
+	// the journal cannot be changed before it is fully loaded either
+	return vMngr.isReadOnly() || vMngr.isLoading();
+    }
+
     private JournalView getView() {
 	ResourceMap vRmap = JAccounting.getApplication().getContext()
 					.getResourceMap(JournalView.class);
@@ -157,9 +177,11 @@ public class JournalController extends BaseController {
 	    JAccounting.getApplication().getProgressReporter()
 			.reportUsingKey("messages.insertingJournalTab");
 	    vTabsCont.insertTab(vRmap.getString("title"), null,
-				new JournalView(this, vModel),
+				new JournalView(this, vModel, JAccounting.getApplication()
+						.getModelsMngr().getMappedSnapshot()),
 				vRmap.getString("titleTip"), 1);
 	    vTabsCont.setSelectedIndex(1);
+	    noTransactionSelected();
 	    JAccounting.getApplication().getProgressReporter().reportFinished();
 	}
 	else {
@@ -314,6 +336,29 @@ public class JournalController extends BaseController {
 	}
     }
 
+    /**
+     * Imports transactions from a csv file chosen by the user. This action runs
+     * a Task in a separate thread to read the file; the transactions are then
+     * added to the Journal model all at once.
+     *
+     * @return		    the Task object executing the job or null if no
+     *			    file was chosen
+     * @see		    jaccounting.CsvTransactionReader
+     * @see		    jaccounting.models.Journal#addTransactions(java.util.List)
+     * @since		    1.0.0
+     */
+    @Action(enabledProperty = "openNewTransactionBoxEnabled")
+    public Task importTransactions() {
+	JFileChooser vChooser = new JFileChooser();
+
+	if (vChooser.showOpenDialog(JAccounting.getApplication().getMainFrame())
+		!= JFileChooser.APPROVE_OPTION) {
+	    return null;
+	}
+
+	return new ImportTransactionsTask(vChooser.getSelectedFile());
+    }
+
     private void addTransaction(Transaction pTransaction) {
 	Journal vModel = getModel();
 	vModel.addTransaction(pTransaction);
@@ -321,13 +366,14 @@ public class JournalController extends BaseController {
 
     /**
      * Handles bubbling of a transaction selection event from the journal
-     * interface. This method enables all transaction related actions.
+     * interface. This method enables all transaction related actions unless the
+     * data was opened read-only.
      *
      * @param pRow	    the row of the selected transaction in the Journal model
      * @since		    1.0.0
      */
     public void transactionSelected(int pRow) {
-	enableTransactionActions(true);
+	enableTransactionActions(!isReadOnly());
     }
 
     /**
@@ -337,11 +383,56 @@ public class JournalController extends BaseController {
      * @since		    1.0.0
      */
     public void noTransactionSelected() {
-	enableTransactionActions(true);
+	enableTransactionActions(!isReadOnly());
 	enableDeleteTransaction(false);
 	enableEditTransaction(false);
     }
 
+    /**
+     * Handles the end of the loading of the application Data. This method
+     * enables the transaction actions allowed for the current selection of the
+     * journal interface, if it is open.
+     *
+     * @see		    jaccounting.ModelsMngr#finishLoad()
+     * @since		    1.0.0
+     */
+    public void loadFinished() {
+	JournalView vView = getView();
+
+	if (vView != null && vView.getCurrentlySelectedRow() != -1) {
+	    transactionSelected(vView.getCurrentlySelectedRow());
+	}
+	else {
+	    noTransactionSelected();
+	}
+    }
+
+    /**
+     * Specifies whether Transactions of earlier periods of the loaded file are
+     * left to load.
+     *
+     * @return		    true if earlier Transactions can be loaded; false
+     *			    otherwise
+     * @see		    jaccounting.ModelsMngr#hasUnloadedPeriods()
+     * @since		    1.0.0
+     */
+    public boolean hasEarlierPeriods() {
+	return JAccounting.getApplication().getModelsMngr().hasUnloadedPeriods();
+    }
+
+    /**
+     * Handles the user scrolling the journal interface back past its first
+     * Transaction. This method loads the latest period of Transactions not
+     * loaded yet.
+     *
+     * @return		    true if Transactions were loaded; false otherwise
+     * @see		    jaccounting.ModelsMngr#loadEarlierPeriod()
+     * @since		    1.0.0
+     */
+    public boolean loadEarlierPeriod() {
+	return JAccounting.getApplication().getModelsMngr().loadEarlierPeriod();
+    }
+
     /**
      * Gets a list of the full names of all accounts that allow transactions. This
      * is a convinience methods for view objects under the JournalController's control.
@@ -373,4 +464,98 @@ public class JournalController extends BaseController {
 	return GeneralLedgerController.getInstance().getFullNameAccount(pFullName);
     }
 
+
+    /**
+     * ImportTransactionsTask is the class for importing transactions from a
+     * csv file. An ImportTransactionsTask object resolves the Account full names
+     * against a map of the Accounts built when it is created, on the event
+     * dispatching thread, and reads the file in the background; once the whole
+     * file is read and valid, the transactions are added to the Journal in one
+     * batch on the event dispatching thread.
+     *
+     * @version		    1.0.0
+     * @see		    jaccounting.CsvTransactionReader
+     * @since		    1.0.0
+     */
+    protected class ImportTransactionsTask extends Task<List<Transaction>, Void> {
+
+	private File file;			// the csv file to import
+
+	private CsvTransactionReader reader;	// the reader of the file
+
+	ImportTransactionsTask(File pFile) {
+	    super(JAccounting.getApplication());
+	    file = pFile;
+	    reader = new CsvTransactionReader(JAccounting.getApplication().getModelsMngr()
+				.getData().getGeneralLedger().getTransactionnableAccountsByFullName());
+	}
+
+
+	/**
+	 * Does the work of reading the csv file.
+	 *
+	 * @return				    the transactions read
+	 * @throws IOException			    if an I/O occured
+	 * @throws UnPersistenceFailureException    if a record of the file is
+	 *					    not valid
+	 * @see					    jaccounting.CsvTransactionReader#read(java.io.Reader)
+	 * @since				    1.0.0
+	 */
+	protected List<Transaction> doInBackground() throws IOException, UnPersistenceFailureException {
+	    BufferedReader vIn = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), "UTF-8"));
+
+	    try {
+		JAccounting.getApplication().getProgressReporter()
+			    .reportUsingKey("messages.readingTransactions");
+		return reader.read(vIn);
+	    }
+	    finally {
+		vIn.close();
+		JAccounting.getApplication().getProgressReporter().reportFinished();
+	    }
+	}
+
+	/**
+	 * Performs after success operations of this task. This method adds the
+	 * transactions read to the Journal model.
+	 *
+	 * @param pTransactions	    the transactions read
+	 * @see			    jaccounting.models.Journal#addTransactions(java.util.List)
+	 * @since		    1.0.0
+	 */
+	@Override
+	protected void succeeded(List<Transaction> pTransactions) {
+	    JAccounting.getApplication().getProgressReporter()
+			.reportUsingKey("messages.importingTransactions");
+	    try {
+		if (!getModel().addTransactions(pTransactions)) {
+		    Logger.getLogger(JournalController.class.getName()).log(Level.SEVERE,
+			    "Failed to load the periods of the transactions imported from: "
+			    + file);
+		}
+	    }
+	    catch (NotTransactionnableAccountException ex) {
+		failed(ex);
+	    }
+	    finally {
+		JAccounting.getApplication().getProgressReporter().reportFinished();
+	    }
+	}
+
+	/**
+	 * Performs after failure operations of this task. This method simply
+	 * logs the cause of the failure.
+	 *
+	 * @param cause		    the cause of the failure
+	 * @since		    1.0.0
+	 */
+	@Override
+	protected void failed(Throwable cause) {
+	    Logger.getLogger(JournalController.class.getName()).log(Level.SEVERE,
+		    "Failed to import transactions from file: " + file, cause);
+	}
+
+    }
+
 }
@@ -21,15 +21,27 @@
 
 package jaccounting.controllers;
 
+import jaccounting.DataExporter;
 import jaccounting.JAccounting;
+import jaccounting.LoadListener;
 import jaccounting.ModelsMngr;
+import jaccounting.Storage;
 import jaccounting.UnPersistenceFailureException;
 import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JFileChooser;
 import org.jdesktop.application.Action;
 import org.jdesktop.application.ResourceMap;
 import org.jdesktop.application.Task;
@@ -40,9 +52,10 @@ import org.jdesktop.application.Task;
  * MainController is the singleton controller class responsible for general actions.
  * Its instance manages the main frame's components not managed by other controllers.
  * It provides actions to load the default file from the system or with a new
- * application Data, save the loaded file to disk, close the active tab of the
- * content's tabbed pane. It observes the application's currently loaded Data
- * for changes in order to disable/enable its save action.
+ * application Data, save the loaded file to disk, export the journal or the
+ * account ledgers, close the active tab of the content's tabbed pane. It observes the application's currently loaded Data
+ * for changes in order to disable/enable its save action and to have an
+ * {@link AutosaveScheduler} save the changes in the background.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
@@ -59,10 +72,28 @@ public class MainController extends BaseController implements Observer {
     /** flag to enable/disable the closeTab action */
     private boolean closeTabEnabled;
 
+    /** the scheduler of automatic saves */
+    private AutosaveScheduler autosaveScheduler;
+
+    /** number of changes made to the loaded Data */
+    private long changesCount;
+
+    /** extension of the files exported as JSON lines */
+    private static final String JSON_EXTENSION = ".json";
+
     
     private MainController() {
 	super();
+	ResourceMap vRmap = JAccounting.getApplication().getContext().getResourceMap(this.getClass());
+
 	enableMainActions(false);
+	changesCount = 0;
+	autosaveScheduler = new AutosaveScheduler(vRmap.getInteger("autosave.quietPeriod"),
+			    vRmap.getInteger("autosave.minInterval"), new ActionListener() {
+	    public void actionPerformed(ActionEvent e) {
+		autosave();
+	    }
+	});
     }
 
     private static class InstanceHolder {
@@ -109,14 +140,24 @@ public class MainController extends BaseController implements Observer {
 
     /**
      * Handles change notifications from the observed application Data object. This
-     * method enables the save action given that the loaded Data has changed.
+     * method enables the save action given that the loaded Data has changed and
+     * tells the AutosaveScheduler about the change.
      *
      * @param o		    the object observed; application Data object expected
      * @param arg	    additional information about changes to the observed
      */
     public void update(Observable o, Object arg) {
 	if (o instanceof Data) {
+	    changesCount++;
 	    enableSaveToFile(true);
+	    autosaveScheduler.dataChanged();
+	}
+    }
+
+    private void autosave() {
+	if (saveToFileEnabled) {
+	    JAccounting.getApplication().getContext().getTaskService()
+		.execute(new SaveToFileTask());
 	}
     }
 
@@ -177,6 +218,20 @@ public class MainController extends BaseController implements Observer {
         return new LoadFileTask(vRmap.getString("defaultFileName"));
     }
 
+    /**
+     * Opens a binary snapshot or segmented file read-only for browsing. This
+     * method runs a Task in a separate thread to do the job; editing and saving
+     * actions stay disabled afterward.
+     *
+     * @param pFilename	    the name of the snapshot or segmented file to view
+     * @see		    jaccounting.ModelsMngr#openReadOnly(java.lang.String)
+     * @since		    1.0.0
+     */
+    public void viewFile(String pFilename) {
+	JAccounting.getApplication().getContext().getTaskService()
+	    .execute(new LoadFileTask(pFilename, true));
+    }
+
     /**
      * Saves the application Data to the loaded file. This action runs
      * a Task in a separate thread to do the job.
@@ -189,6 +244,55 @@ public class MainController extends BaseController implements Observer {
         return new SaveToFileTask();
     }
 
+    /**
+     * Exports the Transactions of the journal to a file chosen by the user, as
+     * JSON lines if its name ends with ".json" and as comma separated values
+     * otherwise. This action runs a Task in a separate thread to do the job.
+     *
+     * @return		    the Task object executing the job or null if no
+     *			    file was chosen
+     * @see		    jaccounting.DataExporter#exportJournal(java.io.OutputStream)
+     * @since		    1.0.0
+     */
+    @Action
+    public Task exportJournal() {
+	return createExportTask(false);
+    }
+
+    /**
+     * Exports the entries of every account ledger to a file chosen by the
+     * user, as JSON lines if its name ends with ".json" and as comma separated
+     * values otherwise. This action runs a Task in a separate thread to do the
+     * job.
+     *
+     * @return		    the Task object executing the job or null if no
+     *			    file was chosen
+     * @see		    jaccounting.DataExporter#exportAccountLedgers(java.io.OutputStream)
+     * @since		    1.0.0
+     */
+    @Action
+    public Task exportAccountLedgers() {
+	return createExportTask(true);
+    }
+
+    private Task createExportTask(boolean pAccountLedgers) {
+	ModelsMngr vMngr = JAccounting.getApplication().getModelsMngr();
+	JFileChooser vChooser = new JFileChooser();
+	File vFile;
+
+	if (vMngr.getData() == null || vMngr.isLoading()) return null;
+	if (vChooser.showSaveDialog(JAccounting.getApplication().getMainFrame())
+		!= JFileChooser.APPROVE_OPTION) {
+	    return null;
+	}
+	// the earlier periods of a partitioned file are exported too
+	if (!vMngr.loadPeriodsFrom(null)) return null;
+
+	vFile = vChooser.getSelectedFile();
+	return new ExportTask(vFile, vFile.getName().toLowerCase().endsWith(JSON_EXTENSION)
+			? DataExporter.Format.JSON : DataExporter.Format.CSV, pAccountLedgers);
+    }
+
     /**
      * Closes the active tab of the content's tabbed pane. This methods delegates
      * the work to {@link jaccounting.MainView#closeCurrentTab()}.
@@ -221,20 +325,49 @@ public class MainController extends BaseController implements Observer {
      * LoadFileTask is the class for loading data file into the application.
      * A LoadFileTask object runs in the background to request loading of a
      * file from the ModelsMngr. If the file fails to be opened, a new fresh
-     * application Data object is loaded instead.
+     * application Data object is loaded instead, unless the file is opened
+     * read-only.
+     *
+     * The file is loaded progressively: as the LoadListener of the load, a
+     * LoadFileTask object has the general ledger and journal interfaces opened
+     * as soon as the GeneralLedger is read, then appends the Transactions to
+     * the Journal as they are read. Both happen on the event dispatching
+     * thread through {@link #process(java.util.List)}; the chunks of
+     * Transactions wait in a queue, which is drained once more when the task
+     * succeeds since that may happen before the last chunks are processed.
+     * Changes stay disabled until the load is finished.
      *
      * @version		    1.0.0
      * @see		    jaccounting.ModelsMngr
      * @since		    1.0.0
      */
-    protected class LoadFileTask extends Task<Void, Void> {
+    protected class LoadFileTask extends Task<Void, Void> implements LoadListener {
 
 	private String filename;    // name of the file to load
+
+	private boolean readOnly;   // whether to open the file in viewer mode
+
+	/** the Data handed out before the end of the load; null until then */
+	private volatile Data loadedData;
+
+	/** whether the interfaces show the loadedData; only used from the EDT */
+	private boolean loadedDataShown;
+
+	/** the chunks of Transactions waiting to be appended to the Journal */
+	private ConcurrentLinkedQueue<List<Transaction>> pendingTransactions;
 	
 
         LoadFileTask(String pFilename) {
+	    this(pFilename, false);
+	}
+
+	LoadFileTask(String pFilename, boolean pReadOnly) {
             super(JAccounting.getApplication());
 	    filename = pFilename;
+	    readOnly = pReadOnly;
+	    loadedData = null;
+	    loadedDataShown = false;
+	    pendingTransactions = new ConcurrentLinkedQueue<List<Transaction>>();
         }
 
 
@@ -244,16 +377,22 @@ public class MainController extends BaseController implements Observer {
 	 * @return				    Void
 	 * @throws IOException			    if an I/O occured
 	 * @throws UnPersistenceFailureException    if a parse of the file error occured
-	 * @see					    jaccounting.ModelsMngr#load(java.lang.String)
+	 * @see					    jaccounting.ModelsMngr#load(java.lang.String,
+	 *					    jaccounting.LoadListener)
 	 * @see					    jaccounting.ModelsMngr#loadNew(java.lang.String) 
+	 * @see					    jaccounting.ModelsMngr#openReadOnly(java.lang.String)
 	 * @since				    1.0.0
 	 */
         protected Void doInBackground() throws IOException, UnPersistenceFailureException {
 	    ModelsMngr vModel = JAccounting.getApplication().getModelsMngr();
+	    if (readOnly) {
+		vModel.openReadOnly(filename);
+		return null;
+	    }
 	    try {
 		JAccounting.getApplication().getProgressReporter()
 			    .reportUsingKey("messages.loadingFile");
-		vModel.load(filename);
+		vModel.load(filename, this);
 	    }
 	    catch (IOException vEx) {
 		JAccounting.getApplication().getProgressReporter()
@@ -267,21 +406,78 @@ public class MainController extends BaseController implements Observer {
             return null;
         }
 
+	public void generalLedgerLoaded(Data pData) {
+	    loadedData = pData;
+	    publish();
+	}
+
+	public void transactionsLoaded(List<Transaction> pTransactions) {
+	    pendingTransactions.add(pTransactions);
+	    publish();
+	}
+
+	public void journalLoaded(List<Transaction> pTransactions) {
+	}
+
 	/**
-	 * Performs after success operations of this task. This method rests the
-	 * main frame for the newly loaded Data and launches after load operations
-	 * such as opening the general ledger interface and the journal interface.
+	 * Shows the progress of the load. This method opens the interfaces on
+	 * the loaded Data the first time and appends the Transactions read since
+	 * the previous call to its Journal.
 	 *
-	 * @param pvoid		    Void
-	 * @see			    jaccounting.MainView#initForNewData()
+	 * @param pChunks	    unused
 	 * @since		    1.0.0
 	 */
 	@Override
-        protected void succeeded(Void pVoid) {
+	protected void process(List<Void> pChunks) {
+	    showLoadedData();
+	}
+
+	private void showLoadedData() {
+	    List<Transaction> vTransactions;
+
+	    if (!loadedDataShown) {
+		showNewData();
+		loadedDataShown = true;
+	    }
+	    while ((vTransactions = pendingTransactions.poll()) != null) {
+		loadedData.getJournal().appendLoadedTransactions(vTransactions);
+	    }
+	}
+
+	private void showNewData() {
+	    // forget about saving the previous data
+	    autosaveScheduler.cancel();
             // reset view
 	    JAccounting.getApplication().getMainView().initForNewData();
 	    // launch default ops after a load
 	    performAfterLoadOperations();
+	}
+
+	/**
+	 * Performs after success operations of this task. This method rests the
+	 * main frame for the newly loaded Data and launches after load operations
+	 * such as opening the general ledger interface and the journal interface,
+	 * unless the Data was already shown while loading, in which case it
+	 * finishes the load and enables changes.
+	 *
+	 * @param pvoid		    Void
+	 * @see			    jaccounting.MainView#initForNewData()
+	 * @see			    jaccounting.ModelsMngr#finishLoad()
+	 * @since		    1.0.0
+	 */
+	@Override
+	protected void succeeded(Void pVoid) {
+	    if (loadedData == null) {
+		showNewData();
+		return;
+	    }
+	    showLoadedData();
+	    JAccounting.getApplication().getModelsMngr().finishLoad();
+	    // replaying the mutation log is no change to save
+	    autosaveScheduler.cancel();
+	    enableSaveToFile(false);
+	    GeneralLedgerController.getInstance().loadFinished();
+	    JournalController.getInstance().loadFinished();
         }
 
 	/**
@@ -300,16 +496,33 @@ public class MainController extends BaseController implements Observer {
      /**
       * SaveToFileTask is the class for saving application Data to disk.
       * A SaveToFileTask object runs in the background to request saving of the
-      * Data to the loaded file from the ModelsMngr.
+      * Data to the loaded file from the ModelsMngr. The Data is serialized in
+      * a Storage Checkpoint when the task is created, on the event
+      * dispatching thread, so the task saves the Data as it was then even if
+      * it changes while the Checkpoint is written.
       *
       * @version	    1.0.0
-      * @see		    jaccounting.ModelsMngr
+      * @see		    jaccounting.ModelsMngr#createCheckpoint()
       * @since		    1.0.0
       */
     protected class SaveToFileTask extends Task<Void, Void> {
 
+	private Storage.Checkpoint checkpoint;   // the Data to save or null
+
+	private IOException error;		    // the error creating the checkpoint
+
+	private long savedChangesCount;		    // number of changes being saved
+
         SaveToFileTask() {
             super(JAccounting.getApplication());
+	    autosaveScheduler.saveStarted();
+	    savedChangesCount = changesCount;
+	    try {
+		checkpoint = ModelsMngr.getInstance().createCheckpoint();
+	    }
+	    catch (IOException ex) {
+		error = ex;
+	    }
         }
 
 
@@ -318,25 +531,37 @@ public class MainController extends BaseController implements Observer {
 	 *
 	 * @return				    Void
 	 * @throws IOException			    if an I/O occured
-	 * @see					    jaccounting.ModelsMngr#persit()
+	 * @see					    jaccounting.Storage.Checkpoint#write()
 	 * @since				    1.0.0
 	 */
         protected Void doInBackground() throws IOException {
-            ModelsMngr.getInstance().persit();
+	    if (error != null) throw error;
+	    if (checkpoint != null) checkpoint.write();
             return null;
         }
 
 	/**
-	 * Performs after success operations of this task. This method simply
-	 * disables the save action.
+	 * Performs after success operations of this task. This method commits
+	 * the saved Checkpoint and disables the save action unless the Data
+	 * changed in the meantime.
 	 *
 	 * @param pvoid		    Void
+	 * @see			    jaccounting.Storage.Checkpoint#commit()
 	 * @since		    1.0.0
 	 */
 	@Override
 	protected void succeeded(Void pVoid) {
+	    try {
+		if (checkpoint != null) checkpoint.commit();
+	    }
+	    catch (IOException ex) {
+		failed(ex);
+		return;
+	    }
 	    // disable saving
-	    enableSaveToFile(false);
+	    if (savedChangesCount == changesCount) {
+		enableSaveToFile(false);
+	    }
 	}
 
 	/**
@@ -351,6 +576,89 @@ public class MainController extends BaseController implements Observer {
             Logger.getLogger(MainController.class.getName()).log(Level.SEVERE, "Failed to save to loaded file", cause);
         }
 
+	/**
+	 * Performs the operations ending this task whatever its outcome. This
+	 * method tells the AutosaveScheduler the save is over.
+	 *
+	 * @since		    1.0.0
+	 */
+	@Override
+	protected void finished() {
+	    autosaveScheduler.saveFinished();
+	}
+
+    }
+
+    /**
+     * ExportTask is the class for exporting the journal or the account ledgers
+     * to a file. An ExportTask object creates a detached DataExporter when it
+     * is created, on the event dispatching thread, and writes the file in the
+     * background, so the data may change while it is exported.
+     *
+     * @version		    1.0.0
+     * @see		    jaccounting.DataExporter
+     * @since		    1.0.0
+     */
+    protected class ExportTask extends Task<Void, Void> {
+
+	private File file;		    // the file to export to
+
+	private DataExporter exporter;	    // the exporter of the data
+
+	private boolean accountLedgers;	    // whether to export the account ledgers
+
+	ExportTask(File pFile, DataExporter.Format pFormat, boolean pAccountLedgers) {
+	    super(JAccounting.getApplication());
+	    file = pFile;
+	    accountLedgers = pAccountLedgers;
+	    exporter = new DataExporter(JAccounting.getApplication().getModelsMngr().getData(),
+					pFormat, true);
+	}
+
+
+	/**
+	 * Does the work of exporting to the file.
+	 *
+	 * @return				    Void
+	 * @throws IOException			    if an I/O occured
+	 * @see					    jaccounting.DataExporter
+	 * @since				    1.0.0
+	 */
+	protected Void doInBackground() throws IOException {
+	    OutputStream vOut = new FileOutputStream(file);
+
+	    try {
+		if (accountLedgers) {
+		    JAccounting.getApplication().getProgressReporter()
+				.reportUsingKey("messages.exportingAccountLedgers");
+		    exporter.exportAccountLedgers(vOut);
+		}
+		else {
+		    JAccounting.getApplication().getProgressReporter()
+				.reportUsingKey("messages.exportingJournal");
+		    exporter.exportJournal(vOut);
+		}
+	    }
+	    finally {
+		vOut.close();
+		JAccounting.getApplication().getProgressReporter().reportFinished();
+	    }
+	    return null;
+	}
+
+	/**
+	 * Performs after failure operations of this task. This method simply
+	 * logs the cause of the failure.
+	 *
+	 * @param cause		    the cause of the failure
+	 * @since		    1.0.0
+	 */
+	@Override
+	protected void failed(Throwable cause) {
+	    Logger.getLogger(MainController.class.getName()).log(Level.SEVERE,
+		    "Failed to export to file: " + file, cause);
+	}
+
     }
 
 }
@@ -20,8 +20,11 @@
 
 package jaccounting.models;
 
+import jaccounting.ChangeTracker;
 import jaccounting.ErrorCode;
+import jaccounting.MutationLog;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -35,8 +38,8 @@ import java.util.logging.Logger;
  * object represents an accounting account with a name, description and balance
  * among main propeties. It also holds a list of TransactionEntry objects that
  * affected its balance ordered by transaction date. Its balance history is
- * therefore held within its TransationEntry objects and it only holds its latest
- * balance.
+ * therefore given by its TransationEntry objects, which compute it from the
+ * entries when read, and it only holds its latest balance.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
@@ -51,6 +54,50 @@ public abstract class Account extends BaseModel {
 	ASSET, LIABILITY, EXPENSE, REVENUE, EQUITY
     }
 
+    /**
+     * Movement is the class of the changes of an Account over a period: its
+     * balance before the period, the totals of its Debits and of its Credits
+     * dated within the period and its balance at the end of the period.
+     *
+     * @see		    Account#getMovement(java.util.Date, java.util.Date)
+     * @since		    1.0.0
+     */
+    public static final class Movement {
+
+	private final double openingBalance;
+
+	private final double debits;
+
+	private final double credits;
+
+	private final double closingBalance;
+
+	Movement(double pOpeningBalance, double pDebits, double pCredits,
+		 double pClosingBalance) {
+	    openingBalance = pOpeningBalance;
+	    debits = pDebits;
+	    credits = pCredits;
+	    closingBalance = pClosingBalance;
+	}
+
+	public double getOpeningBalance() {
+	    return openingBalance;
+	}
+
+	public double getDebits() {
+	    return debits;
+	}
+
+	public double getCredits() {
+	    return credits;
+	}
+
+	public double getClosingBalance() {
+	    return closingBalance;
+	}
+
+    }
+
     protected int number;			// account's business code
 
     protected String name;			// name of account
@@ -69,10 +116,19 @@ public abstract class Account extends BaseModel {
 
     /**
      * TransactionEntry objects that affected this account's balance; ordered by
-     * Transaction date
+     * Transaction date and held in a PostingList once set
      */
     protected List<TransactionEntry> entries;
 
+    /**
+     * balance of account before its first TransactionEntry; not {@code 0.0}
+     * when the entries of earlier periods are not loaded
+     */
+    protected double openingBalance;
+
+    /** entries loaded for this account and not set yet; see prepareLoadedEntries */
+    private PostingList loadedEntries;
+
 
     /**
      * Default no argument constructor. Initializes number to {@code -1}, name and
@@ -145,6 +201,10 @@ public abstract class Account extends BaseModel {
 	return entries;
     }
 
+    public double getOpeningBalance() {
+	return openingBalance;
+    }
+
     public String getName() {
 	return name;
     }
@@ -247,6 +307,8 @@ public abstract class Account extends BaseModel {
      * sort of batch setter that can be used when initializing and updating an
      * Account. If {@code allowTransactions} is {@code false} and {@code entries}
      * is a non empty list, it resets {@code entries} to an empty list.
+     * The entries are copied into a {@link PostingList}, so a loader adds
+     * the entries it reads through {@link #getEntries()}.
      *
      * @param number			    the account number
      * @param name			    the account name
@@ -273,7 +335,7 @@ public abstract class Account extends BaseModel {
 	this.balance = balance;
 	this.type = type;
 	this.transactionsEnabled = allowTransactions;
-	this.entries = entries;
+	this.entries = (entries != null) ? new PostingList(this, entries) : null;
     }
 
     /**
@@ -332,6 +394,10 @@ public abstract class Account extends BaseModel {
 
 	if (rErrors.isEmpty()) {
 	    set(number, name, description);
+	    MutationLog vLog = getMutationLog();
+	    if (vLog != null) vLog.accountUpdated(this);
+	    ChangeTracker vTracker = getChangeTracker();
+	    if (vTracker != null) vTracker.accountsChanged();
 	    setChangedAndNotifyObservers();
 	}
 
@@ -369,98 +435,196 @@ public abstract class Account extends BaseModel {
      * affected this Account's balance. This methods finds the proper position
      * where to insert the new entry since the entries have to be ordered by date;
      * it then adds the entry to the list, re-calculates this Account's balance
-     * starting at the newly added entry and notifies the change observers.
+     * and notifies the change observers. The balances held by the later entries
+     * are computed when read, so none of them is touched. While a posting
+     * session is open, the balance and the observers wait for its commit.
      *
      * @param pEntry				    the TransactionEntry to add
      * @throws NotTransactionnableAccountException  if transactions are not allowed
      *						    for this Account
      * @see					    #getIndexOfFirstEntryLaterThan
      *						    (jaccounting.models.TransactionEntry)
-     * @see					    #applyLaterEntriesToBalanceStartingAt(int)
      * @see					    BaseModel#setChangedAndNotifyObservers()
      * @since					    1.0.0
      */
     public void addEntry(TransactionEntry pEntry) throws NotTransactionnableAccountException {
 	if (!transactionsEnabled) throw new NotTransactionnableAccountException();
-	// get the index of the first entry whose date is bigger than this entry's
-	int vIndex = getIndexOfFirstEntryLaterThan(pEntry);
-	// insert at that index
-	if (vIndex != -1) {
-	    entries.add(vIndex, pEntry);
-	} 
-	// or add at the end
-	else {
-	    entries.add(pEntry);
-	    vIndex = 0;
+	insertEntry(pEntry);
+	if (!deferPosting(this)) rebalance();
+	setChangedAndNotifyObservers();
+    }
+
+    /**
+     * Adds a batch of TransactionEntry objects to the list of TransactionEntry
+     * objects that affected this Account's balance. This method inserts the new
+     * entries, ordered by date, into the list the way {@link
+     * #addEntry(jaccounting.models.TransactionEntry)} would one after the
+     * other, then re-calculates this Account's balance once and notifies the
+     * change observers once.
+     *
+     * @param pEntries				    the TransactionEntry objects to
+     *						    add, ordered by date
+     * @throws NotTransactionnableAccountException  if transactions are not allowed
+     *						    for this Account
+     * @see					    BaseModel#setChangedAndNotifyObservers()
+     * @since					    1.0.0
+     */
+    public void addEntries(List<TransactionEntry> pEntries) throws NotTransactionnableAccountException {
+	if (!transactionsEnabled) throw new NotTransactionnableAccountException();
+	if (pEntries.isEmpty()) return;
+
+	for (TransactionEntry vEntry : pEntries) {
+	    insertEntry(vEntry);
 	}
-	// re-calculate balance
-	applyLaterEntriesToBalanceStartingAt(vIndex);
+	if (!deferPosting(this)) rebalance();
 	setChangedAndNotifyObservers();
     }
 
+    private void insertEntry(TransactionEntry pEntry) {
+	PostingList vPostings = getPostings();
+	// get the index of the first entry whose date is bigger than this entry's
+	int vIndex = getIndexOfFirstEntryLaterThan(pEntry);
+
+	// insert at that index or add at the end
+	vPostings.add((vIndex != -1) ? vIndex : vPostings.size(), pEntry);
+    }
+
     /**
-     * Re-calculates this Account's balance by applying the effects of TransactionEntry
-     * objects starting at a given index. This method iterates through the necessary
-     * TransactionEntry objects and applies them individually to this Account's
-     * balance.
+     * Gets this Account's balance as of a date, i.e. after all the entries
+     * dated on or before it. The entries up to the date are found by halves
+     * and their total is read from the running totals of the PostingList, so
+     * this method takes O(log n). Dates earlier than the loaded periods give
+     * the opening balance.
      *
-     * @param pIndex		    the index of TransactionEntry objects list to
-     *				    start at
-     * @see			    #applyEntryToBalance(jaccounting.models.TransactionEntry)
+     * @param pDate		    the date
+     * @return			    the balance as of that date
+     * @see			    GeneralLedger#getBalancesAsOf(java.util.Date)
      * @since			    1.0.0
      */
-    protected void applyLaterEntriesToBalanceStartingAt(int pIndex) {	
-	ListIterator vIt;
-
-	/**
-	 * Bearing in mind that the history of this Account balance changes is
-	 * held in its TransactionEntry objects, we generally reset the balance
-	 * to the balance at one index before our starting index pIndex; when
-	 * the starting index is 0, we simply reset the balance to 0.0. Then we
-	 * cycly through forward and apply each TransactionEntry to our balance.
-	 */
-
-	if (pIndex > 0) {
-	    vIt = entries.listIterator(pIndex-1);
-	    balance = ((TransactionEntry) vIt.next()).getAccountBalance();
-	}
-	else {
-	    vIt = entries.listIterator(pIndex);
-	    balance = 0.0;
-	}
+    public double getBalanceAsOf(Date pDate) {
+	PostingList vPostings = getPostings();
 
-	while (vIt.hasNext()) {
-	    applyEntryToBalance((TransactionEntry) vIt.next());
-	}
+	return openingBalance + vPostings.getTotal(vPostings.countUpTo(pDate, true));
     }
 
     /**
-     * Applies a TransactionEntry to this Account's balance. This method adds or
-     * substracts the TransactionEntry's Transaction amount to/off this Account's
-     * balance depending on the account type and whether the TransactionEntry is
-     * a Debit or a Credit, then stores the balance into the TransactionEntry
-     * object for history.
+     * Gets the movement of this Account over a period: its balance before the
+     * period, the totals of the Debits and Credits dated from the first date
+     * to the last one, both included, and its balance as of the last date.
+     * Like {@link #getBalanceAsOf(java.util.Date)}, this method takes O(log n).
      *
-     * @param pEntry		    the TransactionEntry to apply to the balance
-     * @see			    #applyDebit(double)
-     * @see			    #applyCredit(double)
+     * @param pFrom		    the first date of the period
+     * @param pTo		    the last date of the period
+     * @return			    the movement over the period
+     * @see			    GeneralLedger#getMovements(java.util.Date, java.util.Date)
      * @since			    1.0.0
      */
-    protected void applyEntryToBalance(TransactionEntry pEntry) {
-	double vAmount = pEntry.getTransaction().getAmount();
+    public Movement getMovement(Date pFrom, Date pTo) {
+	PostingList vPostings = getPostings();
+	int vFirst = vPostings.countUpTo(pFrom, false);
+	int vEnd = Math.max(vFirst, vPostings.countUpTo(pTo, true));
+
+	return new Movement(openingBalance + vPostings.getTotal(vFirst),
+		vPostings.getTotal(vEnd, TransactionEntry.Type.DEBIT)
+		- vPostings.getTotal(vFirst, TransactionEntry.Type.DEBIT),
+		vPostings.getTotal(vEnd, TransactionEntry.Type.CREDIT)
+		- vPostings.getTotal(vFirst, TransactionEntry.Type.CREDIT),
+		openingBalance + vPostings.getTotal(vEnd));
+    }
 
-	switch (pEntry.getType()) {
-	    case DEBIT:
-		applyDebit(vAmount);
-		break;
-	    case CREDIT:
-		applyCredit(vAmount);
-		break;
+    /**
+     * Re-calculates this Account's balance and the balances given by its
+     * TransactionEntry objects from its opening balance. The balances are not
+     * stored with the data, so this method is meant for entries just loaded;
+     * it neither marks the application Data as changed nor notifies the change
+     * observers, so that it can be run off the thread the data is changed from.
+     *
+     * @see			    GeneralLedger#notifyAccountsOfLoad()
+     * @since			    1.0.0
+     */
+    public void recalculateBalance() {
+	PostingList vPostings = getPostings();
+
+	vPostings.invalidate();
+	balance = openingBalance + vPostings.getTotal();
+    }
+
+    /**
+     * Prepares the TransactionEntry objects just loaded for this Account. This
+     * method builds their list and calculates the balances they give without
+     * changing this Account, so that it can be run off the thread the data is
+     * changed from while the Account is shown; {@link #setLoadedEntries()}
+     * then sets them from that thread.
+     *
+     * @param pEntries		    the TransactionEntry objects loaded, in order
+     * @see			    GeneralLedger#setLoadedEntries()
+     * @since			    1.0.0
+     */
+    public void prepareLoadedEntries(List<TransactionEntry> pEntries) {
+	PostingList vPostings = new PostingList(this, pEntries);
+
+	vPostings.getTotal();
+	loadedEntries = vPostings;
+    }
+
+    /**
+     * Sets the TransactionEntry objects prepared by {@link
+     * #prepareLoadedEntries(java.util.List)} as this Account's entries, with
+     * the balance they give. Like {@link #recalculateBalance()}, this method
+     * neither marks the application Data as changed nor notifies the change
+     * observers.
+     *
+     * @see			    GeneralLedger#setLoadedEntries()
+     * @since			    1.0.0
+     */
+    public void setLoadedEntries() {
+	if (loadedEntries == null) return;
+	entries = loadedEntries;
+	loadedEntries = null;
+	rebalance();
+    }
+
+    /**
+     * Re-calculates this Account's balance after its entries changed. Only the
+     * running totals of the entries changed since are re-calculated, from the
+     * earliest of them; a posting session puts this off until it is committed.
+     *
+     * @see			    Data#commitPostingSession()
+     * @since			    1.0.0
+     */
+    void rebalance() {
+	balance = openingBalance + getPostings().getTotal();
+    }
+
+    /**
+     * Gets the list of this Account's TransactionEntry objects as a {@link
+     * PostingList}. A list set otherwise, as by a sub-class, is copied into a
+     * PostingList the first time.
+     *
+     * @return			    the PostingList of the entries
+     * @since			    1.0.0
+     */
+    private PostingList getPostings() {
+	if (!(entries instanceof PostingList) || ((PostingList) entries).getAccount() != this) {
+	    entries = new PostingList(this, (entries != null) ? entries
+						: new ArrayList<TransactionEntry>());
 	}
 
-	pEntry.setAccountBalance(balance);
+	return (PostingList) entries;
     }
 
+    /**
+     * Gets the effect of a Debit of {@code 1.0} on this Account's balance, so
+     * that the balances can be computed as sums of signed amounts. A Credit
+     * has the opposite effect. This method must agree with {@link
+     * #applyDebit(double)}.
+     *
+     * @return			    {@code 1.0} if Debits increase the balance;
+     *				    {@code -1.0} if they decrease it
+     * @since			    1.0.0
+     */
+    protected abstract double getDebitSign();
+
     /**
      * Applies a Debit amount to this Account's balance. This method increases
      * or decreases the balance by the Debit amount based on the Account type.
@@ -482,54 +646,99 @@ public abstract class Account extends BaseModel {
     /**
      * Removes a TransctionEntry from this Account's TransctionEntry objects list.
      * This method re-calculates this Account's balance after removing the entry
-     * and notifies its change observers.
+     * and notifies its change observers, or leaves both to the commit of the
+     * posting session open.
      *
      * @param pEntry				    the TransactionEntry to remove
      * @throws NotTransactionnableAccountException  if this Account does not allow
      *						    transactions
-     * @see					    #applyLaterEntriesToBalanceStartingAt(int)
      * @see					    BaseModel#setChangedAndNotifyObservers()
      * @since					    1.0.0
      */
     public void removeEntry(TransactionEntry pEntry) throws NotTransactionnableAccountException {
 	if (!transactionsEnabled) throw new NotTransactionnableAccountException();
 
-	int vIndex = entries.indexOf(pEntry);
+	PostingList vPostings = getPostings();
+
+	if (vPostings.remove(pEntry)) {
+	    if (!deferPosting(this)) rebalance();
+	    setChangedAndNotifyObservers();
+	}
+    }
+
+    /**
+     * Removes a batch of TransactionEntry objects from this Account's
+     * TransactionEntry objects list. The entries are dropped in a single pass
+     * over the list, then this Account's balance is re-calculated once and the
+     * change observers are notified once.
+     *
+     * @param pEntries				    the TransactionEntry objects to
+     *						    remove, best held in a set
+     * @throws NotTransactionnableAccountException  if this Account does not allow
+     *						    transactions
+     * @see					    BaseModel#setChangedAndNotifyObservers()
+     * @since					    1.0.0
+     */
+    public void removeEntries(Collection<TransactionEntry> pEntries)
+	    throws NotTransactionnableAccountException {
+	if (!transactionsEnabled) throw new NotTransactionnableAccountException();
 
-	if (entries.remove(pEntry)) {
-	    if (vIndex > 0) vIndex--;
+	PostingList vPostings = getPostings();
 
-	    applyLaterEntriesToBalanceStartingAt(vIndex);
+	if (vPostings.removeAll(pEntries)) {
+	    if (!deferPosting(this)) rebalance();
 	    setChangedAndNotifyObservers();
 	}
     }
 
+    /**
+     * Puts the TransactionEntry objects of an earlier period being loaded before
+     * this Account's TransactionEntry objects. This method notifies the change
+     * observers but, as the entries are not changes to the data, neither marks
+     * the application Data as changed nor records them to the mutation log.
+     * The balance is left as is since the entries already weighed on it.
+     *
+     * @param pEntries		    the TransactionEntry objects loaded, in order
+     * @param pOpeningBalance	    the balance of this Account before those
+     *				    entries
+     * @see			    jaccounting.Storage#loadEarlier(jaccounting.models.Data)
+     * @since			    1.0.0
+     */
+    public void prependLoadedEntries(List<TransactionEntry> pEntries, double pOpeningBalance) {
+	getPostings().addAll(0, pEntries);
+	openingBalance = pOpeningBalance;
+	notifyObserversOfLoad(null);
+    }
+
     /**
      * Gets the index of the first TransactionEntry whose Transaction date is
-     * after the given date.
+     * after the given date. The entries being ordered by date, this method
+     * searches them by halves.
      *
      * @param pDate		the date
      * @return			the index or -1
      * @since			1.0.0
      */
     protected int getIndexOfFirstEntryLaterThan(Date pDate) {
-	int rIndex = -1;
-	int vCurrIndex = -1;
-	boolean vFound = false;
-	TransactionEntry vEntry;
-	ListIterator vIt = entries.listIterator();
+	int vLow = 0;
+	int vHigh = entries.size();
 
-	// loop through and compare dates
-	while (!vFound && vIt.hasNext()) {
-	    vCurrIndex++;
-	    vEntry = (TransactionEntry)vIt.next();
-	    if (vEntry.getTransaction().getDate().after(pDate)) {
-		rIndex = vCurrIndex;
-		vFound = true;
+	/** entries mostly come in date order, so we try after the last one first */
+	if (vHigh == 0 || !entries.get(vHigh - 1).getTransaction().getDate().after(pDate)) {
+	    return -1;
+	}
+	while (vLow < vHigh) {
+	    int vMiddle = (vLow + vHigh) >>> 1;
+
+	    if (entries.get(vMiddle).getTransaction().getDate().after(pDate)) {
+		vHigh = vMiddle;
+	    }
+	    else {
+		vLow = vMiddle + 1;
 	    }
 	}
 
-	return rIndex;
+	return (vLow < entries.size()) ? vLow : -1;
     }
 
     /**
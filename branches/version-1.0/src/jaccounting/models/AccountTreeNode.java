@@ -21,8 +21,11 @@
 package jaccounting.models;
 
 import jaccounting.JAccounting;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.tree.DefaultMutableTreeNode;
 
 /***
@@ -106,6 +109,23 @@ public class AccountTreeNode extends DefaultMutableTreeNode {
 	}
     }
 
+    void buildFullNamesMap(Map<String, Account> pMap, String pPrefix,
+			   boolean pExcludeNonTransactionnable) {
+	Account vAcct = ((Account) getUserObject());
+	String vFullName = pPrefix + vAcct.getName();
+	Enumeration vChildren = children();
+
+	/** the same traversal as buildFullNames, keeping the Accounts */
+
+	if (!pExcludeNonTransactionnable || vAcct.isTransactionsEnabled()) {
+	    pMap.put(vFullName, vAcct);
+	}
+	while (vChildren.hasMoreElements()) {
+	    ((AccountTreeNode) vChildren.nextElement()).buildFullNamesMap(pMap,
+		    vFullName+".", pExcludeNonTransactionnable);
+	}
+    }
+
     String getFullName() {
 	String rFullName= "";
 
@@ -197,13 +217,32 @@ public class AccountTreeNode extends DefaultMutableTreeNode {
 	return (getChildAccountWithName(pName) == null);
     }
 
+    /**
+     * Removes this AccountTreeNode from its parent along with its descendants.
+     * The Transactions of all the Accounts of the sub-tree are gathered first,
+     * each once even if it moves money between two of those Accounts, and
+     * removed from the Journal in one call.
+     *
+     * @throws NotTransactionnableAccountException  if an Account does not allow
+     *						    transactions
+     * @see					    Journal#removeTransactions(java.util.List)
+     * @since					    1.0.0
+     */
     void remove() throws NotTransactionnableAccountException {
-	List<Transaction> vTransactions = ((Account)getUserObject())
-					    .getAccountTransactions();
-	Enumeration vChildren = children();
-
-	while (vChildren.hasMoreElements()) {
-	    ((AccountTreeNode) vChildren.nextElement()).remove();
+	List<Transaction> vTransactions = new ArrayList<Transaction>();
+	Map<Transaction, Boolean> vGathered = new IdentityHashMap<Transaction, Boolean>();
+	Enumeration vNodes = preorderEnumeration();
+
+	while (vNodes.hasMoreElements()) {
+	    List<TransactionEntry> vEntries = ((Account) ((AccountTreeNode) vNodes.nextElement())
+						.getUserObject()).getEntries();
+
+	    if (vEntries == null) continue;
+	    for (TransactionEntry vEntry : vEntries) {
+		if (vGathered.put(vEntry.getTransaction(), Boolean.TRUE) == null) {
+		    vTransactions.add(vEntry.getTransaction());
+		}
+	    }
 	}
 	removeFromParent();
 	if (vTransactions.size() > 0) {
@@ -20,14 +20,19 @@
 
 package jaccounting.models;
 
+import jaccounting.ChangeTracker;
 import jaccounting.JAccounting;
+import jaccounting.MutationLog;
+import java.util.Date;
 import java.util.Observable;
 
 /**
  * BaseModel is the base class for all models except the Data model of the application.
  * It provides abstraction for observability support. A BaseModel  marks the Data
  * object of the application as changed when it changes before notifying its
- * observers.
+ * observers. Models whose changes must be recorded report them to the
+ * {@link MutationLog} of the loaded file, if any, and tell its {@link
+ * ChangeTracker}, if any, what they changed.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
@@ -49,14 +54,158 @@ public class BaseModel extends Observable {
     }
 
     /**
-     * Sets this model as changed and notifies its observers.
+     * Sets this model as changed and notifies its observers. While a posting
+     * session is open, this method only records the change so that the
+     * observers are notified once when the session is committed.
      *
      * @see		    #setChanged()
+     * @see		    Data#commitPostingSession()
      * @since		    1.0.0
      */
     protected void setChangedAndNotifyObservers() {
+	Data vData = JAccounting.getApplication().getModelsMngr().getData();
+
+	if (vData != null && vData.isPostingSessionOpen()) {
+	    vData.modelChanged(this);
+	    return;
+	}
 	setChanged();
 	notifyObservers();
     }
 
+    /**
+     * Notifies this model's observers of a change put off by a posting session
+     * being committed. The application Data is notified by the session.
+     *
+     * @see		    Data#commitPostingSession()
+     * @since		    1.0.0
+     */
+    void notifyObserversOfChange() {
+	super.setChanged();
+	notifyObservers();
+    }
+
+    /**
+     * Notifies this model's observers of contents being loaded into it. Unlike
+     * {@link #setChangedAndNotifyObservers()}, this method does not mark the
+     * application Data as changed.
+     *
+     * @param pArg	    the contents loaded, handed to the observers
+     * @since		    1.0.0
+     */
+    protected void notifyObserversOfLoad(Object pArg) {
+	super.setChanged();
+	notifyObservers(pArg);
+    }
+
+    /**
+     * Opens a posting session on the application Data around a bulk change.
+     *
+     * @see		    Data#openPostingSession()
+     * @since		    1.0.0
+     */
+    protected void openPostingSession() {
+	Data vData = JAccounting.getApplication().getModelsMngr().getData();
+
+	if (vData != null) vData.openPostingSession();
+    }
+
+    /**
+     * Commits the posting session opened by {@link #openPostingSession()}.
+     *
+     * @see		    Data#commitPostingSession()
+     * @since		    1.0.0
+     */
+    protected void commitPostingSession() {
+	Data vData = JAccounting.getApplication().getModelsMngr().getData();
+
+	if (vData != null) vData.commitPostingSession();
+    }
+
+    /**
+     * Records an Account whose entries changed to the posting session open on
+     * the application Data, if any.
+     *
+     * @param pAcct	    the Account
+     * @return		    true if a posting session is open, so the balance is
+     *			    to be re-calculated when it is committed; false
+     *			    otherwise
+     * @see		    Data#commitPostingSession()
+     * @since		    1.0.0
+     */
+    protected boolean deferPosting(Account pAcct) {
+	Data vData = JAccounting.getApplication().getModelsMngr().getData();
+
+	if (vData == null || !vData.isPostingSessionOpen()) return false;
+	vData.accountPosted(pAcct);
+
+	return true;
+    }
+
+    /**
+     * Gets the log the changes to the application Data are recorded to.
+     *
+     * @return		    the MutationLog of the loaded file or null if changes
+     *			    are not being recorded
+     * @see		    jaccounting.ModelsMngr#getMutationLog()
+     * @since		    1.0.0
+     */
+    protected MutationLog getMutationLog() {
+	return JAccounting.getApplication().getModelsMngr().getMutationLog();
+    }
+
+    /**
+     * Gets the tracker told which parts of the application Data changed.
+     *
+     * @return		    the ChangeTracker of the loaded file or null if its
+     *			    Storage does not track changes
+     * @see		    jaccounting.ModelsMngr#getChangeTracker()
+     * @since		    1.0.0
+     */
+    protected ChangeTracker getChangeTracker() {
+	return JAccounting.getApplication().getModelsMngr().getChangeTracker();
+    }
+
+    /**
+     * Gets the Journal of the application Data.
+     *
+     * @return		    the Journal of the loaded Data or null if no Data is
+     *			    loaded
+     * @see		    Data#getJournal()
+     * @since		    1.0.0
+     */
+    protected Journal getJournal() {
+	Data vData = JAccounting.getApplication().getModelsMngr().getData();
+
+	return (vData == null) ? null : vData.getJournal();
+    }
+
+    /**
+     * Makes sure the Transactions from a date on are loaded before changing
+     * them, as changes weigh on the balances of all later entries.
+     *
+     * @param pDate	    the earliest date changed or null for all dates
+     * @return		    true if those Transactions are loaded; false if
+     *			    loading them failed
+     * @see		    jaccounting.ModelsMngr#loadPeriodsFrom(java.util.Date)
+     * @since		    1.0.0
+     */
+    protected boolean loadPeriodsFrom(Date pDate) {
+	return JAccounting.getApplication().getModelsMngr().loadPeriodsFrom(pDate);
+    }
+
+    /**
+     * Makes sure the entries of an Account are loaded before reading them, as
+     * a file opened in viewer mode loads them only when asked.
+     *
+     * @param pAcct	    the Account
+     * @return		    true if its entries are loaded; false if loading
+     *			    them failed
+     * @see		    jaccounting.ModelsMngr#loadAccountEntries(jaccounting.models.Account)
+     * @since		    1.0.0
+     */
+    protected boolean loadAccountEntries(Account pAcct) {
+	return JAccounting.getApplication().getModelsMngr().loadAccountEntries(pAcct);
+    }
+
 }
@@ -20,12 +20,20 @@
 
 package jaccounting.models;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 
 /**
  * Data is the main application data class. A Data object represents a typical
  * accounting data collection with a list of accounts in a general ledger and
  * a list of transactions in a journal.
+ * Bulk changes are made within a posting session: while one is open, the
+ * models put off re-calculating the Account balances and notifying their
+ * observers until it is committed.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
@@ -35,10 +43,47 @@ import java.util.Observable;
  */
 public class Data extends Observable {
 
+    /**
+     * PostingChanges is the class of the changes made during a posting
+     * session: the Accounts whose entries were added or removed. It is handed
+     * to the observers of the Data when the session is committed.
+     *
+     * @see		    Data#commitPostingSession()
+     * @since		    1.0.0
+     */
+    public static final class PostingChanges {
+
+	private final List<Account> accounts;
+
+	PostingChanges(List<Account> pAccounts) {
+	    accounts = Collections.unmodifiableList(pAccounts);
+	}
+
+	public List<Account> getAccounts() {
+	    return accounts;
+	}
+
+    }
+
     protected Journal journal;		    // the list of transactions
 
     protected GeneralLedger generalLedger;  // the list of accounts
 
+    private int postingSessionDepth;	    // how many posting sessions are open
+
+    /** the models changed during the posting session, in order of change */
+    private List<BaseModel> changedModels = new ArrayList<BaseModel>();
+
+    /** the Accounts whose entries changed during the posting session */
+    private List<Account> postedAccounts = new ArrayList<Account>();
+
+    /** the models and Accounts above, to record each once */
+    private Map<BaseModel, Boolean> changedSet = new IdentityHashMap<BaseModel, Boolean>();
+
+    private Map<Account, Boolean> postedSet = new IdentityHashMap<Account, Boolean>();
+
+    private boolean changedInSession;	    // whether the Data changed in the session
+
     /**
      * Default No agrument constructor; initializes this Data object to a new
      * Journal and a new GeneralLedger by calling the full argument constructor.
@@ -74,7 +119,85 @@ public class Data extends Observable {
         return journal;
     }
 
+    /**
+     * Opens a posting session. Sessions nest: only the outermost one takes
+     * effect, when it is committed.
+     *
+     * @see		    #commitPostingSession()
+     * @since		    1.0.0
+     */
+    public void openPostingSession() {
+	postingSessionDepth++;
+    }
+
+    /**
+     * Commits a posting session. When the outermost session is committed, this
+     * method re-calculates the balance of each Account whose entries changed
+     * once, notifies the observers of each model changed once, then notifies
+     * the observers of this Data once with the {@link PostingChanges} made.
+     *
+     * @see		    #openPostingSession()
+     * @see		    Account#rebalance()
+     * @since		    1.0.0
+     */
+    public void commitPostingSession() {
+	if (postingSessionDepth == 0 || --postingSessionDepth > 0) return;
+
+	List<BaseModel> vModels = changedModels;
+	List<Account> vAccounts = postedAccounts;
+	boolean vChanged = changedInSession;
+
+	/** the observers may change the Data again, outside of the session */
+	changedModels = new ArrayList<BaseModel>();
+	postedAccounts = new ArrayList<Account>();
+	changedSet = new IdentityHashMap<BaseModel, Boolean>();
+	postedSet = new IdentityHashMap<Account, Boolean>();
+	changedInSession = false;
+
+	for (Account vAcct : vAccounts) {
+	    vAcct.rebalance();
+	}
+	for (BaseModel vModel : vModels) {
+	    vModel.notifyObserversOfChange();
+	}
+	if (vChanged) {
+	    setChanged();
+	    notifyObservers(new PostingChanges(vAccounts));
+	}
+    }
+
+    boolean isPostingSessionOpen() {
+	return (postingSessionDepth > 0);
+    }
+
+    /**
+     * Records a model changed during the posting session, to notify its
+     * observers when the session is committed.
+     *
+     * @param pModel	    the model changed
+     * @since		    1.0.0
+     */
+    void modelChanged(BaseModel pModel) {
+	if (changedSet.put(pModel, Boolean.TRUE) == null) changedModels.add(pModel);
+	changedInSession = true;
+    }
+
+    /**
+     * Records an Account whose entries changed during the posting session, to
+     * re-calculate its balance when the session is committed.
+     *
+     * @param pAcct	    the Account
+     * @since		    1.0.0
+     */
+    void accountPosted(Account pAcct) {
+	if (postedSet.put(pAcct, Boolean.TRUE) == null) postedAccounts.add(pAcct);
+    }
+
     void setDataChanged() {
+	if (isPostingSessionOpen()) {
+	    changedInSession = true;
+	    return;
+	}
 	setChanged();
 	notifyObservers();
     }
@@ -88,6 +88,17 @@ public class ExpenseAccount extends Account {
 	type = Type.EXPENSE;
     }
 
+    /**
+     * Gets the effect of a Debit of {@code 1.0} on this Account's balance.
+     * Debits increase the balance.
+     *
+     * @return			    {@code 1.0}
+     * @since			    1.0.0
+     */
+    protected double getDebitSign() {
+	return 1.0;
+    }
+
     /**
      * Applies a Debit amount to this Account's balance. This method increases
      * the balance by the Debit amount.
@@ -20,10 +20,15 @@
 
 package jaccounting.models;
 
+import jaccounting.ChangeTracker;
 import jaccounting.JAccounting;
+import jaccounting.MutationLog;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.tree.DefaultMutableTreeNode;
 import org.jdesktop.application.ResourceMap;
 
@@ -240,6 +245,10 @@ public class GeneralLedger extends BaseModel {
 		&& vAcctNode.canHaveChildren()
 		&& vAcctNode.isAccountNameUniqueAmongChildren(pAcct.getName())) {
 	    vAcctNode.add(new AccountTreeNode(pAcct));
+	    MutationLog vLog = getMutationLog();
+	    if (vLog != null) vLog.accountInserted(pRow, pAcct);
+	    ChangeTracker vTracker = getChangeTracker();
+	    if (vTracker != null) vTracker.accountsChanged();
 	    setChangedAndNotifyObservers();
 
 	    return true;
@@ -251,7 +260,8 @@ public class GeneralLedger extends BaseModel {
     /**
      * Removes the Account at the specified from this GeneralLedger. This method
      * essentiallly removes the AccountTreeNode at the specified row. After successful
-     * removal, it notifies the change observers.
+     * removal, it notifies the change observers. The removal runs in a posting
+     * session so that the Accounts and views are updated once.
      *
      * @param pRow		the row number
      * @return			true if the removal was successful; false otherwise
@@ -262,14 +272,23 @@ public class GeneralLedger extends BaseModel {
     public boolean removeAccount(int pRow) {
 	AccountTreeNode vAcctNode = getAccountNodeAtRow(pRow);
 
-	if (vAcctNode != null && vAcctNode.canBeRemoved()) {
+	/** the Account's Transactions of every period go with it */
+	if (vAcctNode != null && vAcctNode.canBeRemoved() && loadPeriodsFrom(null)) {
+	    openPostingSession();
 	    try {
 		vAcctNode.remove();
+		MutationLog vLog = getMutationLog();
+		if (vLog != null) vLog.accountRemoved(pRow);
+		ChangeTracker vTracker = getChangeTracker();
+		if (vTracker != null) vTracker.accountsChanged();
 		setChangedAndNotifyObservers();
 
 		return true;
 	    } 
 	    catch (NotTransactionnableAccountException ex) { }
+	    finally {
+		commitPostingSession();
+	    }
 	}
 
 	return false;
@@ -340,6 +359,134 @@ public class GeneralLedger extends BaseModel {
 	return getAccountFullNames(true);
     }
 
+    /**
+     * Gets all Accounts that allow transactions on them indexed by full name.
+     * This method walks the Accounts tree once, so that many full names can
+     * be resolved without searching the tree for each of them.
+     *
+     * @return			the map of Accounts that allow transactions on
+     *				them by full name
+     * @see			#getAccount(java.lang.String)
+     * @since			1.0.0
+     */
+    public Map<String, Account> getTransactionnableAccountsByFullName() {
+	return getAccountsByFullName(true);
+    }
+
+    /**
+     * Gets all Accounts indexed by full name. The map iterates over the
+     * Accounts in the order of the Accounts tree, as the general ledger
+     * interface lists them.
+     *
+     * @return			the map of all Accounts by full name
+     * @see			#getTransactionnableAccountsByFullName()
+     * @since			1.0.0
+     */
+    public Map<String, Account> getAccountsByFullName() {
+	return getAccountsByFullName(false);
+    }
+
+    Map<String, Account> getAccountsByFullName(boolean pExcludeNonTransactionnable) {
+	Map<String, Account> rAccts = new LinkedHashMap<String, Account>();
+
+	assetsNode.buildFullNamesMap(rAccts, "", pExcludeNonTransactionnable);
+	liabilitiesNode.buildFullNamesMap(rAccts, "", pExcludeNonTransactionnable);
+	equityNode.buildFullNamesMap(rAccts, "", pExcludeNonTransactionnable);
+	revenuesNode.buildFullNamesMap(rAccts, "", pExcludeNonTransactionnable);
+	expensesNode.buildFullNamesMap(rAccts, "", pExcludeNonTransactionnable);
+
+	return rAccts;
+    }
+
+    /**
+     * Gets the balances of all Accounts as of a date, i.e. after all the
+     * entries dated on or before it. Each balance is found in O(log n) from
+     * the running totals of the Account's entries. The periods of the loaded
+     * file from that date on are loaded first if they are not.
+     *
+     * @param pDate		the date
+     * @return			the balances by Account full name, in the order
+     *				of the Accounts tree; null if the periods or
+     *				entries could not be loaded
+     * @see			Account#getBalanceAsOf(java.util.Date)
+     * @see			BaseModel#loadPeriodsFrom(java.util.Date)
+     * @since			1.0.0
+     */
+    public Map<String, Double> getBalancesAsOf(Date pDate) {
+	Map<String, Account> vAccts = getAccountsByFullName(false);
+	Map<String, Double> rBalances = new LinkedHashMap<String, Double>(vAccts.size() * 2);
+
+	if (!loadPeriodsFrom(pDate)) return null;
+	for (Map.Entry<String, Account> vAcct : vAccts.entrySet()) {
+	    if (!loadAccountEntries(vAcct.getValue())) return null;
+	    rBalances.put(vAcct.getKey(), Double.valueOf(vAcct.getValue().getBalanceAsOf(pDate)));
+	}
+
+	return rBalances;
+    }
+
+    /**
+     * Gets the movements of all Accounts over a period, as month-end closing
+     * needs them. Each movement is found in O(log n) from the running totals
+     * of the Account's entries. The periods of the loaded file from the first
+     * date on are loaded first if they are not.
+     *
+     * @param pFrom		the first date of the period
+     * @param pTo		the last date of the period
+     * @return			the movements by Account full name, in the order
+     *				of the Accounts tree; null if the periods or
+     *				entries could not be loaded
+     * @see			Account#getMovement(java.util.Date, java.util.Date)
+     * @see			BaseModel#loadPeriodsFrom(java.util.Date)
+     * @since			1.0.0
+     */
+    public Map<String, Account.Movement> getMovements(Date pFrom, Date pTo) {
+	Map<String, Account> vAccts = getAccountsByFullName(false);
+	Map<String, Account.Movement> rMovements =
+		new LinkedHashMap<String, Account.Movement>(vAccts.size() * 2);
+
+	if (!loadPeriodsFrom(pFrom)) return null;
+	for (Map.Entry<String, Account> vAcct : vAccts.entrySet()) {
+	    if (!loadAccountEntries(vAcct.getValue())) return null;
+	    rMovements.put(vAcct.getKey(), vAcct.getValue().getMovement(pFrom, pTo));
+	}
+
+	return rMovements;
+    }
+
+    /**
+     * Sets the entries prepared while loading as the entries of every Account
+     * of this GeneralLedger. This method is meant for the end of a progressive
+     * load, from the thread the data is changed from, as the Accounts were
+     * shown while their entries were prepared.
+     *
+     * @see			Account#prepareLoadedEntries(java.util.List)
+     * @see			#notifyAccountsOfLoad()
+     * @since			1.0.0
+     */
+    public void setLoadedEntries() {
+	for (Account vAcct : getAccountsByFullName(false).values()) {
+	    vAcct.setLoadedEntries();
+	}
+    }
+
+    /**
+     * Notifies the change observers of every Account of this GeneralLedger that
+     * its entries and balance were loaded. A GeneralLedger handed out during a
+     * progressive load gets the entries and balances of its Accounts only at
+     * the end of the load; neither the application Data is marked as changed
+     * nor anything recorded to the mutation log.
+     *
+     * @see			jaccounting.LoadListener
+     * @see			Account#recalculateBalance()
+     * @since			1.0.0
+     */
+    public void notifyAccountsOfLoad() {
+	for (Account vAcct : getAccountsByFullName(false).values()) {
+	    vAcct.notifyObserversOfLoad(null);
+	}
+    }
+
     String[] getAccountFullNames(boolean pExcludeNonTransactionnable) {
 	List<String> rAcctsList = new ArrayList();
 	String[] rAccts = { };
@@ -20,15 +20,26 @@
 
 package jaccounting.models;
 
+import jaccounting.ChangeTracker;
+import jaccounting.MutationLog;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 /**
  * Journal is the class representing an accounting journal. A Journal object holds
  * and manages the list of Transactions.
  *
+ * The Transactions are kept in date order, a Transaction going after those of
+ * the same date already there, so that the position of a date is found by
+ * halves: inserting a Transaction and reading the Transactions of a date range
+ * take O(log n) searches.
+ *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
  * @see		    Transaction
@@ -36,6 +47,13 @@ import java.util.ListIterator;
  */
 public class Journal extends BaseModel {
 
+    /** orders Transactions by date */
+    private static final Comparator<Transaction> DATE_ORDER = new Comparator<Transaction>() {
+	public int compare(Transaction pTrans1, Transaction pTrans2) {
+	    return pTrans1.getDate().compareTo(pTrans2.getDate());
+	}
+    };
+
     protected List<Transaction> transactions;
 
 
@@ -66,6 +84,25 @@ public class Journal extends BaseModel {
 	return transactions;
     }
 
+    /**
+     * Gets the Transactions dated from a date to another, both included. The
+     * list returned is a view of this Journal's list found in O(log n), not a
+     * copy; it is only valid until the Journal changes.
+     *
+     * @param pFrom		the first date
+     * @param pTo		the last date
+     * @return			the Transactions of the date range, in order
+     * @since			1.0.0
+     */
+    public List<Transaction> getTransactions(Date pFrom, Date pTo) {
+	int vFirst = getIndexOfFirstTransactionFrom(pFrom);
+	int vEnd = getIndexOfFirstTransactionLaterThan(pTo);
+
+	if (vEnd == -1) vEnd = transactions.size();
+
+	return transactions.subList(vFirst, Math.max(vFirst, vEnd));
+    }
+
     /**
      * Adds a Transaction to this Journal. This method inserts the new Transaction
      * at the proper position to keep the ordering by date and notifies the change
@@ -86,33 +123,314 @@ public class Journal extends BaseModel {
 	    transactions.add(pTransaction);
 	}
 
+	MutationLog vLog = getMutationLog();
+	if (vLog != null) vLog.transactionAdded(pTransaction);
+	ChangeTracker vTracker = getChangeTracker();
+	if (vTracker != null) vTracker.transactionChanged(pTransaction.getDate());
 	setChangedAndNotifyObservers();
     }
 
+    /**
+     * Adds a batch of new Transactions to this Journal. This method posts the
+     * Transactions to the Accounts they affect and inserts them at their
+     * position by date as {@link #addTransaction(jaccounting.models.Transaction)}
+     * would one after the other, but each affected Account gets all of its new
+     * entries at once so its balance is re-calculated once, and the change
+     * observers are notified once at the end, by the posting session the batch
+     * is added in. The periods of the loaded file
+     * from the earliest of the Transactions on are loaded first if they are
+     * not.
+     *
+     * @param pTransactions			    the Transactions to add, not
+     *						    posted yet
+     * @return					    true if the Transactions were
+     *						    added; false if the periods
+     *						    they fall in could not be
+     *						    loaded
+     * @throws NotTransactionnableAccountException  if an Account does not allow
+     *						    transactions; no Transaction
+     *						    is added then
+     * @see					    Account#addEntries(java.util.List)
+     * @see					    BaseModel#loadPeriodsFrom(java.util.Date)
+     * @see					    BaseModel#setChangedAndNotifyObservers()
+     * @since					    1.0.0
+     */
+    public boolean addTransactions(List<Transaction> pTransactions)
+	    throws NotTransactionnableAccountException {
+	List<Transaction> vSorted = new ArrayList<Transaction>(pTransactions);
+	Map<Account, List<TransactionEntry>> vEntries =
+		new IdentityHashMap<Account, List<TransactionEntry>>();
+
+	if (vSorted.isEmpty()) return true;
+
+	/** a stable sort keeps the given order for equal dates */
+	Collections.sort(vSorted, DATE_ORDER);
+	for (Transaction vTrans : vSorted) {
+	    if (!vTrans.getDebitAccount().isTransactionsEnabled()
+		    || !vTrans.getCreditAccount().isTransactionsEnabled()) {
+		throw new NotTransactionnableAccountException();
+	    }
+	}
+	if (!loadPeriodsFrom(vSorted.get(0).getDate())) return false;
+
+	openPostingSession();
+	try {
+	    for (Transaction vTrans : vSorted) {
+		getAccountEntries(vEntries, vTrans.getDebitAccount()).add(vTrans.getDebitEntry());
+		getAccountEntries(vEntries, vTrans.getCreditAccount()).add(vTrans.getCreditEntry());
+	    }
+	    for (Map.Entry<Account, List<TransactionEntry>> vAcctEntries : vEntries.entrySet()) {
+		vAcctEntries.getKey().addEntries(vAcctEntries.getValue());
+	    }
+
+	    mergeTransactions(vSorted);
+
+	    MutationLog vLog = getMutationLog();
+	    if (vLog != null) vLog.transactionsAdded(vSorted);
+	    ChangeTracker vTracker = getChangeTracker();
+	    if (vTracker != null) {
+		for (Transaction vTrans : vSorted) {
+		    vTracker.transactionChanged(vTrans.getDate());
+		}
+	    }
+	    setChangedAndNotifyObservers();
+	}
+	finally {
+	    commitPostingSession();
+	}
+
+	return true;
+    }
+
+    private static List<TransactionEntry> getAccountEntries(
+		Map<Account, List<TransactionEntry>> pEntries, Account pAcct) {
+	List<TransactionEntry> rEntries = pEntries.get(pAcct);
+
+	if (rEntries == null) {
+	    rEntries = new ArrayList<TransactionEntry>();
+	    pEntries.put(pAcct, rEntries);
+	}
+
+	return rEntries;
+    }
+
+    private void mergeTransactions(List<Transaction> pSorted) {
+	List<Transaction> vMerged = new ArrayList<Transaction>(transactions.size()
+							       + pSorted.size());
+	ListIterator<Transaction> vIt = transactions.listIterator();
+	Transaction vTrans = vIt.hasNext() ? vIt.next() : null;
+
+	/** new Transactions go after those of the same date already there */
+	for (Transaction vNewTrans : pSorted) {
+	    while (vTrans != null && !vTrans.getDate().after(vNewTrans.getDate())) {
+		vMerged.add(vTrans);
+		vTrans = vIt.hasNext() ? vIt.next() : null;
+	    }
+	    vMerged.add(vNewTrans);
+	}
+	while (vTrans != null) {
+	    vMerged.add(vTrans);
+	    vTrans = vIt.hasNext() ? vIt.next() : null;
+	}
+
+	transactions.clear();
+	transactions.addAll(vMerged);
+    }
+
+    /**
+     * Appends Transactions being loaded to this Journal. This method notifies
+     * the change observers with the list of Transactions appended but, as they
+     * are not changes to the data, neither marks the application Data as
+     * changed nor records them to the mutation log.
+     *
+     * @param pTransactions	the Transactions loaded, already in order
+     * @see			jaccounting.LoadListener
+     * @since			1.0.0
+     */
+    public void appendLoadedTransactions(List<Transaction> pTransactions) {
+	transactions.addAll(pTransactions);
+	notifyObserversOfLoad(pTransactions);
+    }
+
+    /**
+     * Puts the Transactions of an earlier period being loaded before the
+     * Transactions of this Journal. Like {@link
+     * #appendLoadedTransactions(java.util.List)}, this method notifies the
+     * change observers without marking the application Data as changed.
+     *
+     * @param pTransactions	the Transactions loaded, in order and all earlier
+     *				than those of this Journal
+     * @see			jaccounting.Storage#loadEarlier(jaccounting.models.Data)
+     * @since			1.0.0
+     */
+    public void prependLoadedTransactions(List<Transaction> pTransactions) {
+	transactions.addAll(0, orderedByDate(pTransactions));
+	notifyObserversOfLoad(null);
+    }
+
+    /**
+     * Puts the Transactions loaded in date order if they are not. Files saved
+     * by earlier versions may hold Transactions whose date was changed without
+     * moving them. Like {@link #appendLoadedTransactions(java.util.List)},
+     * this method notifies the change observers, if the order changed,
+     * without marking the application Data as changed.
+     *
+     * @see			jaccounting.ModelsMngr#finishLoad()
+     * @since			1.0.0
+     */
+    public void orderLoadedTransactions() {
+	List<Transaction> vOrdered = orderedByDate(transactions);
+
+	if (vOrdered != transactions) {
+	    transactions.clear();
+	    transactions.addAll(vOrdered);
+	    notifyObserversOfLoad(null);
+	}
+    }
+
+    private static List<Transaction> orderedByDate(List<Transaction> pTransactions) {
+	Transaction vPrevious = null;
+
+	for (Transaction vTrans : pTransactions) {
+	    if (vPrevious != null && vTrans.getDate().before(vPrevious.getDate())) {
+		List<Transaction> rOrdered = new ArrayList<Transaction>(pTransactions);
+
+		/** a stable sort keeps the order of the Transactions of a date */
+		Collections.sort(rOrdered, DATE_ORDER);
+
+		return rOrdered;
+	    }
+	    vPrevious = vTrans;
+	}
+
+	return pTransactions;
+    }
+
+    /**
+     * Ends the loading of this Journal with the complete list of its
+     * Transactions. The change observers are only notified if the list differs
+     * from the Transactions appended while loading.
+     *
+     * @param pTransactions	all the Transactions loaded in order
+     * @see			#appendLoadedTransactions(java.util.List)
+     * @since			1.0.0
+     */
+    public void setLoadedTransactions(List<Transaction> pTransactions) {
+	if (!transactions.equals(pTransactions)) {
+	    transactions = pTransactions;
+	    notifyObserversOfLoad(null);
+	}
+    }
+
     /**
      * Gets the index of the first Transaction whose date is later than the given
-     * date.
+     * date. The Transactions being ordered by date, this method searches them
+     * by halves.
      *
      * @param pDate		the Date to compare against
      * @return			the index or -1
      * @since			1.0.0
      */
     protected int getIndexOfFirstTransactionLaterThan(Date pDate) {
-	int rIndex = -1;
-	int vCurrIndex = -1;
-	Transaction vTrans;
-	ListIterator vIt = transactions.listIterator();
-
-	while (vIt.hasNext()) {
-	    vCurrIndex++;
-	    vTrans = (Transaction)vIt.next();
-	    if (vTrans.getDate().after(pDate)) {
-		rIndex = vCurrIndex;
-		break;
+	int vSize = transactions.size();
+	int rIndex;
+
+	/** Transactions mostly come in date order, so we try after the last one first */
+	if (vSize == 0 || !transactions.get(vSize - 1).getDate().after(pDate)) return -1;
+	rIndex = search(pDate, true, null, null);
+
+	return (rIndex < vSize) ? rIndex : -1;
+    }
+
+    /**
+     * Gets the index of the first Transaction whose date is not earlier than
+     * the given date.
+     *
+     * @param pDate		the Date to compare against
+     * @return			the index, the number of Transactions if all are
+     *				earlier
+     * @since			1.0.0
+     */
+    protected int getIndexOfFirstTransactionFrom(Date pDate) {
+	return search(pDate, false, null, null);
+    }
+
+    /**
+     * Searches the Transactions by halves for the first one later than a date
+     * or, if not pLater, not earlier than it. The given Transaction, if any,
+     * is taken as dated pItsDate, as when its date was just changed.
+     */
+    private int search(Date pDate, boolean pLater, Transaction pTrans, Date pItsDate) {
+	int vLow = 0;
+	int vHigh = transactions.size();
+
+	while (vLow < vHigh) {
+	    int vMiddle = (vLow + vHigh) >>> 1;
+	    Transaction vTrans = transactions.get(vMiddle);
+	    Date vDate = (vTrans == pTrans) ? pItsDate : vTrans.getDate();
+
+	    if (pLater ? vDate.after(pDate) : !vDate.before(pDate)) {
+		vHigh = vMiddle;
+	    }
+	    else {
+		vLow = vMiddle + 1;
 	    }
 	}
 
-	return rIndex;
+	return vLow;
+    }
+
+    /**
+     * Gets the index of a Transaction of this Journal. The Transactions being
+     * ordered by date, this method searches by halves for the first one of the
+     * date the Transaction is ordered by, then looks for it among the
+     * Transactions of that date.
+     *
+     * @param pTrans		the Transaction
+     * @param pItsDate		the date the Transaction is ordered by; the one
+     *				before a change of its date being made
+     * @return			the index or -1 if this Journal does not hold the
+     *				Transaction
+     * @since			1.0.0
+     */
+    public int getIndexOfTransaction(Transaction pTrans, Date pItsDate) {
+	if (pItsDate == null) return -1;
+
+	int rIndex = search(pItsDate, false, pTrans, pItsDate);
+
+	while (rIndex < transactions.size()) {
+	    Transaction vTrans = transactions.get(rIndex);
+
+	    if (vTrans == pTrans) return rIndex;
+	    if (!vTrans.getDate().equals(pItsDate)) break;
+	    rIndex++;
+	}
+
+	return -1;
+    }
+
+    /**
+     * Moves a Transaction whose date changed to its position by its new date,
+     * after the Transactions of that date already there, as if it was removed
+     * and added again. Nothing is done if this Journal does not hold the
+     * Transaction, as when it is updated before being added.
+     *
+     * @param pTrans		the Transaction
+     * @param pOldDate		the date of the Transaction before the change
+     * @see			Transaction#update(java.util.Date, java.lang.String,
+     *				    java.lang.String, double, jaccounting.models.Account,
+     *				    jaccounting.models.Account)
+     * @since			1.0.0
+     */
+    void moveTransaction(Transaction pTrans, Date pOldDate) {
+	int vIndex = getIndexOfTransaction(pTrans, pOldDate);
+	int vNewIndex;
+
+	if (vIndex == -1) return;
+
+	transactions.remove(vIndex);
+	vNewIndex = getIndexOfFirstTransactionLaterThan(pTrans.getDate());
+	transactions.add((vNewIndex != -1) ? vNewIndex : transactions.size(), pTrans);
     }
 
     /**
@@ -144,6 +462,10 @@ public class Journal extends BaseModel {
 	if ((vTrans=transactions.remove(pRow)) != null) {
 	    try {
 		vTrans.unpostTransaction();
+		MutationLog vLog = getMutationLog();
+		if (vLog != null) vLog.transactionRemoved(pRow);
+		ChangeTracker vTracker = getChangeTracker();
+		if (vTracker != null) vTracker.transactionChanged(vTrans.getDate());
 		setChangedAndNotifyObservers();
 
 		return true;
@@ -156,28 +478,75 @@ public class Journal extends BaseModel {
 
     /**
      * Removes a bunch of Transactions from this Journal and notifies the change
-     * observers. This method unposts each Transaction first.
+     * observers once. This method drops the Transactions from this Journal in a
+     * single pass, then unposts them by Account: each affected Account gets
+     * all of its entries to remove at once, and the posting session the
+     * removal runs in re-calculates its balance once.
      *
      * @param pTransactions	    the list of Transactions to be removed
-     * @see			    Transaction#unpostTransaction()
+     * @see			    Account#removeEntries(java.util.Collection)
      * @see			    BaseModel#setChangedAndNotifyObservers()
      * @since			    1.0.0
      */
     public void removeTransactions(List<Transaction> pTransactions) {
-	Transaction vTrans;
-	ListIterator vIt = pTransactions.listIterator();
+	Map<Transaction, Boolean> vToRemove = new IdentityHashMap<Transaction, Boolean>();
+	Map<Account, Map<TransactionEntry, Boolean>> vEntries =
+		new IdentityHashMap<Account, Map<TransactionEntry, Boolean>>();
+	ChangeTracker vTracker = getChangeTracker();
+	int vKept = 0;
+
+	openPostingSession();
+	try {
+	    for (Transaction vTrans : pTransactions) {
+		vToRemove.put(vTrans, Boolean.TRUE);
+	    }
+
+	    /** the Transactions kept are moved up over the ones removed */
+	    for (int vI = 0; vI < transactions.size(); vI++) {
+		Transaction vTrans = transactions.get(vI);
+
+		if (vToRemove.containsKey(vTrans)) {
+		    /** a Transaction without both entries is not posted */
+		    if (vTrans.getDebitEntry() != null && vTrans.getCreditEntry() != null) {
+			getAccountEntrySet(vEntries, vTrans.getDebitAccount())
+			    .put(vTrans.getDebitEntry(), Boolean.TRUE);
+			getAccountEntrySet(vEntries, vTrans.getCreditAccount())
+			    .put(vTrans.getCreditEntry(), Boolean.TRUE);
+		    }
+		    if (vTracker != null) vTracker.transactionChanged(vTrans.getDate());
+		}
+		else {
+		    if (vKept != vI) transactions.set(vKept, vTrans);
+		    vKept++;
+		}
+	    }
+	    transactions.subList(vKept, transactions.size()).clear();
 
-	while (vIt.hasNext()) {
-	    vTrans = (Transaction) vIt.next();
-	    if (transactions.remove(vTrans)) {
+	    for (Map.Entry<Account, Map<TransactionEntry, Boolean>> vAcctEntries
+		    : vEntries.entrySet()) {
 		try {
-		    vTrans.unpostTransaction();
+		    vAcctEntries.getKey().removeEntries(vAcctEntries.getValue().keySet());
 		}
 		catch (NotTransactionnableAccountException ex) { }
 	    }
+
+	    setChangedAndNotifyObservers();
+	}
+	finally {
+	    commitPostingSession();
+	}
+    }
+
+    private static Map<TransactionEntry, Boolean> getAccountEntrySet(
+		Map<Account, Map<TransactionEntry, Boolean>> pEntries, Account pAcct) {
+	Map<TransactionEntry, Boolean> rEntries = pEntries.get(pAcct);
+
+	if (rEntries == null) {
+	    rEntries = new IdentityHashMap<TransactionEntry, Boolean>();
+	    pEntries.put(pAcct, rEntries);
 	}
 
-	setChangedAndNotifyObservers();
+	return rEntries;
     }
 
 }
@@ -0,0 +1,683 @@
+/*
+ * PostingList.java	    1.0.0	    09/2009
+ * This file contains the account entries list class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting.models;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * PostingList is the class holding the TransactionEntries of an Account. The
+ * entries are kept in a row of chunks of at most {@link #CHUNK_CAPACITY}
+ * entries, a full chunk being split in two, so that inserting or removing an
+ * entry anywhere only shifts the entries of one chunk. Fenwick trees over the
+ * chunks, one of their sizes and one per entry type of the totals of their
+ * amounts, find the entry at an index and the Debits and Credits before a
+ * chunk in O(log n). As the entries are in date order, the entries up to a
+ * date are found by searching the chunks, then the entries of one chunk, by
+ * halves.
+ *
+ * The balance after an entry is not stored in the entry but computed when it
+ * is read: the opening balance of the Account, plus the totals of the chunks
+ * before the entry's, plus the running totals of its chunk up to the entry,
+ * each total weighing on the balance the way its entry type does.
+ * A change to a chunk only marks the chunk; its totals and the trees are
+ * brought up to date on the next read, and the trees are rebuilt once after
+ * chunks are added or removed.
+ *
+ * Like the ArrayList it replaces, a PostingList is not meant for concurrent
+ * use; reading a balance updates the cached totals.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    Account#getEntries()
+ * @see		    TransactionEntry#getAccountBalance()
+ * @since	    1.0.0
+ */
+final class PostingList extends AbstractList<TransactionEntry> implements RandomAccess {
+
+    /** the most entries a chunk holds */
+    static final int CHUNK_CAPACITY = 128;
+
+    /** the number of entry types, by which the amounts are totalled */
+    private static final int TYPES_COUNT = TransactionEntry.Type.values().length;
+
+    private static final int DEBIT = TransactionEntry.Type.DEBIT.ordinal();
+
+    private static final int CREDIT = TransactionEntry.Type.CREDIT.ordinal();
+
+    /**
+     * Chunk is the class of the runs of consecutive entries of a PostingList.
+     * A TransactionEntry held in a PostingList knows its chunk and its
+     * position in the chunk.
+     */
+    static final class Chunk {
+
+	final PostingList list;		// the list holding the chunk
+
+	final TransactionEntry[] entries = new TransactionEntry[CHUNK_CAPACITY];
+
+	int size;			// the number of entries held
+
+	int index;			// the position among the chunks
+
+	/** the totals of the amounts by entry type; valid unless dirty */
+	final double[] total = new double[TYPES_COUNT];
+
+	/** the running totals of the amounts by entry type; valid unless dirty */
+	final double[][] totals = new double[TYPES_COUNT][CHUNK_CAPACITY];
+
+	boolean dirty;			// whether the totals are to re-calculate
+
+	Chunk(PostingList pList) {
+	    list = pList;
+	}
+
+    }
+
+    private final Account account;	// the Account holding the entries
+
+    private final double debitSign;	// the effect of a Debit on the balance
+
+    private final double creditSign;	// the effect of a Credit on the balance
+
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+    private final List<Chunk> dirtyChunks = new ArrayList<Chunk>();
+
+    private int size;
+
+    private int[] sizesTree = new int[1];	    // Fenwick tree of the chunk sizes
+
+    /** Fenwick trees of the chunk totals by entry type */
+    private double[][] totalsTrees = new double[TYPES_COUNT][1];
+
+    /** whether chunks were added or removed since the trees were built */
+    private boolean stale;
+
+
+    /**
+     * Sole constructor. The effects of a Debit and of a Credit on the balance
+     * are learnt once from the Account.
+     *
+     * @param pAccount		the Account holding the entries
+     * @param pEntries		the entries to start with, in order
+     * @see			Account#getDebitSign()
+     * @since			1.0.0
+     */
+    PostingList(Account pAccount, Collection<TransactionEntry> pEntries) {
+	account = pAccount;
+	debitSign = pAccount.getDebitSign();
+	creditSign = -debitSign;
+	for (TransactionEntry vEntry : pEntries) {
+	    append(vEntry);
+	}
+    }
+
+
+    Account getAccount() {
+	return account;
+    }
+
+    @Override
+    public int size() {
+	return size;
+    }
+
+    @Override
+    public TransactionEntry get(int pIndex) {
+	checkIndex(pIndex, size - 1);
+
+	Chunk vChunk = chunks.get(chunks.size() - 1);
+
+	/** the last chunk, where entries are appended, is found without the trees */
+	if (pIndex >= size - vChunk.size) return vChunk.entries[pIndex - (size - vChunk.size)];
+	vChunk = chunkAt(pIndex);
+
+	return vChunk.entries[pIndex - sizeBefore(vChunk.index)];
+    }
+
+    @Override
+    public TransactionEntry set(int pIndex, TransactionEntry pEntry) {
+	checkIndex(pIndex, size - 1);
+
+	Chunk vChunk = chunkAt(pIndex);
+	int vPos = pIndex - sizeBefore(vChunk.index);
+	TransactionEntry rOld = vChunk.entries[vPos];
+
+	/**
+	 * The entry replaced may still be in the list elsewhere, as while the
+	 * list is sorted, so its chunk is left as is; reading its balance checks
+	 * the chunk does hold it.
+	 */
+	vChunk.entries[vPos] = pEntry;
+	place(pEntry, vChunk, vPos);
+	markDirty(vChunk);
+
+	return rOld;
+    }
+
+    @Override
+    public boolean add(TransactionEntry pEntry) {
+	append(pEntry);
+	modCount++;
+
+	return true;
+    }
+
+    @Override
+    public void add(int pIndex, TransactionEntry pEntry) {
+	checkIndex(pIndex, size);
+	if (pIndex == size) {
+	    add(pEntry);
+	    return;
+	}
+
+	Chunk vChunk = chunkAt(pIndex);
+	int vPos = pIndex - sizeBefore(vChunk.index);
+
+	if (vChunk.size == CHUNK_CAPACITY) {
+	    Chunk vUpper = split(vChunk);
+
+	    if (vPos > vChunk.size) {
+		vPos -= vChunk.size;
+		vChunk = vUpper;
+	    }
+	}
+	System.arraycopy(vChunk.entries, vPos, vChunk.entries, vPos + 1, vChunk.size - vPos);
+	vChunk.size++;
+	for (int vI = vPos; vI < vChunk.size; vI++) {
+	    place((vI == vPos) ? pEntry : vChunk.entries[vI], vChunk, vI);
+	}
+	vChunk.entries[vPos] = pEntry;
+	resized(vChunk, 1);
+	modCount++;
+    }
+
+    @Override
+    public TransactionEntry remove(int pIndex) {
+	checkIndex(pIndex, size - 1);
+
+	Chunk vChunk = chunkAt(pIndex);
+
+	return removeAt(vChunk, pIndex - sizeBefore(vChunk.index));
+    }
+
+    /**
+     * Removes an entry. An entry held by this list is found from its chunk
+     * without a search.
+     */
+    @Override
+    public boolean remove(Object pObject) {
+	if (pObject instanceof TransactionEntry) {
+	    TransactionEntry vEntry = (TransactionEntry) pObject;
+	    Chunk vChunk = vEntry.chunk;
+
+	    if (vChunk != null && vChunk.list == this && holds(vChunk, vEntry)) {
+		removeAt(vChunk, vEntry.chunkPosition);
+		return true;
+	    }
+	}
+
+	return super.remove(pObject);
+    }
+
+    /**
+     * Removes the entries held in a collection. A few entries are removed one
+     * by one from their chunks; more are dropped in a single pass over the
+     * list, asking the collection whether it holds each entry, so the
+     * collection is best a set.
+     */
+    @Override
+    public boolean removeAll(Collection<?> pEntries) {
+	if (pEntries.size() * CHUNK_CAPACITY < size) {
+	    boolean rRemoved = false;
+
+	    for (Object vEntry : pEntries) {
+		rRemoved |= remove(vEntry);
+	    }
+
+	    return rRemoved;
+	}
+
+	List<TransactionEntry> vKept = new ArrayList<TransactionEntry>(size);
+
+	for (Chunk vChunk : chunks) {
+	    for (int vI = 0; vI < vChunk.size; vI++) {
+		if (!pEntries.contains(vChunk.entries[vI])) vKept.add(vChunk.entries[vI]);
+	    }
+	}
+	if (vKept.size() == size) return false;
+	reset(vKept);
+
+	return true;
+    }
+
+    /**
+     * Inserts entries at an index. Entries are appended one by one; entries
+     * inserted before the end are merged with the entries held in a single
+     * pass.
+     */
+    @Override
+    public boolean addAll(int pIndex, Collection<? extends TransactionEntry> pEntries) {
+	checkIndex(pIndex, size);
+	if (pEntries.isEmpty()) return false;
+	if (pIndex == size) return addAll(pEntries);
+
+	List<TransactionEntry> vEntries = new ArrayList<TransactionEntry>(size + pEntries.size());
+
+	vEntries.addAll(subList(0, pIndex));
+	vEntries.addAll(pEntries);
+	vEntries.addAll(subList(pIndex, size));
+	reset(vEntries);
+
+	return true;
+    }
+
+    @Override
+    public void clear() {
+	reset(new ArrayList<TransactionEntry>(0));
+    }
+
+    @Override
+    protected void removeRange(int pFromIndex, int pToIndex) {
+	if (pFromIndex >= pToIndex) return;
+
+	List<TransactionEntry> vEntries = new ArrayList<TransactionEntry>(
+						size - (pToIndex - pFromIndex));
+
+	vEntries.addAll(subList(0, pFromIndex));
+	vEntries.addAll(subList(pToIndex, size));
+	reset(vEntries);
+    }
+
+    /**
+     * Marks every chunk for its totals to be re-calculated, as when the
+     * amounts of the entries were set after they were added.
+     *
+     * @since			1.0.0
+     */
+    void invalidate() {
+	for (Chunk vChunk : chunks) {
+	    markDirty(vChunk);
+	}
+    }
+
+    /**
+     * Gets how much all the entries weigh on the Account balance.
+     *
+     * @return			the total of the amounts, each counted the way
+     *				its entry type weighs on the balance
+     * @since			1.0.0
+     */
+    double getTotal() {
+	return getTotal(size);
+    }
+
+    /**
+     * Gets how much the first entries weigh on the Account balance.
+     *
+     * @param pCount		the number of entries
+     * @return			the total of their amounts, each counted the way
+     *				its entry type weighs on the balance
+     * @since			1.0.0
+     */
+    double getTotal(int pCount) {
+	return debitSign * getTotal(pCount, TransactionEntry.Type.DEBIT)
+	       + creditSign * getTotal(pCount, TransactionEntry.Type.CREDIT);
+    }
+
+    /**
+     * Gets the total of the amounts of the first entries of a type.
+     *
+     * @param pCount		the number of entries
+     * @param pType		the entry type
+     * @return			the total of the amounts of the Debits or Credits
+     *				among those entries
+     * @since			1.0.0
+     */
+    double getTotal(int pCount, TransactionEntry.Type pType) {
+	checkIndex(pCount, size);
+	if (pCount == 0) return 0.0;
+
+	Chunk vChunk;
+
+	update();
+	vChunk = chunkAt(pCount - 1);
+
+	return totalBefore(vChunk.index, pType.ordinal())
+	       + vChunk.totals[pType.ordinal()][pCount - 1 - sizeBefore(vChunk.index)];
+    }
+
+    /**
+     * Counts the entries dated before a date, or on or before it. This method
+     * searches the chunks by the date of their first entry, then the entries
+     * of the chunk found.
+     *
+     * @param pDate		the date
+     * @param pInclusive	whether to count the entries of that very date
+     * @return			the number of entries
+     * @since			1.0.0
+     */
+    int countUpTo(Date pDate, boolean pInclusive) {
+	int vLow = 0;
+	int vHigh = chunks.size();
+	Chunk vChunk;
+
+	while (vLow < vHigh) {
+	    int vMiddle = (vLow + vHigh) >>> 1;
+
+	    if (isUpTo(chunks.get(vMiddle).entries[0], pDate, pInclusive)) {
+		vLow = vMiddle + 1;
+	    }
+	    else {
+		vHigh = vMiddle;
+	    }
+	}
+	if (vLow == 0) return 0;
+
+	vChunk = chunks.get(vLow - 1);
+	vHigh = vChunk.size;
+	vLow = 1;
+	while (vLow < vHigh) {
+	    int vMiddle = (vLow + vHigh) >>> 1;
+
+	    if (isUpTo(vChunk.entries[vMiddle], pDate, pInclusive)) {
+		vLow = vMiddle + 1;
+	    }
+	    else {
+		vHigh = vMiddle;
+	    }
+	}
+	if (stale) rebuild();
+
+	return sizeBefore(vChunk.index) + vLow;
+    }
+
+    private static boolean isUpTo(TransactionEntry pEntry, Date pDate, boolean pInclusive) {
+	Date vDate = pEntry.getTransaction().getDate();
+
+	return pInclusive ? !vDate.after(pDate) : vDate.before(pDate);
+    }
+
+    /**
+     * Gets the balance of the Account after an entry of a chunk of this list.
+     *
+     * @param pChunk		the chunk the entry was last put in
+     * @param pEntry		the entry
+     * @param pDefault		the balance if the chunk no longer holds the
+     *				entry
+     * @return			the balance
+     * @see			TransactionEntry#getAccountBalance()
+     * @since			1.0.0
+     */
+    double getBalance(Chunk pChunk, TransactionEntry pEntry, double pDefault) {
+	if (!holds(pChunk, pEntry)) return pDefault;
+	update();
+	if (pChunk.index >= chunks.size() || chunks.get(pChunk.index) != pChunk) {
+	    return pDefault;
+	}
+
+	return account.openingBalance
+	       + debitSign * (totalBefore(pChunk.index, DEBIT)
+			      + pChunk.totals[DEBIT][pEntry.chunkPosition])
+	       + creditSign * (totalBefore(pChunk.index, CREDIT)
+			       + pChunk.totals[CREDIT][pEntry.chunkPosition]);
+    }
+
+    private static boolean holds(Chunk pChunk, TransactionEntry pEntry) {
+	int vPos = pEntry.chunkPosition;
+
+	return vPos < pChunk.size && pChunk.entries[vPos] == pEntry;
+    }
+
+    private static void place(TransactionEntry pEntry, Chunk pChunk, int pPos) {
+	pEntry.chunk = pChunk;
+	pEntry.chunkPosition = pPos;
+    }
+
+    private void checkIndex(int pIndex, int pMax) {
+	if (pIndex < 0 || pIndex > pMax) {
+	    throw new IndexOutOfBoundsException("Index: " + pIndex + ", Size: " + size);
+	}
+    }
+
+    private void append(TransactionEntry pEntry) {
+	Chunk vChunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+
+	if (vChunk == null || vChunk.size == CHUNK_CAPACITY) {
+	    vChunk = new Chunk(this);
+	    vChunk.index = chunks.size();
+	    chunks.add(vChunk);
+	    stale = true;
+	}
+	vChunk.entries[vChunk.size] = pEntry;
+	place(pEntry, vChunk, vChunk.size);
+	vChunk.size++;
+	resized(vChunk, 1);
+    }
+
+    private TransactionEntry removeAt(Chunk pChunk, int pPos) {
+	TransactionEntry rEntry = pChunk.entries[pPos];
+
+	System.arraycopy(pChunk.entries, pPos + 1, pChunk.entries, pPos, pChunk.size - pPos - 1);
+	pChunk.size--;
+	pChunk.entries[pChunk.size] = null;
+	for (int vI = pPos; vI < pChunk.size; vI++) {
+	    pChunk.entries[vI].chunkPosition = vI;
+	}
+	rEntry.chunk = null;
+	if (pChunk.size == 0) {
+	    chunks.remove(stale ? chunks.indexOf(pChunk) : pChunk.index);
+	    stale = true;
+	    size--;
+	}
+	else {
+	    resized(pChunk, -1);
+	}
+	modCount++;
+
+	return rEntry;
+    }
+
+    /**
+     * Moves the upper half of a full chunk to a new chunk right after it and
+     * returns the new chunk.
+     */
+    private Chunk split(Chunk pChunk) {
+	Chunk rUpper = new Chunk(this);
+	int vHalf = pChunk.size / 2;
+
+	rUpper.size = pChunk.size - vHalf;
+	System.arraycopy(pChunk.entries, vHalf, rUpper.entries, 0, rUpper.size);
+	for (int vI = 0; vI < rUpper.size; vI++) {
+	    place(rUpper.entries[vI], rUpper, vI);
+	    pChunk.entries[vHalf + vI] = null;
+	}
+	pChunk.size = vHalf;
+	markDirty(pChunk);
+	markDirty(rUpper);
+	chunks.add(pChunk.index + 1, rUpper);
+	stale = true;
+
+	return rUpper;
+    }
+
+    private void reset(List<TransactionEntry> pEntries) {
+	for (Chunk vChunk : chunks) {
+	    for (int vI = 0; vI < vChunk.size; vI++) {
+		if (vChunk.entries[vI].chunk == vChunk) vChunk.entries[vI].chunk = null;
+	    }
+	}
+	chunks.clear();
+	dirtyChunks.clear();
+	size = 0;
+	stale = true;
+	for (TransactionEntry vEntry : pEntries) {
+	    append(vEntry);
+	}
+	modCount++;
+    }
+
+    private void resized(Chunk pChunk, int pDelta) {
+	size += pDelta;
+	if (!stale) {
+	    for (int vI = pChunk.index + 1; vI < sizesTree.length; vI += vI & -vI) {
+		sizesTree[vI] += pDelta;
+	    }
+	}
+	markDirty(pChunk);
+    }
+
+    private void markDirty(Chunk pChunk) {
+	if (!pChunk.dirty) {
+	    pChunk.dirty = true;
+	    dirtyChunks.add(pChunk);
+	}
+    }
+
+    /**
+     * Finds the chunk holding the entry at an index by walking down the tree
+     * of the chunk sizes.
+     */
+    private Chunk chunkAt(int pIndex) {
+	int vPos = 0;
+	int vRest = pIndex;
+
+	if (stale) rebuild();
+	for (int vStep = Integer.highestOneBit(sizesTree.length); vStep > 0; vStep >>= 1) {
+	    int vNext = vPos + vStep;
+
+	    if (vNext < sizesTree.length && sizesTree[vNext] <= vRest) {
+		vPos = vNext;
+		vRest -= sizesTree[vNext];
+	    }
+	}
+
+	return chunks.get(vPos);
+    }
+
+    private int sizeBefore(int pChunkIndex) {
+	int rSize = 0;
+
+	for (int vI = pChunkIndex; vI > 0; vI -= vI & -vI) {
+	    rSize += sizesTree[vI];
+	}
+
+	return rSize;
+    }
+
+    private double totalBefore(int pChunkIndex, int pType) {
+	double[] vTree = totalsTrees[pType];
+	double rTotal = 0.0;
+
+	for (int vI = pChunkIndex; vI > 0; vI -= vI & -vI) {
+	    rTotal += vTree[vI];
+	}
+
+	return rTotal;
+    }
+
+    /**
+     * Re-calculates the totals of the chunks marked and brings the trees up to
+     * date.
+     */
+    private void update() {
+	if (stale) {
+	    rebuild();
+	    return;
+	}
+	for (Chunk vChunk : dirtyChunks) {
+	    double[] vDeltas = { -vChunk.total[DEBIT], -vChunk.total[CREDIT] };
+
+	    recalculate(vChunk);
+	    for (int vType = 0; vType < TYPES_COUNT; vType++) {
+		double[] vTree = totalsTrees[vType];
+		double vDelta = vDeltas[vType] + vChunk.total[vType];
+
+		for (int vI = vChunk.index + 1; vI < vTree.length; vI += vI & -vI) {
+		    vTree[vI] += vDelta;
+		}
+	    }
+	}
+	dirtyChunks.clear();
+    }
+
+    private void rebuild() {
+	int vCount = chunks.size();
+
+	for (Chunk vChunk : dirtyChunks) {
+	    recalculate(vChunk);
+	}
+	dirtyChunks.clear();
+	sizesTree = new int[vCount + 1];
+	totalsTrees = new double[TYPES_COUNT][vCount + 1];
+
+	/**
+	 * A Fenwick tree is built in linear time by adding each node to its
+	 * parent once the node is complete.
+	 */
+	for (int vI = 1; vI <= vCount; vI++) {
+	    Chunk vChunk = chunks.get(vI - 1);
+	    int vParent = vI + (vI & -vI);
+
+	    vChunk.index = vI - 1;
+	    sizesTree[vI] += vChunk.size;
+	    for (int vType = 0; vType < TYPES_COUNT; vType++) {
+		totalsTrees[vType][vI] += vChunk.total[vType];
+	    }
+	    if (vParent <= vCount) {
+		sizesTree[vParent] += sizesTree[vI];
+		for (int vType = 0; vType < TYPES_COUNT; vType++) {
+		    totalsTrees[vType][vParent] += totalsTrees[vType][vI];
+		}
+	    }
+	}
+	stale = false;
+    }
+
+    private void recalculate(Chunk pChunk) {
+	double[] vDebits = pChunk.totals[DEBIT];
+	double[] vCredits = pChunk.totals[CREDIT];
+	double vDebit = 0.0;
+	double vCredit = 0.0;
+
+	for (int vI = 0; vI < pChunk.size; vI++) {
+	    TransactionEntry vEntry = pChunk.entries[vI];
+
+	    if (vEntry.getType() == TransactionEntry.Type.DEBIT) {
+		vDebit += vEntry.getTransaction().getAmount();
+	    }
+	    else {
+		vCredit += vEntry.getTransaction().getAmount();
+	    }
+	    vDebits[vI] = vDebit;
+	    vCredits[vI] = vCredit;
+	}
+	pChunk.total[DEBIT] = vDebit;
+	pChunk.total[CREDIT] = vCredit;
+	pChunk.dirty = false;
+    }
+
+}
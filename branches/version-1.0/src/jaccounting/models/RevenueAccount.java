@@ -89,6 +89,17 @@ public class RevenueAccount extends Account {
     }
 
 
+    /**
+     * Gets the effect of a Debit of {@code 1.0} on this Account's balance.
+     * Debits decrease the balance.
+     *
+     * @return			    {@code -1.0}
+     * @since			    1.0.0
+     */
+    protected double getDebitSign() {
+	return -1.0;
+    }
+
     /**
      * Applies a Debit amount to this Account's balance. This method decreases
      * the balance by the Debit amount.
@@ -20,7 +20,9 @@
 
 package jaccounting.models;
 
+import jaccounting.ChangeTracker;
 import jaccounting.ErrorCode;
+import jaccounting.MutationLog;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -255,7 +257,9 @@ public class Transaction extends BaseModel {
      * This method first validates the new values to update to. It unposts this
      * Transaction from the Accounts it used to affect, sets the common properties
      * the new values, updates its Debit Account and Credit Account and finally
-     * posts this Transaction to new Accounts it affects.
+     * posts this Transaction to new Accounts it affects. A Transaction of the
+     * Journal whose date changes is moved to its position by date. The periods
+     * of the loaded file from the new date on are loaded first if they are not.
      *
      * @param date		    the date
      * @param refNo		    the refNo
@@ -266,6 +270,7 @@ public class Transaction extends BaseModel {
      * @return			    a map of errors codes indexed by property
      *				    name from the validation attempt
      * @see			    #validate(double, jaccounting.models.Account, jaccounting.models.Account)
+     * @see			    BaseModel#loadPeriodsFrom(java.util.Date)
      * @see			    BaseModel#setChangedAndNotifyObservers()
      * @since			    1.0.0
      */
@@ -274,17 +279,32 @@ public class Transaction extends BaseModel {
 	Map<String, ErrorCode> rErrors = validate(amount, debitAccount, 
 							creditAccount);
 
+	if (rErrors.isEmpty() && !loadPeriodsFrom(date)) {
+	    rErrors.put("date", ErrorCode.PERIOD_NOT_LOADED);
+	}
 	if (rErrors.isEmpty()) {
 	    try {
 		if (getCreditAccount() != null && getDebitAccount() != null) {
 		    unpostTransaction();
 		}
 
+		Date vOldDate = getDate();
 		set(date, refNo, memo, amount);
 		debitEntry.setTransferAccount(creditAccount);
 		creditEntry.setTransferAccount(debitAccount);
 		postTransaction();
 
+		MutationLog vLog = getMutationLog();
+		if (vLog != null) vLog.transactionUpdated(this, vOldDate);
+		ChangeTracker vTracker = getChangeTracker();
+		if (vTracker != null) {
+		    if (vOldDate != null) vTracker.transactionChanged(vOldDate);
+		    vTracker.transactionChanged(date);
+		}
+		Journal vJournal = getJournal();
+		if (vJournal != null && vOldDate != null && !vOldDate.equals(date)) {
+		    vJournal.moveTransaction(this, vOldDate);
+		}
 		setChangedAndNotifyObservers();
 	    } 
 	    catch (NotTransactionnableAccountException ex) {
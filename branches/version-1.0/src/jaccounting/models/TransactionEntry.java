@@ -25,7 +25,7 @@ package jaccounting.models;
  * A TransactionEntry object holds the Account to which to apply a Credit or a
  * Debit as a result of a transaction. It is stored both in a Transaction object
  * and in an Account object as part of that Account's list of TransactionEntrys
- * that affected its balance. It also holds the updated balance of the Account
+ * that affected its balance. It also gives the updated balance of the Account
  * it was added and applied to for history purposes of that Account's balance.
  *
  * @author	    Boubacar Diallo
@@ -53,10 +53,17 @@ public class TransactionEntry extends BaseModel {
 
     /**
      * the resulting Account balance after applying this TransactionEntry to the
-     * Account that holds it
+     * Account that holds it, as loaded; computed instead while the Account's
+     * PostingList holds this TransactionEntry
      */
     private double accountBalance;
 
+    /** the chunk of the PostingList last holding this TransactionEntry */
+    PostingList.Chunk chunk;
+
+    /** the position of this TransactionEntry in its chunk */
+    int chunkPosition;
+
 
     /**
      * No argument constructor. Does nothing since the default values wanted for
@@ -100,8 +107,21 @@ public class TransactionEntry extends BaseModel {
         return type;
     }
 
+    /**
+     * Gets the balance of the Account holding this TransactionEntry after it
+     * was applied. The balance is computed from the Account's entries when it
+     * is read, so it follows the entries added or removed before this one.
+     *
+     * @return			the Account balance after this TransactionEntry
+     * @see			PostingList#getBalance(jaccounting.models.PostingList.Chunk,
+     *				    jaccounting.models.TransactionEntry, double)
+     * @since			1.0.0
+     */
     public double getAccountBalance() {
-	return accountBalance;
+	PostingList.Chunk vChunk = chunk;
+
+	return (vChunk != null) ? vChunk.list.getBalance(vChunk, this, accountBalance)
+				: accountBalance;
     }
 
     void setTransaction(Transaction transaction) {
@@ -112,10 +132,6 @@ public class TransactionEntry extends BaseModel {
 	this.transferAccount = transferAccount;
     }
 
-    void setAccountBalance(double accountBalance) {
-	this.accountBalance = accountBalance;
-    }
-
     /**
      * Sets the {@code transferAccount} property of this TransactionEntry only if
      * it is not set. This is convenience method for problems when upersisting;
@@ -21,6 +21,7 @@
 package jaccounting.views;
 
 import jaccounting.JAccounting;
+import jaccounting.MappedSnapshot;
 import jaccounting.controllers.AccountLedgerController;
 import jaccounting.models.Account;
 import jaccounting.models.Transaction;
@@ -33,14 +34,19 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableModel;
 import org.jdesktop.application.ResourceMap;
 
 /**
  * AccountLedgerView is the gui class for the account ledger interface. An
  * AccountLedgerView object displays all transaction entries associated with
- * an account.
+ * an account. In viewer mode, the entries are listed from a {@link
+ * jaccounting.MappedSnapshot MappedSnapshot} instead and only the rows being
+ * displayed are decoded. When earlier periods of the loaded file are not
+ * loaded, scrolling back past the first entry has them loaded.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
@@ -55,6 +61,9 @@ public class AccountLedgerView extends JPanel implements Observer {
     /** the Account being represented by this view */
     private Account appModel;
 
+    /** the snapshot the entries are read from in viewer mode */
+    private MappedSnapshot snapshot;
+
     /** the gui object listing the entries in an Account */
     private EntriesView entriesView;
 
@@ -70,8 +79,25 @@ public class AccountLedgerView extends JPanel implements Observer {
      * @since			    1.0.0
      */
     public AccountLedgerView(AccountLedgerController controller, Account appModel) {
+	this(controller, appModel, null);
+    }
+
+    /**
+     * Constructs an AccountLedgerView listing the Account's entries stored in
+     * a snapshot opened read-only rather than those of the Account when one
+     * is given.
+     *
+     * @param controller	    this view's controller; an AccountLedgerController
+     * @param appModel		    this view's model; an Account
+     * @param snapshot		    the snapshot to list the entries from or null
+     * @see			    jaccounting.MappedSnapshot
+     * @since			    1.0.0
+     */
+    public AccountLedgerView(AccountLedgerController controller, Account appModel,
+			     MappedSnapshot snapshot) {
 	this.controller = controller;
 	this.appModel = appModel;
+	this.snapshot = snapshot;
 
 	initComponents();
 	this.appModel.addObserver(this);
@@ -100,9 +126,31 @@ public class AccountLedgerView extends JPanel implements Observer {
 
 	JScrollPane vPane = new JScrollPane(buildEntriesView());
 	add(vPane);
+	if (snapshot == null && controller.hasEarlierPeriods()) {
+	    new ScrollBackTrigger(vPane) {
+		protected void scrolledBack() {
+		    loadEarlierEntries();
+		}
+	    };
+	}
+    }
+
+    private void loadEarlierEntries() {
+	int vCount = appModel.getEntries().size();
+
+	/** this view is rebuilt as the entries are loaded */
+	if (controller.loadEarlierPeriod(appModel)) {
+	    validate();
+	    ScrollBackTrigger.scrollToRow(entriesView, appModel.getEntries().size() - vCount);
+	}
     }
 
     private EntriesView buildEntriesView() {
+	if (snapshot != null) {
+	    entriesView = new EntriesView(new MappedEntriesTableModel(getColumnNames()));
+	    return entriesView;
+	}
+
 	Object[][] vData = new Object[appModel.getEntries().size()][6];
 	ResourceMap vRmap = JAccounting.getApplication().getContext().getResourceMap(this.getClass());
 	int vIndex = 0;
@@ -110,10 +158,7 @@ public class AccountLedgerView extends JPanel implements Observer {
 	Transaction vTrans;
 	Account vAcct;
 	ListIterator vIt = appModel.getEntries().listIterator();
-	String[] vColNames = { vRmap.getString("columnNames.date"), vRmap.getString("columnNames.debitor"),
-			       vRmap.getString("columnNames.creditor"),
-			       vRmap.getString("columnNames.refNo"), vRmap.getString("columnNames.amount"),
-			       vRmap.getString("columnNames.balance")};
+	String[] vColNames = getColumnNames();
 
 	while (vIt.hasNext()) {
 	    vEntry = (TransactionEntry) vIt.next();
@@ -136,15 +181,24 @@ public class AccountLedgerView extends JPanel implements Observer {
 	    vIndex++;
 	}
 
-	entriesView = new EntriesView(vData, vColNames);
+	entriesView = new EntriesView(new EntriesViewTableModel(vData, vColNames));
 	return entriesView;
     }
 
+    private String[] getColumnNames() {
+	ResourceMap vRmap = JAccounting.getApplication().getContext().getResourceMap(this.getClass());
+
+	return new String[] { vRmap.getString("columnNames.date"), vRmap.getString("columnNames.debitor"),
+			      vRmap.getString("columnNames.creditor"),
+			      vRmap.getString("columnNames.refNo"), vRmap.getString("columnNames.amount"),
+			      vRmap.getString("columnNames.balance")};
+    }
+
 
     private class EntriesView extends JTable {
 
-	private EntriesView(Object[][] pData, String[] pColNames) {
-	    super(new EntriesViewTableModel(pData, pColNames));
+	private EntriesView(TableModel pModel) {
+	    super(pModel);
 	    customize();
 	}
 
@@ -179,4 +233,62 @@ public class AccountLedgerView extends JPanel implements Observer {
 	@Override
 	public boolean isCellEditable(int row, int col){ return false; }
     }
+
+    /**
+     * A table model decoding the cells of a row from the snapshot only when
+     * the table asks for them, through a single EntryRecord.
+     */
+    private class MappedEntriesTableModel extends AbstractTableModel {
+
+	private String[] colNames;
+
+	private MappedSnapshot.EntryRecord record;
+
+	private ResourceMap rmap;
+
+	MappedEntriesTableModel(String[] pColNames) {
+	    colNames = pColNames;
+	    record = snapshot.createEntryRecord(appModel);
+	    rmap = JAccounting.getApplication().getContext().getResourceMap(AccountLedgerView.class);
+	}
+
+	public int getRowCount() {
+	    return snapshot.getEntriesCount(appModel);
+	}
+
+	public int getColumnCount() {
+	    return colNames.length;
+	}
+
+	@Override
+	public String getColumnName(int col) {
+	    return colNames[col];
+	}
+
+	public Object getValueAt(int row, int col) {
+	    MappedSnapshot.TransactionRecord vTrans = record.getTransaction();
+
+	    record.moveTo(row);
+	    switch (col) {
+		case 0:
+		    return rmap.getString("dateText", vTrans.getDate());
+		case 1:
+		    if (record.getType() != TransactionEntry.Type.DEBIT) return null;
+		    return rmap.getString("debitorText", record.getTransferAccountName(),
+				vTrans.getMemo());
+		case 2:
+		    if (record.getType() != TransactionEntry.Type.CREDIT) return null;
+		    return rmap.getString("creditorText", record.getTransferAccountName(),
+				vTrans.getMemo());
+		case 3:
+		    return rmap.getString("refNoText", vTrans.getRefNo());
+		case 4:
+		    return rmap.getString("amountText", vTrans.getAmount());
+		case 5:
+		    return rmap.getString("balanceText", record.getAccountBalance());
+		default:
+		    return null;
+	    }
+	}
+    }
 }
@@ -21,10 +21,12 @@
 package jaccounting.views;
 
 import jaccounting.JAccounting;
+import jaccounting.MappedSnapshot;
 import jaccounting.controllers.JournalController;
 import jaccounting.models.Journal;
 import jaccounting.models.Transaction;
 import java.awt.GridLayout;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Observable;
 import java.util.Observer;
@@ -33,14 +35,20 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
 import javax.swing.event.ListSelectionEvent;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumnModel;
+import javax.swing.table.TableModel;
 import org.jdesktop.application.ResourceMap;
 
 /**
  * JournalView is the gui class for the journal interface. A JournalView object
  * lists all the transactionsView in the Journal model. It notifies the JournalController
- * of selection changes from the user.
+ * of selection changes from the user. In viewer mode, the transactions are
+ * listed from a {@link jaccounting.MappedSnapshot MappedSnapshot} instead and
+ * only the rows being displayed are decoded. When earlier periods of the loaded
+ * file are not loaded, scrolling back past the first transaction has them
+ * loaded.
  *
  * @author	    Boubacar Diallo
  * @version	    1.0.0
@@ -54,8 +62,14 @@ public class JournalView extends JPanel implements Observer {
 
     private Journal appModel;
 
+    /** the snapshot the transactions are read from in viewer mode */
+    private MappedSnapshot snapshot;
+
     private TransactionsView transactionsView;
 
+    /** the table model of the transactions; null in viewer mode */
+    private TransactionsViewTableModel transactionsModel;
+
 
     /**
      * Sole constructor. This constructor initializes this view's controller and
@@ -68,8 +82,24 @@ public class JournalView extends JPanel implements Observer {
      * @since			    1.0.0
      */
     public JournalView(JournalController controller, Journal model) {
+	this(controller, model, null);
+    }
+
+    /**
+     * Constructs a JournalView listing the transactions of a snapshot opened
+     * read-only rather than those of its Journal model when one is given.
+     *
+     * @param controller	    the controller; a JournalController
+     * @param model		    the model; a Journal
+     * @param snapshot		    the snapshot to list the transactions of or
+     *				    null
+     * @see			    jaccounting.MappedSnapshot
+     * @since			    1.0.0
+     */
+    public JournalView(JournalController controller, Journal model, MappedSnapshot snapshot) {
 	this.controller = controller;
 	this.appModel = model;
+	this.snapshot = snapshot;
 
 	initComponents();
 	this.appModel.addObserver(this);
@@ -78,14 +108,35 @@ public class JournalView extends JPanel implements Observer {
 
     /**
      * Handles change notifications from this view's model. This method simply
-     * re-initializes this view and redraws it.
+     * re-initializes this view and redraws it, unless Transactions are being
+     * loaded into the Journal, in which case their rows are appended.
      *
      * @param o			the object being observed by this view
-     * @param arg		additional information about the change
+     * @param arg		additional information about the change; the
+     *				list of Transactions appended while loading
+     * @see			jaccounting.models.Journal#appendLoadedTransactions(java.util.List)
      * @since			1.0.0
      */
     public void update(Observable o, Object arg) {
-	handleModelChanged();
+	if (arg instanceof List && transactionsModel != null) {
+	    appendRows((List) arg);
+	}
+	else {
+	    handleModelChanged();
+	}
+    }
+
+    private void appendRows(List pTransactions) {
+	ResourceMap vRmap = JAccounting.getApplication().getContext().getResourceMap(this.getClass());
+	Object[][] vRows = new Object[pTransactions.size()][];
+
+	for (int vI = 0; vI < vRows.length; vI++) {
+	    Transaction vTrans = (Transaction) pTransactions.get(vI);
+
+	    vRows[vI] = buildRow(vTrans, vRmap);
+	    vTrans.addObserver(this);
+	}
+	transactionsModel.appendRows(vRows);
     }
 
     private void handleModelChanged() {
@@ -102,11 +153,37 @@ public class JournalView extends JPanel implements Observer {
 	String[] vColNames = { vRmap.getString("columnNames.date"), vRmap.getString("columnNames.refNo"),
 			       vRmap.getString("columnNames.particulars"), vRmap.getString("columnNames.debitAmount"),
 			       vRmap.getString("columnNames.creditAmount") };
-	Object[][] vData = buildGridData();
-	transactionsView = new TransactionsView(vData, vColNames);
+	TableModel vTableModel;
+	if (snapshot == null) {
+	    transactionsModel = new TransactionsViewTableModel(buildGridData(), vColNames);
+	    vTableModel = transactionsModel;
+	}
+	else {
+	    transactionsModel = null;
+	    vTableModel = new MappedTransactionsTableModel(vColNames);
+	}
+	transactionsView = new TransactionsView(vTableModel);
 
 	JScrollPane vPane = new JScrollPane(transactionsView);
 	add(vPane);
+	if (transactionsModel != null && controller.hasEarlierPeriods()) {
+	    new ScrollBackTrigger(vPane) {
+		protected void scrolledBack() {
+		    loadEarlierTransactions();
+		}
+	    };
+	}
+    }
+
+    private void loadEarlierTransactions() {
+	int vCount = appModel.getTransactions().size();
+
+	/** this view is rebuilt as the Transactions are loaded */
+	if (controller.loadEarlierPeriod()) {
+	    validate();
+	    ScrollBackTrigger.scrollToRow(transactionsView,
+					  appModel.getTransactions().size() - vCount);
+	}
     }
 
     private Object[][] buildGridData() {
@@ -119,12 +196,7 @@ public class JournalView extends JPanel implements Observer {
 	while (vIt.hasNext()) {
 	    vTrans = (Transaction) vIt.next();
 	   
-	    rData[vIndex][0] = vRmap.getString("dateText", vTrans.getDate());
-	    rData[vIndex][1] = vRmap.getString("refNoText", vTrans.getRefNo());
-	    rData[vIndex][2] = vRmap.getString("particularsText", vTrans.getDebitAccount().getName(),
-				vTrans.getCreditAccount().getName(), vTrans.getMemo());
-	    rData[vIndex][3] = vRmap.getString("debitAmountText", vTrans.getAmount());
-	    rData[vIndex][4] = vRmap.getString("creditAmountText", vTrans.getAmount());
+	    rData[vIndex] = buildRow(vTrans, vRmap);
 	    
 	    vTrans.addObserver(this);
 	    vIndex++;
@@ -133,6 +205,19 @@ public class JournalView extends JPanel implements Observer {
 	return rData;
     }
 
+    private Object[] buildRow(Transaction pTrans, ResourceMap pRmap) {
+	Object[] rRow = new Object[5];
+
+	rRow[0] = pRmap.getString("dateText", pTrans.getDate());
+	rRow[1] = pRmap.getString("refNoText", pTrans.getRefNo());
+	rRow[2] = pRmap.getString("particularsText", pTrans.getDebitAccount().getName(),
+			pTrans.getCreditAccount().getName(), pTrans.getMemo());
+	rRow[3] = pRmap.getString("debitAmountText", pTrans.getAmount());
+	rRow[4] = pRmap.getString("creditAmountText", pTrans.getAmount());
+
+	return rRow;
+    }
+
     private void transactionsSelectionChanged() {
 	int vRow = transactionsView.getSelectedRow();
 	
@@ -147,7 +232,7 @@ public class JournalView extends JPanel implements Observer {
     /**
      * Gets the currently selected Transaction object. This method effectively gets
      * the currently selected row and asks the Journal for the corresponding
-     * Transaction object.
+     * Transaction object. There is no Transaction object to get in viewer mode.
      *
      * @return		    the currently selected Transaction or null
      * @see		    #getCurrentlySelectedRow()
@@ -156,7 +241,7 @@ public class JournalView extends JPanel implements Observer {
      */
     public Transaction getCurrentlySelectedTransaction() {
 	int vIndex = getCurrentlySelectedRow();
-	return (vIndex == -1) ? null : appModel.getTransaction(vIndex);
+	return (vIndex == -1 || snapshot != null) ? null : appModel.getTransaction(vIndex);
     }
 
     /**
@@ -171,8 +256,8 @@ public class JournalView extends JPanel implements Observer {
 
     private class TransactionsView extends JTable {
 
-	private TransactionsView(Object[][] pData, String[] pColNames) {
-	    super(new TransactionsViewTableModel(pData, pColNames));
+	private TransactionsView(TableModel pModel) {
+	    super(pModel);
 	    customize();
 	}
 
@@ -212,6 +297,71 @@ public class JournalView extends JPanel implements Observer {
 
 	@Override
 	public boolean isCellEditable(int row, int col){ return false; }
+
+	/**
+	 * Appends rows with a single event rather than one per row as addRow
+	 * would.
+	 */
+	void appendRows(Object[][] pRows) {
+	    int vFirst = dataVector.size();
+
+	    if (pRows.length == 0) return;
+	    for (int vI = 0; vI < pRows.length; vI++) {
+		dataVector.add(convertToVector(pRows[vI]));
+	    }
+	    fireTableRowsInserted(vFirst, vFirst + pRows.length - 1);
+	}
+    }
+
+    /**
+     * A table model decoding the cells of a row from the snapshot only when
+     * the table asks for them, through a single TransactionRecord.
+     */
+    private class MappedTransactionsTableModel extends AbstractTableModel {
+
+	private String[] colNames;
+
+	private MappedSnapshot.TransactionRecord record;
+
+	private ResourceMap rmap;
+
+	MappedTransactionsTableModel(String[] pColNames) {
+	    colNames = pColNames;
+	    record = snapshot.createTransactionRecord();
+	    rmap = JAccounting.getApplication().getContext().getResourceMap(JournalView.class);
+	}
+
+	public int getRowCount() {
+	    return snapshot.getTransactionsCount();
+	}
+
+	public int getColumnCount() {
+	    return colNames.length;
+	}
+
+	@Override
+	public String getColumnName(int col) {
+	    return colNames[col];
+	}
+
+	public Object getValueAt(int row, int col) {
+	    record.moveTo(row);
+	    switch (col) {
+		case 0:
+		    return rmap.getString("dateText", record.getDate());
+		case 1:
+		    return rmap.getString("refNoText", record.getRefNo());
+		case 2:
+		    return rmap.getString("particularsText", record.getDebitAccountName(),
+				record.getCreditAccountName(), record.getMemo());
+		case 3:
+		    return rmap.getString("debitAmountText", record.getAmount());
+		case 4:
+		    return rmap.getString("creditAmountText", record.getAmount());
+		default:
+		    return null;
+	    }
+	}
     }
 
 }
@@ -0,0 +1,127 @@
+/*
+ * ScrollBackTrigger.java	    1.0.0	    09/2009
+ * This file contains the scroll back trigger class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting.views;
+
+import java.awt.Rectangle;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+
+/**
+ * ScrollBackTrigger is the class telling a view that the user scrolled back
+ * past the first row of a scroll pane, i.e. that the vertical scroll bar was
+ * brought back to the top or that the mouse wheel was turned up while it was
+ * there. Views listing Transactions use it to have the earlier periods of the
+ * loaded file loaded. {@link #scrolledBack()} is called once the event that
+ * triggered it is handled, and once for all the triggering events of a same
+ * user gesture.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    JournalView
+ * @see		    AccountLedgerView
+ * @since	    1.0.0
+ */
+abstract class ScrollBackTrigger implements AdjustmentListener, MouseWheelListener {
+
+    private JScrollBar scrollBar;	    // the vertical scroll bar watched
+
+    private int lastValue;		    // the scroll bar value when last settled
+
+    private boolean pending;		    // whether scrolledBack is about to be called
+
+
+    /**
+     * Sole constructor. This constructor starts watching a scroll pane.
+     *
+     * @param pScrollPane	    the scroll pane to watch
+     * @since			    1.0.0
+     */
+    ScrollBackTrigger(JScrollPane pScrollPane) {
+	scrollBar = pScrollPane.getVerticalScrollBar();
+	lastValue = scrollBar.getValue();
+	pending = false;
+	scrollBar.addAdjustmentListener(this);
+	pScrollPane.addMouseWheelListener(this);
+    }
+
+
+    /**
+     * Handles the user scrolling back past the first row.
+     *
+     * @since			    1.0.0
+     */
+    protected abstract void scrolledBack();
+
+    public void adjustmentValueChanged(AdjustmentEvent e) {
+	/** a drag is only judged once the thumb is released */
+	if (e.getValueIsAdjusting()) return;
+
+	if (e.getValue() == scrollBar.getMinimum() && lastValue > e.getValue()) {
+	    trigger();
+	}
+	lastValue = e.getValue();
+    }
+
+    public void mouseWheelMoved(MouseWheelEvent e) {
+	if (e.getWheelRotation() < 0 && scrollBar.getValue() == scrollBar.getMinimum()) {
+	    trigger();
+	}
+    }
+
+    /**
+     * Scrolls a table so that a row shows first, such as the row that was
+     * first before earlier rows were loaded, so the user carries on from
+     * where they were.
+     *
+     * @param pTable		    the table to scroll
+     * @param pRow		    the row to show first
+     * @since			    1.0.0
+     */
+    static void scrollToRow(final JTable pTable, final int pRow) {
+	SwingUtilities.invokeLater(new Runnable() {
+	    public void run() {
+		Rectangle vRect = pTable.getCellRect(pRow, 0, true);
+
+		vRect.height = pTable.getVisibleRect().height;
+		pTable.scrollRectToVisible(vRect);
+	    }
+	});
+    }
+
+    private void trigger() {
+	if (pending) return;
+
+	pending = true;
+	SwingUtilities.invokeLater(new Runnable() {
+	    public void run() {
+		pending = false;
+		scrolledBack();
+	    }
+	});
+    }
+
+}
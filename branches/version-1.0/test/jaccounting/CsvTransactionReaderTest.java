@@ -0,0 +1,225 @@
+/*
+ * CsvTransactionReaderTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the CsvTransactionReader class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * CsvTransactionReaderTest is the test class for the CsvTransactionReader
+ * class.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    CsvTransactionReader
+ * @since	    1.0.0
+ */
+public class CsvTransactionReaderTest {
+
+    private static final String FILENAME = "CsvTransactionReaderTest.jact";
+
+    private static final String OTHER_FILENAME = "CsvTransactionReaderTest-other.jact";
+
+    private static final String HEADER = "date,refNo,memo,amount,debitAccount,creditAccount";
+
+    private Data data;
+
+    private String debitName;
+
+    private String creditName;
+
+
+    public CsvTransactionReaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	List<String> vNames;
+
+	data = loadNewData(FILENAME);
+	vNames = new ArrayList<String>(data.getGeneralLedger()
+		.getTransactionnableAccountsByFullName().keySet());
+	debitName = vNames.get(0);
+	creditName = vNames.get(1);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+
+    /**
+     * Test of read method, of class CsvTransactionReader.
+     */
+    @Test
+    public void testRead_Parses_Quoted_Fields() throws Exception {
+	System.out.println("read");
+	List<Transaction> vResult = read(HEADER + "\r\n"
+		+ "2009-09-01,R1,plain,1.5," + debitName + "," + creditName + "\r\n"
+		+ "2009-09-02 10:15,R2,\"a,b\",2," + debitName + "," + creditName + "\r\n"
+		+ "2009-09-03 10:15:30,\"R\"\"3\",\"say \"\"hi\"\"\",3,\"" + debitName + "\","
+		+ creditName + "\n"
+		+ "2009-09-04,R4,\"line 1\r\nline 2\nline 3\rend\",4," + debitName + ","
+		+ creditName + "\r"
+		+ "\r\n"
+		+ "2009-09-05,,\"\",5," + debitName + "," + creditName);
+
+	assertEquals(5, vResult.size());
+	assertTransaction(vResult.get(0), "2009-09-01 00:00:00", "R1", "plain", 1.5);
+	assertTransaction(vResult.get(1), "2009-09-02 10:15:00", "R2", "a,b", 2.0);
+	assertTransaction(vResult.get(2), "2009-09-03 10:15:30", "R\"3", "say \"hi\"", 3.0);
+	assertTransaction(vResult.get(3), "2009-09-04 00:00:00", "R4",
+			  "line 1\r\nline 2\nline 3\rend", 4.0);
+	assertTransaction(vResult.get(4), "2009-09-05 00:00:00", "", "", 5.0);
+    }
+
+    /**
+     * Test of read method, of class CsvTransactionReader.
+     */
+    @Test
+    public void testRead_Skips_Only_A_First_Header_Record() throws Exception {
+	System.out.println("read");
+	String vRecord = "2009-09-01,R1,,1," + debitName + "," + creditName + "\n";
+
+	/** no header */
+	assertEquals(1, read(vRecord).size());
+	/** a header in any case */
+	assertEquals(1, read(" Date ,RefNo,Memo,Amount,Debit,Credit\n" + vRecord).size());
+
+	/** a header record after the first is not valid */
+	try {
+	    read(vRecord + HEADER + "\n");
+	    fail("a header after the first record was read");
+	}
+	catch (UnPersistenceFailureException ex) {
+	}
+    }
+
+    /**
+     * Test of read method, of class CsvTransactionReader.
+     */
+    @Test
+    public void testRead_Fails_On_An_Invalid_Record() throws Exception {
+	System.out.println("read");
+	String vRecord = "2009-09-01,R1,,1," + debitName + "," + creditName + "\n";
+	String[] vInvalids = {
+	    "2009-09-31,R,,1," + debitName + "," + creditName + "\n",
+	    "2009-09-01,R,,one," + debitName + "," + creditName + "\n",
+	    "2009-09-01,R,,1,No Such Account," + creditName + "\n",
+	    "2009-09-01,R,\"a,b,1," + debitName + "," + creditName + "\n",
+	    "2009-09-01,R,,1," + debitName + "\n"
+	};
+
+	for (String vInvalid : vInvalids) {
+	    try {
+		read(vRecord + vInvalid + vRecord);
+		fail("read invalid record " + vInvalid);
+	    }
+	    catch (UnPersistenceFailureException ex) {
+	    }
+	}
+    }
+
+    /**
+     * Test of read method with the journal written by a DataExporter, of class
+     * CsvTransactionReader.
+     */
+    @Test
+    public void testRead_Reads_Back_An_Exported_Journal() throws Exception {
+	System.out.println("read");
+	String[] vMemos = { "plain", "a,b", "say \"hi\"", "line 1\r\nline 2", "cr\ronly",
+			    "\"", "", " spaced ", "back\\slash" };
+	List<Account> vAccounts = new ArrayList<Account>(data.getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	String vExported;
+	List<Transaction> vRead;
+
+	for (int i = 0; i < 30; i++) {
+	    Transaction vTrans = Transaction.createTransaction();
+
+	    assertTrue(vTrans.update(new Date((i % 4) * 24L * 60 * 60 * 1000 + i * 1000L),
+				     "R," + i, vMemos[i % vMemos.length], i + 0.25,
+				     vAccounts.get(i % 5), vAccounts.get(5 + i % 3)).isEmpty());
+	    data.getJournal().addTransaction(vTrans);
+	}
+	vExported = exportJournal(data);
+
+	data = loadNewData(OTHER_FILENAME);
+	vRead = read(vExported);
+	assertTrue(data.getJournal().addTransactions(vRead));
+
+	assertEquals(vExported, exportJournal(data));
+    }
+
+
+    private List<Transaction> read(String pText) throws Exception {
+	CsvTransactionReader vReader = new CsvTransactionReader(
+		data.getGeneralLedger().getTransactionnableAccountsByFullName());
+
+	return vReader.read(new StringReader(pText));
+    }
+
+    private void assertTransaction(Transaction pTrans, String pDate, String pRefNo,
+				   String pMemo, double pAmount) {
+	assertEquals(pDate, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(pTrans.getDate()));
+	assertEquals(pRefNo, pTrans.getRefNo());
+	assertEquals(pMemo, pTrans.getMemo());
+	assertEquals(pAmount, pTrans.getAmount(), 0.0);
+	assertSame(data.getGeneralLedger().getAccount(debitName), pTrans.getDebitAccount());
+	assertSame(data.getGeneralLedger().getAccount(creditName), pTrans.getCreditAccount());
+    }
+
+    private static Data loadNewData(String pFilename) {
+	JAccounting.getApplication().getModelsMngr().loadNew(pFilename);
+
+	return JAccounting.getApplication().getModelsMngr().getData();
+    }
+
+    private static String exportJournal(Data pData) throws Exception {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	new DataExporter(pData, DataExporter.Format.CSV, false).exportJournal(vBytes);
+
+	return vBytes.toString("UTF-8");
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * DataExporterTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the DataExporter class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import java.io.ByteArrayOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * DataExporterTest is the test class for the DataExporter class.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    DataExporter
+ * @since	    1.0.0
+ */
+public class DataExporterTest {
+
+    private static final String FILENAME = "DataExporterTest.jact";
+
+    private static final Date DATE = new Date(10L * 24 * 60 * 60 * 1000);
+
+    private Data data;
+
+    private Account debitAccount;
+
+    private Account creditAccount;
+
+    private String debitName;
+
+    private String creditName;
+
+    private String dateText;
+
+
+    public DataExporterTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	List<String> vNames;
+
+	JAccounting.getApplication().getModelsMngr().loadNew(FILENAME);
+	data = JAccounting.getApplication().getModelsMngr().getData();
+	vNames = new ArrayList<String>(data.getGeneralLedger()
+		.getTransactionnableAccountsByFullName().keySet());
+	debitName = vNames.get(0);
+	creditName = vNames.get(1);
+	debitAccount = data.getGeneralLedger().getAccount(debitName);
+	creditAccount = data.getGeneralLedger().getAccount(creditName);
+	dateText = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(DATE);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+
+    /**
+     * Test of exportJournal method, of class DataExporter.
+     */
+    @Test
+    public void testExportJournal_Quotes_Csv_Values() throws Exception {
+	System.out.println("exportJournal");
+
+	addTransaction("plain", 1.5);
+	addTransaction("a,b", 2.0);
+	addTransaction("say \"hi\"", 3.0);
+	addTransaction("line 1\nline 2", 4.0);
+	addTransaction("carriage\rreturn", 5.0);
+	addTransaction("", 6.0);
+
+	assertEquals("date,refNo,memo,amount,debitAccount,creditAccount\r\n"
+		     + csvRow("plain", "1.5")
+		     + csvRow("\"a,b\"", "2.0")
+		     + csvRow("\"say \"\"hi\"\"\"", "3.0")
+		     + csvRow("\"line 1\nline 2\"", "4.0")
+		     + csvRow("\"carriage\rreturn\"", "5.0")
+		     + csvRow("", "6.0"),
+		     exportJournal(DataExporter.Format.CSV, false));
+    }
+
+    /**
+     * Test of exportJournal method, of class DataExporter.
+     */
+    @Test
+    public void testExportJournal_Escapes_Json_Strings() throws Exception {
+	System.out.println("exportJournal");
+
+	addTransaction("say \"hi\"", 1.0);
+	addTransaction("back\\slash", 2.0);
+	addTransaction("line\nfeed\rreturn\ttab", 3.0);
+	addTransaction("bell\u0007 and \u00e9", 4.0);
+
+	assertEquals(jsonRow("say \\\"hi\\\"", "1.0")
+		     + jsonRow("back\\\\slash", "2.0")
+		     + jsonRow("line\\nfeed\\rreturn\\ttab", "3.0")
+		     + jsonRow("bell\\u0007 and \u00e9", "4.0"),
+		     exportJournal(DataExporter.Format.JSON, false));
+    }
+
+    /**
+     * Test of exportAccountLedgers method, of class DataExporter.
+     */
+    @Test
+    public void testExportAccountLedgers_Quotes_Csv_Values() throws Exception {
+	System.out.println("exportAccountLedgers");
+	String vOutput;
+
+	addTransaction("a,b", 2.0);
+
+	vOutput = exportAccountLedgers(DataExporter.Format.CSV, false);
+
+	assertTrue(vOutput.startsWith("account,date,refNo,memo,type,amount,transferAccount,"
+				      + "balance\r\n"));
+	assertTrue(vOutput.contains(debitName + "," + dateText + ",R,\"a,b\",debit,2.0,"
+				    + creditName + ","));
+	assertTrue(vOutput.contains(creditName + "," + dateText + ",R,\"a,b\",credit,2.0,"
+				    + debitName + ","));
+    }
+
+    /**
+     * Test of exportJournal and exportAccountLedgers methods, of class
+     * DataExporter.
+     */
+    @Test
+    public void testExport_Detached_Writes_The_Data_As_Of_Its_Creation() throws Exception {
+	System.out.println("exportJournal");
+	DataExporter vCsvExporter;
+	DataExporter vJsonExporter;
+	String vJournal;
+	String vLedgers;
+	Transaction vTrans;
+
+	for (int i = 0; i < 10; i++) {
+	    addTransaction("memo " + i, i + 1.0);
+	}
+	vJournal = exportJournal(DataExporter.Format.CSV, false);
+	vLedgers = exportAccountLedgers(DataExporter.Format.JSON, false);
+	vCsvExporter = new DataExporter(data, DataExporter.Format.CSV, true);
+	vJsonExporter = new DataExporter(data, DataExporter.Format.JSON, true);
+
+	vTrans = data.getJournal().getTransaction(3);
+	assertTrue(vTrans.update(new Date(DATE.getTime() + 1000), "Changed", "changed memo",
+				 99.0, creditAccount, debitAccount).isEmpty());
+	data.getJournal().removeTransaction(0);
+	addTransaction("later", 50.0);
+
+	assertEquals(vJournal, export(vCsvExporter, true));
+	assertEquals(vLedgers, export(vJsonExporter, false));
+	assertFalse(vJournal.equals(exportJournal(DataExporter.Format.CSV, false)));
+    }
+
+
+    private void addTransaction(String pMemo, double pAmount) {
+	Transaction vTrans = Transaction.createTransaction();
+
+	assertTrue(vTrans.update(DATE, "R", pMemo, pAmount, debitAccount,
+				 creditAccount).isEmpty());
+	data.getJournal().addTransaction(vTrans);
+    }
+
+    private String csvRow(String pMemo, String pAmount) {
+	return dateText + ",R," + pMemo + "," + pAmount + "," + debitName + ","
+	       + creditName + "\r\n";
+    }
+
+    private String jsonRow(String pMemo, String pAmount) {
+	return "{\"date\":\"" + dateText + "\",\"refNo\":\"R\",\"memo\":\"" + pMemo
+	       + "\",\"amount\":" + pAmount + ",\"debitAccount\":\"" + debitName
+	       + "\",\"creditAccount\":\"" + creditName + "\"}\n";
+    }
+
+    private String exportJournal(DataExporter.Format pFormat, boolean pDetached)
+	    throws Exception {
+	return export(new DataExporter(data, pFormat, pDetached), true);
+    }
+
+    private String exportAccountLedgers(DataExporter.Format pFormat, boolean pDetached)
+	    throws Exception {
+	return export(new DataExporter(data, pFormat, pDetached), false);
+    }
+
+    private String export(DataExporter pExporter, boolean pJournal) throws Exception {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	if (pJournal) {
+	    pExporter.exportJournal(vBytes);
+	}
+	else {
+	    pExporter.exportAccountLedgers(vBytes);
+	}
+
+	return vBytes.toString("UTF-8");
+    }
+
+}
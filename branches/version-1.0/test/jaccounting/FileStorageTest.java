@@ -0,0 +1,237 @@
+/*
+ * FileStorageTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the FileStorage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * FileStorageTest is the test class for the FileStorage class. Each test saves
+ * a ledger in one of the file formats, changes it while the save is written,
+ * then loads the file again.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    FileStorage
+ * @since	    1.0.0
+ */
+public class FileStorageTest {
+
+    private static final String FILENAME = "FileStorageTest";
+
+    private static final String OTHER_FILENAME = "FileStorageTest-other.jact";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private ModelsMngr modelsMngr;
+
+    private String filename;
+
+
+    public FileStorageTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	modelsMngr = JAccounting.getApplication().getModelsMngr();
+	filename = null;
+    }
+
+    @After
+    public void tearDown() {
+	modelsMngr.loadNew(OTHER_FILENAME);
+	if (filename != null) deleteFiles(filename);
+	deleteFiles(OTHER_FILENAME);
+    }
+
+
+    /**
+     * Test of createCheckpoint method, of class FileStorage.
+     */
+    @Test
+    public void testCreateCheckpoint_Saves_Xml_As_Of_Its_Creation() throws Exception {
+	System.out.println("createCheckpoint");
+
+	assertSavesAsOfCreation(FILENAME + ".jact", false);
+    }
+
+    /**
+     * Test of createCheckpoint method, of class FileStorage.
+     */
+    @Test
+    public void testCreateCheckpoint_Saves_Compressed_Xml_As_Of_Its_Creation() throws Exception {
+	System.out.println("createCheckpoint");
+
+	assertSavesAsOfCreation(FILENAME + ".jact" + ModelsMngr.COMPRESSED_FILE_EXTENSION, true);
+    }
+
+    /**
+     * Test of createCheckpoint method, of class FileStorage.
+     */
+    @Test
+    public void testCreateCheckpoint_Saves_Snapshot_As_Of_Its_Creation() throws Exception {
+	System.out.println("createCheckpoint");
+
+	assertSavesAsOfCreation(FILENAME + ModelsMngr.SNAPSHOT_FILE_EXTENSION, false);
+    }
+
+    /**
+     * Test of createCheckpoint method, of class FileStorage.
+     */
+    @Test
+    public void testCreateCheckpoint_Saves_Compressed_Snapshot_As_Of_Its_Creation()
+	    throws Exception {
+	System.out.println("createCheckpoint");
+
+	assertSavesAsOfCreation(FILENAME + ModelsMngr.SNAPSHOT_FILE_EXTENSION
+				+ ModelsMngr.COMPRESSED_FILE_EXTENSION, true);
+    }
+
+
+    /**
+     * Test of createCheckpoint method with a Checkpoint not written, of class
+     * FileStorage.
+     */
+    @Test
+    public void testCreateCheckpoint_Is_Forced_Until_A_New_Log_Extends_The_File()
+	    throws Exception {
+	System.out.println("createCheckpoint");
+	Storage.Checkpoint vCheckpoint;
+
+	filename = FILENAME + ".jact";
+	deleteFiles(filename);
+	modelsMngr.loadNew(filename);
+	vCheckpoint = modelsMngr.createCheckpoint();
+	assertNotNull(vCheckpoint);
+
+	/** the log started for the Checkpoint extends no file until it is committed */
+	assertNotNull(modelsMngr.getMutationLog());
+	assertNotNull(modelsMngr.createCheckpoint());
+	vCheckpoint = modelsMngr.createCheckpoint();
+	vCheckpoint.write();
+	vCheckpoint.commit();
+	assertNull(modelsMngr.createCheckpoint());
+    }
+
+
+    /**
+     * Saves a new ledger to a file, changing it between the creation of the
+     * Checkpoint and its writing, and checks the file holds the ledger as it
+     * was when the Checkpoint was created while its log holds the changes.
+     */
+    private void assertSavesAsOfCreation(String pFilename, boolean pCompressed)
+	    throws Exception {
+	Storage.Checkpoint vCheckpoint;
+	List<Account> vAccounts;
+	String vSaved;
+	String vLive;
+
+	filename = pFilename;
+	deleteFiles(pFilename);
+	modelsMngr.loadNew(pFilename);
+	vAccounts = new ArrayList<Account>(modelsMngr.getData().getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	for (int i = 0; i < 50; i++) {
+	    addTransaction(new Date((i % 7) * DAY), "R" + i, i + 0.5,
+			   vAccounts.get(i % 3), vAccounts.get(3 + i % 2));
+	}
+	vSaved = toXml(modelsMngr.getData());
+
+	vCheckpoint = modelsMngr.createCheckpoint();
+	assertNotNull(vCheckpoint);
+	/** changes made while the Checkpoint is written are not part of it */
+	addTransaction(new Date(3 * DAY), "Later", 7.0, vAccounts.get(0), vAccounts.get(1));
+	modelsMngr.getData().getJournal().removeTransaction(0);
+	vLive = toXml(modelsMngr.getData());
+	vCheckpoint.write();
+	vCheckpoint.commit();
+
+	/** they are in the log, which is short enough to need no other save */
+	assertNull(modelsMngr.createCheckpoint());
+	assertEquals(pCompressed, isCompressed(pFilename));
+	modelsMngr.loadNew(OTHER_FILENAME);
+	modelsMngr.load(pFilename);
+	assertEquals(vLive, toXml(modelsMngr.getData()));
+
+	modelsMngr.loadNew(OTHER_FILENAME);
+	FileStorage.getLocalFile(pFilename + MutationLog.FILE_EXTENSION).delete();
+	modelsMngr.load(pFilename);
+	assertEquals(vSaved, toXml(modelsMngr.getData()));
+    }
+
+    private void addTransaction(Date pDate, String pRefNo, double pAmount,
+				Account pDebitAccount, Account pCreditAccount) {
+	Transaction vTrans = Transaction.createTransaction();
+
+	assertTrue(vTrans.update(pDate, pRefNo, "", pAmount, pDebitAccount,
+				 pCreditAccount).isEmpty());
+	modelsMngr.getData().getJournal().addTransaction(vTrans);
+    }
+
+    private boolean isCompressed(String pFilename) throws Exception {
+	InputStream vStream = new BufferedInputStream(
+				new FileInputStream(FileStorage.getLocalFile(pFilename)));
+
+	try {
+	    return PersistenceHandler.detectCompression(vStream)
+		   == PersistenceHandler.Compression.GZIP;
+	}
+	finally {
+	    vStream.close();
+	}
+    }
+
+    private String toXml(Data pData) throws Exception {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	new XmlDataWriter().write(pData, vBytes);
+
+	return vBytes.toString("UTF-8");
+    }
+
+    private void deleteFiles(String pFilename) {
+	FileStorage.getLocalFile(pFilename).delete();
+	FileStorage.getLocalFile(pFilename + MutationLog.FILE_EXTENSION).delete();
+    }
+
+}
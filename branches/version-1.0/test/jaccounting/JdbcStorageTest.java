@@ -0,0 +1,199 @@
+/*
+ * JdbcStorageTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the JdbcStorage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * JdbcStorageTest is the test class for the JdbcStorage class. The tests save
+ * a ledger to an embedded Derby database, the default driver, and load it
+ * back.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    JdbcStorage
+ * @since	    1.0.0
+ */
+public class JdbcStorageTest {
+
+    private static final String FILENAME = "JdbcStorageTest"
+					   + ModelsMngr.DATABASE_FILE_EXTENSION;
+
+    private static final String OTHER_FILENAME = "JdbcStorageTest-other.jact";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private ModelsMngr modelsMngr;
+
+
+    public JdbcStorageTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+	/** keep the Derby log out of the working directory */
+	System.setProperty("derby.stream.error.file",
+			   new File(System.getProperty("java.io.tmpdir"), "derby.log").getPath());
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	modelsMngr = JAccounting.getApplication().getModelsMngr();
+	deleteFiles();
+    }
+
+    @After
+    public void tearDown() {
+	modelsMngr.loadNew(OTHER_FILENAME);
+	deleteFiles();
+    }
+
+
+    /**
+     * Test of createCheckpoint and load methods, of class JdbcStorage.
+     */
+    @Test
+    public void testCreateCheckpoint_Saves_Changed_Rows_That_Load_Back() throws Exception {
+	System.out.println("createCheckpoint");
+	List<Account> vAccounts;
+	Transaction vTrans;
+	List<Transaction> vOfDate;
+	String vSaved;
+
+	modelsMngr.loadNew(FILENAME);
+	vAccounts = new ArrayList<Account>(modelsMngr.getData().getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	for (int i = 0; i < 30; i++) {
+	    addTransaction(new Date((i % 9) * DAY), "R" + i, i + 0.5, vAccounts.get(i % 3),
+			   vAccounts.get(3 + i % 2));
+	}
+	modelsMngr.persit();
+	assertReloads(toXml(modelsMngr.getData()));
+
+	/** one row changed */
+	vTrans = modelsMngr.getData().getJournal().getTransaction(7);
+	assertTrue(vTrans.update(vTrans.getDate(), "Edited", "edited memo",
+				 vTrans.getAmount() + 100, vTrans.getDebitAccount(),
+				 vTrans.getCreditAccount()).isEmpty());
+	vSaved = toXml(modelsMngr.getData());
+	modelsMngr.persit();
+	assertReloads(vSaved);
+
+	/** re-dated after Transactions of its new date that have higher ids */
+	vTrans = modelsMngr.getData().getJournal().getTransaction(0);
+	assertTrue(vTrans.update(new Date(5 * DAY), vTrans.getRefNo(), vTrans.getMemo(),
+				 vTrans.getAmount(), vTrans.getDebitAccount(),
+				 vTrans.getCreditAccount()).isEmpty());
+	vOfDate = modelsMngr.getData().getJournal().getTransactions(new Date(5 * DAY),
+								     new Date(5 * DAY));
+	assertTrue(vOfDate.size() > 1);
+	assertSame(vTrans, vOfDate.get(vOfDate.size() - 1));
+	vSaved = toXml(modelsMngr.getData());
+	modelsMngr.persit();
+	assertReloads(vSaved);
+
+	/** rows added and removed, with the Accounts of the Data reloaded */
+	vAccounts = new ArrayList<Account>(modelsMngr.getData().getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	modelsMngr.getData().getJournal().removeTransaction(0);
+	addTransaction(new Date(4 * DAY), "New", 1.25, vAccounts.get(1), vAccounts.get(4));
+	vSaved = toXml(modelsMngr.getData());
+	modelsMngr.persit();
+	assertReloads(vSaved);
+    }
+
+
+    /**
+     * Closes the database, opens it again and checks it holds the saved data.
+     */
+    private void assertReloads(String pSaved) throws Exception {
+	modelsMngr.loadNew(OTHER_FILENAME);
+	modelsMngr.load(FILENAME);
+	assertEquals(pSaved, toXml(modelsMngr.getData()));
+    }
+
+    private void addTransaction(Date pDate, String pRefNo, double pAmount,
+				Account pDebitAccount, Account pCreditAccount) {
+	Transaction vTrans = Transaction.createTransaction();
+
+	assertTrue(vTrans.update(pDate, pRefNo, "", pAmount, pDebitAccount,
+				 pCreditAccount).isEmpty());
+	modelsMngr.getData().getJournal().addTransaction(vTrans);
+    }
+
+    private String toXml(Data pData) throws Exception {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	new XmlDataWriter().write(pData, vBytes);
+
+	return vBytes.toString("UTF-8");
+    }
+
+    /**
+     * Shuts the database down, so that Derby lets go of its files, and deletes
+     * them.
+     */
+    private void deleteFiles() {
+	File vDatabase = FileStorage.getLocalFile(FILENAME);
+
+	try {
+	    DriverManager.getConnection("jdbc:derby:" + vDatabase.getAbsolutePath()
+					+ ";shutdown=true");
+	}
+	catch (SQLException ex) {
+	    /** a shutdown always ends with an exception */
+	}
+	delete(vDatabase);
+	FileStorage.getLocalFile(OTHER_FILENAME).delete();
+	FileStorage.getLocalFile(OTHER_FILENAME + MutationLog.FILE_EXTENSION).delete();
+    }
+
+    private static void delete(File pFile) {
+	File[] vChildren = pFile.listFiles();
+
+	if (vChildren != null) {
+	    for (File vChild : vChildren) {
+		delete(vChild);
+	    }
+	}
+	pFile.delete();
+    }
+
+}
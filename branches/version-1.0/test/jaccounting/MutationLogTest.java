@@ -0,0 +1,386 @@
+/*
+ * MutationLogTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the MutationLog class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.GeneralLedger;
+import jaccounting.models.Journal;
+import jaccounting.models.Transaction;
+import jaccounting.models.TransactionEntry;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * MutationLogTest is the test class for the MutationLog class. Each test saves
+ * a new ledger file, changes its data so that the changes are recorded to the
+ * log, then loads the file again and compares the replayed data with the data
+ * as it was changed.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    MutationLog
+ * @since	    1.0.0
+ */
+public class MutationLogTest {
+
+    private static final String FILENAME = "MutationLogTest.jact";
+
+    private static final String OTHER_FILENAME = "MutationLogTest-other.jact";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private ModelsMngr modelsMngr;
+
+    private Account cash;
+
+    private Account bank;
+
+
+    public MutationLogTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+	deleteFiles();
+	modelsMngr = JAccounting.getApplication().getModelsMngr();
+	modelsMngr.loadNew(FILENAME);
+	modelsMngr.persit();
+	findAccounts();
+    }
+
+    @After
+    public void tearDown() {
+	modelsMngr.loadNew(OTHER_FILENAME);
+	deleteFiles();
+    }
+
+
+    /**
+     * Test of open method, of class MutationLog.
+     */
+    @Test
+    public void testOpen_Replays_Each_Kind_Of_Record() throws Exception {
+	System.out.println("open");
+	GeneralLedger vLedger;
+	Journal vJournal;
+	Account vAcct;
+
+	addTransaction(new Date(10 * DAY), "A");
+	addTransaction(new Date(20 * DAY), "B");
+	addTransaction(new Date(30 * DAY), "C");
+	assertReplayed();
+
+	vJournal = modelsMngr.getData().getJournal();
+	update(vJournal.getTransaction(1), new Date(20 * DAY), "B2", 7.5);
+	assertReplayed();
+
+	modelsMngr.getData().getJournal().removeTransaction(0);
+	assertReplayed();
+
+	vLedger = modelsMngr.getData().getGeneralLedger();
+	vAcct = Account.createAccount(9, "Petty Cash", "", 0.0, Account.Type.ASSET,
+				      new ArrayList<TransactionEntry>(), true);
+	assertTrue(vLedger.insertChildAccount(1, vAcct));
+	assertReplayed();
+
+	vLedger = modelsMngr.getData().getGeneralLedger();
+	vAcct = vLedger.getAccount("Assets.Petty Cash");
+	assertTrue(vAcct.update(10, "Petty", "drawer").isEmpty());
+	assertReplayed();
+
+	vLedger = modelsMngr.getData().getGeneralLedger();
+	assertTrue(vLedger.removeAccount(vLedger.getRowOfAccount(vLedger.getAccount("Assets.Petty"))));
+	assertReplayed();
+
+	assertNull(modelsMngr.getData().getGeneralLedger().getAccount("Assets.Petty"));
+	assertEquals(2, modelsMngr.getData().getJournal().getTransactions().size());
+    }
+
+    /**
+     * Test of open method, of class MutationLog.
+     */
+    @Test
+    public void testOpen_Drops_Torn_Last_Record() throws Exception {
+	System.out.println("open");
+	long vGoodSize;
+
+	addTransaction(new Date(10 * DAY), "A");
+	addTransaction(new Date(20 * DAY), "B");
+	vGoodSize = modelsMngr.getMutationLog().getSize();
+	addTransaction(new Date(30 * DAY), "C");
+	modelsMngr.loadNew(OTHER_FILENAME);
+
+	RandomAccessFile vLog = new RandomAccessFile(getLogFile(), "rw");
+	try {
+	    vLog.setLength(vLog.length() - 3);
+	}
+	finally {
+	    vLog.close();
+	}
+
+	assertReloadedDropsLastRecord(vGoodSize);
+    }
+
+    /**
+     * Test of open method, of class MutationLog.
+     */
+    @Test
+    public void testOpen_Drops_Corrupt_Last_Record() throws Exception {
+	System.out.println("open");
+	long vGoodSize;
+
+	addTransaction(new Date(10 * DAY), "A");
+	addTransaction(new Date(20 * DAY), "B");
+	vGoodSize = modelsMngr.getMutationLog().getSize();
+	addTransaction(new Date(30 * DAY), "C");
+	modelsMngr.loadNew(OTHER_FILENAME);
+
+	RandomAccessFile vLog = new RandomAccessFile(getLogFile(), "rw");
+	try {
+	    /** flip a byte of the record, past its length */
+	    vLog.seek(vGoodSize + 6);
+	    int vByte = vLog.read();
+	    vLog.seek(vGoodSize + 6);
+	    vLog.write(vByte ^ 0xFF);
+	}
+	finally {
+	    vLog.close();
+	}
+
+	assertReloadedDropsLastRecord(vGoodSize);
+    }
+
+    /**
+     * Test of open method, of class MutationLog.
+     */
+    @Test
+    public void testOpen_Replays_Journal_Order_Of_Live_Changes() throws Exception {
+	System.out.println("open");
+	Journal vJournal;
+	List<String> vLiveOrder;
+
+	addTransaction(new Date(20 * DAY), "A");
+	addTransaction(new Date(10 * DAY), "B");
+	addTransaction(new Date(20 * DAY), "C");
+	addTransaction(new Date(30 * DAY), "D");
+	addTransaction(new Date(20 * DAY), "E");
+	vJournal = modelsMngr.getData().getJournal();
+
+	/** moved after the other Transactions of its new date */
+	update(findTransaction("B"), new Date(20 * DAY), "B", 2.0);
+	/** moved among Transactions of the same date, then back */
+	update(findTransaction("D"), new Date(10 * DAY), "D", 3.0);
+	update(findTransaction("A"), new Date(20 * DAY), "A", 4.0);
+	update(findTransaction("D"), new Date(20 * DAY), "D", 5.0);
+	vJournal.removeTransaction(vJournal.getTransactions().indexOf(findTransaction("C")));
+	vLiveOrder = getRefNos(vJournal);
+
+	assertEquals("[A, E, B, D]", vLiveOrder.toString());
+	assertReplayed();
+	assertEquals(vLiveOrder, getRefNos(modelsMngr.getData().getJournal()));
+    }
+
+
+    /**
+     * Test of transactionsAdded method, of class MutationLog.
+     */
+    @Test
+    public void testTransactionsAdded_Records_A_Batch_At_Once() throws Exception {
+	System.out.println("transactionsAdded");
+	MutationLog vLog = modelsMngr.getMutationLog();
+	List<Transaction> vBatch = new ArrayList<Transaction>();
+	long vSize;
+
+	addTransaction(new Date(20 * DAY), "A");
+	vSize = vLog.getSize();
+	for (String vRefNo : new String[] {"B", "C", "D"}) {
+	    vBatch.add(Transaction.createTransaction(new Date(("C".equals(vRefNo) ? 10 : 20) * DAY),
+		    vRefNo, "", 2.0,
+		    new TransactionEntry(bank, null, TransactionEntry.Type.DEBIT, 0.0),
+		    new TransactionEntry(cash, null, TransactionEntry.Type.CREDIT, 0.0)));
+	}
+	assertTrue(modelsMngr.getData().getJournal().addTransactions(vBatch));
+
+	/** one record, counting for each of its Transactions */
+	assertEquals(4, vLog.getRecordsCount());
+	assertEquals(vSize + recordSize(vSize), vLog.getSize());
+	assertEquals("[C, A, B, D]", getRefNos(modelsMngr.getData().getJournal()).toString());
+	assertReplayed();
+	assertEquals(4, modelsMngr.getMutationLog().getRecordsCount());
+    }
+
+    /**
+     * Test of rebase method, of class MutationLog.
+     */
+    @Test
+    public void testRebase_Records_Again_Once_Lost_Changes_Are_Saved() throws Exception {
+	System.out.println("rebase");
+	MutationLog vLog = modelsMngr.getMutationLog();
+	Storage.Checkpoint vCheckpoint;
+
+	addTransaction(new Date(10 * DAY), "A");
+	vLog.fail(new IOException("Simulated write failure"));
+	addTransaction(new Date(20 * DAY), "B");
+	assertTrue(vLog.isFailed());
+	assertEquals(2, vLog.getLostCount());
+
+	/** a change lost after the data was saved keeps the log failed */
+	vCheckpoint = modelsMngr.createCheckpoint();
+	assertNotNull(vCheckpoint);
+	addTransaction(new Date(30 * DAY), "C");
+	vCheckpoint.write();
+	vCheckpoint.commit();
+	assertTrue(vLog.isFailed());
+	assertEquals(1, vLog.getLostCount());
+
+	/** the next save holds it, after which changes are recorded again */
+	vCheckpoint = modelsMngr.createCheckpoint();
+	assertNotNull(vCheckpoint);
+	vCheckpoint.write();
+	vCheckpoint.commit();
+	assertFalse(vLog.isFailed());
+	assertEquals(0, vLog.getRecordsCount());
+	assertNull(modelsMngr.createCheckpoint());
+
+	addTransaction(new Date(40 * DAY), "D");
+	assertEquals(1, vLog.getRecordsCount());
+	assertReplayed();
+	assertEquals("[A, B, C, D]", getRefNos(modelsMngr.getData().getJournal()).toString());
+    }
+
+
+    private void assertReloadedDropsLastRecord(long pGoodSize) throws Exception {
+	modelsMngr.load(FILENAME);
+
+	assertEquals("[A, B]", getRefNos(modelsMngr.getData().getJournal()).toString());
+	assertEquals(pGoodSize, getLogFile().length());
+
+	/** records appended after the cut are replayed */
+	findAccounts();
+	addTransaction(new Date(40 * DAY), "D");
+	assertReplayed();
+	assertEquals("[A, B, D]", getRefNos(modelsMngr.getData().getJournal()).toString());
+    }
+
+    /**
+     * Loads the file again, replaying its log, and checks the Data read is the
+     * one that was changed.
+     */
+    private void assertReplayed() throws Exception {
+	String vLive = toXml(modelsMngr.getData());
+
+	modelsMngr.load(FILENAME);
+	findAccounts();
+
+	assertEquals(vLive, toXml(modelsMngr.getData()));
+    }
+
+    private void addTransaction(Date pDate, String pRefNo) {
+	Transaction vTrans = Transaction.createTransaction();
+
+	assertTrue(vTrans.update(pDate, pRefNo, "", 1.0, cash, bank).isEmpty());
+	modelsMngr.getData().getJournal().addTransaction(vTrans);
+    }
+
+    private void update(Transaction pTrans, Date pDate, String pRefNo, double pAmount) {
+	assertTrue(pTrans.update(pDate, pRefNo, pTrans.getMemo(), pAmount,
+				 pTrans.getDebitAccount(), pTrans.getCreditAccount()).isEmpty());
+    }
+
+    private Transaction findTransaction(String pRefNo) {
+	for (Transaction vTrans : modelsMngr.getData().getJournal().getTransactions()) {
+	    if (vTrans.getRefNo().equals(pRefNo)) return vTrans;
+	}
+
+	return null;
+    }
+
+    private List<String> getRefNos(Journal pJournal) {
+	List<String> rRefNos = new ArrayList<String>();
+
+	for (Transaction vTrans : pJournal.getTransactions()) {
+	    rRefNos.add(vTrans.getRefNo());
+	}
+
+	return rRefNos;
+    }
+
+    private void findAccounts() {
+	List<Account> vAccounts = new ArrayList<Account>(modelsMngr.getData()
+		.getGeneralLedger().getTransactionnableAccountsByFullName().values());
+
+	cash = vAccounts.get(0);
+	bank = vAccounts.get(1);
+    }
+
+    private String toXml(Data pData) throws Exception {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	new XmlDataWriter().write(pData, vBytes);
+
+	return vBytes.toString("UTF-8");
+    }
+
+    /** Gives the size of the record framed at an offset of the log. */
+    private long recordSize(long pOffset) throws Exception {
+	RandomAccessFile vLog = new RandomAccessFile(getLogFile(), "r");
+
+	try {
+	    vLog.seek(pOffset);
+	    return vLog.readInt() + 8;
+	}
+	finally {
+	    vLog.close();
+	}
+    }
+
+    private File getLogFile() {
+	return FileStorage.getLocalFile(FILENAME + MutationLog.FILE_EXTENSION);
+    }
+
+    private void deleteFiles() {
+	for (String vName : new String[] { FILENAME, OTHER_FILENAME }) {
+	    FileStorage.getLocalFile(vName).delete();
+	    FileStorage.getLocalFile(vName + MutationLog.FILE_EXTENSION).delete();
+	}
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * PartitionedStorageTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the PartitionedStorage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import jaccounting.models.TransactionEntry;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * PartitionedStorageTest is the test class for the PartitionedStorage class.
+ * Each test saves a ledger spanning five years, so that three closed periods
+ * get files of their own, then loads it again with only the open periods.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    PartitionedStorage
+ * @since	    1.0.0
+ */
+public class PartitionedStorageTest {
+
+    private static final String FILENAME = "PartitionedStorageTest"
+					   + ModelsMngr.PARTITIONED_FILE_EXTENSION;
+
+    private static final String OTHER_FILENAME = "PartitionedStorageTest-other.jact";
+
+    private static final int FIRST_YEAR = 2005;
+
+    private static final int YEARS_COUNT = 5;
+
+    private ModelsMngr modelsMngr;
+
+    /** the Journal saved, as rows, and the entries of each Account by full name */
+    private List<String> savedJournal;
+
+    private Map<String, List<String>> savedEntries;
+
+    private String savedXml;
+
+
+    public PartitionedStorageTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+	List<Account> vAccounts;
+
+	modelsMngr = JAccounting.getApplication().getModelsMngr();
+	deleteFiles();
+	modelsMngr.loadNew(FILENAME);
+	vAccounts = new ArrayList<Account>(modelsMngr.getData().getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	for (int i = 0; i < 100; i++) {
+	    Transaction vTrans = Transaction.createTransaction();
+
+	    assertTrue(vTrans.update(dateOf(FIRST_YEAR + i % YEARS_COUNT, i % 12, 1 + i % 28),
+				     "R" + i, "", i + 0.5, vAccounts.get(i % 4),
+				     vAccounts.get(4 + i % 3)).isEmpty());
+	    modelsMngr.getData().getJournal().addTransaction(vTrans);
+	}
+	modelsMngr.persit();
+	savedJournal = journalRowsOf(modelsMngr.getData());
+	savedEntries = entriesRowsOf(modelsMngr.getData());
+	savedXml = toXml(modelsMngr.getData());
+
+	modelsMngr.loadNew(OTHER_FILENAME);
+	modelsMngr.load(FILENAME);
+    }
+
+    @After
+    public void tearDown() {
+	modelsMngr.loadNew(OTHER_FILENAME);
+	deleteFiles();
+    }
+
+
+    /**
+     * Test of loadEarlier method, of class PartitionedStorage.
+     */
+    @Test
+    public void testLoadEarlier_Keeps_Journal_And_Entries_Ordered() throws Exception {
+	System.out.println("loadEarlier");
+	Date vFirstDate = modelsMngr.getData().getJournal().getTransaction(0).getDate();
+
+	/** only the open periods are loaded */
+	assertTrue(modelsMngr.hasUnloadedPeriods());
+	assertFalse(vFirstDate.before(dateOf(FIRST_YEAR + YEARS_COUNT - 2, 0, 1)));
+	assertLoadedMatchSaved();
+
+	for (int vPeriods = 0; modelsMngr.hasUnloadedPeriods(); vPeriods++) {
+	    assertTrue(vPeriods < YEARS_COUNT);
+	    assertTrue(modelsMngr.loadEarlierPeriod());
+	    assertLoadedMatchSaved();
+	}
+	assertFalse(modelsMngr.loadEarlierPeriod());
+	assertEquals(savedXml, toXml(modelsMngr.getData()));
+    }
+
+    /**
+     * Test of update method with a date in a closed period not loaded, of
+     * class Transaction.
+     */
+    @Test
+    public void testUpdate_Into_An_Unloaded_Period_Loads_It() throws Exception {
+	System.out.println("update");
+	Transaction vTrans = modelsMngr.getData().getJournal().getTransaction(0);
+	Date vDate = dateOf(FIRST_YEAR + 1, 5, 15);
+
+	assertTrue(vTrans.update(vDate, vTrans.getRefNo(), "moved", vTrans.getAmount(),
+				 vTrans.getDebitAccount(), vTrans.getCreditAccount()).isEmpty());
+
+	/** the periods from that date on are loaded, the earlier one is not */
+	assertTrue(modelsMngr.hasUnloadedPeriods());
+	assertFalse(vDate.before(modelsMngr.getData().getJournal().getTransaction(0).getDate()));
+	assertEquals(vDate, vTrans.getDate());
+	assertTrue(modelsMngr.getData().getJournal().getTransactions().contains(vTrans));
+	assertOrdered();
+    }
+
+    /**
+     * Test of update method with a date in a closed period that fails to
+     * load, of class Transaction.
+     */
+    @Test
+    public void testUpdate_Into_A_Period_Failing_To_Load_Changes_Nothing() throws Exception {
+	System.out.println("update");
+	Transaction vTrans = modelsMngr.getData().getJournal().getTransaction(0);
+	Date vOldDate = vTrans.getDate();
+	Map<String, ErrorCode> vErrors;
+
+	assertTrue(FileStorage.getLocalFile(FILENAME + "." + (FIRST_YEAR + 1)).delete());
+
+	vErrors = vTrans.update(dateOf(FIRST_YEAR + 1, 5, 15), vTrans.getRefNo(), "moved",
+				vTrans.getAmount() + 1, vTrans.getDebitAccount(),
+				vTrans.getCreditAccount());
+
+	assertEquals(1, vErrors.size());
+	assertEquals(ErrorCode.PERIOD_NOT_LOADED, vErrors.get("date"));
+	assertEquals(vOldDate, vTrans.getDate());
+	assertEquals("", vTrans.getMemo());
+	/** the period after the missing one was loaded, the rest is unchanged */
+	assertTrue(modelsMngr.hasUnloadedPeriods());
+	assertLoadedMatchSaved();
+
+	/** a new Transaction in that period is refused too */
+	vErrors = Transaction.createTransaction().update(dateOf(FIRST_YEAR, 5, 15), "New", "",
+		1.0, vTrans.getDebitAccount(), vTrans.getCreditAccount());
+	assertEquals(ErrorCode.PERIOD_NOT_LOADED, vErrors.get("date"));
+    }
+
+
+    /**
+     * Checks the Journal and the entries of every Account are the saved ones
+     * from the first date loaded on, with the same running balances.
+     */
+    private void assertLoadedMatchSaved() {
+	Date vFrom = modelsMngr.getData().getJournal().getTransaction(0).getDate();
+	List<String> vJournal = journalRowsOf(modelsMngr.getData());
+	Map<String, List<String>> vEntries = entriesRowsOf(modelsMngr.getData());
+
+	assertEquals(savedJournal.subList(savedJournal.size() - vJournal.size(),
+					  savedJournal.size()), vJournal);
+	assertEquals(countBefore(savedJournal, vFrom), savedJournal.size() - vJournal.size());
+	for (Map.Entry<String, List<String>> vSaved : savedEntries.entrySet()) {
+	    List<String> vLoaded = vEntries.get(vSaved.getKey());
+	    List<String> vExpected = vSaved.getValue();
+
+	    assertEquals(countBefore(vExpected, vFrom), vExpected.size() - vLoaded.size());
+	    assertEquals(vExpected.subList(vExpected.size() - vLoaded.size(), vExpected.size()),
+			 vLoaded);
+	}
+	assertOrdered();
+    }
+
+    /**
+     * Checks the Journal is in date order and the entries of each Account in
+     * Journal order.
+     */
+    private void assertOrdered() {
+	List<Transaction> vTransactions = modelsMngr.getData().getJournal().getTransactions();
+	Map<Transaction, Integer> vRows = new HashMap<Transaction, Integer>();
+
+	for (int i = 0; i < vTransactions.size(); i++) {
+	    if (i > 0) {
+		assertFalse(vTransactions.get(i - 1).getDate()
+			    .after(vTransactions.get(i).getDate()));
+	    }
+	    vRows.put(vTransactions.get(i), Integer.valueOf(i));
+	}
+	for (Account vAcct : modelsMngr.getData().getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values()) {
+	    int vLastRow = -1;
+
+	    for (TransactionEntry vEntry : vAcct.getEntries()) {
+		int vRow = vRows.get(vEntry.getTransaction()).intValue();
+
+		assertTrue(vRow > vLastRow);
+		vLastRow = vRow;
+	    }
+	}
+    }
+
+    /** Counts the rows of Transactions dated before a date. */
+    private static int countBefore(List<String> pRows, Date pDate) {
+	int rCount = 0;
+
+	for (String vRow : pRows) {
+	    if (Long.parseLong(vRow.substring(0, vRow.indexOf(' '))) < pDate.getTime()) rCount++;
+	}
+
+	return rCount;
+    }
+
+    /**
+     * Gives the Transactions of the Journal as rows of their date in
+     * milliseconds, reference number and amount.
+     */
+    private static List<String> journalRowsOf(Data pData) {
+	List<String> rRows = new ArrayList<String>();
+
+	for (Transaction vTrans : pData.getJournal().getTransactions()) {
+	    rRows.add(rowOf(vTrans));
+	}
+
+	return rRows;
+    }
+
+    /**
+     * Gives the entries of each Account by full name as rows of their
+     * Transaction, type and running balance.
+     */
+    private static Map<String, List<String>> entriesRowsOf(Data pData) {
+	Map<String, List<String>> rRows = new HashMap<String, List<String>>();
+
+	for (Map.Entry<String, Account> vAcct : pData.getGeneralLedger()
+		.getTransactionnableAccountsByFullName().entrySet()) {
+	    List<String> vRows = new ArrayList<String>();
+
+	    for (TransactionEntry vEntry : vAcct.getValue().getEntries()) {
+		vRows.add(rowOf(vEntry.getTransaction()) + " " + vEntry.getType() + " "
+			  + vEntry.getAccountBalance());
+	    }
+	    rRows.put(vAcct.getKey(), vRows);
+	}
+
+	return rRows;
+    }
+
+    private static String rowOf(Transaction pTrans) {
+	return pTrans.getDate().getTime() + " " + pTrans.getRefNo() + " " + pTrans.getAmount();
+    }
+
+    private static Date dateOf(int pYear, int pMonth, int pDay) {
+	Calendar vCalendar = Calendar.getInstance();
+
+	vCalendar.clear();
+	vCalendar.set(pYear, pMonth, pDay, 12, 0);
+
+	return vCalendar.getTime();
+    }
+
+    private String toXml(Data pData) throws Exception {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	new XmlDataWriter().write(pData, vBytes);
+
+	return vBytes.toString("UTF-8");
+    }
+
+    private void deleteFiles() {
+	FileStorage.getLocalFile(FILENAME).delete();
+	for (int i = 0; i < YEARS_COUNT; i++) {
+	    FileStorage.getLocalFile(FILENAME + "." + (FIRST_YEAR + i)).delete();
+	}
+	FileStorage.getLocalFile(OTHER_FILENAME).delete();
+	FileStorage.getLocalFile(OTHER_FILENAME + MutationLog.FILE_EXTENSION).delete();
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * SegmentedIndexTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the SegmentedIndex class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.GeneralLedger;
+import jaccounting.models.Transaction;
+import jaccounting.models.TransactionEntry;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * SegmentedIndexTest is the test class for the SegmentedIndex class. The tests
+ * save a ledger to a segmented file, then read it back through its index.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    SegmentedIndex
+ * @since	    1.0.0
+ */
+public class SegmentedIndexTest {
+
+    private static final String FILENAME = "SegmentedIndexTest"
+					   + ModelsMngr.SEGMENTED_FILE_EXTENSION;
+
+    private static final String OTHER_FILENAME = "SegmentedIndexTest-other.jact";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private ModelsMngr modelsMngr;
+
+    private SegmentedIndex index;
+
+
+    public SegmentedIndexTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+	List<Account> vAccounts;
+
+	modelsMngr = JAccounting.getApplication().getModelsMngr();
+	index = null;
+	deleteFiles();
+	modelsMngr.loadNew(FILENAME);
+	vAccounts = new ArrayList<Account>(modelsMngr.getData().getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	for (int i = 0; i < 200; i++) {
+	    Transaction vTrans = Transaction.createTransaction();
+
+	    /** about one transaction a day over seven months */
+	    assertTrue(vTrans.update(new Date((i * 37 % 210) * DAY), "R" + i, "Memo " + i,
+				     i + 0.5, vAccounts.get(i % 5),
+				     vAccounts.get(5 + i % 4)).isEmpty());
+	    modelsMngr.getData().getJournal().addTransaction(vTrans);
+	}
+	modelsMngr.persit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	if (index != null) index.close();
+	modelsMngr.loadNew(OTHER_FILENAME);
+	deleteFiles();
+    }
+
+
+    /**
+     * Test of loadEntries method, of class SegmentedIndex.
+     */
+    @Test
+    public void testLoadEntries_Reads_The_Entries_Of_A_Full_Load() throws Exception {
+	System.out.println("loadEntries");
+	List<Transaction> vTransactions = modelsMngr.getData().getJournal().getTransactions();
+	Transaction vTrans;
+
+	/** appended segments, one of them with entries out of Journal order */
+	vTrans = vTransactions.get(10);
+	assertTrue(vTrans.update(new Date(vTrans.getDate().getTime() + DAY / 2), "Edited",
+				 "edited", 1000.0, vTrans.getDebitAccount(),
+				 vTrans.getCreditAccount()).isEmpty());
+	modelsMngr.getData().getJournal().removeTransaction(50);
+	modelsMngr.persit();
+
+	modelsMngr.loadNew(OTHER_FILENAME);
+	modelsMngr.load(FILENAME);
+	assertMatchesFullLoad(modelsMngr.getData().getGeneralLedger());
+    }
+
+    /**
+     * Test of open method, of class SegmentedIndex.
+     */
+    @Test
+    public void testOpen_Rejects_A_Stale_Index() throws Exception {
+	System.out.println("open");
+	File vIndexFile = FileStorage.getLocalFile(FILENAME + SegmentedIndex.FILE_EXTENSION);
+	byte[] vStale = readFile(vIndexFile);
+	Transaction vTrans = modelsMngr.getData().getJournal().getTransaction(0);
+
+	assertTrue(vTrans.update(vTrans.getDate(), "Edited", "", vTrans.getAmount(),
+				 vTrans.getDebitAccount(), vTrans.getCreditAccount()).isEmpty());
+	modelsMngr.persit();
+	writeFile(vIndexFile, vStale);
+
+	try {
+	    index = SegmentedIndex.open(FileStorage.getLocalFile(FILENAME));
+	    fail("opened a stale index");
+	}
+	catch (UnPersistenceFailureException ex) {
+	}
+    }
+
+
+    /**
+     * Opens the index and checks the entries it loads for each Account are the
+     * ones of the full load given, with the same running balances.
+     */
+    private void assertMatchesFullLoad(GeneralLedger pFullLedger) throws Exception {
+	Map<String, Account> vFullAccounts = pFullLedger.getTransactionnableAccountsByFullName();
+	Map<String, Account> vIndexAccounts;
+	Map<Account, String> vNames = new IdentityHashMap<Account, String>();
+
+	index = SegmentedIndex.open(FileStorage.getLocalFile(FILENAME));
+	vIndexAccounts = index.createGeneralLedger().getTransactionnableAccountsByFullName();
+	assertEquals(vFullAccounts.keySet(), vIndexAccounts.keySet());
+	for (String vName : vFullAccounts.keySet()) {
+	    vNames.put(vFullAccounts.get(vName), vName);
+	    vNames.put(vIndexAccounts.get(vName), vName);
+	}
+
+	for (String vName : vFullAccounts.keySet()) {
+	    Account vFull = vFullAccounts.get(vName);
+	    Account vIndexed = vIndexAccounts.get(vName);
+	    List<TransactionEntry> vFullEntries = vFull.getEntries();
+	    List<TransactionEntry> vIndexEntries;
+
+	    assertEquals(vName, vFullEntries.size(), index.getEntriesCount(vIndexed));
+	    index.loadEntries(vIndexed);
+	    vIndexEntries = vIndexed.getEntries();
+	    assertEquals(vName, vFullEntries.size(), vIndexEntries.size());
+	    for (int i = 0; i < vFullEntries.size(); i++) {
+		TransactionEntry vExpected = vFullEntries.get(i);
+		TransactionEntry vActual = vIndexEntries.get(i);
+
+		assertEquals(vExpected.getTransaction().getDate(),
+			     vActual.getTransaction().getDate());
+		assertEquals(vExpected.getTransaction().getRefNo(),
+			     vActual.getTransaction().getRefNo());
+		assertEquals(vExpected.getTransaction().getMemo(),
+			     vActual.getTransaction().getMemo());
+		assertEquals(vExpected.getTransaction().getAmount(),
+			     vActual.getTransaction().getAmount(), 0.0);
+		assertEquals(vExpected.getType(), vActual.getType());
+		assertEquals(vNames.get(vExpected.getTransferAccount()),
+			     vNames.get(vActual.getTransferAccount()));
+		assertEquals(vExpected.getAccountBalance(), vActual.getAccountBalance(), 0.0);
+	    }
+	    assertEquals(vName, vFull.getBalance(), vIndexed.getBalance(), 0.0);
+	}
+    }
+
+    private static byte[] readFile(File pFile) throws Exception {
+	InputStream vIn = new FileInputStream(pFile);
+
+	try {
+	    byte[] rBytes = new byte[(int) pFile.length()];
+	    int vRead = 0;
+
+	    while (vRead < rBytes.length) {
+		vRead += vIn.read(rBytes, vRead, rBytes.length - vRead);
+	    }
+
+	    return rBytes;
+	}
+	finally {
+	    vIn.close();
+	}
+    }
+
+    private static void writeFile(File pFile, byte[] pBytes) throws Exception {
+	OutputStream vOut = new FileOutputStream(pFile);
+
+	try {
+	    vOut.write(pBytes);
+	}
+	finally {
+	    vOut.close();
+	}
+    }
+
+    private void deleteFiles() {
+	FileStorage.getLocalFile(FILENAME).delete();
+	FileStorage.getLocalFile(FILENAME + SegmentedIndex.FILE_EXTENSION).delete();
+	FileStorage.getLocalFile(OTHER_FILENAME).delete();
+	FileStorage.getLocalFile(OTHER_FILENAME + MutationLog.FILE_EXTENSION).delete();
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * SegmentedStorageTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the SegmentedStorage class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import java.io.ByteArrayOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * SegmentedStorageTest is the test class for the SegmentedStorage class. The
+ * tests save a ledger to a segmented file, then read the layout of the file
+ * back through the header and directory readers of the class.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    SegmentedStorage
+ * @since	    1.0.0
+ */
+public class SegmentedStorageTest {
+
+    private static final String FILENAME = "SegmentedStorageTest"
+					   + ModelsMngr.SEGMENTED_FILE_EXTENSION;
+
+    private static final String OTHER_FILENAME = "SegmentedStorageTest-other.jact";
+
+    private static final int YEAR = 2009;
+
+    private static final int MONTHS_COUNT = 6;
+
+    private ModelsMngr modelsMngr;
+
+
+    public SegmentedStorageTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+	List<Account> vAccounts;
+
+	modelsMngr = JAccounting.getApplication().getModelsMngr();
+	deleteFiles();
+	modelsMngr.loadNew(FILENAME);
+	vAccounts = new ArrayList<Account>(modelsMngr.getData().getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	for (int i = 0; i < 60; i++) {
+	    Transaction vTrans = Transaction.createTransaction();
+
+	    assertTrue(vTrans.update(dateOf(i % MONTHS_COUNT, 1 + i % 28), "R" + i, "Memo " + i,
+				     i + 0.5, vAccounts.get(i % 4),
+				     vAccounts.get(4 + i % 3)).isEmpty());
+	    modelsMngr.getData().getJournal().addTransaction(vTrans);
+	}
+	modelsMngr.persit();
+    }
+
+    @After
+    public void tearDown() {
+	modelsMngr.loadNew(OTHER_FILENAME);
+	deleteFiles();
+    }
+
+
+    /**
+     * Test of createCheckpoint method, of class SegmentedStorage.
+     */
+    @Test
+    public void testCreateCheckpoint_Writes_Only_The_Changed_Months() throws Exception {
+	System.out.println("createCheckpoint");
+	Transaction vTrans;
+	String vSaved;
+
+	/** an edit in place changes the segment of its month */
+	vTrans = getTransactionOf(3);
+	assertTrue(vTrans.update(vTrans.getDate(), "Edited", "edited", vTrans.getAmount() + 1,
+				 vTrans.getDebitAccount(), vTrans.getCreditAccount()).isEmpty());
+	assertSavesOnly(new int[] { 3 });
+
+	/** a new date changes the segments of both months */
+	vTrans = getTransactionOf(1);
+	assertTrue(vTrans.update(dateOf(4, 15), vTrans.getRefNo(), vTrans.getMemo(),
+				 vTrans.getAmount(), vTrans.getDebitAccount(),
+				 vTrans.getCreditAccount()).isEmpty());
+	assertSavesOnly(new int[] { 1, 4 });
+
+	/** nothing left to save */
+	assertNull(modelsMngr.createCheckpoint());
+
+	vSaved = toXml(modelsMngr.getData());
+	modelsMngr.loadNew(OTHER_FILENAME);
+	modelsMngr.load(FILENAME);
+	assertEquals(vSaved, toXml(modelsMngr.getData()));
+    }
+
+    /**
+     * Test of load method, of class SegmentedStorage.
+     */
+    @Test
+    public void testLoad_Detects_A_Corrupted_Segment() throws Exception {
+	System.out.println("load");
+	Layout vLayout = readLayout();
+	List<SegmentedStorage.Location> vSegments = new ArrayList<SegmentedStorage.Location>();
+
+	vSegments.add(vLayout.accountsSegment);
+	vSegments.add(vLayout.monthSegments.get(Integer.valueOf(monthKeyOf(2))));
+	vSegments.add(vLayout.directory);
+	for (SegmentedStorage.Location vSegment : vSegments) {
+	    long vOffset = vSegment.offset + vSegment.length / 2;
+
+	    flipByte(vOffset);
+	    modelsMngr.loadNew(OTHER_FILENAME);
+	    try {
+		modelsMngr.load(FILENAME);
+		fail("loaded a file with a corrupted segment at " + vOffset);
+	    }
+	    catch (UnPersistenceFailureException ex) {
+	    }
+	    flipByte(vOffset);
+	}
+
+	modelsMngr.loadNew(OTHER_FILENAME);
+	modelsMngr.load(FILENAME);
+	assertEquals(60, modelsMngr.getData().getJournal().getTransactions().size());
+    }
+
+
+    /**
+     * Saves the changes and checks the save appended the segments of the
+     * months given and a new directory, and left the rest of the file as is.
+     */
+    private void assertSavesOnly(int[] pMonths) throws Exception {
+	byte[] vBefore = readFile();
+	Layout vOldLayout = readLayout();
+	byte[] vAfter;
+	Layout vNewLayout;
+	long vAppended;
+
+	modelsMngr.persit();
+	vAfter = readFile();
+	vNewLayout = readLayout();
+
+	/** the header aside, the bytes written before are unchanged */
+	for (int i = vOldLayout.headerSize; i < vBefore.length; i++) {
+	    assertEquals(vBefore[i], vAfter[i]);
+	}
+	assertSameLocation(vOldLayout.accountsSegment, vNewLayout.accountsSegment);
+	assertEquals(vOldLayout.monthSegments.keySet(), vNewLayout.monthSegments.keySet());
+	vAppended = vNewLayout.directory.length;
+	for (Integer vMonth : vOldLayout.monthSegments.keySet()) {
+	    SegmentedStorage.Location vOld = vOldLayout.monthSegments.get(vMonth);
+	    SegmentedStorage.Location vNew = vNewLayout.monthSegments.get(vMonth);
+	    boolean vChanged = false;
+
+	    for (int vChangedMonth : pMonths) {
+		vChanged |= vMonth.intValue() == monthKeyOf(vChangedMonth);
+	    }
+	    if (vChanged) {
+		assertTrue(vNew.offset >= vBefore.length);
+		vAppended += vNew.length;
+	    }
+	    else {
+		assertSameLocation(vOld, vNew);
+	    }
+	}
+	assertEquals(vBefore.length + vAppended, vAfter.length);
+    }
+
+    private static void assertSameLocation(SegmentedStorage.Location pExpected,
+					   SegmentedStorage.Location pActual) {
+	assertEquals(pExpected.offset, pActual.offset);
+	assertEquals(pExpected.length, pActual.length);
+	assertEquals(pExpected.checksum, pActual.checksum);
+    }
+
+    private Transaction getTransactionOf(int pMonth) {
+	Calendar vCalendar = Calendar.getInstance();
+
+	for (Transaction vTrans : modelsMngr.getData().getJournal().getTransactions()) {
+	    vCalendar.setTime(vTrans.getDate());
+	    if (vCalendar.get(Calendar.MONTH) == pMonth) return vTrans;
+	}
+	fail("no transaction in month " + pMonth);
+
+	return null;
+    }
+
+    private static Date dateOf(int pMonth, int pDay) {
+	Calendar vCalendar = Calendar.getInstance();
+
+	vCalendar.clear();
+	vCalendar.set(YEAR, pMonth, pDay, 12, 0);
+
+	return vCalendar.getTime();
+    }
+
+    /** Gives the month as known in the file. */
+    private static int monthKeyOf(int pMonth) {
+	return YEAR * 12 + pMonth;
+    }
+
+    private Layout readLayout() throws Exception {
+	RandomAccessFile vFile = new RandomAccessFile(FileStorage.getLocalFile(FILENAME), "r");
+	Layout rLayout = new Layout();
+
+	try {
+	    SegmentedStorage.Slot vSlot = SegmentedStorage.readHeader(vFile);
+
+	    rLayout.headerSize = (int) vFile.getFilePointer();
+	    rLayout.directory = vSlot.directory;
+	    rLayout.accountsSegment = SegmentedStorage.readDirectory(vFile, vSlot,
+								     rLayout.monthSegments);
+	}
+	finally {
+	    vFile.close();
+	}
+
+	return rLayout;
+    }
+
+    private byte[] readFile() throws Exception {
+	RandomAccessFile vFile = new RandomAccessFile(FileStorage.getLocalFile(FILENAME), "r");
+
+	try {
+	    byte[] rBytes = new byte[(int) vFile.length()];
+
+	    vFile.readFully(rBytes);
+
+	    return rBytes;
+	}
+	finally {
+	    vFile.close();
+	}
+    }
+
+    private void flipByte(long pOffset) throws Exception {
+	RandomAccessFile vFile = new RandomAccessFile(FileStorage.getLocalFile(FILENAME), "rw");
+
+	try {
+	    int vByte;
+
+	    vFile.seek(pOffset);
+	    vByte = vFile.read();
+	    vFile.seek(pOffset);
+	    vFile.write(vByte ^ 0xFF);
+	}
+	finally {
+	    vFile.close();
+	}
+    }
+
+    private String toXml(Data pData) throws Exception {
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+
+	new XmlDataWriter().write(pData, vBytes);
+
+	return vBytes.toString("UTF-8");
+    }
+
+    private void deleteFiles() {
+	FileStorage.getLocalFile(FILENAME).delete();
+	FileStorage.getLocalFile(FILENAME + SegmentedIndex.FILE_EXTENSION).delete();
+	FileStorage.getLocalFile(OTHER_FILENAME).delete();
+	FileStorage.getLocalFile(OTHER_FILENAME + MutationLog.FILE_EXTENSION).delete();
+    }
+
+
+    /**
+     * The header size and the Locations of the current directory and of the
+     * segments it lists.
+     */
+    private static class Layout {
+
+	private int headerSize;
+
+	private SegmentedStorage.Location directory;
+
+	private SegmentedStorage.Location accountsSegment;
+
+	private SortedMap<Integer, SegmentedStorage.Location> monthSegments =
+		new TreeMap<Integer, SegmentedStorage.Location>();
+    }
+
+}
@@ -0,0 +1,484 @@
+/*
+ * XmlDataReaderTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the XmlDataReader class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting;
+
+import jaccounting.models.Account;
+import jaccounting.models.Data;
+import jaccounting.models.Transaction;
+import jaccounting.models.TransactionEntry;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.swing.tree.DefaultMutableTreeNode;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * XmlDataReaderTest is the test class for the XmlDataReader class.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    XmlDataReader
+ * @since	    1.0.0
+ */
+public class XmlDataReaderTest {
+
+    /** number of transactions of the large ledger */
+    private static final int LARGE_SIZE = 100000;
+
+    /**
+     * how many times longer the large ledger may take to read than one four
+     * times smaller; a linear read takes about 4 times longer, a quadratic
+     * one 16 times
+     */
+    private static final double LARGE_READ_TIME_RATIO_BOUND = 8.0;
+
+    /** number of reads of each ledger timed, the quickest being kept */
+    private static final int TIMED_READS_COUNT = 3;
+
+    /** number of transactions of the ledger whose balances are checked */
+    private static final int BALANCES_SIZE = 5000;
+
+    private static final String DATE = "Tue Jan 01 00:00:00 UTC 2008";
+
+    private File file;
+
+
+    public XmlDataReaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	file = null;
+    }
+
+    @After
+    public void tearDown() {
+	if (file != null) file.delete();
+    }
+
+
+    /**
+     * Test of read method, of class XmlDataReader.
+     */
+    @Test
+    public void testRead_Loads_Large_Ledger_In_Linear_Time() throws Exception {
+	System.out.println("read");
+	Data vData;
+	long vSmallTime;
+	long vLargeTime;
+
+	/** the ratio of the read times does not depend on the machine's speed */
+	file = File.createTempFile("XmlDataReaderTest", ".jact");
+	writeLedger(file, LARGE_SIZE / 4);
+	read(file);
+	vSmallTime = timeRead(file);
+	writeLedger(file, LARGE_SIZE);
+	vLargeTime = timeRead(file);
+	vData = read(file);
+
+	List<Transaction> vTransactions = vData.getJournal().getTransactions();
+	Account vCash = (Account) ((DefaultMutableTreeNode)
+		vData.getGeneralLedger().getAssetsNode().getChildAt(0)).getUserObject();
+
+	assertEquals(LARGE_SIZE, vTransactions.size());
+	assertEquals(LARGE_SIZE, vCash.getEntries().size());
+	assertEquals("R" + (LARGE_SIZE - 1), vTransactions.get(LARGE_SIZE - 1).getRefNo());
+	assertSame(vCash, vTransactions.get(0).getDebitAccount());
+	assertTrue("read took " + vLargeTime / 1000000 + "ms against "
+		   + vSmallTime / 1000000 + "ms for a quarter of the ledger",
+		   vLargeTime < vSmallTime * LARGE_READ_TIME_RATIO_BOUND);
+    }
+
+    /**
+     * Test of read method, of class XmlDataReader.
+     */
+    @Test
+    public void testRead_Recalculates_Balances_Not_Stored() throws Exception {
+	System.out.println("read");
+	InputStream vStream;
+	Data vData;
+
+	file = File.createTempFile("XmlDataReaderTest", ".jact");
+	writeLedger(file, BALANCES_SIZE);
+	vStream = new BufferedInputStream(new FileInputStream(file));
+	try {
+	    vData = new XmlDataReader().read(vStream);
+	}
+	finally {
+	    vStream.close();
+	}
+
+	DefaultMutableTreeNode vAssets = vData.getGeneralLedger().getAssetsNode();
+	double vTotal = 0.0;
+
+	for (int vI = 0; vI < vAssets.getChildCount(); vI++) {
+	    Account vAcct = (Account) ((DefaultMutableTreeNode)
+		    vAssets.getChildAt(vI)).getUserObject();
+
+	    assertEquals(BALANCES_SIZE, vAcct.getEntries().size());
+	    vTotal += assertBalancesRecalculated(vAcct);
+	}
+	assertEquals(0.0, vTotal, 0.0);
+    }
+
+    /**
+     * Test of read method, of class XmlDataReader.
+     */
+    @Test
+    public void testRead_Leaves_Handed_Out_Ledger_Unchanged_Until_Finished() throws Exception {
+	System.out.println("read");
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+	final List<Account> vLoadedAccounts = new ArrayList<Account>();
+	final List<Integer> vEntriesCounts = new ArrayList<Integer>();
+	final List<Double> vBalances = new ArrayList<Double>();
+	Data vData;
+	double vStoredBalance;
+
+	file = File.createTempFile("XmlDataReaderTest", ".jact");
+	writeLedger(file, BALANCES_SIZE);
+	vData = read(file);
+	vStoredBalance = getCash(vData).getBalance();
+	new XmlDataWriter().write(vData, vBytes);
+
+	/** the Cash Account is looked at every time the listener is told */
+	vData = new XmlDataReader().read(new ByteArrayInputStream(vBytes.toByteArray()),
+		new LoadListener() {
+		    public void generalLedgerLoaded(Data pData) {
+			vLoadedAccounts.add(getCash(pData));
+			record();
+		    }
+
+		    public void transactionsLoaded(List<Transaction> pTransactions) {
+			record();
+		    }
+
+		    public void journalLoaded(List<Transaction> pTransactions) {
+			record();
+		    }
+
+		    private void record() {
+			vEntriesCounts.add(vLoadedAccounts.get(0).getEntries().size());
+			vBalances.add(vLoadedAccounts.get(0).getBalance());
+		    }
+		});
+
+	Account vCash = getCash(vData);
+
+	assertSame(vLoadedAccounts.get(0), vCash);
+	assertTrue(vEntriesCounts.size() > 2);
+	for (int vI = 0; vI < vEntriesCounts.size(); vI++) {
+	    assertEquals(0, vEntriesCounts.get(vI).intValue());
+	    assertEquals(vStoredBalance, vBalances.get(vI), 0.0);
+	}
+	assertEquals(0, vCash.getEntries().size());
+	vData.getGeneralLedger().setLoadedEntries();
+	assertEquals(BALANCES_SIZE, vCash.getEntries().size());
+	assertEquals(vStoredBalance, assertBalancesRecalculated(vCash), 0.0);
+    }
+
+    /**
+     * Test of read method, of class XmlDataReader.
+     */
+    @Test
+    public void testRead_Orders_List_Items_By_Name_Index() throws Exception {
+	System.out.println("read");
+	StringBuilder vXml = new StringBuilder();
+	Data vData;
+
+	vXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n");
+	vXml.append("<JAccounting><Data name=\"data\"><GeneralLedger name=\"generalLedger\">");
+	vXml.append("<TreeNode name=\"root\">All Accounts</TreeNode>");
+	vXml.append("<AccountTreeNode name=\"assetsNode\">");
+	appendAccountStart(vXml, 1, "Assets", "ASSET", false);
+	vXml.append("<List name=\"entries\" /></Account><Enumeration name=\"children\">");
+	vXml.append("<AccountTreeNode name=\"childElement-1\">");
+	appendAccountStart(vXml, 2, "Bank", "ASSET", true);
+	vXml.append("<List name=\"entries\">");
+	appendEntry(vXml, 1, 3, 1, "CREDIT");
+	appendEntry(vXml, 0, 3, 3, "CREDIT");
+	vXml.append("</List></Account><Enumeration name=\"children\" /></AccountTreeNode>");
+	vXml.append("<AccountTreeNode name=\"childElement-0\">");
+	appendAccountStart(vXml, 3, "Cash", "ASSET", true);
+	vXml.append("<List name=\"entries\">");
+	appendEntry(vXml, 1, 2, 2, "DEBIT");
+	appendEntry(vXml, 0, 2, 4, "DEBIT");
+	vXml.append("</List></Account><Enumeration name=\"children\" /></AccountTreeNode>");
+	vXml.append("</Enumeration></AccountTreeNode>");
+	appendTopLevelNode(vXml, "liabilitiesNode", 5, "Liabilities", "LIABILITY");
+	appendTopLevelNode(vXml, "equityNode", 6, "Equity", "EQUITY");
+	appendTopLevelNode(vXml, "revenuesNode", 7, "Revenues", "REVENUE");
+	appendTopLevelNode(vXml, "expensesNode", 8, "Expenses", "EXPENSE");
+	vXml.append("</GeneralLedger><Journal name=\"journal\"><List name=\"transactions\">");
+	appendTransaction(vXml, 1, "R1", 2, 1);
+	appendTransaction(vXml, 0, "R0", 4, 3);
+	vXml.append("</List></Journal></Data></JAccounting>\r\n");
+
+	vData = new XmlDataReader().read(
+		new ByteArrayInputStream(vXml.toString().getBytes("UTF-8")));
+
+	DefaultMutableTreeNode vAssets = vData.getGeneralLedger().getAssetsNode();
+	Account vCash = (Account) ((DefaultMutableTreeNode)
+		vAssets.getChildAt(0)).getUserObject();
+	Account vBank = (Account) ((DefaultMutableTreeNode)
+		vAssets.getChildAt(1)).getUserObject();
+	List<Transaction> vTransactions = vData.getJournal().getTransactions();
+
+	assertEquals("Cash", vCash.getName());
+	assertEquals("Bank", vBank.getName());
+	assertEquals("R0", vTransactions.get(0).getRefNo());
+	assertEquals("R1", vTransactions.get(1).getRefNo());
+	assertSame(vTransactions.get(0), vCash.getEntries().get(0).getTransaction());
+	assertSame(vTransactions.get(1), vCash.getEntries().get(1).getTransaction());
+	assertSame(vTransactions.get(0), vBank.getEntries().get(0).getTransaction());
+    }
+
+    /**
+     * Test of read method, of class XmlDataReader.
+     */
+    @Test
+    public void testRead_Reads_Dates_Written_In_Milliseconds() throws Exception {
+	System.out.println("read");
+	Data vLegacyData;
+	Data vData;
+	ByteArrayOutputStream vBytes = new ByteArrayOutputStream();
+	InputStream vStream;
+
+	file = File.createTempFile("XmlDataReaderTest", ".jact");
+	writeLedger(file, 3);
+	vStream = new BufferedInputStream(new FileInputStream(file));
+	try {
+	    vLegacyData = new XmlDataReader().read(vStream);
+	}
+	finally {
+	    vStream.close();
+	}
+	new XmlDataWriter().write(vLegacyData, vBytes);
+	vData = new XmlDataReader().read(new ByteArrayInputStream(vBytes.toByteArray()));
+
+	Date vDate = vLegacyData.getJournal().getTransactions().get(0).getDate();
+	String vXml = vBytes.toString("UTF-8");
+
+	assertTrue(vXml.contains("<JAccounting revision=\"" + XmlDataWriter.FORMAT_REVISION + "\">"));
+	assertTrue(vXml.contains(" date=\"" + vDate.getTime() + "\""));
+	assertEquals(3, vData.getJournal().getTransactions().size());
+	for (Transaction vTrans : vData.getJournal().getTransactions()) {
+	    assertEquals(vDate, vTrans.getDate());
+	}
+    }
+
+    /**
+     * Test of read method, of class XmlDataReader.
+     */
+    @Test(expected=UnPersistenceFailureException.class)
+    public void testRead_Rejects_Later_Format_Revision() throws Exception {
+	System.out.println("read");
+	String vXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<JAccounting revision=\""
+		      + (XmlDataWriter.FORMAT_REVISION + 1) + "\"></JAccounting>\r\n";
+
+	new XmlDataReader().read(new ByteArrayInputStream(vXml.getBytes("UTF-8")));
+    }
+
+    /**
+     * Checks the balances of an Account read against the ones summed from its
+     * entries, each entry adding or taking its amount the way the Account type
+     * tells, the Account having no stored opening balance.
+     *
+     * @return		    the balance
+     */
+    private double assertBalancesRecalculated(Account pAcct) {
+	boolean vDebitsIncrease = pAcct.getType() == Account.Type.ASSET
+				  || pAcct.getType() == Account.Type.EXPENSE;
+	double rBalance = 0.0;
+
+	for (TransactionEntry vEntry : pAcct.getEntries()) {
+	    boolean vIncrease = (vEntry.getType() == TransactionEntry.Type.DEBIT)
+				== vDebitsIncrease;
+	    double vAmount = vEntry.getTransaction().getAmount();
+
+	    rBalance += vIncrease ? vAmount : -vAmount;
+	    assertEquals(rBalance, vEntry.getAccountBalance(), 0.0);
+	}
+	assertEquals(rBalance, pAcct.getBalance(), 0.0);
+
+	return rBalance;
+    }
+
+    /** Gets the Cash Account of the ledger written by writeLedger. */
+    private static Account getCash(Data pData) {
+	return (Account) ((DefaultMutableTreeNode)
+		pData.getGeneralLedger().getAssetsNode().getChildAt(0)).getUserObject();
+    }
+
+    /** Reads a file with a new XmlDataReader. */
+    private static Data read(File pFile) throws Exception {
+	InputStream vStream = new BufferedInputStream(new FileInputStream(pFile));
+
+	try {
+	    return new XmlDataReader().read(vStream);
+	}
+	finally {
+	    vStream.close();
+	}
+    }
+
+    /** Gives the quickest of a few reads of a file, in nanoseconds. */
+    private static long timeRead(File pFile) throws Exception {
+	long rTime = Long.MAX_VALUE;
+
+	for (int vI = 0; vI < TIMED_READS_COUNT; vI++) {
+	    long vStart = System.nanoTime();
+
+	    read(pFile);
+	    rTime = Math.min(rTime, System.nanoTime() - vStart);
+	}
+
+	return rTime;
+    }
+
+    /**
+     * Writes the xml of a ledger with a Cash and a Bank Account and a number of
+     * transactions, each moving money from the Bank to Cash. The balances
+     * written are all zero, as in files that do not store them.
+     */
+    private void writeLedger(File pFile, int pSize) throws IOException {
+	Writer vWriter = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(pFile), "UTF-8"));
+	StringBuilder vXml = new StringBuilder();
+
+	try {
+	    vXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n");
+	    vXml.append("<JAccounting><Data name=\"data\"><GeneralLedger name=\"generalLedger\">");
+	    vXml.append("<TreeNode name=\"root\">All Accounts</TreeNode>");
+	    vXml.append("<AccountTreeNode name=\"assetsNode\">");
+	    appendAccountStart(vXml, 1, "Assets", "ASSET", false);
+	    vXml.append("<List name=\"entries\" /></Account><Enumeration name=\"children\">");
+	    vXml.append("<AccountTreeNode name=\"childElement-0\">");
+	    appendAccountStart(vXml, 2, "Cash", "ASSET", true);
+	    vXml.append("<List name=\"entries\">");
+	    vWriter.write(vXml.toString());
+	    for (int vI = 0; vI < pSize; vI++) {
+		vXml.setLength(0);
+		appendEntry(vXml, vI, 3, 2 * vI + 1, "DEBIT");
+		vWriter.write(vXml.toString());
+	    }
+	    vXml.setLength(0);
+	    vXml.append("</List></Account><Enumeration name=\"children\" /></AccountTreeNode>");
+	    vXml.append("<AccountTreeNode name=\"childElement-1\">");
+	    appendAccountStart(vXml, 3, "Bank", "ASSET", true);
+	    vXml.append("<List name=\"entries\">");
+	    vWriter.write(vXml.toString());
+	    for (int vI = 0; vI < pSize; vI++) {
+		vXml.setLength(0);
+		appendEntry(vXml, vI, 2, 2 * vI + 2, "CREDIT");
+		vWriter.write(vXml.toString());
+	    }
+	    vXml.setLength(0);
+	    vXml.append("</List></Account><Enumeration name=\"children\" /></AccountTreeNode>");
+	    vXml.append("</Enumeration></AccountTreeNode>");
+	    appendTopLevelNode(vXml, "liabilitiesNode", 4, "Liabilities", "LIABILITY");
+	    appendTopLevelNode(vXml, "equityNode", 5, "Equity", "EQUITY");
+	    appendTopLevelNode(vXml, "revenuesNode", 6, "Revenues", "REVENUE");
+	    appendTopLevelNode(vXml, "expensesNode", 7, "Expenses", "EXPENSE");
+	    vXml.append("</GeneralLedger><Journal name=\"journal\"><List name=\"transactions\">");
+	    vWriter.write(vXml.toString());
+	    for (int vI = 0; vI < pSize; vI++) {
+		vXml.setLength(0);
+		appendTransaction(vXml, vI, "R" + vI, 2 * vI + 1, 2 * vI + 2);
+		vWriter.write(vXml.toString());
+	    }
+	    vWriter.write("</List></Journal></Data></JAccounting>\r\n");
+	}
+	finally {
+	    vWriter.close();
+	}
+    }
+
+    private void appendAccountStart(StringBuilder pXml, int pId, String pName,
+				    String pType, boolean pTransactionsEnabled) {
+	pXml.append("<Account id=\"").append(pId).append("\" name=\"userObject\">");
+	pXml.append("<int name=\"number\">-1</int>");
+	pXml.append("<String name=\"name\">").append(pName).append("</String>");
+	pXml.append("<String name=\"description\" />");
+	pXml.append("<double name=\"balance\">0.0</double>");
+	pXml.append("<boolean name=\"transactionsEnabled\">").append(pTransactionsEnabled)
+	    .append("</boolean>");
+	pXml.append("<Enum name=\"type\">").append(pType).append("</Enum>");
+    }
+
+    private void appendTopLevelNode(StringBuilder pXml, String pNodeName, int pId,
+				    String pName, String pType) {
+	pXml.append("<AccountTreeNode name=\"").append(pNodeName).append("\">");
+	appendAccountStart(pXml, pId, pName, pType, false);
+	pXml.append("<List name=\"entries\" /></Account><Enumeration name=\"children\" />");
+	pXml.append("</AccountTreeNode>");
+    }
+
+    private void appendEntry(StringBuilder pXml, int pIndex, int pTransferAccountId,
+			     int pId, String pType) {
+	pXml.append("<TransactionEntry name=\"listEntry-").append(pIndex)
+	    .append("\" id=\"").append(pId).append("\">");
+	pXml.append("<ref-Account name=\"transferAccount\">").append(pTransferAccountId)
+	    .append("</ref-Account>");
+	pXml.append("<double name=\"accountBalance\">0.0</double>");
+	pXml.append("<Enum name=\"type\">").append(pType).append("</Enum>");
+	pXml.append("</TransactionEntry>");
+    }
+
+    private void appendTransaction(StringBuilder pXml, int pIndex, String pRefNo,
+				   int pDebitEntryId, int pCreditEntryId) {
+	pXml.append("<Transaction id=\"").append(pIndex + 1).append("\" name=\"listEntry-")
+	    .append(pIndex).append("\">");
+	pXml.append("<String name=\"refNo\">").append(pRefNo).append("</String>");
+	pXml.append("<String name=\"memo\" />");
+	pXml.append("<double name=\"amount\">").append(pIndex % 100 + 0.25).append("</double>");
+	pXml.append("<Enum name=\"date\">").append(DATE).append("</Enum>");
+	pXml.append("<ref-TransactionEntry name=\"debitEntry\">").append(pDebitEntryId)
+	    .append("</ref-TransactionEntry>");
+	pXml.append("<ref-TransactionEntry name=\"creditEntry\">").append(pCreditEntryId)
+	    .append("</ref-TransactionEntry>");
+	pXml.append("</Transaction>");
+    }
+
+}
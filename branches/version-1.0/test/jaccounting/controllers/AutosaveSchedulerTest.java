@@ -0,0 +1,223 @@
+/*
+ * AutosaveSchedulerTest.java	    1.0.0	    09/2009
+ * This file contains test cases for the AutosaveScheduler class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting.controllers;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.SwingUtilities;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * AutosaveSchedulerTest is the test class for the AutosaveScheduler class. The
+ * scheduler is driven from the event dispatching thread, as in the application,
+ * with short periods; the tests only check lower bounds of the times measured
+ * and wait generously for saves to happen, so a slow machine does not fail
+ * them.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    AutosaveScheduler
+ * @since	    1.0.0
+ */
+public class AutosaveSchedulerTest {
+
+    private static final int QUIET_PERIOD = 50;
+
+    private static final int MIN_INTERVAL = 400;
+
+    /** how long to wait for a save that is due */
+    private static final long TIMEOUT = 5000;
+
+    private AutosaveScheduler scheduler;
+
+    private SaverMock saver;
+
+
+    public AutosaveSchedulerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	saver = new SaverMock();
+	scheduler = new AutosaveScheduler(QUIET_PERIOD, MIN_INTERVAL, saver);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	runOnEdt(new Runnable() {
+	    public void run() {
+		scheduler.cancel();
+	    }
+	});
+    }
+
+
+    /**
+     * Test of dataChanged method, of class AutosaveScheduler.
+     */
+    @Test
+    public void testDataChanged_Coalesces_A_Burst_Into_One_Save() throws Exception {
+	System.out.println("dataChanged");
+
+	for (int i = 0; i < 20; i++) {
+	    changeData();
+	}
+	saver.awaitSaves(1);
+	finishSave();
+	Thread.sleep(5 * QUIET_PERIOD);
+
+	assertEquals(1, saver.getSavesCount());
+    }
+
+    /**
+     * Test of dataChanged method, of class AutosaveScheduler.
+     */
+    @Test
+    public void testDataChanged_Waits_The_Minimum_Interval_Between_Saves() throws Exception {
+	System.out.println("dataChanged");
+
+	changeData();
+	saver.awaitSaves(1);
+	finishSave();
+	changeData();
+	saver.awaitSaves(2);
+	finishSave();
+
+	assertTrue(saver.getSaveTime(1) - saver.getSaveTime(0) >= MIN_INTERVAL);
+    }
+
+    /**
+     * Test of saveFinished method, of class AutosaveScheduler.
+     */
+    @Test
+    public void testSaveFinished_Saves_The_Changes_Made_While_Saving() throws Exception {
+	System.out.println("saveFinished");
+
+	changeData();
+	saver.awaitSaves(1);
+	/** the save is still running */
+	changeData();
+	Thread.sleep(MIN_INTERVAL + 5 * QUIET_PERIOD);
+	assertEquals(1, saver.getSavesCount());
+
+	finishSave();
+	saver.awaitSaves(2);
+	finishSave();
+
+	assertEquals(2, saver.getSavesCount());
+    }
+
+    /**
+     * Test of cancel method, of class AutosaveScheduler.
+     */
+    @Test
+    public void testCancel_Drops_The_Scheduled_Save() throws Exception {
+	System.out.println("cancel");
+
+	runOnEdt(new Runnable() {
+	    public void run() {
+		scheduler.dataChanged();
+		scheduler.cancel();
+	    }
+	});
+	Thread.sleep(5 * QUIET_PERIOD);
+
+	assertEquals(0, saver.getSavesCount());
+    }
+
+
+    private void changeData() throws Exception {
+	runOnEdt(new Runnable() {
+	    public void run() {
+		scheduler.dataChanged();
+	    }
+	});
+    }
+
+    private void finishSave() throws Exception {
+	runOnEdt(new Runnable() {
+	    public void run() {
+		scheduler.saveFinished();
+	    }
+	});
+    }
+
+    private static void runOnEdt(Runnable pRunnable) throws Exception {
+	SwingUtilities.invokeAndWait(pRunnable);
+    }
+
+
+    /**
+     * A saver starting a save each time it is asked, as the MainController
+     * does, and leaving the test to finish it.
+     */
+    private class SaverMock implements ActionListener {
+
+	private List<Long> saveTimes = new ArrayList<Long>();
+
+	public void actionPerformed(ActionEvent e) {
+	    /** taken before the scheduler's own time of the save */
+	    long vTime = System.currentTimeMillis();
+
+	    scheduler.saveStarted();
+	    synchronized (this) {
+		saveTimes.add(vTime);
+		notifyAll();
+	    }
+	}
+
+	synchronized int getSavesCount() {
+	    return saveTimes.size();
+	}
+
+	synchronized long getSaveTime(int pIndex) {
+	    return saveTimes.get(pIndex);
+	}
+
+	synchronized void awaitSaves(int pCount) throws InterruptedException {
+	    long vEnd = System.currentTimeMillis() + TIMEOUT;
+
+	    while (saveTimes.size() < pCount) {
+		long vLeft = vEnd - System.currentTimeMillis();
+
+		if (vLeft <= 0) break;
+		wait(vLeft);
+	    }
+	    assertEquals(pCount, saveTimes.size());
+	}
+    }
+
+}
@@ -301,6 +301,59 @@ public class AccountTest {
 	assertEquals(-2000.50, e2.getAccountBalance(), 0.0);
     }
 
+    /**
+     * Test of getBalanceAsOf and getMovement methods, of class Account.
+     */
+    @Test
+    public void testGetBalanceAsOf_And_GetMovement() throws Exception {
+	System.out.println("getBalanceAsOf");
+	Date d1 = new Date(1000000L), d2 = new Date(2000000L), d3 = new Date(3000000L);
+	TransactionEntry e1 = new TransactionEntry(null,
+		new Transaction(d1, "Sample Ref No", "Sample Memo", 100, null, null),
+		TransactionEntry.Type.DEBIT, 0.0);
+	TransactionEntry e2 = new TransactionEntry(null,
+		new Transaction(d2, "Sample Ref No", "Sample Memo", 30, null, null),
+		TransactionEntry.Type.CREDIT, 0.0);
+	TransactionEntry e3 = new TransactionEntry(null,
+		new Transaction(d3, "Sample Ref No", "Sample Memo", 5, null, null),
+		TransactionEntry.Type.DEBIT, 0.0);
+
+	// added out of order on purpose
+	assetAccountWithNoEntries.addEntry(e3);
+	assetAccountWithNoEntries.addEntry(e1);
+	assetAccountWithNoEntries.addEntry(e2);
+
+	assertEquals(0, assetAccountWithNoEntries.getBalanceAsOf(new Date(999999L)), 0.0);
+	assertEquals(100, assetAccountWithNoEntries.getBalanceAsOf(d1), 0.0);
+	assertEquals(70, assetAccountWithNoEntries.getBalanceAsOf(new Date(2500000L)), 0.0);
+	assertEquals(75, assetAccountWithNoEntries.getBalanceAsOf(d3), 0.0);
+
+	Account.Movement m = assetAccountWithNoEntries.getMovement(d2, d3);
+	assertEquals(100, m.getOpeningBalance(), 0.0);
+	assertEquals(5, m.getDebits(), 0.0);
+	assertEquals(30, m.getCredits(), 0.0);
+	assertEquals(75, m.getClosingBalance(), 0.0);
+    }
+
+    /**
+     * Test of getDebitSign method, of class Account.
+     */
+    @Test
+    public void testGetDebitSign_Agrees_With_ApplyDebit() throws Exception {
+	System.out.println("getDebitSign");
+
+	for (Type vType : Account.Type.values()) {
+	    Account vAcct = Account.createAccount(vType);
+	    double vBalance = vAcct.getBalance();
+	    double vSign = vAcct.getDebitSign();
+
+	    assertEquals(vBalance, vAcct.getBalance(), 0.0);
+	    vAcct.applyDebit(1.0);
+	    assertEquals(vBalance + vSign, vAcct.getBalance(), 0.0);
+	    vAcct.applyCredit(1.0);
+	    assertEquals(vBalance, vAcct.getBalance(), 0.0);
+	}
+    }
 
     private class AccountImpl extends Account {
 
@@ -312,6 +365,10 @@ public class AccountTest {
 	    balance -= pAmount;
 	}
 
+	public double getDebitSign() {
+	    return 1.0;
+	}
+
 	@Override
 	protected void setChangedAndNotifyObservers() {
 	}
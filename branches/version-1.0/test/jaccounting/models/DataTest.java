@@ -0,0 +1,172 @@
+/*
+ * DataTest.java		    1.0.0	    09/2009
+ * This file contains test cases for the Data class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting.models;
+
+import jaccounting.JAccounting;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * DataTest is the test class for the Data class. The tests post Transactions
+ * to the application Data, which the models report their changes to.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    Data
+ * @since	    1.0.0
+ */
+public class DataTest {
+
+    private static final String FILENAME = "DataTest.jact";
+
+    private Data data;
+
+    private Account cash;
+
+    private Account bank;
+
+    private ObserverMock dataObserver;
+
+    private ObserverMock cashObserver;
+
+    private ObserverMock bankObserver;
+
+
+    public DataTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	List<Account> vAccounts;
+
+	JAccounting.getApplication().getModelsMngr().loadNew(FILENAME);
+	data = JAccounting.getApplication().getModelsMngr().getData();
+	vAccounts = new ArrayList<Account>(data.getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	cash = vAccounts.get(0);
+	bank = vAccounts.get(1);
+	dataObserver = new ObserverMock(data);
+	cashObserver = new ObserverMock(cash);
+	bankObserver = new ObserverMock(bank);
+    }
+
+    @After
+    public void tearDown() {
+	data.deleteObservers();
+	cash.deleteObservers();
+	bank.deleteObservers();
+    }
+
+
+    /**
+     * Test of commitPostingSession method, of class Data.
+     */
+    @Test
+    public void testCommitPostingSession_Nested_Sessions_Post_Once() {
+	System.out.println("commitPostingSession");
+	double vCashBalance = cash.getBalance();
+	double vBankBalance = bank.getBalance();
+	Data.PostingChanges vChanges;
+
+	data.openPostingSession();
+	addTransaction(new Date(20L * 24 * 60 * 60 * 1000), 10.0, cash, bank);
+
+	data.openPostingSession();
+	addTransaction(new Date(10L * 24 * 60 * 60 * 1000), 3.0, bank, cash);
+	addTransaction(new Date(30L * 24 * 60 * 60 * 1000), 4.0, cash, bank);
+	data.commitPostingSession();
+
+	/** the inner session took no effect */
+	assertEquals(0, dataObserver.count);
+	assertEquals(0, cashObserver.count);
+	assertEquals(0, bankObserver.count);
+	assertEquals(vCashBalance, cash.getBalance(), 0.0);
+	assertEquals(vBankBalance, bank.getBalance(), 0.0);
+	assertEquals(3, cash.getEntries().size());
+
+	data.commitPostingSession();
+
+	assertEquals(1, dataObserver.count);
+	assertEquals(1, cashObserver.count);
+	assertEquals(1, bankObserver.count);
+	assertEquals(vCashBalance + cash.getDebitSign() * (10.0 - 3.0 + 4.0),
+		     cash.getBalance(), 0.0);
+	assertEquals(vBankBalance - bank.getDebitSign() * (10.0 - 3.0 + 4.0),
+		     bank.getBalance(), 0.0);
+	assertTrue(dataObserver.arg instanceof Data.PostingChanges);
+	vChanges = (Data.PostingChanges) dataObserver.arg;
+	assertEquals(2, vChanges.getAccounts().size());
+	assertTrue(vChanges.getAccounts().contains(cash));
+	assertTrue(vChanges.getAccounts().contains(bank));
+
+	/** changes after the session are notified right away */
+	addTransaction(new Date(40L * 24 * 60 * 60 * 1000), 1.0, cash, bank);
+	assertEquals(vCashBalance + cash.getDebitSign() * (10.0 - 3.0 + 4.0 + 1.0),
+		     cash.getBalance(), 0.0);
+	assertTrue(cashObserver.count > 1);
+	assertTrue(dataObserver.count > 1);
+    }
+
+
+    private void addTransaction(Date pDate, double pAmount, Account pDebitAccount,
+				Account pCreditAccount) {
+	Transaction vTrans = Transaction.createTransaction();
+
+	assertTrue(vTrans.update(pDate, "", "", pAmount, pDebitAccount,
+				 pCreditAccount).isEmpty());
+	data.getJournal().addTransaction(vTrans);
+    }
+
+
+    private class ObserverMock implements Observer {
+
+	private int count;
+
+	private Object arg;
+
+	public ObserverMock(Observable pObservable) {
+	    pObservable.addObserver(this);
+	}
+
+	public void update(Observable pObservable, Object pArg) {
+	    count++;
+	    arg = pArg;
+	}
+    }
+
+}
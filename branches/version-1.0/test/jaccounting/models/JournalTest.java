@@ -20,6 +20,7 @@
 
 package jaccounting.models;
 
+import jaccounting.JAccounting;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -40,6 +41,10 @@ import static org.junit.Assert.*;
  */
 public class JournalTest {
 
+    private static final String FILENAME = "JournalTest.jact";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
     private Journal journal;
 
 
@@ -141,6 +146,223 @@ public class JournalTest {
 	assertEquals(0, journal.getTransactions().size());
     }
 
+    /**
+     * Test of getTransactions method for a date range, of class Journal.
+     */
+    @Test
+    public void testGetTransactions_Of_Date_Range_Keeps_Order_Of_Same_Date() {
+	System.out.println("getTransactions");
+	Transaction t1 = new TransactionMock(new Date(100), "1", "", 0.0, null, null);
+	Transaction t2 = new TransactionMock(new Date(200), "2", "", 0.0, null, null);
+	Transaction t3 = new TransactionMock(new Date(200), "3", "", 0.0, null, null);
+	Transaction t4 = new TransactionMock(new Date(300), "4", "", 0.0, null, null);
+	journal.addTransaction(t4);
+	journal.addTransaction(t2);
+	journal.addTransaction(t1);
+	journal.addTransaction(t3);
+
+	List<Transaction> result = journal.getTransactions(new Date(150), new Date(200));
+
+	assertEquals(2, result.size());
+	assertEquals(t2, result.get(0));
+	assertEquals(t3, result.get(1));
+	assertEquals(4, journal.getTransactions(new Date(100), new Date(300)).size());
+	assertEquals(0, journal.getTransactions(new Date(301), new Date(400)).size());
+    }
+
+    /**
+     * Test of removeTransactions method, of class Journal.
+     */
+    @Test
+    public void testRemoveTransactions_Removes_A_Mixed_Set() {
+	System.out.println("removeTransactions");
+	Data vData = loadNewData();
+	List<Account> vAccounts = new ArrayList<Account>(vData.getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	Account[] vPair = new Account[3];
+	List<Transaction> vAll = new ArrayList<Transaction>();
+	List<Transaction> vRemoved = new ArrayList<Transaction>();
+	List<Transaction> vExpected;
+
+	for (int i = 0; i < vPair.length; i++) {
+	    vPair[i] = vAccounts.get(i);
+	}
+	for (int i = 0; i < 40; i++) {
+	    vAll.add(postTransaction(vData, new Date((i * 7 % 10) * DAY), i + 1,
+				     vPair[i % 3], vPair[(i + 1) % 3]));
+	}
+	vExpected = new ArrayList<Transaction>(vData.getJournal().getTransactions());
+	for (int i = 0; i < vAll.size(); i++) {
+	    if (i % 3 == 0 || i % 5 == 0) vRemoved.add(vAll.get(i));
+	}
+	/** the same Transactions more than once */
+	vRemoved.add(vAll.get(0));
+	vRemoved.add(vAll.get(5));
+	vRemoved.add(vAll.get(5));
+	vExpected.removeAll(vRemoved);
+
+	vData.getJournal().removeTransactions(vRemoved);
+
+	assertJournalMatches(vData, vExpected);
+	for (Account vAcct : vPair) {
+	    assertAccountMatches(vAcct, vExpected);
+	}
+    }
+
+    /**
+     * Test of removeTransactions method through the removal of an Account
+     * subtree, of class Journal.
+     */
+    @Test
+    public void testRemoveTransactions_Of_A_Removed_Account_Subtree() {
+	System.out.println("removeTransactions");
+	Data vData = loadNewData();
+	GeneralLedger vLedger = vData.getGeneralLedger();
+	List<Account> vAccounts = new ArrayList<Account>(vLedger
+		.getTransactionnableAccountsByFullName().values());
+	Account vCash = vAccounts.get(0);
+	Account vBank = vAccounts.get(1);
+	Account vProjects = new AssetAccount(-1, "Projects", "", 0.0, true);
+	Account vProjectA = new AssetAccount(-1, "Project A", "", 0.0, true);
+	Account vProjectB = new AssetAccount(-1, "Project B", "", 0.0, true);
+	List<Transaction> vExpected = new ArrayList<Transaction>();
+
+	assertTrue(vLedger.insertChildAccount(vLedger.getRowOfAccount(
+		(Account) vLedger.getAssetsNode().getUserObject()), vProjects));
+	assertTrue(vLedger.insertChildAccount(vLedger.getRowOfAccount(vProjects), vProjectA));
+	assertTrue(vLedger.insertChildAccount(vLedger.getRowOfAccount(vProjects), vProjectB));
+	for (int i = 0; i < 12; i++) {
+	    Date vDate = new Date((i % 4) * DAY);
+
+	    postTransaction(vData, vDate, i + 1, vCash, vProjects);
+	    postTransaction(vData, vDate, i + 2, vProjectA, vBank);
+	    postTransaction(vData, vDate, i + 3, vProjectB, vProjectA);
+	    postTransaction(vData, vDate, i + 4, vCash, vBank);
+	}
+	/** the Transactions kept, in Journal order */
+	for (Transaction vTrans : vData.getJournal().getTransactions()) {
+	    if (vTrans.getDebitAccount() == vCash && vTrans.getCreditAccount() == vBank) {
+		vExpected.add(vTrans);
+	    }
+	}
+
+	assertTrue(vLedger.removeAccount(vLedger.getRowOfAccount(vProjects)));
+
+	assertEquals(-1, vLedger.getRowOfAccount(vProjectA));
+	assertJournalMatches(vData, vExpected);
+	assertAccountMatches(vCash, vExpected);
+	assertAccountMatches(vBank, vExpected);
+    }
+
+    /**
+     * Test of addTransactions method, of class Journal.
+     */
+    @Test
+    public void testAddTransactions_Puts_Imported_After_Existing_Of_Same_Date() throws Exception {
+	System.out.println("addTransactions");
+	Data vData = loadNewData();
+	List<Account> vAccounts = new ArrayList<Account>(vData.getGeneralLedger()
+		.getTransactionnableAccountsByFullName().values());
+	Account[] vPair = new Account[3];
+	List<Transaction> vImported = new ArrayList<Transaction>();
+	List<Transaction> vExpected;
+
+	for (int i = 0; i < vPair.length; i++) {
+	    vPair[i] = vAccounts.get(i);
+	}
+	for (int i = 0; i < 20; i++) {
+	    postTransaction(vData, new Date((i * 3 % 5) * DAY), i + 1,
+			    vPair[i % 3], vPair[(i + 1) % 3]);
+	}
+	vExpected = new ArrayList<Transaction>(vData.getJournal().getTransactions());
+	/** not posted, not in date order, sharing the dates of the existing ones */
+	for (int i = 0; i < 25; i++) {
+	    Account vDebitAccount = vPair[(i + 1) % 3];
+	    Account vCreditAccount = vPair[i % 3];
+
+	    vImported.add(Transaction.createTransaction(new Date((i * 2 % 7 - 1) * DAY), "", "",
+		    100 + i,
+		    new TransactionEntry(vCreditAccount, null, TransactionEntry.Type.DEBIT, 0.0),
+		    new TransactionEntry(vDebitAccount, null, TransactionEntry.Type.CREDIT, 0.0)));
+	}
+	/** the order posting them one by one gives */
+	for (int vDay = -1; vDay < 6; vDay++) {
+	    for (Transaction vTrans : vImported) {
+		if (vTrans.getDate().getTime() != vDay * DAY) continue;
+		int vIndex = vExpected.size();
+
+		while (vIndex > 0 && vExpected.get(vIndex - 1).getDate().after(vTrans.getDate())) {
+		    vIndex--;
+		}
+		vExpected.add(vIndex, vTrans);
+	    }
+	}
+
+	assertTrue(vData.getJournal().addTransactions(vImported));
+
+	assertJournalMatches(vData, vExpected);
+	for (Account vAcct : vPair) {
+	    assertAccountMatches(vAcct, vExpected);
+	}
+    }
+
+    private Data loadNewData() {
+	JAccounting.getApplication().getModelsMngr().loadNew(FILENAME);
+
+	return JAccounting.getApplication().getModelsMngr().getData();
+    }
+
+    private Transaction postTransaction(Data pData, Date pDate, double pAmount,
+					Account pDebitAccount, Account pCreditAccount) {
+	Transaction rTrans = Transaction.createTransaction();
+
+	assertTrue(rTrans.update(pDate, "", "", pAmount, pDebitAccount,
+				 pCreditAccount).isEmpty());
+	pData.getJournal().addTransaction(rTrans);
+
+	return rTrans;
+    }
+
+    /**
+     * Checks the Journal holds the expected Transactions, in order by date.
+     */
+    private void assertJournalMatches(Data pData, List<Transaction> pExpected) {
+	List<Transaction> vTransactions = pData.getJournal().getTransactions();
+
+	assertEquals(pExpected, vTransactions);
+	for (int i = 1; i < vTransactions.size(); i++) {
+	    assertFalse(vTransactions.get(i - 1).getDate().after(vTransactions.get(i).getDate()));
+	}
+    }
+
+    /**
+     * Checks an Account holds the entries of the expected Transactions it is
+     * posted to, in Journal order, and their running balances.
+     */
+    private void assertAccountMatches(Account pAcct, List<Transaction> pExpected) {
+	List<TransactionEntry> vEntries = pAcct.getEntries();
+	double vBalance = pAcct.getOpeningBalance();
+	int vIndex = 0;
+
+	for (Transaction vTrans : pExpected) {
+	    TransactionEntry vEntry;
+
+	    if (vTrans.getDebitAccount() == pAcct) {
+		vEntry = vTrans.getDebitEntry();
+		vBalance += pAcct.getDebitSign() * vTrans.getAmount();
+	    }
+	    else if (vTrans.getCreditAccount() == pAcct) {
+		vEntry = vTrans.getCreditEntry();
+		vBalance -= pAcct.getDebitSign() * vTrans.getAmount();
+	    }
+	    else continue;
+	    assertTrue(vIndex < vEntries.size());
+	    assertSame(vEntry, vEntries.get(vIndex++));
+	    assertEquals(vBalance, vEntry.getAccountBalance(), 0.0);
+	}
+	assertEquals(vIndex, vEntries.size());
+	assertEquals(vBalance, pAcct.getBalance(), 0.0);
+    }
 
     private class JournalMock extends Journal {
 
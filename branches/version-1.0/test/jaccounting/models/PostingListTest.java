@@ -0,0 +1,290 @@
+/*
+ * PostingListTest.java		    1.0.0	    09/2009
+ * This file contains test cases for the PostingList class of the JAccounting application.
+ *
+ * JAccounting - Basic Double Entry Accounting Software.
+ * Copyright (c) 2009 Boubacar Diallo.
+ *
+ * This software is free: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see http://www.gnu.org/licenses.
+ */
+
+package jaccounting.models;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * PostingListTest is the test class for the PostingList class. Each test
+ * changes the entries of an Account, through the Account or its PostingList,
+ * and the same way a plain list of the entries, then checks the PostingList
+ * against that list, the running balances being re-calculated from scratch.
+ *
+ * @author	    Boubacar Diallo
+ * @version	    1.0.0
+ * @see		    PostingList
+ * @since	    1.0.0
+ */
+public class PostingListTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static final int CHUNK = PostingList.CHUNK_CAPACITY;
+
+    private Account account;
+
+    private List<TransactionEntry> expected;
+
+    private Random random;
+
+
+    public PostingListTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @Before
+    public void setUp() {
+	account = new AssetAccountMock(100.0);
+	expected = new ArrayList<TransactionEntry>();
+	random = new Random(20091001L);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+
+    /**
+     * Test of add and remove methods, of class PostingList.
+     */
+    @Test
+    public void testAddEntry_RemoveEntry_Keep_Running_Balances() throws Exception {
+	System.out.println("add/remove");
+
+	for (int i = 0; i < 3 * CHUNK; i++) {
+	    addEntry(createEntry(random.nextInt(60)));
+	}
+	assertMatches();
+
+	for (int vStep = 0; vStep < 600; vStep++) {
+	    if (random.nextInt(10) < 6) {
+		/** mostly backdated, so inserted inside the chunks */
+		addEntry(createEntry(random.nextInt(60)));
+	    }
+	    else {
+		removeEntry(expected.get(random.nextInt(expected.size())));
+	    }
+	    assertMatches();
+	}
+    }
+
+    /**
+     * Test of add and remove methods, of class PostingList.
+     */
+    @Test
+    public void testAdd_Remove_At_Index_Keep_Running_Balances() {
+	System.out.println("add/remove");
+	List<TransactionEntry> vPostings = getPostings();
+
+	for (int vStep = 0; vStep < 1000; vStep++) {
+	    if (expected.isEmpty() || random.nextInt(10) < 6) {
+		int vIndex = random.nextInt(expected.size() + 1);
+		TransactionEntry vEntry = createEntry(vStep);
+
+		vPostings.add(vIndex, vEntry);
+		expected.add(vIndex, vEntry);
+	    }
+	    else {
+		int vIndex = random.nextInt(expected.size());
+
+		assertSame(expected.remove(vIndex), vPostings.remove(vIndex));
+	    }
+	    assertEntriesMatch();
+	}
+    }
+
+    /**
+     * Test of removeAll method, of class PostingList.
+     */
+    @Test
+    public void testRemoveEntries_Empties_A_Chunk() throws Exception {
+	System.out.println("removeAll");
+	List<TransactionEntry> vRemoved = new ArrayList<TransactionEntry>();
+
+	for (int i = 0; i < 4 * CHUNK; i++) {
+	    addEntry(createEntry(i));
+	}
+	/** a whole chunk and a few entries on each side of it */
+	for (int i = CHUNK - 3; i < 2 * CHUNK + 3; i++) {
+	    vRemoved.add(expected.get(i));
+	}
+	removeEntries(vRemoved);
+	assertMatches();
+
+	/** a chunk emptied one entry at a time */
+	for (int i = 0; i < CHUNK; i++) {
+	    removeEntry(expected.get(expected.size() - 1));
+	}
+	assertMatches();
+
+	/** new entries dated before the rest */
+	for (int i = 0; i < CHUNK + 1; i++) {
+	    addEntry(createEntry(-1 - random.nextInt(5)));
+	}
+	assertMatches();
+    }
+
+    /**
+     * Test of removeAll method, of class PostingList.
+     */
+    @Test
+    public void testRemoveEntries_Removes_Few_Entries() throws Exception {
+	System.out.println("removeAll");
+	List<TransactionEntry> vRemoved = new ArrayList<TransactionEntry>();
+
+	for (int i = 0; i < 3 * CHUNK; i++) {
+	    addEntry(createEntry(i));
+	}
+	vRemoved.add(expected.get(0));
+	vRemoved.add(expected.get(CHUNK));
+	removeEntries(vRemoved);
+	assertMatches();
+
+	for (int vStep = 0; vStep < 20; vStep++) {
+	    vRemoved.clear();
+	    for (int i = 0; i < 1 + random.nextInt(CHUNK); i++) {
+		vRemoved.add(expected.get(random.nextInt(expected.size())));
+	    }
+	    removeEntries(vRemoved);
+	    addEntry(createEntry(random.nextInt(3 * CHUNK)));
+	    assertMatches();
+	}
+    }
+
+
+    /**
+     * Adds an entry to the Account and to the expected list, after the
+     * entries of the same date or earlier.
+     */
+    private void addEntry(TransactionEntry pEntry) throws Exception {
+	Date vDate = pEntry.getTransaction().getDate();
+	int vIndex = expected.size();
+
+	while (vIndex > 0 && expected.get(vIndex - 1).getTransaction().getDate().after(vDate)) {
+	    vIndex--;
+	}
+	expected.add(vIndex, pEntry);
+	account.addEntry(pEntry);
+    }
+
+    private void removeEntry(TransactionEntry pEntry) throws Exception {
+	expected.remove(pEntry);
+	account.removeEntry(pEntry);
+    }
+
+    private void removeEntries(List<TransactionEntry> pEntries) throws Exception {
+	Map<TransactionEntry, Boolean> vSet = new IdentityHashMap<TransactionEntry, Boolean>();
+
+	for (TransactionEntry vEntry : pEntries) {
+	    vSet.put(vEntry, Boolean.TRUE);
+	}
+	expected.removeAll(vSet.keySet());
+	account.removeEntries(vSet.keySet());
+    }
+
+    /**
+     * Checks the entries and running balances of the Account, and its balance.
+     */
+    private void assertMatches() {
+	double vBalance = assertEntriesMatch();
+
+	assertEquals(vBalance, account.getBalance(), 0.0);
+    }
+
+    /**
+     * Checks the entries of the PostingList and their running balances.
+     *
+     * @return		    the balance after the last entry
+     */
+    private double assertEntriesMatch() {
+	List<TransactionEntry> vPostings = getPostings();
+	double rBalance = account.getOpeningBalance();
+
+	assertEquals(expected.size(), vPostings.size());
+	for (int i = 0; i < expected.size(); i++) {
+	    TransactionEntry vEntry = expected.get(i);
+
+	    rBalance += (vEntry.getType() == TransactionEntry.Type.DEBIT)
+			? vEntry.getTransaction().getAmount()
+			: -vEntry.getTransaction().getAmount();
+	    assertSame(vEntry, vPostings.get(i));
+	    assertEquals(rBalance, vEntry.getAccountBalance(), 0.0);
+	}
+
+	return rBalance;
+    }
+
+    private List<TransactionEntry> getPostings() {
+	List<TransactionEntry> rPostings = account.getEntries();
+
+	if (!(rPostings instanceof PostingList)) {
+	    account.recalculateBalance();
+	    rPostings = account.getEntries();
+	}
+	assertTrue(rPostings instanceof PostingList);
+
+	return rPostings;
+    }
+
+    /**
+     * Creates the Debit or Credit entry of a Transaction of a whole amount, so
+     * that the sums are exact.
+     */
+    private TransactionEntry createEntry(long pDay) {
+	Transaction vTrans = new Transaction(new Date(pDay * DAY), "", "",
+					     1 + random.nextInt(100));
+
+	return new TransactionEntry(null, vTrans, random.nextBoolean()
+						  ? TransactionEntry.Type.DEBIT
+						  : TransactionEntry.Type.CREDIT, 0.0);
+    }
+
+
+    private class AssetAccountMock extends AssetAccount {
+
+	public AssetAccountMock(double pBalance) {
+	    super(-1, "Sample Asset", "", pBalance, true);
+	}
+
+	@Override
+	protected void setChangedAndNotifyObservers() {
+	}
+    }
+
+}
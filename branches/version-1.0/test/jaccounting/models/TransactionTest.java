@@ -171,6 +171,26 @@ public class TransactionTest {
 	assertEquals(transaction.getAmount(), amount, 0.0);
     }
 
+    /**
+     * Test of update method, of class Transaction.
+     */
+    @Test
+    public void testUpdate_Changes_The_Date_Without_Loaded_Data() {
+	System.out.println("update");
+	Date date = new Date(transaction.getDate().getTime() + 24L * 60 * 60 * 1000);
+	Account creditAccount = new AssetAccount(-1, "Sample Asset", "", 0.0,
+						    true);
+	Account debitAccount = new ExpenseAccount(-1, "Sample Expense", "", 0.0,
+						    true);
+
+	Map result = transaction.update(date, transaction.getRefNo(),
+					transaction.getMemo(), 10.0, debitAccount,
+					creditAccount);
+
+	assertTrue(result.isEmpty());
+	assertEquals(date, transaction.getDate());
+    }
+
 
     private class TransactionMock extends Transaction {
 